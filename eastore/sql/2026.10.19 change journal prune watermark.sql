@@ -0,0 +1,4 @@
+/**
+ * Per store change journal prune watermark, see schema.sql
+ */
+alter table EAS_STORE add CHANGE_PRUNE_ID NUMBER(15,0) DEFAULT 0 NOT NULL;
@@ -0,0 +1,27 @@
+/**
+ * Change journal, see schema.sql
+ */
+create table EAS_CHANGE ( 
+	CHANGE_ID NUMBER(15,0) NOT NULL,
+	STORE_ID NUMBER(15,0) NOT NULL,
+	NODE_ID NUMBER(15,0) NOT NULL,
+	PARENT_NODE_ID NUMBER(15,0) NOT NULL,
+	CHANGE_TYPE VARCHAR2(25) NOT NULL,
+	PATH_TYPE VARCHAR2(50) NOT NULL,
+	PATH_NAME VARCHAR2(250) NOT NULL,
+	RELATIVE_PATH VARCHAR2(4000) NOT NULL,
+	CHANGE_DATE date NOT NULL,
+	PRIMARY KEY (CHANGE_ID)
+);
+
+create index EAS_CHANGE_STORE_IDX on EAS_CHANGE (STORE_ID, CHANGE_ID);
+create index EAS_CHANGE_DATE_IDX on EAS_CHANGE (CHANGE_DATE);
+
+CREATE SEQUENCE EAS_CHANGE_ID_SEQUENCE  
+MINVALUE 1 
+MAXVALUE 999999999999999999999999999  
+INCREMENT BY 1 
+START WITH 100 
+CACHE 10  
+ORDER  
+NOCYCLE;
\ No newline at end of file
@@ -3,6 +3,7 @@ drop sequence EAS_LINK_ID_SEQUENCE;
 drop sequence EAS_PRUNE_ID_SEQUENCE;
 drop sequence EAS_STORE_ID_SEQUENCE;
 drop sequence EAS_DOWNLOAD_ID_SEQUENCE;
+drop sequence EAS_CHANGE_ID_SEQUENCE;
 
 drop table EAS_BINARY_RESOURCE;
 drop table EAS_FILE_META_RESOURCE;
@@ -13,6 +14,7 @@ drop table EAS_NODE;
 drop table EAS_CLOSURE;
 drop table EAS_PRUNE;
 drop table EAS_DOWNLOAD;
+drop table EAS_CHANGE;
 
 /**
  * Master list of all nodes for all trees.
@@ -111,6 +113,7 @@ create table EAS_BINARY_RESOURCE (
  * Master list of stores.
  * 
  * NODE_ID - A root node of a tree in EAS_NODE. Should be a directory node.
+ * CHANGE_PRUNE_ID - id of the latest change pruned from the store's change journal (EAS_CHANGE.)
  */
 create table EAS_STORE ( 
 	STORE_ID NUMBER(15,0) NOT NULL,
@@ -120,6 +123,7 @@ create table EAS_STORE (
 	NODE_ID NUMBER(15,0) NOT NULL,
 	MAX_FILE_SIZE_IN_DB NUMBER(15,0) DEFAULT 26214400 NOT NULL,
 	ACCESS_RULE VARCHAR2(25) DEFAULT 'DENY' NOT NULL,
+	CHANGE_PRUNE_ID NUMBER(15,0) DEFAULT 0 NOT NULL,
 	CREATION_DATE date NOT NULL, 
 	UPDATED_DATE date NOT NULL,	
 	PRIMARY KEY (STORE_ID) 
@@ -136,6 +140,27 @@ create table EAS_DOWNLOAD (
 	PRIMARY KEY (DOWN_ID)
 );
 
+/**
+ * Change journal. One entry for every add, update, move, rename, and delete of a path resource.
+ * Clients use the change id as a cursor to fetch only the changes they have not seen yet.
+ * Node, parent, name and path are the values after the change.
+ */
+create table EAS_CHANGE ( 
+	CHANGE_ID NUMBER(15,0) NOT NULL,
+	STORE_ID NUMBER(15,0) NOT NULL,
+	NODE_ID NUMBER(15,0) NOT NULL,
+	PARENT_NODE_ID NUMBER(15,0) NOT NULL,
+	CHANGE_TYPE VARCHAR2(25) NOT NULL,
+	PATH_TYPE VARCHAR2(50) NOT NULL,
+	PATH_NAME VARCHAR2(250) NOT NULL,
+	RELATIVE_PATH VARCHAR2(4000) NOT NULL,
+	CHANGE_DATE date NOT NULL,
+	PRIMARY KEY (CHANGE_ID)
+);
+
+create index EAS_CHANGE_STORE_IDX on EAS_CHANGE (STORE_ID, CHANGE_ID);
+create index EAS_CHANGE_DATE_IDX on EAS_CHANGE (CHANGE_DATE);
+
 CREATE SEQUENCE EAS_NODE_ID_SEQUENCE  
 MINVALUE 1 
 MAXVALUE 999999999999999999999999999  
@@ -179,4 +204,13 @@ INCREMENT BY 1
 START WITH 100 
 CACHE 10  
 ORDER  
+NOCYCLE;
+
+CREATE SEQUENCE EAS_CHANGE_ID_SEQUENCE  
+MINVALUE 1 
+MAXVALUE 999999999999999999999999999  
+INCREMENT BY 1 
+START WITH 100 
+CACHE 10  
+ORDER  
 NOCYCLE;
\ No newline at end of file
@@ -3,6 +3,8 @@ package org.eamrf.concurrent.task;
 import java.util.Date;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eamrf.core.util.CodeTimer;
 import org.eamrf.core.util.DateUtil;
@@ -25,10 +27,28 @@ public abstract class AbstractQueuedTask<T> implements QueuedTask<T> /*, Compara
 	private Date runStartTime = null;
 	private Date runEndTime = null;
 	private String name = null;
+	private TaskPriority priority = TaskPriority.NORMAL;
+	
+	private Object coalescingKey = null;
 	private CodeTimer timer = null;
 	
+	// the task currently running on each thread, so child tasks can be queued with the parent's priority
+	private static final ThreadLocal<QueuedTask<?>> currentTask = new ThreadLocal<QueuedTask<?>>();
+	
 	private CompletableFuture<T> completableFuture = new CompletableFuture<T>();
 	
+	// set when the task is cancelled, checked by the task between sub-jobs
+	private volatile boolean cancelled = false;
+	
+	// the task that was running when this task was queued, if any
+	private volatile AbstractQueuedTask<?> parentTask = null;
+	
+	// this task plus all its unfinished child tasks. The task tree is complete when this drops to zero.
+	private final AtomicInteger openTreeCount = new AtomicInteger(1);
+	private final CompletableFuture<Void> treeCompletableFuture = new CompletableFuture<Void>();
+	
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	
 	public AbstractQueuedTask() {
 		
 	}
@@ -68,9 +88,150 @@ public abstract class AbstractQueuedTask<T> implements QueuedTask<T> /*, Compara
 	private boolean hasName(){
 		return !StringUtil.isNullEmpty(this.name);
 	}
+	
+	/**
+	 * @return the priority class of the task, defaults to NORMAL
+	 */
+	public TaskPriority getPriority() {
+		return priority;
+	}
 
 	/**
-	 * Compares tasks on the date and time they were queued for execution in the task manager. 
+	 * @param priority the priority class of the task
+	 */
+	public void setPriority(TaskPriority priority) {
+		this.priority = priority != null ? priority : TaskPriority.NORMAL;
+	}
+	
+	/**
+	 * @return the key used to coalesce duplicate tasks, or null if the task is never coalesced
+	 */
+	@Override
+	public Object getCoalescingKey() {
+		return coalescingKey;
+	}
+
+	/**
+	 * @param coalescingKey the key used to coalesce duplicate tasks. Must implement equals() and hashCode().
+	 */
+	@Override
+	public void setCoalescingKey(Object coalescingKey) {
+		this.coalescingKey = coalescingKey;
+	}
+	
+	/**
+	 * Does nothing by default, the queued task runs as is. Override if the duplicate carries state the run needs.
+	 */
+	@Override
+	public void coalesce(QueuedTask<?> duplicate) {
+		
+	}
+	
+	/**
+	 * Request that the task stop. Tasks stop cooperatively, a queued task will not start, and a running
+	 * task stops the next time it checks for cancellation (see checkCancelled().) Child tasks of a cancelled
+	 * task are also cancelled, unless they override inheritsCancellation().
+	 */
+	@Override
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * @return true if this task, or the parent task it was queued by, has been cancelled
+	 */
+	@Override
+	public boolean isCancelled() {
+		if(cancelled) {
+			return true;
+		}
+		AbstractQueuedTask<?> parent = parentTask;
+		return parent != null && inheritsCancellation() && parent.isCancelled();
+	}
+	
+	/**
+	 * Whether the task is cancelled when its parent task is cancelled. Override to return false for follow-up
+	 * work which must still run once started, e.g. keeping the database and search index in sync.
+	 * 
+	 * @return
+	 */
+	protected boolean inheritsCancellation() {
+		return true;
+	}
+	
+	/**
+	 * Call between sub-jobs to stop the task if it has been cancelled.
+	 * 
+	 * @throws TaskCancelledException - if the task has been cancelled
+	 */
+	protected void checkCancelled() throws TaskCancelledException {
+		if(isCancelled()) {
+			throw new TaskCancelledException("Task was cancelled [id = " + getTaskId() + ((hasName() ? ", name = " + getName() : "")) + "]");
+		}
+	}
+	
+	/**
+	 * Cleanup hook, called on the task's thread when the task stops because it was cancelled. Override to
+	 * release resources or remove partial output.
+	 */
+	protected void onCancelled() {
+		
+	}
+	
+	/**
+	 * A future which completes when this task, and all the child tasks queued while it was running
+	 * (at any depth), have finished.
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<Void> getTreeCompletableFuture() {
+		return treeCompletableFuture;
+	}
+	
+	/**
+	 * Set by the task manager when this task is queued while another task is running on the same thread.
+	 * 
+	 * @param parent
+	 */
+	void setParentTask(AbstractQueuedTask<?> parent) {
+		if(parentTask == null && parent != null && parent != this) {
+			parent.openTreeCount.incrementAndGet();
+			parentTask = parent;
+		}
+	}
+	
+	/**
+	 * @return the task that was running when this task was queued, or null
+	 */
+	public AbstractQueuedTask<?> getParentTask() {
+		return parentTask;
+	}
+	
+	/**
+	 * Called when this task, or one of its child tasks, finishes.
+	 */
+	private void treeNodeFinished() {
+		if(openTreeCount.decrementAndGet() == 0) {
+			treeCompletableFuture.complete(null);
+			AbstractQueuedTask<?> parent = parentTask;
+			if(parent != null) {
+				parent.treeNodeFinished();
+			}
+		}
+	}
+	
+	/**
+	 * Get the task that is currently running on the calling thread.
+	 * 
+	 * @return the running task, or null if the calling thread is not running a task
+	 */
+	public static QueuedTask<?> getCurrentTask() {
+		return currentTask.get();
+	}
+
+	/**
+	 * Compares tasks on their priority class, then on the date and time they were queued for execution
+	 * in the task manager. 
 	 */
 	@Override
 	public int compareTo(QueuedTask<T> otherTask) {
@@ -80,6 +241,11 @@ public abstract class AbstractQueuedTask<T> implements QueuedTask<T> /*, Compara
 			// run this task first
 			return -1;
 			
+		}else if(getPriority() != otherTask.getPriority()){
+			
+			// run the more urgent task first
+			return getPriority().compareTo(otherTask.getPriority());
+			
 		}else{
 			
 			if(queuedTime == null && otherTask.getQueuedTime() == null){
@@ -206,16 +372,27 @@ public abstract class AbstractQueuedTask<T> implements QueuedTask<T> /*, Compara
 	@Override
 	public void run() {
 		
+		if(!started.compareAndSet(false, true)) {
+			getLogger().warn("Task has already been run, [id => " + getTaskId() + ", name => " + getName() + "]");
+			return;
+		}
+		
 		runStartTime = DateUtil.getCurrentTime();
 		timer = new CodeTimer();	
 		timer.start();
 		
+		final QueuedTask<?> previousTask = currentTask.get();
+		currentTask.set(this);
+		
 		getLogger().debug("Task is running, [id => " + getTaskId() + ", name => " + getClass().getName() + 
 				", queued at => " + DateUtil.defaultFormat(this.getQueuedTime()) + "]");
 		
 		T value = null;
 		try {
 			
+			// cancelled while still in the queue
+			checkCancelled();
+			
 			value = doWork();
 			
 			timer.stop();
@@ -224,19 +401,53 @@ public abstract class AbstractQueuedTask<T> implements QueuedTask<T> /*, Compara
 			
 			timer.stop();
 			
+			ServiceException failure = e;
+			if(isCancelled()) {
+				// a sub-job may have failed because it was cancelled, report the cancellation
+				if(!(e instanceof TaskCancelledException)) {
+					failure = new TaskCancelledException("Task was cancelled [id = " + getTaskId() + 
+							((hasName() ? ", name = " + getName() : "")) + "], " + e.getMessage(), e);
+				}
+				runCancelHook();
+			}
+			
 			// pass exception to CompletableFuture.get()
+			getCompletableFuture().completeExceptionally(failure);
+			
+		} catch (RuntimeException e) {
+			
+			timer.stop();
 			getCompletableFuture().completeExceptionally(e);
+			throw e;
+			
+		} finally {
+			
+			if(previousTask != null) {
+				currentTask.set(previousTask);
+			}else {
+				currentTask.remove();
+			}
+			
+			runEndTime = DateUtil.getCurrentTime();
+			
+			getLogger().debug("Task completed run in " + timer.getElapsedTime() + ", id => " + getTaskId() + ", name => " + this.getName() + 
+					", queued at => " + DateUtil.defaultFormat(this.getQueuedTime()) + "]");
+			
+			// at this point, any potential client thread that's blocking on CompletableFuture.get() will wake up and receive the value
+			getCompletableFuture().complete(value);
+			
+			treeNodeFinished();
 			
 		}
 		
-		runEndTime = DateUtil.getCurrentTime();
-		
-		getLogger().debug("Task completed run in " + timer.getElapsedTime() + ", id => " + getTaskId() + ", name => " + this.getName() + 
-				", queued at => " + DateUtil.defaultFormat(this.getQueuedTime()) + "]");
-		
-		// at this point, any potential client thread that's blocking on CompletableFuture.get() will wake up and receive the value
-		getCompletableFuture().complete(value);
-		
+	}
+	
+	private void runCancelHook() {
+		try {
+			onCancelled();
+		} catch (RuntimeException e) {
+			getLogger().error("Error in cancel cleanup for task [id => " + getTaskId() + ", name => " + getName() + "], " + e.getMessage(), e);
+		}
 	}
 
 	public abstract T doWork() throws ServiceException;
@@ -0,0 +1,219 @@
+package org.eamrf.concurrent.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs long running tasks (e.g. tasks which walk a whole directory tree) on a fixed size pool of threads.
+ * 
+ * At most 'maxConcurrent' tasks run at once, and up to 'queueCapacity' more wait for a thread. Each user may
+ * have at most 'maxPerUser' tasks running or waiting. Tasks over any of these limits are rejected with a
+ * TaskRejectedException, rather than piling up threads.
+ * 
+ * @author slenzi
+ */
+public class BoundedTaskExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(BoundedTaskExecutor.class);
+	
+	private final String name;
+	private final int maxConcurrent;
+	private final int maxPerUser;
+	private final int queueCapacity;
+	
+	private final ThreadPoolExecutor executor;
+	
+	// running and waiting task count for each user
+	private final ConcurrentHashMap<String,AtomicInteger> userTaskCounts = new ConcurrentHashMap<String,AtomicInteger>();
+	
+	// all running and waiting tasks, so they can be cancelled on shutdown
+	private final Set<QueuedTask<?>> activeTasks = ConcurrentHashMap.newKeySet();
+	
+	private final LongAdder rejectedCount = new LongAdder();
+	
+	/**
+	 * Wraps a task so the user's count is released when it finishes
+	 */
+	private class TrackedTask implements Runnable {
+		
+		private final QueuedTask<?> task;
+		private final String userId;
+		
+		public TrackedTask(QueuedTask<?> task, String userId) {
+			this.task = task;
+			this.userId = userId;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				release(task, userId);
+			}
+		}
+		
+	}
+	
+	/**
+	 * 
+	 * @param name - name of the executor, used for thread names and log messages
+	 * @param maxConcurrent - max number of tasks running at once
+	 * @param maxPerUser - max number of tasks (running and waiting) per user
+	 * @param queueCapacity - max number of tasks waiting for a thread
+	 */
+	public BoundedTaskExecutor(String name, int maxConcurrent, int maxPerUser, int queueCapacity) {
+		
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+		this.maxPerUser = maxPerUser;
+		this.queueCapacity = queueCapacity;
+		
+		final AtomicInteger threadNumber = new AtomicInteger(1);
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+			thread.setDaemon(false);
+			return thread;
+		};
+		
+		executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		
+	}
+	
+	/**
+	 * Submit a task. It runs right away if a thread is free, otherwise it waits in the queue.
+	 * 
+	 * @param task
+	 * @param userId - id of the user the task runs for
+	 * @throws TaskRejectedException - if the user already has the maximum number of tasks, the queue is full,
+	 * or the executor has been shut down
+	 */
+	public void execute(QueuedTask<?> task, String userId) throws TaskRejectedException {
+		
+		final String userKey = userId != null ? userId : "";
+		
+		// check and take a slot for the user in one step
+		final boolean[] userAtLimit = new boolean[1];
+		userTaskCounts.compute(userKey, (key, count) -> {
+			AtomicInteger userCount = count != null ? count : new AtomicInteger(0);
+			if(userCount.get() >= maxPerUser) {
+				userAtLimit[0] = true;
+			}else {
+				userCount.incrementAndGet();
+			}
+			return userCount;
+		});
+		
+		if(userAtLimit[0]) {
+			rejectedCount.increment();
+			logger.warn("Rejected task '" + task.getName() + "' for user " + userId + " on '" + name + 
+					"', user already has " + maxPerUser + " task(s) running or waiting");
+			throw new TaskRejectedException("You already have " + maxPerUser + " operation(s) in progress. " + 
+					"Please wait for one to finish, or cancel one, and try again.");
+		}
+		
+		activeTasks.add(task);
+		try {
+			executor.execute(new TrackedTask(task, userKey));
+		} catch (RejectedExecutionException e) {
+			release(task, userKey);
+			rejectedCount.increment();
+			if(executor.isShutdown()) {
+				logger.warn("Rejected task '" + task.getName() + "' for user " + userId + " on '" + name + "', executor is shut down");
+				throw new TaskRejectedException("The server is shutting down and cannot start this operation.", e);
+			}
+			logger.warn("Rejected task '" + task.getName() + "' for user " + userId + " on '" + name + "', " + 
+					maxConcurrent + " task(s) running and " + queueCapacity + " waiting");
+			throw new TaskRejectedException("The server is too busy to start this operation, " + maxConcurrent + 
+					" operation(s) are running and " + queueCapacity + " are waiting. Please try again later.", e);
+		}
+		
+		int waiting = getQueuedCount();
+		if(waiting > 0) {
+			logger.info("All threads busy on '" + name + "', " + waiting + " task(s) waiting");
+		}
+		
+	}
+	
+	private void release(QueuedTask<?> task, String userKey) {
+		activeTasks.remove(task);
+		userTaskCounts.computeIfPresent(userKey, (key, count) -> count.decrementAndGet() <= 0 ? null : count);
+	}
+	
+	/**
+	 * @return number of tasks running
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+	
+	/**
+	 * @return number of tasks waiting for a thread
+	 */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * @return total number of tasks rejected because a limit was reached
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+	
+	/**
+	 * Stop accepting tasks. Waiting tasks are cancelled without running, then running tasks are given the
+	 * timeout to finish. Tasks still running after that are cancelled (they stop at their next check) and given
+	 * the timeout again, before the threads are interrupted.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 */
+	public void shutdown(long timeout, TimeUnit unit) {
+		
+		logger.info("Shutting down '" + name + "', " + getActiveCount() + " task(s) running, " + getQueuedCount() + " waiting");
+		
+		executor.shutdown();
+		
+		// complete waiting tasks as cancelled, so anyone blocking on them wakes up
+		List<Runnable> waiting = new ArrayList<Runnable>();
+		executor.getQueue().drainTo(waiting);
+		for(Runnable runnable : waiting) {
+			TrackedTask tracked = (TrackedTask)runnable;
+			tracked.task.cancel();
+			tracked.run();
+		}
+		
+		try {
+			if(!executor.awaitTermination(timeout, unit)) {
+				logger.info("Cancelling " + activeTasks.size() + " task(s) still running on '" + name + "'");
+				activeTasks.forEach(QueuedTask::cancel);
+				if(!executor.awaitTermination(timeout, unit)) {
+					executor.shutdownNow();
+					if(!executor.awaitTermination(timeout, unit)) {
+						logger.error("Executor '" + name + "' did not terminate");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.eamrf.concurrent.task;
+
+import java.util.Map;
+
+/**
+ * A task which is recorded in a TaskJournal when it's queued, so it can be recreated and run again
+ * if the application stops before the task completes.
+ *
+ * Journaled tasks must be idempotent, running one a second time must leave things in the same
+ * state as running it once.
+ *
+ * @author slenzi
+ */
+public interface JournaledTask {
+
+	/**
+	 * Identifies the kind of task, used at startup to find the handler which recreates the task.
+	 *
+	 * @return
+	 */
+	public String getJournalType();
+
+	/**
+	 * Everything needed to recreate the task, e.g. resource node IDs. Values should be IDs rather than
+	 * full objects, so the recreated task works with the current state of the resource.
+	 *
+	 * @return
+	 */
+	public Map<String,String> getJournalParams();
+
+	/**
+	 * The ID of the task's journal entry, zero if the task has not been journaled.
+	 *
+	 * @return
+	 */
+	public long getJournalId();
+
+	/**
+	 * Set by the task manager when the task is written to the journal.
+	 *
+	 * @param journalId
+	 */
+	public void setJournalId(long journalId);
+
+}
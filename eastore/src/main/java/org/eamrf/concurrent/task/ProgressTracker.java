@@ -0,0 +1,174 @@
+package org.eamrf.concurrent.task;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks completed job counts for a task and all of its subtasks. Safe to update from many threads.
+ *
+ * Each subtask has its own counter. When a subtask reports a new count only the difference is added
+ * to the total, so updates and reads of the total are O(1) no matter how many subtasks there are.
+ *
+ * Also rate limits progress notifications, so listeners are not called for every completed job. When a
+ * notification is suppressed a trailing notification can be scheduled for the end of the interval, so the
+ * latest progress is still sent if no more updates arrive.
+ *
+ * @author slenzi
+ */
+public class ProgressTracker {
+
+	// completed job count for each subtask, by task ID
+	private final ConcurrentMap<Long,Subtask> subtasks = new ConcurrentHashMap<Long,Subtask>();
+
+	// sum of the subtask counts
+	private final LongAdder completed = new LongAdder();
+
+	private final AtomicLong lastNotifyTime = new AtomicLong(0L);
+
+	private volatile long notifyIntervalMillis = 0L;
+
+	// every call to tryNotify gets a sequence number. A trailing notification is only needed if there was a
+	// call after the last one that was allowed.
+	private final AtomicLong notifySequence = new AtomicLong(0L);
+	private final AtomicLong lastAllowedSequence = new AtomicLong(0L);
+
+	// true when a trailing notification is scheduled, later suppressed notifications are merged into it
+	private final AtomicBoolean trailingPending = new AtomicBoolean(false);
+
+	/**
+	 * Shared timer for trailing notifications, created on first use
+	 */
+	private static class TrailingNotifier {
+
+		private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "progress-trailing-notify");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+	}
+
+	private static class Subtask {
+
+		private final String name;
+		private final AtomicInteger completed = new AtomicInteger(0);
+
+		public Subtask(String name) {
+			this.name = name;
+		}
+
+	}
+
+	/**
+	 *
+	 * @param notifyIntervalMillis - min time between notifications, zero or less to allow every notification
+	 */
+	public ProgressTracker(long notifyIntervalMillis) {
+		this.notifyIntervalMillis = notifyIntervalMillis;
+	}
+
+	/**
+	 * Set the completed job count for a subtask (or for the task itself.)
+	 *
+	 * @param subtaskId - ID of the subtask
+	 * @param name - name of the subtask, used for logging
+	 * @param count - number of jobs the subtask has completed
+	 */
+	public void setCompleted(long subtaskId, String name, int count) {
+		Subtask subtask = subtasks.get(subtaskId);
+		if(subtask == null) {
+			subtask = subtasks.computeIfAbsent(subtaskId, id -> new Subtask(name));
+		}
+		int previous = subtask.completed.getAndSet(count);
+		if(count != previous) {
+			completed.add(count - previous);
+		}
+	}
+
+	/**
+	 * @return total completed job count for the task and all subtasks
+	 */
+	public int getCompleted() {
+		return (int) completed.sum();
+	}
+
+	/**
+	 * Check if listeners should be notified now. At most one caller is allowed per notify interval, unless
+	 * 'force' is true (e.g. for the final notification, which must never be dropped.)
+	 *
+	 * @param force - pass true to always allow the notification
+	 * @return true if listeners should be notified
+	 */
+	public boolean tryNotify(boolean force) {
+		return tryNotify(force, null);
+	}
+
+	/**
+	 * Check if listeners should be notified now, same as tryNotify(boolean). If the notification is suppressed,
+	 * 'trailingNotify' is run once the interval has passed, unless another notification was allowed since.
+	 *
+	 * @param force - pass true to always allow the notification
+	 * @param trailingNotify - notifies listeners, run on a timer thread. Null for no trailing notification.
+	 * @return true if listeners should be notified
+	 */
+	public boolean tryNotify(boolean force, Runnable trailingNotify) {
+		long sequence = notifySequence.incrementAndGet();
+		long now = System.currentTimeMillis();
+		long last = lastNotifyTime.get();
+		long waitMillis = (last + notifyIntervalMillis) - now;
+		if(force || notifyIntervalMillis <= 0L || (waitMillis <= 0L && lastNotifyTime.compareAndSet(last, now))) {
+			if(force || notifyIntervalMillis <= 0L) {
+				lastNotifyTime.set(now);
+			}
+			lastAllowedSequence.accumulateAndGet(sequence, Math::max);
+			return true;
+		}
+		if(trailingNotify != null && trailingPending.compareAndSet(false, true)) {
+			try {
+				TrailingNotifier.executor.schedule(() -> {
+					trailingPending.set(false);
+					if(notifySequence.get() > lastAllowedSequence.get() && tryNotify(false, trailingNotify)) {
+						trailingNotify.run();
+					}
+				}, Math.max(waitMillis, 1L), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				trailingPending.set(false);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return min time between notifications, in milliseconds
+	 */
+	public long getNotifyIntervalMillis() {
+		return notifyIntervalMillis;
+	}
+
+	/**
+	 * @param notifyIntervalMillis - min time between notifications, zero or less to allow every notification
+	 */
+	public void setNotifyIntervalMillis(long notifyIntervalMillis) {
+		this.notifyIntervalMillis = notifyIntervalMillis;
+	}
+
+	/**
+	 * @return completed job count for each subtask, ordered by subtask ID, as "name=count"
+	 */
+	public Map<Long,String> getSubtaskCounts() {
+		Map<Long,String> counts = new TreeMap<Long,String>();
+		subtasks.forEach((id, subtask) -> counts.put(id, subtask.name + "=" + subtask.completed.get()));
+		return counts;
+	}
+
+}
@@ -22,6 +22,55 @@ public interface QueuedTask<T> extends Runnable, Comparable<QueuedTask<T>> {
 	
 	public String getName();
 	
+	/**
+	 * The priority class of the task. Task managers run more urgent tasks first.
+	 * 
+	 * @return
+	 */
+	public TaskPriority getPriority();
+	
+	/**
+	 * Request that the task stop. A queued task will not run, and a running task stops cooperatively
+	 * between its sub-jobs.
+	 */
+	public void cancel();
+	
+	/**
+	 * @return true if the task has been cancelled
+	 */
+	public boolean isCancelled();
+	
+	/**
+	 * Set the priority class of the task. This should be set before the task is added to a task manager.
+	 * 
+	 * @param priority
+	 */
+	public void setPriority(TaskPriority priority);
+	
+	/**
+	 * Key used to coalesce duplicate tasks. While a task with a key is waiting in a task manager's queue, another
+	 * task with an equal key is merged into it rather than queued. Null (the default) means the task is never
+	 * coalesced.
+	 * 
+	 * @return
+	 */
+	public Object getCoalescingKey();
+	
+	/**
+	 * Set the coalescing key. This should be set before the task is added to a task manager.
+	 * 
+	 * @param coalescingKey
+	 */
+	public void setCoalescingKey(Object coalescingKey);
+	
+	/**
+	 * Called on a queued task when a task with the same coalescing key is submitted. The duplicate is not queued,
+	 * so this task should pick up anything from it that the single run needs to cover.
+	 * 
+	 * @param duplicate
+	 */
+	public void coalesce(QueuedTask<?> duplicate);
+	
 	/**
 	 * Date & time task was added to queue for processing.
 	 * 
@@ -1,10 +1,28 @@
 package org.eamrf.concurrent.task;
 
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eamrf.concurrent.task.metrics.RunningTaskStats;
+import org.eamrf.concurrent.task.metrics.TaskManagerMetrics;
+import org.eamrf.concurrent.task.metrics.TaskManagerStats;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.core.util.DateUtil;
 import org.slf4j.Logger;
@@ -12,7 +30,21 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 /**
- * Queues tasks in a priority blocking queue for execution.
+ * Queues tasks for execution, with one FIFO queue per task priority class.
+ * 
+ * The most urgent task is run first. To keep less urgent work from starving, a waiting task is treated as one
+ * class more urgent for every 'aging interval' it has been queued. Tasks queued while another task is running
+ * on the same thread (child tasks) never run at a more urgent priority than that parent task, so all the child
+ * tasks of a bulk operation are bulk tasks, and interactive tasks are run in between them.
+ * 
+ * If a TaskJournal is set, tasks which implement JournaledTask are recorded in the journal when queued,
+ * and marked completed after they run.
+ * 
+ * The consumer thread blocks on the queue until a task arrives, so an idle manager does no work, and a new
+ * task is picked up as soon as it is added. An optional token bucket limits how fast tasks are run.
+ * 
+ * Queue and task execution metrics are collected for every manager, see getStats(). While running, the manager
+ * is registered as an MXBean so the metrics can also be viewed over JMX.
  * 
  * prototype scope - new instance each time
  * 
@@ -20,21 +52,56 @@ import org.springframework.stereotype.Component;
  */
 @Component
 @Scope(value = "prototype") // new instance every time object is wired
-public class QueuedTaskManager implements TaskManager {
+public class QueuedTaskManager implements TaskManager, QueuedTaskManagerMXBean {
 
 	@InjectLogger
 	private Logger logger;
 	
-	private BlockingQueue<QueuedTask<?>> queue = new PriorityBlockingQueue<QueuedTask<?>>();
+	// default time a task must wait before it's treated as one priority class more urgent
+	public static final long DEFAULT_AGING_MILLIS = 5000L;
+	
+	// one queue per priority class, all guarded by queueLock
+	private final Map<TaskPriority,Deque<QueuedTask<?>>> queues = createQueues();
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Condition notEmpty = queueLock.newCondition();
+	private int queueSize = 0;
+	
+	// queued tasks which have a coalescing key, by key. An entry is removed when its task is taken off the queue.
+	private final ConcurrentMap<Object,QueuedTask<?>> pendingByKey = new ConcurrentHashMap<Object,QueuedTask<?>>();
+	
+	private long agingMillis = DEFAULT_AGING_MILLIS;
+	
+	// whether tasks queued while another task is running are linked to it as child tasks
+	private boolean linkParentTasks = true;
+	
+	// optional write-ahead journal for JournaledTask instances
+	private TaskJournal taskJournal = null;
 
-	private boolean isRunning = false;
+	private volatile boolean isRunning = false;
+	
+	// set when stopTaskManager() is called, the consumer exits at its next check
+	private volatile boolean stopRequested = false;
+	
+	// true while the consumer is waiting on the queue (and not running a task)
+	private volatile boolean idle = false;
+	
+	private volatile Thread consumerThread = null;
+	
+	// the task currently being run by the consumer, if any, and when it started
+	private volatile QueuedTask<?> runningTask = null;
+	private volatile long runningTaskStart = 0L;
+	
+	private final TaskManagerMetrics metrics = new TaskManagerMetrics();
+	
+	// name the manager was registered under in JMX, while it's running
+	private ObjectName mbeanName = null;
 	
 	private ExecutorService executorService = null;
 	
 	private String managerName = QueuedTaskManager.class.getName();
 	
-	// amount of time to wait in milliseconds before consuming next item in queue
-	private long consumeFrequency = 0L;
+	// limits how fast tasks are consumed, null for no limit
+	private TokenBucket rateLimiter = null;
 	
 	/**
 	 * Create a queued task manager that will consume tasks one a time, where the
@@ -46,14 +113,27 @@ public class QueuedTaskManager implements TaskManager {
 	}
 	
 	/**
-	 * Create a queued task manager that will consume tasks one a time, where the next
-	 * task will be consumed and processed at a predefined time after the preceding task
-	 * is completed.  
+	 * Create a queued task manager that will consume tasks one a time, at most one task
+	 * per consumeFrequency milliseconds.
 	 * 
-	 * @param consumeFrequency - how long to wait in milliseconds before consuming the next task
+	 * @param consumeFrequency - minimum time in milliseconds between the start of each task
 	 */
 	public QueuedTaskManager(long consumeFrequency) {
-		this.consumeFrequency = consumeFrequency;
+		if(consumeFrequency > 0L) {
+			this.rateLimiter = TokenBucket.everyMillis(consumeFrequency);
+		}
+	}
+	
+	/**
+	 * Create a queued task manager that will consume tasks one a time, rate limited by a token
+	 * bucket. Up to 'burst' tasks are run back to back, after which tasks are run at the
+	 * steady rate.
+	 * 
+	 * @param permitsPerSecond - steady number of tasks per second
+	 * @param burst - max number of tasks that can be run back to back
+	 */
+	public QueuedTaskManager(double permitsPerSecond, int burst) {
+		this.rateLimiter = new TokenBucket(permitsPerSecond, burst);
 	}
 	
 	/**
@@ -79,6 +159,50 @@ public class QueuedTaskManager implements TaskManager {
 		this.managerName = managerName;
 	}
 
+	/**
+	 * @return time in milliseconds a task must wait before it's treated as one priority class more urgent
+	 */
+	public long getAgingMillis() {
+		return agingMillis;
+	}
+
+	/**
+	 * @param agingMillis time in milliseconds a task must wait before it's treated as one priority class
+	 * more urgent. Pass zero to disable aging.
+	 */
+	public void setAgingMillis(long agingMillis) {
+		this.agingMillis = agingMillis;
+	}
+
+	/**
+	 * @return true if tasks queued while another task is running are treated as child tasks of that task
+	 */
+	public boolean isLinkParentTasks() {
+		return linkParentTasks;
+	}
+
+	/**
+	 * @param linkParentTasks pass false if the tasks in this manager are independent of whichever task queued
+	 * them (e.g. status broadcasts), so they don't take the parent's priority and are not cancelled with it.
+	 */
+	public void setLinkParentTasks(boolean linkParentTasks) {
+		this.linkParentTasks = linkParentTasks;
+	}
+
+	/**
+	 * @return the journal used to record JournaledTask instances, or null if tasks are not journaled
+	 */
+	public TaskJournal getTaskJournal() {
+		return taskJournal;
+	}
+
+	/**
+	 * @param taskJournal journal used to record JournaledTask instances. Set before starting the manager.
+	 */
+	public void setTaskJournal(TaskJournal taskJournal) {
+		this.taskJournal = taskJournal;
+	}
+
 	/**
 	 * Starts the task manager by adding it to the executor service.
 	 */
@@ -87,6 +211,8 @@ public class QueuedTaskManager implements TaskManager {
 		
 		this.executorService = executorService;
 		
+		registerMBean();
+		
 		logger.debug("Submitting queued task manager '" + managerName + "' to executor service.");
 		
 		//this.executorService.submit(this);
@@ -111,7 +237,15 @@ public class QueuedTaskManager implements TaskManager {
 		
 		logger.debug("Stop '" + managerName + "' task manager called");
 
-		queue.clear();
+		stopRequested = true;
+		
+		clearQueues();
+		
+		// wake the consumer if it's waiting on an empty queue. A running task is left to finish.
+		Thread consumer = consumerThread;
+		if(consumer != null && idle) {
+			consumer.interrupt();
+		}
 
 		logger.debug("Shuttin down executor service for '" + managerName + "' task manager...");
 
@@ -143,6 +277,8 @@ public class QueuedTaskManager implements TaskManager {
 			Thread.currentThread().interrupt();   
 		}
 
+		unregisterMBean();
+		
 		logger.debug("Stop '" + managerName + "' task manager call complete");
 		
 	}
@@ -153,7 +289,12 @@ public class QueuedTaskManager implements TaskManager {
 	@Override
 	public int taskCount() {
 		
-		return queue.size();
+		queueLock.lock();
+		try {
+			return queueSize;
+		} finally {
+			queueLock.unlock();
+		}
 		
 	}
 
@@ -167,14 +308,25 @@ public class QueuedTaskManager implements TaskManager {
 	}
 	
 	/**
-	 * Check if the task manager already contains a task ( comparing tasks using equals() )
+	 * Check if the task manager already contains a task ( comparing tasks using equals() ). This scans the
+	 * queues, use coalescing keys (see QueuedTask.setCoalescingKey) to de-duplicate tasks.
 	 * 
 	 * @param task
 	 * @return
 	 */
 	public boolean contains(QueuedTask<?> task) {
-		logger.debug("Checking if queue contains existing task. Current queue size = " + queue.size());
-		return queue.contains(task);
+		queueLock.lock();
+		try {
+			logger.debug("Checking if queue contains existing task. Current queue size = " + queueSize);
+			for(Deque<QueuedTask<?>> queue : queues.values()) {
+				if(queue.contains(task)) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			queueLock.unlock();
+		}
 	}
 	
 	/**
@@ -184,33 +336,49 @@ public class QueuedTaskManager implements TaskManager {
 	public void run() {
 		
 		isRunning = true;
+		consumerThread = Thread.currentThread();
 		
 		logger.debug(QueuedTaskManager.class.getName() + " running!");
 		
 		while(true){
 			
-			logger.debug("Polling queued task manager, name => '" + managerName + "', queue size => " + taskCount() + ", hash code => " + hashCode());
+			idle = true;
 			
-			if(Thread.currentThread().isInterrupted()){
+			if(stopRequested || Thread.currentThread().isInterrupted()){
 				break;
 			}
 			
 			try {
 				
-				// wait 5 seconds for next item in queue
-				consume(queue.poll(5000, TimeUnit.MILLISECONDS));
+				// block until a task is available, then wait for a permit before taking it. A task waiting
+				// on the rate limit stays queued, so duplicates are still merged into it and it can be cancelled.
+				awaitTask();
+				
+				if(rateLimiter != null) {
+					rateLimiter.acquire();
+				}
 				
-				if(consumeFrequency > 0L) {
-					Thread.sleep(consumeFrequency);
+				QueuedTask<?> task = pollNextTask();
+				if(task == null) {
+					// the task was cancelled while waiting for the permit
+					continue;
 				}
 				
+				idle = false;
+				
+				consume(task);
+				
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
-				logger.warn("Interrupt exception thrown while taking next element from task queue for '" + managerName + "'.", e);
+				if(!stopRequested) {
+					logger.warn("Interrupt exception thrown while taking next element from task queue for '" + managerName + "'.", e);
+				}
 			}
 			
 		}		
 	
+		idle = false;
+		consumerThread = null;
 		isRunning = false;
 		
 		logger.debug(QueuedTaskManager.class.getName() + " run has ended for '" + managerName + "'!");
@@ -218,27 +386,453 @@ public class QueuedTaskManager implements TaskManager {
 	}
 
 	/**
-	 * Add a task to the queue for processing
+	 * Check if a task with the coalescing key is waiting in the queue.
+	 * 
+	 * @param coalescingKey
+	 * @return
+	 */
+	public boolean containsKey(Object coalescingKey) {
+		return coalescingKey != null && pendingByKey.containsKey(coalescingKey);
+	}
+	
+	/**
+	 * Add a task to the queue for processing. If the task has a coalescing key and a task with the same key is
+	 * already waiting in the queue, the new task is merged into the waiting task instead of being queued. The new
+	 * task's CompletableFuture then completes when the waiting task completes.
 	 */
 	@Override
 	public synchronized void addTask(QueuedTask<?> task) {
 		
+		if(task.getCoalescingKey() != null && coalesceTask(task)) {
+			metrics.recordCoalesced();
+			return;
+		}
+		
 		task.setTaskId(getNextTaskId());
 		task.setQueuedTime(DateUtil.getCurrentTime());
 		
-		try {
+		// child tasks don't get to run ahead of the task that spawned them
+		QueuedTask<?> parentTask = AbstractQueuedTask.getCurrentTask();
+		if(linkParentTasks && parentTask != null && parentTask != task) {
+			task.setPriority(TaskPriority.leastUrgent(task.getPriority(), parentTask.getPriority()));
+			// link the tasks, for cancellation and tracking completion of the parent's whole task tree
+			if(task instanceof AbstractQueuedTask && parentTask instanceof AbstractQueuedTask) {
+				((AbstractQueuedTask<?>)task).setParentTask((AbstractQueuedTask<?>)parentTask);
+			}
+		}
+		
+		journalQueued(task);
 		
-			//logger.info(this.getClass().getName() + ".addTask(...) called");
+		queueLock.lock();
+		try {
 			
-			queue.put(task);
+			queues.get(task.getPriority()).offer(task);
+			queueSize++;
+			metrics.recordEnqueued();
+			notEmpty.signal();
 
 			logger.debug("Task was queued [id => " + task.getTaskId() + ", name => " + task.getName() + 
-					", time => " + DateUtil.defaultFormat(task.getQueuedTime()) + ", size => " + queue.size() + "]");
+					", priority => " + task.getPriority() + ", time => " + DateUtil.defaultFormat(task.getQueuedTime()) + 
+					", size => " + queueSize + "]");
 			
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-		}		
+		} finally {
+			queueLock.unlock();
+		}
+			
+	}
+	
+	/**
+	 * Merge the task into the queued task with the same coalescing key, if there is one. Otherwise the task is
+	 * registered under its key, and the caller must queue it.
+	 * 
+	 * @param task
+	 * @return true if the task was merged into a queued task, false if it should be queued
+	 */
+	private boolean coalesceTask(QueuedTask<?> task) {
+		
+		// atomic per key, so a merge can't race with the consumer taking the pending task
+		final QueuedTask<?>[] merged = new QueuedTask<?>[1];
+		pendingByKey.compute(task.getCoalescingKey(), (key, pending) -> {
+			if(pending == null) {
+				return task;
+			}
+			pending.coalesce(task);
+			merged[0] = pending;
+			return pending;
+		});
+		
+		if(merged[0] == null) {
+			return false;
+		}
+		
+		completeWith(task, merged[0]);
+		
+		logger.debug("Task was coalesced [name => " + task.getName() + ", key => " + task.getCoalescingKey() + 
+				", into task id => " + merged[0].getTaskId() + "]");
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Complete the duplicate task's future when the task it was merged into completes.
+	 * 
+	 * @param duplicate
+	 * @param pending
+	 */
+	@SuppressWarnings("unchecked")
+	private void completeWith(QueuedTask<?> duplicate, QueuedTask<?> pending) {
+		
+		// tasks with the same key are the same kind of task, so they produce the same type of value
+		CompletableFuture<Object> duplicateFuture = (CompletableFuture<Object>)duplicate.getCompletableFuture();
+		pending.getCompletableFuture().whenComplete((value, error) -> {
+			if(error != null) {
+				duplicateFuture.completeExceptionally(error);
+			}else {
+				duplicateFuture.complete(value);
+			}
+		});
+		
+	}
+	
+	/**
+	 * Remove the task's coalescing key entry once the task leaves the queue. Later tasks with the same key are
+	 * queued as new tasks.
+	 * 
+	 * @param task
+	 */
+	private void releaseKey(QueuedTask<?> task) {
+		if(task != null && task.getCoalescingKey() != null) {
+			pendingByKey.remove(task.getCoalescingKey(), task);
+		}
+	}
+	
+	/**
+	 * Cancel a task. If the task is still queued it's removed from the queue and completed as cancelled right
+	 * away. If it's the task currently running, it's flagged and will stop between its sub-jobs.
+	 * 
+	 * @param taskId - id of the task to cancel
+	 * @return true if the task was found, false if it's not queued or running in this manager
+	 */
+	public boolean cancelTask(long taskId) {
+		
+		QueuedTask<?> removedTask = null;
+		
+		queueLock.lock();
+		try {
+			for(Deque<QueuedTask<?>> queue : queues.values()) {
+				Iterator<QueuedTask<?>> iter = queue.iterator();
+				while(removedTask == null && iter.hasNext()) {
+					QueuedTask<?> task = iter.next();
+					if(task.getTaskId() == taskId) {
+						iter.remove();
+						queueSize--;
+						releaseKey(task);
+						removedTask = task;
+					}
+				}
+			}
+		} finally {
+			queueLock.unlock();
+		}
+		
+		if(removedTask != null) {
+			
+			logger.info("Cancelled queued task [id => " + taskId + ", name => " + removedTask.getName() + "] in '" + managerName + "'");
+			
+			// the task sees it's cancelled and completes without doing any work
+			removedTask.cancel();
+			long start = System.currentTimeMillis();
+			try {
+				removedTask.run();
+			} finally {
+				recordRun(removedTask, start);
+				journalCompleted(removedTask);
+			}
+			return true;
+			
+		}
+		
+		QueuedTask<?> running = runningTask;
+		if(running != null && running.getTaskId() == taskId) {
+			logger.info("Cancelling running task [id => " + taskId + ", name => " + running.getName() + "] in '" + managerName + "'");
+			running.cancel();
+			return true;
+		}
+		
+		return false;
+		
+	}
+	
+	/**
+	 * Write a queued record to the journal, if the task is journaled. A journal failure is logged but does
+	 * not stop the task from being queued, it just won't be replayed after a restart.
+	 * 
+	 * @param task
+	 */
+	private void journalQueued(QueuedTask<?> task) {
+		
+		if(taskJournal == null || !(task instanceof JournaledTask)) {
+			return;
+		}
+		JournaledTask journaledTask = (JournaledTask)task;
+		try {
+			journaledTask.setJournalId(taskJournal.recordQueued(journaledTask));
+		} catch (IOException | RuntimeException e) {
+			logger.error("Failed to write task to journal [id => " + task.getTaskId() + ", name => " + task.getName() + "], " + e.getMessage(), e);
+		}
+		
+	}
+	
+	/**
+	 * Write a completed record to the journal, if the task was journaled.
+	 * 
+	 * @param task
+	 */
+	private void journalCompleted(QueuedTask<?> task) {
+		
+		if(taskJournal == null || !(task instanceof JournaledTask) || ((JournaledTask)task).getJournalId() <= 0L) {
+			return;
+		}
+		try {
+			taskJournal.recordCompleted(((JournaledTask)task).getJournalId());
+		} catch (IOException | RuntimeException e) {
+			logger.error("Failed to mark task completed in journal [id => " + task.getTaskId() + ", name => " + task.getName() + "], " + e.getMessage(), e);
+		}
+		
+	}
+	
+	/**
+	 * Wait for a task to become available. The task is left in its queue.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void awaitTask() throws InterruptedException {
+		
+		queueLock.lockInterruptibly();
+		try {
+			while(queueSize == 0) {
+				notEmpty.await();
+			}
+		} finally {
+			queueLock.unlock();
+		}
+		
+	}
+	
+	/**
+	 * Remove the next task from its queue.
+	 * 
+	 * @return the next task, or null if the queues are empty
+	 */
+	private QueuedTask<?> pollNextTask() {
+		
+		queueLock.lock();
+		try {
+			if(queueSize == 0) {
+				return null;
+			}
+			queueSize--;
+			QueuedTask<?> task = selectNextQueue(System.currentTimeMillis()).poll();
+			releaseKey(task);
+			return task;
+		} finally {
+			queueLock.unlock();
+		}
+		
+	}
+	
+	/**
+	 * Pick the queue whose head task should run next. Each head task is ranked by its priority class, made
+	 * more urgent by one class for every aging interval it has waited. Ties go to the task queued first.
+	 * 
+	 * Must be called while holding the queue lock, with at least one task queued.
+	 * 
+	 * @param now - current time in milliseconds
+	 * @return
+	 */
+	private Deque<QueuedTask<?>> selectNextQueue(long now) {
+		
+		Deque<QueuedTask<?>> selected = null;
+		long selectedRank = Long.MAX_VALUE;
+		long selectedQueuedTime = Long.MAX_VALUE;
+		
+		for(TaskPriority priority : TaskPriority.values()) {
+			
+			Deque<QueuedTask<?>> queue = queues.get(priority);
+			QueuedTask<?> head = queue.peek();
+			if(head == null) {
+				continue;
+			}
+			
+			long queuedTime = head.getQueuedTime() != null ? head.getQueuedTime().getTime() : now;
+			long rank = priority.ordinal();
+			if(agingMillis > 0L) {
+				rank = Math.max(0L, rank - ((now - queuedTime) / agingMillis));
+			}
 			
+			if(rank < selectedRank || (rank == selectedRank && queuedTime < selectedQueuedTime)) {
+				selected = queue;
+				selectedRank = rank;
+				selectedQueuedTime = queuedTime;
+			}
+			
+		}
+		
+		return selected;
+		
+	}
+	
+	/**
+	 * Remove all queued tasks
+	 */
+	private void clearQueues() {
+		
+		queueLock.lock();
+		try {
+			queues.values().forEach(Deque::clear);
+			queueSize = 0;
+			pendingByKey.clear();
+		} finally {
+			queueLock.unlock();
+		}
+		
+	}
+	
+	/**
+	 * Snapshot of the manager's queue and task execution metrics
+	 * 
+	 * @return
+	 */
+	@Override
+	public TaskManagerStats getStats() {
+		
+		TaskManagerStats stats = new TaskManagerStats();
+		stats.setManagerName(managerName);
+		stats.setRunning(isRunning);
+		
+		Map<String,Integer> depthByPriority = new LinkedHashMap<String,Integer>();
+		queueLock.lock();
+		try {
+			stats.setQueueDepth(queueSize);
+			queues.forEach((priority, queue) -> depthByPriority.put(priority.name(), queue.size()));
+		} finally {
+			queueLock.unlock();
+		}
+		stats.setQueueDepthByPriority(depthByPriority);
+		
+		QueuedTask<?> task = runningTask;
+		if(task != null) {
+			RunningTaskStats running = new RunningTaskStats();
+			running.setTaskId(task.getTaskId());
+			running.setName(task.getName());
+			running.setTaskClass(TaskManagerMetrics.taskClassName(task));
+			running.setPriority(task.getPriority().name());
+			running.setRunningMillis(Math.max(0L, System.currentTimeMillis() - runningTaskStart));
+			stats.setRunningTask(running);
+		}
+		
+		metrics.fill(stats);
+		
+		return stats;
+		
+	}
+	
+	@Override
+	public int getQueueDepth() {
+		return taskCount();
+	}
+	
+	@Override
+	public double getEnqueueRatePerSecond() {
+		return metrics.getEnqueueRatePerSecond();
+	}
+	
+	@Override
+	public String getRunningTaskName() {
+		QueuedTask<?> task = runningTask;
+		if(task == null) {
+			return null;
+		}
+		return task.getName() != null ? task.getName() : TaskManagerMetrics.taskClassName(task) + " [id=" + task.getTaskId() + "]";
+	}
+	
+	@Override
+	public long getRunningTaskMillis() {
+		return runningTask != null ? Math.max(0L, System.currentTimeMillis() - runningTaskStart) : 0L;
+	}
+	
+	/**
+	 * @return true once startTaskManager() has been called
+	 */
+	public boolean isStarted() {
+		return executorService != null;
+	}
+	
+	/**
+	 * @return true once stopTaskManager() has been called
+	 */
+	public boolean isStopped() {
+		return stopRequested;
+	}
+	
+	/**
+	 * Record the wait and run time of a task which has just finished running
+	 * 
+	 * @param task
+	 * @param runStart - time the task started running, in milliseconds
+	 */
+	private void recordRun(QueuedTask<?> task, long runStart) {
+		
+		long waitMillis = task.getQueuedTime() != null ? runStart - task.getQueuedTime().getTime() : 0L;
+		long runMillis = System.currentTimeMillis() - runStart;
+		
+		CompletableFuture<?> future = task.getCompletableFuture();
+		boolean cancelled = task.isCancelled();
+		boolean failed = future.isCompletedExceptionally();
+		
+		metrics.recordRun(TaskManagerMetrics.taskClassName(task), waitMillis, runMillis, failed, cancelled);
+		
+	}
+	
+	/**
+	 * Register this manager with the platform MBean server. A failure is logged, the manager still runs.
+	 */
+	private void registerMBean() {
+		
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("org.eamrf.concurrent.task:type=QueuedTaskManager,name=" + ObjectName.quote(managerName));
+			server.registerMBean(this, name);
+			mbeanName = name;
+		} catch (JMException e) {
+			logger.warn("Could not register task manager '" + managerName + "' with JMX, " + e.getMessage());
+		}
+		
+	}
+	
+	private void unregisterMBean() {
+		
+		if(mbeanName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			logger.warn("Could not unregister task manager '" + managerName + "' from JMX, " + e.getMessage());
+		}
+		mbeanName = null;
+		
+	}
+	
+	private static Map<TaskPriority,Deque<QueuedTask<?>>> createQueues() {
+		
+		Map<TaskPriority,Deque<QueuedTask<?>>> queues = new EnumMap<TaskPriority,Deque<QueuedTask<?>>>(TaskPriority.class);
+		for(TaskPriority priority : TaskPriority.values()) {
+			queues.put(priority, new ArrayDeque<QueuedTask<?>>());
+		}
+		return queues;
+		
 	}
 	
 	private synchronized long getNextTaskId(){
@@ -257,9 +851,22 @@ public class QueuedTaskManager implements TaskManager {
 		if(task != null){
 			
 			logger.debug("Task consumed (for run), [id => " + task.getTaskId() + ", name => " + task.getName() + 
-					", time => " + DateUtil.defaultFormat(task.getQueuedTime()) + ", size => " + queue.size() + "]");			
+					", priority => " + task.getPriority() + ", time => " + DateUtil.defaultFormat(task.getQueuedTime()) + ", size => " + taskCount() + "]");			
 			
-			task.run();
+			long start = System.currentTimeMillis();
+			runningTaskStart = start;
+			runningTask = task;
+			try {
+				task.run();
+			} finally {
+				runningTask = null;
+				recordRun(task, start);
+				// a task cut short by shutdown stays in the journal so it's replayed on the next start
+				CompletableFuture<?> future = task.getCompletableFuture();
+				if(!stopRequested || (future.isDone() && !future.isCompletedExceptionally())) {
+					journalCompleted(task);
+				}
+			}
 			
 		}
 		
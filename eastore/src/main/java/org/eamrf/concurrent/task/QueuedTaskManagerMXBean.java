@@ -0,0 +1,42 @@
+package org.eamrf.concurrent.task;
+
+import org.eamrf.concurrent.task.metrics.TaskManagerStats;
+
+/**
+ * JMX view of a QueuedTaskManager. Each running manager is registered under
+ * org.eamrf.concurrent.task:type=QueuedTaskManager,name=[manager name]
+ * 
+ * @author slenzi
+ */
+public interface QueuedTaskManagerMXBean {
+
+	public String getManagerName();
+	
+	public boolean isRunning();
+	
+	/**
+	 * @return number of tasks waiting in the queue
+	 */
+	public int getQueueDepth();
+	
+	/**
+	 * @return average number of tasks queued per second over the last minute
+	 */
+	public double getEnqueueRatePerSecond();
+	
+	/**
+	 * @return name of the task currently running, or null if the manager is idle
+	 */
+	public String getRunningTaskName();
+	
+	/**
+	 * @return how long the current task has been running, zero if the manager is idle
+	 */
+	public long getRunningTaskMillis();
+	
+	/**
+	 * @return full snapshot of the manager's metrics, including wait and run time histograms per task class
+	 */
+	public TaskManagerStats getStats();
+	
+}
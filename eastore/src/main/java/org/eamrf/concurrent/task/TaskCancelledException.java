@@ -0,0 +1,23 @@
+package org.eamrf.concurrent.task;
+
+import org.eamrf.eastore.core.exception.ServiceException;
+
+/**
+ * Thrown when a task stops early because it was cancelled. Passed to the task's CompletableFuture,
+ * so callers blocking on get() see that the task was cancelled rather than completed.
+ *
+ * @author slenzi
+ */
+public class TaskCancelledException extends ServiceException {
+
+	private static final long serialVersionUID = 4470919527187003592L;
+
+	public TaskCancelledException(String message) {
+		super(message);
+	}
+
+	public TaskCancelledException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,332 @@
+package org.eamrf.concurrent.task;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * File backed write-ahead journal for queued tasks. A 'queued' record is written before a JournaledTask is added
+ * to a queue, and a 'completed' record is written after it runs. On startup any task with no 'completed' record
+ * is returned by open() so it can be recreated and queued again.
+ *
+ * Records are written one JSON object per line. Writes are group committed, a background thread syncs the journal
+ * to disk once per sync interval if anything was written since the last sync, so queueing a task never waits on
+ * the disk. A crash can lose the records written during the last sync interval. A lost completed record means the
+ * task is run again, which is safe since journaled tasks are idempotent. A lost queued record means the task isn't
+ * replayed, the same as if the crash had happened just before it was queued.
+ *
+ * Once the journal has grown past COMPACT_AFTER_RECORDS records and only a small fraction of them are for tasks
+ * that are still pending, it's rewritten with just the pending tasks, so the journal stays small under a steady load.
+ *
+ * Only tasks that can be recreated from a few parameters are journaled (file binary refresh and search index
+ * updates). Directory copies and moves are not, they run as tree tasks outside the queued task managers, and
+ * each file they copy or move schedules its own journaled binary and index tasks.
+ *
+ * @author slenzi
+ */
+public class TaskJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaskJournal.class);
+
+	// consider compacting the journal once this many records have been written to it
+	private static final int COMPACT_AFTER_RECORDS = 10000;
+
+	// compact when fewer than 1 in this many records written are for pending tasks
+	private static final int COMPACT_RECORDS_PER_PENDING = 10;
+
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100L;
+
+	private final Path journalFile;
+	private final long syncIntervalMillis;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	// queued tasks which have not completed, by journal ID
+	private final Map<Long,TaskJournalEntry> pending = new LinkedHashMap<Long,TaskJournalEntry>();
+
+	private FileChannel channel = null;
+	private long nextId = 1L;
+	private int recordsSinceCompaction = 0;
+
+	// true when records have been written since the last sync
+	private boolean unsynced = false;
+
+	private ScheduledExecutorService syncExecutor = null;
+
+	/**
+	 *
+	 * @param journalFile - path to the journal file, created if it does not exist
+	 */
+	public TaskJournal(Path journalFile) {
+		this(journalFile, DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	/**
+	 *
+	 * @param journalFile - path to the journal file, created if it does not exist
+	 * @param syncIntervalMillis - how often records written to the journal are synced to disk
+	 */
+	public TaskJournal(Path journalFile, long syncIntervalMillis) {
+		this.journalFile = journalFile;
+		this.syncIntervalMillis = syncIntervalMillis > 0L ? syncIntervalMillis : DEFAULT_SYNC_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Open the journal for writing. Reads any existing journal, compacts it so it only contains the tasks that
+	 * never completed, and returns those tasks.
+	 *
+	 * @return tasks that were queued but never completed, in the order they were queued
+	 * @throws IOException
+	 */
+	public synchronized List<TaskJournalEntry> open() throws IOException {
+
+		if(channel != null) {
+			throw new IllegalStateException("Task journal " + journalFile + " is already open");
+		}
+
+		Files.createDirectories(journalFile.toAbsolutePath().getParent());
+
+		pending.clear();
+		if(Files.exists(journalFile)) {
+			readJournal();
+		}
+
+		compact();
+
+		syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "task-journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+
+		logger.info("Opened task journal " + journalFile + ", " + pending.size() + " unfinished task(s) to replay.");
+
+		return new ArrayList<TaskJournalEntry>(pending.values());
+
+	}
+
+	/**
+	 * Record that a task is being queued. The record is synced to disk within one sync interval.
+	 *
+	 * @param task
+	 * @return the journal ID assigned to the task
+	 * @throws IOException
+	 */
+	public synchronized long recordQueued(JournaledTask task) throws IOException {
+
+		checkOpen();
+
+		TaskJournalEntry entry = new TaskJournalEntry();
+		entry.setOp(TaskJournalEntry.OP_QUEUED);
+		entry.setId(nextId++);
+		entry.setType(task.getJournalType());
+		entry.setTime(System.currentTimeMillis());
+		entry.setParams(task.getJournalParams());
+
+		writeFully(channel, toLine(entry));
+		unsynced = true;
+
+		pending.put(entry.getId(), entry);
+		recordsSinceCompaction++;
+
+		return entry.getId();
+
+	}
+
+	/**
+	 * Record that a task has completed (successfully or not), so it won't be replayed.
+	 *
+	 * @param journalId
+	 * @throws IOException
+	 */
+	public synchronized void recordCompleted(long journalId) throws IOException {
+
+		checkOpen();
+
+		if(pending.remove(journalId) == null) {
+			return;
+		}
+
+		TaskJournalEntry entry = new TaskJournalEntry();
+		entry.setOp(TaskJournalEntry.OP_COMPLETED);
+		entry.setId(journalId);
+		entry.setTime(System.currentTimeMillis());
+		entry.setParams(null);
+
+		writeFully(channel, toLine(entry));
+		unsynced = true;
+		recordsSinceCompaction++;
+
+		// most of the journal is for tasks that already completed, rewrite it with just the pending ones
+		if(recordsSinceCompaction >= COMPACT_AFTER_RECORDS &&
+				(long)pending.size() * COMPACT_RECORDS_PER_PENDING <= recordsSinceCompaction) {
+			compact();
+		}
+
+	}
+
+	/**
+	 * @return number of journaled tasks which have been queued but not completed
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Close the journal. Pending tasks remain in the journal and will be returned the next time it's opened.
+	 */
+	public void close() {
+		// stop the sync thread first, outside the lock since a sync may be waiting on it
+		ScheduledExecutorService executor = null;
+		synchronized(this) {
+			executor = syncExecutor;
+			syncExecutor = null;
+		}
+		if(executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(syncIntervalMillis * 10L, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized(this) {
+			closeChannel();
+		}
+	}
+
+	/**
+	 * Sync records written since the last sync to disk. Runs on the sync thread. The sync is done outside
+	 * the journal lock so tasks can be queued while the disk catches up.
+	 */
+	private void sync() {
+		FileChannel syncChannel = null;
+		synchronized(this) {
+			if(!unsynced || channel == null) {
+				return;
+			}
+			unsynced = false;
+			syncChannel = channel;
+		}
+		try {
+			syncChannel.force(false);
+		} catch (ClosedChannelException e) {
+			// journal was compacted or closed, both of which sync everything written to the old channel
+		} catch (IOException e) {
+			logger.error("Error syncing task journal " + journalFile + ", " + e.getMessage(), e);
+			synchronized(this) {
+				unsynced = true;
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the journal with only the pending tasks, then swap it in and open it for appending.
+	 *
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+
+		Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+		try (FileChannel tempChannel = FileChannel.open(tempFile,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for(TaskJournalEntry entry : pending.values()) {
+				writeFully(tempChannel, toLine(entry));
+			}
+			tempChannel.force(true);
+		}
+
+		// sync the old journal before replacing it, in case the move fails and we keep using it
+		if(channel != null) {
+			channel.force(false);
+		}
+		Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		closeChannel();
+
+		channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		unsynced = false;
+		recordsSinceCompaction = pending.size();
+
+	}
+
+	private void closeChannel() {
+		if(channel == null) {
+			return;
+		}
+		try {
+			channel.force(true);
+			channel.close();
+		} catch (IOException e) {
+			logger.error("Error closing task journal " + journalFile + ", " + e.getMessage(), e);
+		}
+		channel = null;
+	}
+
+	/**
+	 * Read all records in the journal, keeping the queued records with no matching completed record. A partial
+	 * last line (from a crash mid-write) is skipped.
+	 *
+	 * @throws IOException
+	 */
+	private void readJournal() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			String line = null;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null) {
+				lineNumber++;
+				if(line.trim().isEmpty()) {
+					continue;
+				}
+				TaskJournalEntry entry = null;
+				try {
+					entry = mapper.readValue(line, TaskJournalEntry.class);
+				} catch (IOException e) {
+					logger.warn("Skipping unreadable record on line " + lineNumber + " of task journal " + journalFile + ", " + e.getMessage());
+					continue;
+				}
+				if(TaskJournalEntry.OP_QUEUED.equals(entry.getOp())) {
+					pending.put(entry.getId(), entry);
+				}else if(TaskJournalEntry.OP_COMPLETED.equals(entry.getOp())) {
+					pending.remove(entry.getId());
+				}
+				nextId = Math.max(nextId, entry.getId() + 1);
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if(channel == null) {
+			throw new IllegalStateException("Task journal " + journalFile + " is not open");
+		}
+	}
+
+	private ByteBuffer toLine(TaskJournalEntry entry) throws IOException {
+		return ByteBuffer.wrap((mapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void writeFully(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			fileChannel.write(buffer);
+		}
+	}
+
+}
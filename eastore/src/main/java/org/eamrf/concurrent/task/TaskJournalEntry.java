@@ -0,0 +1,102 @@
+package org.eamrf.concurrent.task;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A record in the task journal. 'queued' records describe a task, 'completed' records only
+ * carry the ID of the task that completed.
+ *
+ * @author slenzi
+ */
+public class TaskJournalEntry {
+
+	public static final String OP_QUEUED = "queued";
+	public static final String OP_COMPLETED = "completed";
+
+	private String op = null;
+	private long id = 0L;
+	private String type = null;
+	private long time = 0L;
+	private Map<String,String> params = new HashMap<String,String>();
+
+	public TaskJournalEntry() {
+
+	}
+
+	/**
+	 * @return the record operation, either OP_QUEUED or OP_COMPLETED
+	 */
+	public String getOp() {
+		return op;
+	}
+
+	/**
+	 * @param op the record operation, either OP_QUEUED or OP_COMPLETED
+	 */
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	/**
+	 * @return the journal ID of the task
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the journal ID of the task
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return the journal type of the task, see JournaledTask.getJournalType()
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @param type the journal type of the task
+	 */
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	/**
+	 * @return time the record was written, in epoch milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @param time time the record was written, in epoch milliseconds
+	 */
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * @return the parameters needed to recreate the task, see JournaledTask.getJournalParams()
+	 */
+	public Map<String, String> getParams() {
+		return params;
+	}
+
+	/**
+	 * @param params the parameters needed to recreate the task
+	 */
+	public void setParams(Map<String, String> params) {
+		this.params = params;
+	}
+
+	@Override
+	public String toString() {
+		return "TaskJournalEntry [op=" + op + ", id=" + id + ", type=" + type + ", time=" + time + ", params=" + params + "]";
+	}
+
+}
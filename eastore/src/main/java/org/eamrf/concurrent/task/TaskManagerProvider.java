@@ -3,6 +3,11 @@
  */
 package org.eamrf.concurrent.task;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eamrf.concurrent.task.metrics.TaskManagerStats;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,11 +24,48 @@ public class TaskManagerProvider {
 
     @InjectLogger
     private Logger logger;
+    
+    // every manager created by this provider, so their metrics can be reported in one place
+    private final List<QueuedTaskManager> managers = new CopyOnWriteArrayList<QueuedTaskManager>();
 	
 	public TaskManagerProvider() {
 	
 	}
 	
+	/**
+	 * Get the task managers which have been started and not yet stopped. Stopped managers are dropped.
+	 * 
+	 * @return
+	 */
+	public List<QueuedTaskManager> getQueuedTaskManagers(){
+		
+		managers.removeIf(QueuedTaskManager::isStopped);
+		
+		List<QueuedTaskManager> started = new ArrayList<QueuedTaskManager>();
+		for(QueuedTaskManager manager : managers) {
+			if(manager.isStarted()) {
+				started.add(manager);
+			}
+		}
+		return started;
+		
+	}
+	
+	/**
+	 * Get queue and task execution metrics for all active task managers
+	 * 
+	 * @return
+	 */
+	public List<TaskManagerStats> getTaskManagerStats(){
+		
+		List<TaskManagerStats> stats = new ArrayList<TaskManagerStats>();
+		for(QueuedTaskManager manager : getQueuedTaskManagers()) {
+			stats.add(manager.getStats());
+		}
+		return stats;
+		
+	}
+	
 	/**
 	 * Create a new singleton instance of QueuedTaskManager 
 	 * 
@@ -38,6 +80,8 @@ public class TaskManagerProvider {
 		// bad hack... figure this out later.
 		manager.setLogger(LoggerFactory.getLogger(QueuedTaskManager.class));
 		
+		managers.add(manager);
+		
 		return manager;
 		
 	}
@@ -57,6 +101,30 @@ public class TaskManagerProvider {
 		// bad hack... figure this out later.
 		manager.setLogger(LoggerFactory.getLogger(QueuedTaskManager.class));
 		
+		managers.add(manager);
+		
+		return manager;
+		
+	}
+	
+	/**
+	 * Create a new singleton instance of QueuedTaskManager, rate limited by a token bucket
+	 * 
+	 * @param permitsPerSecond - steady number of tasks consumed per second
+	 * @param burst - max number of tasks that can be consumed back to back
+	 * @return
+	 */
+	@Bean
+	public QueuedTaskManager createQueuedTaskManager(double permitsPerSecond, int burst){
+		
+		QueuedTaskManager manager = new QueuedTaskManager(permitsPerSecond, burst);
+		
+		// for some reason our BeanPostProcessor is not running, so we manually wire the logger dependency.
+		// bad hack... figure this out later.
+		manager.setLogger(LoggerFactory.getLogger(QueuedTaskManager.class));
+		
+		managers.add(manager);
+		
 		return manager;
 		
 	}	
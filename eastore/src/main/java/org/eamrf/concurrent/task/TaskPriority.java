@@ -0,0 +1,41 @@
+package org.eamrf.concurrent.task;
+
+/**
+ * Priority classes for queued tasks, most urgent first.
+ *
+ * @author slenzi
+ */
+public enum TaskPriority {
+
+	/**
+	 * Single item operations a user is waiting on, e.g. uploading a file or creating a directory
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Default priority
+	 */
+	NORMAL,
+
+	/**
+	 * Large fan-out operations, e.g. copying or moving a directory tree, and all the child tasks they spawn
+	 */
+	BULK,
+
+	/**
+	 * Work nobody is waiting on, e.g. refreshing file binary data in the database, and writing to the search index
+	 */
+	BACKGROUND;
+
+	/**
+	 * Get whichever of the two priorities is less urgent
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static TaskPriority leastUrgent(TaskPriority a, TaskPriority b) {
+		return a.ordinal() >= b.ordinal() ? a : b;
+	}
+
+}
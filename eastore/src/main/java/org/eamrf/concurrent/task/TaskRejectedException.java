@@ -0,0 +1,23 @@
+package org.eamrf.concurrent.task;
+
+import org.eamrf.eastore.core.exception.ServiceException;
+
+/**
+ * Thrown when a task executor is at capacity and won't accept another task. The message says which
+ * limit was reached, so it can be passed back to the user.
+ *
+ * @author slenzi
+ */
+public class TaskRejectedException extends ServiceException {
+
+	private static final long serialVersionUID = -2184716013349206254L;
+
+	public TaskRejectedException(String message) {
+		super(message);
+	}
+
+	public TaskRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
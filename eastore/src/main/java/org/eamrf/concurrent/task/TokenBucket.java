@@ -0,0 +1,92 @@
+package org.eamrf.concurrent.task;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a fixed rate up to the bucket capacity (the burst size),
+ * and each acquire takes one token. Callers only wait when the bucket is empty, and then only for as long
+ * as it takes the next token to arrive, so a burst of work is processed immediately up to the burst size
+ * and then at the steady rate.
+ *
+ * @author slenzi
+ */
+public class TokenBucket {
+
+	private final double capacity;
+	private final double tokensPerNano;
+
+	private double tokens;
+	private long lastRefillNanos;
+
+	/**
+	 *
+	 * @param permitsPerSecond - steady rate at which tokens are added
+	 * @param burst - max number of tokens the bucket can hold
+	 */
+	public TokenBucket(double permitsPerSecond, int burst) {
+		if(permitsPerSecond <= 0.0D) {
+			throw new IllegalArgumentException("permitsPerSecond must be greater than zero");
+		}
+		this.capacity = Math.max(1, burst);
+		this.tokensPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1L);
+		this.tokens = capacity;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	/**
+	 * Create a token bucket which allows one permit every interval, with no bursting
+	 *
+	 * @param intervalMillis - milliseconds between permits
+	 * @return
+	 */
+	public static TokenBucket everyMillis(long intervalMillis) {
+		return new TokenBucket(1000.0D / intervalMillis, 1);
+	}
+
+	/**
+	 * Take one token, waiting for it to become available if the bucket is empty.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos = reserve();
+		if(waitNanos > 0L) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Take one token if one is available right now.
+	 *
+	 * @return true if a token was taken
+	 */
+	public synchronized boolean tryAcquire() {
+		refill();
+		if(tokens >= 1.0D) {
+			tokens -= 1.0D;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reserve the next token, and return how long the caller must wait before using it.
+	 *
+	 * @return wait time in nanoseconds, zero if a token was available
+	 */
+	private synchronized long reserve() {
+		refill();
+		tokens -= 1.0D;
+		if(tokens >= 0.0D) {
+			return 0L;
+		}
+		return (long)Math.ceil(-tokens / tokensPerNano);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+		lastRefillNanos = now;
+	}
+
+}
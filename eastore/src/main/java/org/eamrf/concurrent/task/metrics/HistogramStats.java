@@ -0,0 +1,138 @@
+package org.eamrf.concurrent.task.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of a TaskTimeHistogram
+ * 
+ * @author slenzi
+ */
+public class HistogramStats {
+
+	private long count = 0L;
+	private long totalMillis = 0L;
+	private long maxMillis = 0L;
+	private double meanMillis = 0D;
+	private long p50Millis = 0L;
+	private long p95Millis = 0L;
+	private long p99Millis = 0L;
+	private Map<String,Long> buckets = new LinkedHashMap<String,Long>();
+	
+	public HistogramStats() {
+		
+	}
+
+	/**
+	 * @return number of times recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param count number of times recorded
+	 */
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	/**
+	 * @return sum of all times recorded
+	 */
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+
+	/**
+	 * @param totalMillis sum of all times recorded
+	 */
+	public void setTotalMillis(long totalMillis) {
+		this.totalMillis = totalMillis;
+	}
+
+	/**
+	 * @return largest time recorded
+	 */
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	/**
+	 * @param maxMillis largest time recorded
+	 */
+	public void setMaxMillis(long maxMillis) {
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * @return mean time
+	 */
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	/**
+	 * @param meanMillis mean time
+	 */
+	public void setMeanMillis(double meanMillis) {
+		this.meanMillis = meanMillis;
+	}
+
+	/**
+	 * @return estimated median time
+	 */
+	public long getP50Millis() {
+		return p50Millis;
+	}
+
+	/**
+	 * @param p50Millis estimated median time
+	 */
+	public void setP50Millis(long p50Millis) {
+		this.p50Millis = p50Millis;
+	}
+
+	/**
+	 * @return estimated 95th percentile time
+	 */
+	public long getP95Millis() {
+		return p95Millis;
+	}
+
+	/**
+	 * @param p95Millis estimated 95th percentile time
+	 */
+	public void setP95Millis(long p95Millis) {
+		this.p95Millis = p95Millis;
+	}
+
+	/**
+	 * @return estimated 99th percentile time
+	 */
+	public long getP99Millis() {
+		return p99Millis;
+	}
+
+	/**
+	 * @param p99Millis estimated 99th percentile time
+	 */
+	public void setP99Millis(long p99Millis) {
+		this.p99Millis = p99Millis;
+	}
+
+	/**
+	 * @return count of times in each bucket, keyed by the bucket's upper bound, e.g. "<=250ms"
+	 */
+	public Map<String, Long> getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @param buckets count of times in each bucket
+	 */
+	public void setBuckets(Map<String, Long> buckets) {
+		this.buckets = buckets;
+	}
+
+}
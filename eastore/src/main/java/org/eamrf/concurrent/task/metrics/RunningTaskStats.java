@@ -0,0 +1,90 @@
+package org.eamrf.concurrent.task.metrics;
+
+/**
+ * The task a task manager is currently running
+ * 
+ * @author slenzi
+ */
+public class RunningTaskStats {
+
+	private long taskId = 0L;
+	private String name = null;
+	private String taskClass = null;
+	private String priority = null;
+	private long runningMillis = 0L;
+	
+	public RunningTaskStats() {
+		
+	}
+
+	/**
+	 * @return id of the task
+	 */
+	public long getTaskId() {
+		return taskId;
+	}
+
+	/**
+	 * @param taskId id of the task
+	 */
+	public void setTaskId(long taskId) {
+		this.taskId = taskId;
+	}
+
+	/**
+	 * @return name of the task
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name name of the task
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return simple name of the task class
+	 */
+	public String getTaskClass() {
+		return taskClass;
+	}
+
+	/**
+	 * @param taskClass simple name of the task class
+	 */
+	public void setTaskClass(String taskClass) {
+		this.taskClass = taskClass;
+	}
+
+	/**
+	 * @return priority class the task was queued with
+	 */
+	public String getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority priority class the task was queued with
+	 */
+	public void setPriority(String priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * @return how long the task has been running
+	 */
+	public long getRunningMillis() {
+		return runningMillis;
+	}
+
+	/**
+	 * @param runningMillis how long the task has been running
+	 */
+	public void setRunningMillis(long runningMillis) {
+		this.runningMillis = runningMillis;
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.eamrf.concurrent.task.metrics;
+
+/**
+ * Wait and run times for one class of task, e.g. all RefreshFileBinaryTask instances run by a task manager.
+ * 
+ * @author slenzi
+ */
+public class TaskClassStats {
+
+	private String taskClass = null;
+	private long cancelledCount = 0L;
+	private long failedCount = 0L;
+	private HistogramStats waitTime = null;
+	private HistogramStats runTime = null;
+	
+	public TaskClassStats() {
+		
+	}
+
+	/**
+	 * @return simple name of the task class
+	 */
+	public String getTaskClass() {
+		return taskClass;
+	}
+
+	/**
+	 * @param taskClass simple name of the task class
+	 */
+	public void setTaskClass(String taskClass) {
+		this.taskClass = taskClass;
+	}
+
+	/**
+	 * @return number of tasks which were cancelled
+	 */
+	public long getCancelledCount() {
+		return cancelledCount;
+	}
+
+	/**
+	 * @param cancelledCount number of tasks which were cancelled
+	 */
+	public void setCancelledCount(long cancelledCount) {
+		this.cancelledCount = cancelledCount;
+	}
+
+	/**
+	 * @return number of tasks which completed with an error (not counting cancelled tasks)
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @param failedCount number of tasks which completed with an error
+	 */
+	public void setFailedCount(long failedCount) {
+		this.failedCount = failedCount;
+	}
+
+	/**
+	 * @return time tasks spent in the queue before they started running
+	 */
+	public HistogramStats getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * @param waitTime time tasks spent in the queue before they started running
+	 */
+	public void setWaitTime(HistogramStats waitTime) {
+		this.waitTime = waitTime;
+	}
+
+	/**
+	 * @return time tasks spent running
+	 */
+	public HistogramStats getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * @param runTime time tasks spent running
+	 */
+	public void setRunTime(HistogramStats runTime) {
+		this.runTime = runTime;
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.eamrf.concurrent.task.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects queue and task execution metrics for a task manager. Counts are kept in total since the manager
+ * was created, except the enqueue rate which covers the last minute.
+ * 
+ * @author slenzi
+ */
+public class TaskManagerMetrics {
+
+	// the enqueue rate is averaged over this many one second slots
+	private static final int RATE_WINDOW_SECONDS = 60;
+	
+	private final LongAdder enqueuedCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder completedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder cancelledCount = new LongAdder();
+	
+	// ring of per second enqueue counts, each slot stamped with the second it counts
+	private final AtomicLongArray rateCounts = new AtomicLongArray(RATE_WINDOW_SECONDS);
+	private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS);
+	
+	private final ConcurrentMap<String,TaskClassMetrics> taskClassMetrics = new ConcurrentHashMap<String,TaskClassMetrics>();
+	
+	/**
+	 * Wait and run time histograms for one class of task
+	 */
+	private static class TaskClassMetrics {
+		
+		private final TaskTimeHistogram waitTime = new TaskTimeHistogram();
+		private final TaskTimeHistogram runTime = new TaskTimeHistogram();
+		private final LongAdder failedCount = new LongAdder();
+		private final LongAdder cancelledCount = new LongAdder();
+		
+	}
+	
+	public TaskManagerMetrics() {
+		
+	}
+	
+	/**
+	 * Record that a task was queued
+	 */
+	public void recordEnqueued() {
+		
+		enqueuedCount.increment();
+		
+		long second = System.currentTimeMillis() / 1000L;
+		int slot = (int)(second % RATE_WINDOW_SECONDS);
+		long slotSecond = rateSeconds.get(slot);
+		if(slotSecond != second && rateSeconds.compareAndSet(slot, slotSecond, second)) {
+			// slot last counted a second that's now outside the window, start it over
+			rateCounts.set(slot, 0L);
+		}
+		rateCounts.incrementAndGet(slot);
+		
+	}
+	
+	/**
+	 * Record that a task was merged into an already queued task
+	 */
+	public void recordCoalesced() {
+		coalescedCount.increment();
+	}
+	
+	/**
+	 * Record a task that has finished running (or was cancelled before it ran.)
+	 * 
+	 * @param taskClass - see taskClassName()
+	 * @param waitMillis - time the task spent in the queue
+	 * @param runMillis - time the task spent running
+	 * @param failed - true if the task completed with an error
+	 * @param cancelled - true if the task was cancelled
+	 */
+	public void recordRun(String taskClass, long waitMillis, long runMillis, boolean failed, boolean cancelled) {
+		
+		TaskClassMetrics metrics = taskClassMetrics.computeIfAbsent(taskClass, key -> new TaskClassMetrics());
+		metrics.waitTime.record(waitMillis);
+		metrics.runTime.record(runMillis);
+		
+		completedCount.increment();
+		if(cancelled) {
+			cancelledCount.increment();
+			metrics.cancelledCount.increment();
+		}else if(failed) {
+			failedCount.increment();
+			metrics.failedCount.increment();
+		}
+		
+	}
+	
+	/**
+	 * @return average number of tasks queued per second over the last minute
+	 */
+	public double getEnqueueRatePerSecond() {
+		
+		long second = System.currentTimeMillis() / 1000L;
+		long count = 0L;
+		for(int slot = 0; slot < RATE_WINDOW_SECONDS; slot++) {
+			if(second - rateSeconds.get(slot) < RATE_WINDOW_SECONDS) {
+				count += rateCounts.get(slot);
+			}
+		}
+		return (double)count / RATE_WINDOW_SECONDS;
+		
+	}
+	
+	/**
+	 * Copy the counters and histograms to the stats object. Queue depth and the running task are
+	 * filled in by the task manager.
+	 * 
+	 * @param stats
+	 */
+	public void fill(TaskManagerStats stats) {
+		
+		stats.setEnqueuedCount(enqueuedCount.sum());
+		stats.setCoalescedCount(coalescedCount.sum());
+		stats.setEnqueueRatePerSecond(getEnqueueRatePerSecond());
+		stats.setCompletedCount(completedCount.sum());
+		stats.setFailedCount(failedCount.sum());
+		stats.setCancelledCount(cancelledCount.sum());
+		
+		List<TaskClassStats> classStats = new ArrayList<TaskClassStats>();
+		taskClassMetrics.forEach((taskClass, metrics) -> {
+			TaskClassStats s = new TaskClassStats();
+			s.setTaskClass(taskClass);
+			s.setFailedCount(metrics.failedCount.sum());
+			s.setCancelledCount(metrics.cancelledCount.sum());
+			s.setWaitTime(metrics.waitTime.snapshot());
+			s.setRunTime(metrics.runTime.snapshot());
+			classStats.add(s);
+		});
+		classStats.sort(Comparator.comparing(TaskClassStats::getTaskClass));
+		stats.setTaskClasses(classStats);
+		
+	}
+	
+	/**
+	 * The name metrics are grouped under for a task. Anonymous task classes are grouped with the class they extend.
+	 * 
+	 * @param task
+	 * @return
+	 */
+	public static String taskClassName(Object task) {
+		Class<?> taskClass = task.getClass();
+		while(taskClass.isAnonymousClass() && taskClass.getSuperclass() != null) {
+			taskClass = taskClass.getSuperclass();
+		}
+		return taskClass.getSimpleName();
+	}
+
+}
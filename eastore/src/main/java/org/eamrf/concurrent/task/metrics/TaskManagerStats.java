@@ -0,0 +1,200 @@
+package org.eamrf.concurrent.task.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of a task manager's queue and task execution metrics
+ * 
+ * @author slenzi
+ */
+public class TaskManagerStats {
+
+	private String managerName = null;
+	private boolean running = false;
+	private int queueDepth = 0;
+	private Map<String,Integer> queueDepthByPriority = new LinkedHashMap<String,Integer>();
+	private long enqueuedCount = 0L;
+	private long coalescedCount = 0L;
+	private double enqueueRatePerSecond = 0D;
+	private long completedCount = 0L;
+	private long failedCount = 0L;
+	private long cancelledCount = 0L;
+	private RunningTaskStats runningTask = null;
+	private List<TaskClassStats> taskClasses = new ArrayList<TaskClassStats>();
+	
+	public TaskManagerStats() {
+		
+	}
+
+	/**
+	 * @return name of the task manager
+	 */
+	public String getManagerName() {
+		return managerName;
+	}
+
+	/**
+	 * @param managerName name of the task manager
+	 */
+	public void setManagerName(String managerName) {
+		this.managerName = managerName;
+	}
+
+	/**
+	 * @return true if the task manager's consumer is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @param running true if the task manager's consumer is running
+	 */
+	public void setRunning(boolean running) {
+		this.running = running;
+	}
+
+	/**
+	 * @return number of tasks waiting in the queue
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @param queueDepth number of tasks waiting in the queue
+	 */
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	/**
+	 * @return number of tasks waiting in the queue for each priority class
+	 */
+	public Map<String, Integer> getQueueDepthByPriority() {
+		return queueDepthByPriority;
+	}
+
+	/**
+	 * @param queueDepthByPriority number of tasks waiting in the queue for each priority class
+	 */
+	public void setQueueDepthByPriority(Map<String, Integer> queueDepthByPriority) {
+		this.queueDepthByPriority = queueDepthByPriority;
+	}
+
+	/**
+	 * @return total number of tasks queued
+	 */
+	public long getEnqueuedCount() {
+		return enqueuedCount;
+	}
+
+	/**
+	 * @param enqueuedCount total number of tasks queued
+	 */
+	public void setEnqueuedCount(long enqueuedCount) {
+		this.enqueuedCount = enqueuedCount;
+	}
+
+	/**
+	 * @return total number of tasks merged into an already queued task, rather than queued
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @param coalescedCount total number of tasks merged into an already queued task
+	 */
+	public void setCoalescedCount(long coalescedCount) {
+		this.coalescedCount = coalescedCount;
+	}
+
+	/**
+	 * @return average number of tasks queued per second over the last minute
+	 */
+	public double getEnqueueRatePerSecond() {
+		return enqueueRatePerSecond;
+	}
+
+	/**
+	 * @param enqueueRatePerSecond average number of tasks queued per second over the last minute
+	 */
+	public void setEnqueueRatePerSecond(double enqueueRatePerSecond) {
+		this.enqueueRatePerSecond = enqueueRatePerSecond;
+	}
+
+	/**
+	 * @return total number of tasks run, including failed and cancelled tasks
+	 */
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * @param completedCount total number of tasks run
+	 */
+	public void setCompletedCount(long completedCount) {
+		this.completedCount = completedCount;
+	}
+
+	/**
+	 * @return total number of tasks which completed with an error (not counting cancelled tasks)
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @param failedCount total number of tasks which completed with an error
+	 */
+	public void setFailedCount(long failedCount) {
+		this.failedCount = failedCount;
+	}
+
+	/**
+	 * @return total number of tasks which were cancelled
+	 */
+	public long getCancelledCount() {
+		return cancelledCount;
+	}
+
+	/**
+	 * @param cancelledCount total number of tasks which were cancelled
+	 */
+	public void setCancelledCount(long cancelledCount) {
+		this.cancelledCount = cancelledCount;
+	}
+
+	/**
+	 * @return the task currently running, or null if the manager is idle
+	 */
+	public RunningTaskStats getRunningTask() {
+		return runningTask;
+	}
+
+	/**
+	 * @param runningTask the task currently running
+	 */
+	public void setRunningTask(RunningTaskStats runningTask) {
+		this.runningTask = runningTask;
+	}
+
+	/**
+	 * @return wait and run times for each class of task the manager has run
+	 */
+	public List<TaskClassStats> getTaskClasses() {
+		return taskClasses;
+	}
+
+	/**
+	 * @param taskClasses wait and run times for each class of task
+	 */
+	public void setTaskClasses(List<TaskClassStats> taskClasses) {
+		this.taskClasses = taskClasses;
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.eamrf.concurrent.task.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of task times in milliseconds, using fixed buckets. Recording is lock free, so it can be called
+ * from the task manager's consumer thread without slowing it down.
+ * 
+ * Percentiles are estimated as the upper bound of the bucket the percentile falls in.
+ * 
+ * @author slenzi
+ */
+public class TaskTimeHistogram {
+
+	// bucket upper bounds in milliseconds, the last bucket holds everything larger
+	private static final long[] BUCKET_BOUNDS = {
+			1L, 2L, 5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L, 60000L, 300000L
+	};
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+	private final LongAdder totalMillis = new LongAdder();
+	private final AtomicLong maxMillis = new AtomicLong(0L);
+	
+	public TaskTimeHistogram() {
+		
+	}
+	
+	/**
+	 * Record a time
+	 * 
+	 * @param millis
+	 */
+	public void record(long millis) {
+		
+		long value = Math.max(0L, millis);
+		
+		counts.incrementAndGet(bucketFor(value));
+		totalMillis.add(value);
+		maxMillis.accumulateAndGet(value, Math::max);
+		
+	}
+	
+	/**
+	 * Take a snapshot of the histogram
+	 * 
+	 * @return
+	 */
+	public HistogramStats snapshot() {
+		
+		long[] bucketCounts = new long[counts.length()];
+		long count = 0L;
+		for(int i = 0; i < bucketCounts.length; i++) {
+			bucketCounts[i] = counts.get(i);
+			count += bucketCounts[i];
+		}
+		
+		Map<String,Long> buckets = new LinkedHashMap<String,Long>();
+		for(int i = 0; i < bucketCounts.length; i++) {
+			buckets.put(bucketLabel(i), bucketCounts[i]);
+		}
+		
+		long total = totalMillis.sum();
+		
+		HistogramStats stats = new HistogramStats();
+		stats.setCount(count);
+		stats.setTotalMillis(total);
+		stats.setMaxMillis(maxMillis.get());
+		stats.setMeanMillis(count > 0 ? ((double)total / count) : 0D);
+		stats.setP50Millis(percentile(bucketCounts, count, 0.50D));
+		stats.setP95Millis(percentile(bucketCounts, count, 0.95D));
+		stats.setP99Millis(percentile(bucketCounts, count, 0.99D));
+		stats.setBuckets(buckets);
+		
+		return stats;
+		
+	}
+	
+	private long percentile(long[] bucketCounts, long count, double percentile) {
+		
+		if(count == 0L) {
+			return 0L;
+		}
+		
+		long rank = (long)Math.ceil(count * percentile);
+		long seen = 0L;
+		for(int i = 0; i < bucketCounts.length; i++) {
+			seen += bucketCounts[i];
+			if(seen >= rank) {
+				// the open ended last bucket is reported as the largest time recorded
+				return i < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[i], maxMillis.get()) : maxMillis.get();
+			}
+		}
+		return maxMillis.get();
+		
+	}
+	
+	private static int bucketFor(long millis) {
+		for(int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			if(millis <= BUCKET_BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BUCKET_BOUNDS.length;
+	}
+	
+	private static String bucketLabel(int index) {
+		if(index < BUCKET_BOUNDS.length) {
+			return "<=" + BUCKET_BOUNDS[index] + "ms";
+		}
+		return ">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] + "ms";
+	}
+
+}
@@ -17,6 +17,7 @@ import org.eamrf.eastore.web.jaxrs.core.rs.FileSystemActionResource;
 import org.eamrf.eastore.web.jaxrs.core.rs.FileSystemJsonResource;
 import org.eamrf.eastore.web.jaxrs.core.rs.FileSystemSearchResource;
 import org.eamrf.eastore.web.jaxrs.core.rs.StoreApplication;
+import org.eamrf.eastore.web.jaxrs.core.rs.TaskResource;
 import org.eamrf.eastore.web.jaxrs.core.rs.TestResource;
 import org.eamrf.eastore.web.jaxrs.core.rs.TreeResource;
 import org.eamrf.eastore.web.jaxrs.core.security.EAAuthRequestHandler;
@@ -59,6 +60,8 @@ public class CxfConfig {
     public ServletRegistrationBean cxfServlet() {
         final ServletRegistrationBean servletRegistrationBean = new ServletRegistrationBean(new CXFServlet(), "/services/*");
         servletRegistrationBean.setLoadOnStartup(1);
+        // needed for the @Suspended AsyncResponse endpoints in FileSystemActionResource
+        servletRegistrationBean.setAsyncSupported(true);
         return servletRegistrationBean;
     }	
 	
@@ -89,7 +92,8 @@ public class CxfConfig {
 							getClosureResource(),
 							getFileSystemJsonResource(),
 							getFileSystemActionResource(),
-							getFileSystemSearchResource()
+							getFileSystemSearchResource(),
+							getTaskResource()
 							)
 					);
 			
@@ -143,6 +147,11 @@ public class CxfConfig {
 			return new FileSystemSearchResource();
 		}
 		
+		@Bean
+		public TaskResource getTaskResource() {
+			return new TaskResource();
+		}
+		
 		// marshalling json for our jax-rs services
 		@Bean
 	    public JacksonJsonProvider getJsonProvider() {
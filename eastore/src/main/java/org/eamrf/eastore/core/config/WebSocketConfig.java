@@ -48,10 +48,12 @@ public class WebSocketConfig extends AbstractWebSocketMessageBrokerConfigurer {
         threadPool.setThreadNamePrefix("wss-heartbeat-thread-");
         threadPool.initialize();		
 		
-		registry.enableSimpleBroker("/topic")
+		// '/topic' for broadcasts, '/queue' for messages sent to a single user (clients subscribe to /user/queue/...)
+		registry.enableSimpleBroker("/topic", "/queue")
 			.setTaskScheduler(threadPool); // for scheduling heartbeats
 		
 		registry.setApplicationDestinationPrefixes("/app");
+		registry.setUserDestinationPrefix("/user");
 		
 		logger.info("Message broker registery = " + registry.toString());		
 		
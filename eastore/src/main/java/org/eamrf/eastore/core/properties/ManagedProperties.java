@@ -1,5 +1,7 @@
 package org.eamrf.eastore.core.properties;
 
+import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
@@ -15,6 +17,9 @@ import org.springframework.stereotype.Component;
 @Scope("singleton")
 public class ManagedProperties {
 
+	@InjectLogger
+	private Logger logger;
+	
 	@Autowired
 	Environment env;
 	
@@ -35,6 +40,27 @@ public class ManagedProperties {
 		return env.getProperty(name);
 	}
 	
+	/**
+	 * Read a positive integer property
+	 * 
+	 * @param name - property name
+	 * @param defaultValue - value returned when the property is not set, not a number, or not positive
+	 * @return
+	 */
+	public int getIntProperty(String name, int defaultValue) {
+		String value = env.getProperty(name);
+		if(value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			return intValue > 0 ? intValue : defaultValue;
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid value '" + value + "' for property " + name + ", using default " + defaultValue);
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * @return the appTitle
 	 */
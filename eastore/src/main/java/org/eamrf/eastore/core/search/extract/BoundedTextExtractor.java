@@ -0,0 +1,422 @@
+package org.eamrf.eastore.core.search.extract;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the file text extractors in an isolated worker pool, with a cap on the number of extracted
+ * characters and a hard time limit for each file. The time limit applies twice, once to getting a
+ * worker (admission plus time in the queue), and once to the extraction itself, counted from when a
+ * worker starts on the file. So a file queued behind slow files still gets its full run time.
+ *
+ * Memory aware admission - each extraction must acquire permits from a memory budget (one permit per MB
+ * of file size) before it is queued, so large files get fewer concurrent slots than small ones.
+ *
+ * Crash containment - when a file times out its worker is interrupted. Streaming extractors stop on their
+ * next write, but a parser which ignores interrupts can keep its thread busy. Such workers are abandoned,
+ * and the pool temporarily grows by one thread (up to a limit) so the extraction queue keeps draining.
+ * An abandoned worker's permits are returned to the budget right away, so a stuck parser can't starve
+ * admission for every file after it. The permits are counted as leaked until the worker finishes, see
+ * getLeakedPermits(). Errors thrown by a parser (including OutOfMemoryError) fail only that file.
+ *
+ * Metrics are available over JMX, see BoundedTextExtractorMXBean.
+ *
+ * @author slenzi
+ */
+public class BoundedTextExtractor implements BoundedTextExtractorMXBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(BoundedTextExtractor.class);
+
+	private static final long BYTES_PER_PERMIT = 1024L * 1024L;
+
+	private final Collection<FileTextExtractor> allExtractors;
+
+	// cache of mime type to extractor
+	private final Map<String,FileTextExtractor> extractorMap = new ConcurrentHashMap<String,FileTextExtractor>();
+
+	private final int maxChars;
+	private final long timeoutMillis;
+	private final int numThreads;
+
+	// memory budget for concurrent extractions, one permit per MB of file size
+	private final int totalPermits;
+	private final Semaphore admission;
+
+	// workers still running a timed out extraction, the pool is grown by this many threads (up to numThreads more)
+	private final AtomicInteger abandonedWorkers = new AtomicInteger(0);
+
+	// permits released on behalf of abandoned workers that are still running
+	private final AtomicInteger leakedPermits = new AtomicInteger(0);
+
+	private final AtomicLong notAdmittedCount = new AtomicLong(0L);
+	private final AtomicLong timeoutCount = new AtomicLong(0L);
+
+	private final ThreadPoolExecutor executorService;
+
+	private ObjectName mbeanName = null;
+
+	/**
+	 *
+	 * @param extractors - all available extractors
+	 * @param maxChars - max number of characters to extract from a file
+	 * @param timeoutMillis - max time to wait for a worker to start on a file, and max time to spend extracting it
+	 * @param numThreads - number of extraction threads
+	 * @param memoryBudgetMb - total size (MB) of files which can be extracted at the same time
+	 */
+	public BoundedTextExtractor(Collection<FileTextExtractor> extractors, int maxChars, long timeoutMillis, int numThreads, int memoryBudgetMb) {
+		this.allExtractors = extractors;
+		this.maxChars = maxChars;
+		this.timeoutMillis = timeoutMillis;
+		this.numThreads = numThreads;
+		this.totalPermits = Math.max(1, memoryBudgetMb);
+		this.admission = new Semaphore(totalPermits, true);
+		this.executorService = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("text-extractor-%d").setDaemon(true).build());
+		registerMBean();
+	}
+
+	/**
+	 * Check if there is an extractor for the mime type
+	 *
+	 * @param mimeType
+	 * @return
+	 */
+	public boolean canExtract(String mimeType) {
+		return getExtractorForMime(mimeType) != null;
+	}
+
+	/**
+	 * Extract text from the file. At most maxChars characters are returned.
+	 *
+	 * @param filePath - path to the file
+	 * @param mimeType - the file's mime type
+	 * @return the extracted text, or null if there is no extractor for the mime type, or if the file could
+	 * not be admitted or extracted within the time limit.
+	 * @throws IOException - if extraction failed
+	 */
+	public String extract(Path filePath, String mimeType) throws IOException {
+
+		FileTextExtractor extractor = getExtractorForMime(mimeType);
+		if(extractor == null) {
+			return null;
+		}
+
+		final long startDeadline = System.currentTimeMillis() + timeoutMillis;
+
+		final int permits = getPermitsForFile(filePath);
+		try {
+			if(!admission.tryAcquire(permits, timeoutMillis, TimeUnit.MILLISECONDS)) {
+				notAdmittedCount.incrementAndGet();
+				logger.warn("Text extraction for " + filePath + " not admitted within " + timeoutMillis + "ms (needs " + permits +
+						" of " + totalPermits + "MB memory budget), indexing without content.");
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to extract text from " + filePath, e);
+		}
+
+		BoundedTextWriter writer = new BoundedTextWriter(maxChars);
+		ExtractionJob job = new ExtractionJob(extractor, filePath, writer, permits);
+		Future<Void> future = executorService.submit(job);
+
+		try {
+			awaitJob(job, future, startDeadline);
+		} catch (TimeoutException e) {
+			timeoutCount.incrementAndGet();
+			if(job.state.get() == ExtractionJob.CANCELLED) {
+				logger.warn("Text extraction for " + filePath + " did not start within " + timeoutMillis + "ms, indexing without content.");
+			}else {
+				cancel(job, future);
+				logger.warn("Text extraction for " + filePath + " timed out after " + timeoutMillis + "ms, indexing without content.");
+			}
+			return null;
+		} catch (InterruptedException e) {
+			cancel(job, future);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while extracting text from " + filePath, e);
+		} catch (ExecutionException e) {
+			if(!writer.isTruncated()) {
+				Throwable cause = e.getCause();
+				throw new IOException("Failed to extract text from " + filePath + ", " + cause, cause);
+			}
+		}
+
+		if(writer.isTruncated()) {
+			logger.info("Extracted text for " + filePath + " truncated at " + maxChars + " characters.");
+		}
+
+		return writer.toString();
+
+	}
+
+	/**
+	 * Wait for the job to complete. While it's queued the wait ends at 'startDeadline', and a job which
+	 * hasn't started by then is cancelled (and its permits returned.) Once a worker starts on it, the job
+	 * has timeoutMillis from its start time.
+	 *
+	 * @param job
+	 * @param future
+	 * @param startDeadline - time the job must start by
+	 * @throws TimeoutException - if the job didn't start (job state is CANCELLED), or didn't complete, in time
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private void awaitJob(ExtractionJob job, Future<Void> future, long startDeadline) throws TimeoutException, InterruptedException, ExecutionException {
+		while(true) {
+			long startTime = job.startTime;
+			long deadline = startTime > 0L ? startTime + timeoutMillis : startDeadline;
+			long waitMillis = deadline - System.currentTimeMillis();
+			if(waitMillis <= 0L) {
+				if(startTime > 0L) {
+					throw new TimeoutException();
+				}
+				if(job.state.compareAndSet(ExtractionJob.QUEUED, ExtractionJob.CANCELLED)) {
+					future.cancel(false);
+					admission.release(job.permits);
+					throw new TimeoutException();
+				}
+				// a worker just started on it, wait for its run time
+				continue;
+			}
+			try {
+				future.get(waitMillis, TimeUnit.MILLISECONDS);
+				return;
+			} catch (TimeoutException e) {
+				// check again, the job may have started while we waited
+			}
+		}
+	}
+
+	/**
+	 * Get the number of memory budget permits needed to extract the file, one per MB of file size, capped
+	 * at the total budget so very large files can still run (alone.)
+	 *
+	 * @param filePath
+	 * @return
+	 */
+	private int getPermitsForFile(Path filePath) {
+		long fileSize = 0L;
+		try {
+			fileSize = Files.size(filePath);
+		} catch (IOException e) {
+			// let the extractor report the problem
+		}
+		long permits = (fileSize + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT;
+		return (int)Math.max(1L, Math.min(permits, totalPermits));
+	}
+
+	/**
+	 * Cancel an extraction job which ran out of time. The job's permits are returned right away. If the job
+	 * had started, its worker is interrupted and abandoned, and a replacement thread is added.
+	 *
+	 * @param job
+	 * @param future
+	 */
+	private void cancel(ExtractionJob job, Future<Void> future) {
+		if(job.state.compareAndSet(ExtractionJob.QUEUED, ExtractionJob.CANCELLED)) {
+			future.cancel(false);
+			admission.release(job.permits);
+			return;
+		}
+		future.cancel(true);
+		if(job.state.compareAndSet(ExtractionJob.RUNNING, ExtractionJob.ABANDONED)) {
+			// the worker may never finish, don't let it hold on to its share of the budget
+			leakedPermits.addAndGet(job.permits);
+			admission.release(job.permits);
+			int abandoned = abandonedWorkers.incrementAndGet();
+			logger.warn("Abandoned text extraction worker for " + job.filePath + ", " + abandoned + " worker(s) currently abandoned, " + 
+					leakedPermits.get() + " permit(s) leaked.");
+			resizePool();
+		}
+	}
+
+	/**
+	 * Size the pool to the configured number of threads plus one for each abandoned worker, up to
+	 * double the configured size.
+	 */
+	private synchronized void resizePool() {
+		int size = numThreads + Math.min(abandonedWorkers.get(), numThreads);
+		if(size > executorService.getMaximumPoolSize()) {
+			executorService.setMaximumPoolSize(size);
+			executorService.setCorePoolSize(size);
+		}else if(size < executorService.getMaximumPoolSize()) {
+			executorService.setCorePoolSize(size);
+			executorService.setMaximumPoolSize(size);
+		}
+	}
+
+	/**
+	 * Fetch the extractor that can extract text from files with the specified mime type.
+	 *
+	 * @param mimeType
+	 * @return
+	 */
+	private FileTextExtractor getExtractorForMime(String mimeType) {
+		if(mimeType == null) {
+			return null;
+		}
+		FileTextExtractor extractor = extractorMap.get(mimeType);
+		if(extractor == null && allExtractors != null && allExtractors.size() > 0) {
+			for(FileTextExtractor ext : allExtractors) {
+				if(ext.canExtract(mimeType)) {
+					extractor = ext;
+					extractorMap.put(mimeType, extractor);
+					return extractor;
+				}
+			}
+		}
+		return extractor;
+	}
+
+	/**
+	 * Stop the extraction threads
+	 */
+	public void shutdown() {
+		executorService.shutdownNow();
+		unregisterMBean();
+	}
+
+	@Override
+	public int getTotalPermits() {
+		return totalPermits;
+	}
+
+	@Override
+	public int getAvailablePermits() {
+		return admission.availablePermits();
+	}
+
+	@Override
+	public int getLeakedPermits() {
+		return leakedPermits.get();
+	}
+
+	@Override
+	public int getAbandonedWorkers() {
+		return abandonedWorkers.get();
+	}
+
+	@Override
+	public long getNotAdmittedCount() {
+		return notAdmittedCount.get();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	@Override
+	public int getPoolSize() {
+		return executorService.getPoolSize();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return executorService.getQueue().size();
+	}
+
+	/**
+	 * Register with the platform MBean server. A failure is logged, extraction still works.
+	 */
+	private void registerMBean() {
+		try {
+			ObjectName name = new ObjectName("org.eamrf.eastore.core.search.extract:type=BoundedTextExtractor");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			mbeanName = name;
+		} catch (JMException e) {
+			logger.warn("Could not register text extractor with JMX, " + e.getMessage());
+		}
+	}
+
+	private void unregisterMBean() {
+		if(mbeanName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		} catch (JMException e) {
+			logger.warn("Could not unregister text extractor from JMX, " + e.getMessage());
+		}
+		mbeanName = null;
+	}
+
+	/**
+	 * Extracts text from one file on a worker thread. Tracks its state so a timed out job can be told
+	 * apart from one which never started, and returns its memory permits when it completes (unless they
+	 * were already returned when the job was abandoned.)
+	 */
+	private class ExtractionJob implements Callable<Void> {
+
+		static final int QUEUED = 0;
+		static final int RUNNING = 1;
+		static final int DONE = 2;
+		static final int ABANDONED = 3;
+		static final int CANCELLED = 4;
+
+		final AtomicInteger state = new AtomicInteger(QUEUED);
+		final FileTextExtractor extractor;
+		final Path filePath;
+		final BoundedTextWriter writer;
+		final int permits;
+
+		// time a worker started on the job, zero while it's queued
+		volatile long startTime = 0L;
+
+		ExtractionJob(FileTextExtractor extractor, Path filePath, BoundedTextWriter writer, int permits) {
+			this.extractor = extractor;
+			this.filePath = filePath;
+			this.writer = writer;
+			this.permits = permits;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			if(!state.compareAndSet(QUEUED, RUNNING)) {
+				return null;
+			}
+			startTime = System.currentTimeMillis();
+			try {
+				extractor.extract(filePath, writer);
+				return null;
+			} finally {
+				if(state.compareAndSet(RUNNING, DONE)) {
+					admission.release(permits);
+				}else {
+					// timed out earlier and the permits were already returned, this worker's replacement
+					// thread is no longer needed
+					leakedPermits.addAndGet(-permits);
+					int abandoned = abandonedWorkers.decrementAndGet();
+					logger.info("Abandoned text extraction worker for " + filePath + " finished, " + abandoned + " worker(s) still abandoned.");
+					resizePool();
+				}
+			}
+		}
+
+	}
+
+}
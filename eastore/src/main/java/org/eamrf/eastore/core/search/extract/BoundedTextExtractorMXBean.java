@@ -0,0 +1,52 @@
+package org.eamrf.eastore.core.search.extract;
+
+/**
+ * JMX view of the BoundedTextExtractor, registered under
+ * org.eamrf.eastore.core.search.extract:type=BoundedTextExtractor
+ *
+ * @author slenzi
+ */
+public interface BoundedTextExtractorMXBean {
+
+	/**
+	 * @return size of the memory budget, one permit per MB
+	 */
+	public int getTotalPermits();
+
+	/**
+	 * @return permits not held by a running or queued extraction
+	 */
+	public int getAvailablePermits();
+
+	/**
+	 * @return permits which were returned to the budget when their extraction was abandoned, but whose worker
+	 * is still running (and may still be using the memory.) Goes back down as abandoned workers finish.
+	 */
+	public int getLeakedPermits();
+
+	/**
+	 * @return workers still running a timed out extraction
+	 */
+	public int getAbandonedWorkers();
+
+	/**
+	 * @return number of extractions which were not admitted to the memory budget in time
+	 */
+	public long getNotAdmittedCount();
+
+	/**
+	 * @return number of extractions which timed out
+	 */
+	public long getTimeoutCount();
+
+	/**
+	 * @return number of threads in the extraction pool, including replacements for abandoned workers
+	 */
+	public int getPoolSize();
+
+	/**
+	 * @return number of admitted extractions waiting for a worker
+	 */
+	public int getQueueDepth();
+
+}
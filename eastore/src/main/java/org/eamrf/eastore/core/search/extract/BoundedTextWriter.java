@@ -0,0 +1,85 @@
+package org.eamrf.eastore.core.search.extract;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+
+/**
+ * Writer which buffers extracted text up to a maximum number of characters. Once the limit is reached
+ * any further write throws an ExtractionLimitException, which stops streaming extractors early rather
+ * than parsing the rest of the file only to throw the text away.
+ *
+ * Writes also fail with an InterruptedIOException when the extracting thread has been interrupted, which
+ * is how a timed out extraction is stopped.
+ *
+ * @author slenzi
+ */
+public class BoundedTextWriter extends Writer {
+
+	private final StringBuilder buffer;
+	private final int maxChars;
+	private boolean truncated = false;
+
+	/**
+	 *
+	 * @param maxChars - max number of characters to keep
+	 */
+	public BoundedTextWriter(int maxChars) {
+		this.maxChars = maxChars;
+		this.buffer = new StringBuilder(Math.min(maxChars, 8192));
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if(Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Text extraction interrupted");
+		}
+		int remaining = maxChars - buffer.length();
+		if(len > remaining) {
+			buffer.append(cbuf, off, remaining);
+			truncated = true;
+			throw new ExtractionLimitException("Reached max of " + maxChars + " extracted characters");
+		}
+		buffer.append(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		if(Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Text extraction interrupted");
+		}
+		int remaining = maxChars - buffer.length();
+		if(len > remaining) {
+			buffer.append(str, off, off + remaining);
+			truncated = true;
+			throw new ExtractionLimitException("Reached max of " + maxChars + " extracted characters");
+		}
+		buffer.append(str, off, off + len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+	}
+
+	/**
+	 * @return true if text was dropped because the limit was reached
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the text written so far, at most maxChars long
+	 */
+	@Override
+	public String toString() {
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.eamrf.eastore.core.search.extract;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a BoundedTextWriter when the max number of extracted characters has been reached. Not an
+ * error, the text extracted up to that point is still used.
+ *
+ * @author slenzi
+ */
+public class ExtractionLimitException extends IOException {
+
+	private static final long serialVersionUID = -2651842318306517423L;
+
+	public ExtractionLimitException(String message) {
+		super(message);
+	}
+
+}
@@ -4,6 +4,7 @@
 package org.eamrf.eastore.core.search.extract;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Path;
 
 /**
@@ -21,12 +22,14 @@ public interface FileTextExtractor {
 	public boolean canExtract(String mimeType);
 
 	/**
-	 * Extract text from the file at the path
+	 * Extract text from the file at the path, streaming it to the writer as it's extracted. Extractors
+	 * should write text progressively where the file format allows it, so a BoundedTextWriter can stop
+	 * the extraction once enough text has been collected.
 	 * 
 	 * @param filePath
-	 * @return
+	 * @param writer - receives the extracted text
 	 * @throws IOException
 	 */
-	public String extract(Path filePath) throws IOException;
+	public void extract(Path filePath, Writer writer) throws IOException;
 	
 }
@@ -5,14 +5,46 @@ package org.eamrf.eastore.core.search.extract;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.apache.poi.hssf.extractor.ExcelExtractor;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.poifs.filesystem.FileMagic;
-import org.apache.poi.xssf.extractor.XSSFExcelExtractor;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /**
  * Extract text from Microsoft Excel files.
@@ -28,6 +60,10 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
  *	.xlam     application/vnd.ms-excel.addin.macroEnabled.12
  *	.xlsb     application/vnd.ms-excel.sheet.binary.macroEnabled.12
  * 
+ * Workbooks are read with the POI event APIs rather than loading the full workbook model. OLE2 (.xls)
+ * workbooks are read record by record, and OOXML sheets are parsed with SAX. In both cases each cell is
+ * written to the output as it's read, so the text limit stops the parser early.
+ * 
  * @author slenzi
  */
 public class MsExcelExtractor implements FileTextExtractor {
@@ -57,28 +93,238 @@ public class MsExcelExtractor implements FileTextExtractor {
 	}
 
 	/* (non-Javadoc)
-	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path)
+	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path, java.io.Writer)
 	 */
 	@Override
-	public String extract(Path filePath) throws IOException {
+	public void extract(Path filePath, Writer writer) throws IOException {
 
-		String text = null;
+		FileMagic fileMagic = null;
 		try(BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(filePath))){
-			if (FileMagic.valueOf(bis) == FileMagic.OLE2) {
-				//System.out.println("MS Excel type: OLE2");
-				HSSFWorkbook book = new HSSFWorkbook(bis);
-				ExcelExtractor ex = new ExcelExtractor(book);
-				text = ex.getText();
-				ex.close();
-			} else if(FileMagic.valueOf(bis) == FileMagic.OOXML) {
-				//System.out.println("MS Excel type: OOXML");
-				XSSFWorkbook book = new XSSFWorkbook(bis);
-				XSSFExcelExtractor extractor = new XSSFExcelExtractor(book);
-				text = extractor.getText();
-				extractor.close();				
+			fileMagic = FileMagic.valueOf(bis);
+		}
+		
+		if (fileMagic == FileMagic.OLE2) {
+			extractOle2(filePath, writer);
+		} else if(fileMagic == FileMagic.OOXML) {
+			extractOoxml(filePath, writer);
+		}
+		
+	}
+	
+	/**
+	 * Stream cell text from each sheet of an OLE2 workbook using the HSSF event API.
+	 * 
+	 * @param filePath
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void extractOle2(Path filePath, Writer writer) throws IOException {
+		
+		try(POIFSFileSystem fs = new POIFSFileSystem(filePath.toFile(), true)){
+			OleSheetTextListener textListener = new OleSheetTextListener(writer);
+			HSSFRequest request = new HSSFRequest();
+			request.addListenerForAllRecords(textListener.formatListener);
+			new HSSFEventFactory().processWorkbookEvents(request, fs);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		
+	}
+	
+	/**
+	 * Stream cell text from each sheet of an OOXML workbook using the SAX based sheet handler.
+	 * 
+	 * @param filePath
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void extractOoxml(Path filePath, Writer writer) throws IOException {
+		
+		OPCPackage pkg = null;
+		try {
+			pkg = OPCPackage.open(filePath.toFile(), PackageAccess.READ);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			XSSFReader reader = new XSSFReader(pkg);
+			StylesTable styles = reader.getStylesTable();
+			DataFormatter formatter = new DataFormatter();
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+			while(sheets.hasNext()) {
+				try(InputStream sheet = sheets.next()){
+					writer.write(sheets.getSheetName());
+					writer.write("\n");
+					XMLReader parser = SAXHelper.newXMLReader();
+					parser.setContentHandler(new XSSFSheetXMLHandler(
+							styles, null, strings, new SheetTextHandler(writer), formatter, false));
+					parser.parse(new InputSource(sheet));
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new IOException("Failed to read workbook " + filePath + ", " + e.getMessage(), e);
+		} finally {
+			if(pkg != null) {
+				pkg.revert();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Writes each sheet name, then each cell's formatted value, tab separated, one line per row. Same
+	 * output as the OOXML handler. Rows with no text are skipped.
+	 */
+	private static class OleSheetTextListener implements HSSFListener {
+		
+		private final Writer writer;
+		
+		// formats number and date cells, passes every record on to this listener
+		private final FormatTrackingHSSFListener formatListener;
+		
+		// sheet names, in the order the sheets appear in the file
+		private final List<String> sheetNames = new ArrayList<String>();
+		private int sheetIndex = -1;
+		
+		private SSTRecord sharedStrings = null;
+		
+		// row of the last cell written in the current sheet, -1 if none yet
+		private int lastRow = -1;
+		
+		// a string formula's value is in the StringRecord which follows it
+		private int stringFormulaRow = -1;
+		
+		public OleSheetTextListener(Writer writer) {
+			this.writer = writer;
+			this.formatListener = new FormatTrackingHSSFListener(this);
+		}
+
+		@Override
+		public void processRecord(Record record) {
+			
+			switch(record.getSid()) {
+				case BoundSheetRecord.sid:
+					sheetNames.add(((BoundSheetRecord)record).getSheetname());
+					break;
+				case BOFRecord.sid:
+					if(((BOFRecord)record).getType() == BOFRecord.TYPE_WORKSHEET) {
+						sheetIndex++;
+						lastRow = -1;
+						if(sheetIndex < sheetNames.size()) {
+							write(sheetNames.get(sheetIndex));
+							write("\n");
+						}
+					}
+					break;
+				case EOFRecord.sid:
+					if(lastRow >= 0) {
+						write("\n");
+						lastRow = -1;
+					}
+					break;
+				case SSTRecord.sid:
+					sharedStrings = (SSTRecord)record;
+					break;
+				case LabelSSTRecord.sid:
+					LabelSSTRecord labelSst = (LabelSSTRecord)record;
+					if(sharedStrings != null) {
+						cell(labelSst.getRow(), sharedStrings.getString(labelSst.getSSTIndex()).getString());
+					}
+					break;
+				case LabelRecord.sid:
+					LabelRecord label = (LabelRecord)record;
+					cell(label.getRow(), label.getValue());
+					break;
+				case NumberRecord.sid:
+					NumberRecord number = (NumberRecord)record;
+					cell(number.getRow(), formatListener.formatNumberDateCell(number));
+					break;
+				case FormulaRecord.sid:
+					FormulaRecord formula = (FormulaRecord)record;
+					if(formula.hasCachedResultString()) {
+						stringFormulaRow = formula.getRow();
+					}else {
+						cell(formula.getRow(), formatListener.formatNumberDateCell(formula));
+					}
+					break;
+				case StringRecord.sid:
+					if(stringFormulaRow >= 0) {
+						cell(stringFormulaRow, ((StringRecord)record).getString());
+						stringFormulaRow = -1;
+					}
+					break;
+				default:
+					break;
+			}
+			
+		}
+		
+		private void cell(int row, String value) {
+			if(value == null) {
+				return;
+			}
+			if(row != lastRow) {
+				if(lastRow >= 0) {
+					write("\n");
+				}
+				lastRow = row;
+			}
+			write(value);
+			write("\t");
+		}
+		
+		private void write(String text) {
+			try {
+				writer.write(text);
+			} catch (IOException e) {
+				// event listeners can't throw IOException, unwrapped in extractOle2()
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Writes each cell's formatted value to the writer, tab separated, one line per row.
+	 */
+	private static class SheetTextHandler implements SheetContentsHandler {
+		
+		private final Writer writer;
+		
+		public SheetTextHandler(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+			write("\n");
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			if(formattedValue != null) {
+				write(formattedValue);
+				write("\t");
+			}
+		}
+
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+			
+		}
+		
+		private void write(String text) {
+			try {
+				writer.write(text);
+			} catch (IOException e) {
+				// SAX callbacks can't throw IOException, unwrapped in extractOoxml()
+				throw new UncheckedIOException(e);
 			}
 		}
-		return text;		
 		
 	}
 
@@ -5,6 +5,7 @@ package org.eamrf.eastore.core.search.extract;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -51,10 +52,10 @@ public class MsWordExtractor implements FileTextExtractor {
 	}
 
 	/* (non-Javadoc)
-	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path)
+	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path, java.io.Writer)
 	 */
 	@Override
-	public String extract(Path filePath) throws IOException {
+	public void extract(Path filePath, Writer writer) throws IOException {
 
 		String text = null;
 		try(BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(filePath))){
@@ -71,7 +72,9 @@ public class MsWordExtractor implements FileTextExtractor {
 				extractor.close();
 			}
 		}
-		return text;		
+		if(text != null) {
+			writer.write(text);
+		}
 		
 	}
 
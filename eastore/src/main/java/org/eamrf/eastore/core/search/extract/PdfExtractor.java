@@ -4,17 +4,22 @@
 package org.eamrf.eastore.core.search.extract;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Path;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.text.PDFTextStripperByArea;
 
 /**
  * Extract text from Adobe PDF files.
  * 
  * .pdf		application/pdf
  * 
+ * The whole document is stripped in one pass. PDFTextStripper writes each page to the output as it is
+ * processed, so the text is never held as one String. The document is loaded with temp file backed buffers
+ * so large PDFs are not held in heap memory.
+ * 
  * @author slenzi
  */
 public class PdfExtractor implements FileTextExtractor {
@@ -42,38 +47,22 @@ public class PdfExtractor implements FileTextExtractor {
 
 
 	/* (non-Javadoc)
-	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path)
+	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path, java.io.Writer)
 	 */
 	@Override
-	public String extract(Path filePath) throws IOException {
-
-		try (PDDocument document = PDDocument.load(filePath.toFile())) {
-
-            if (!document.isEncrypted()) {
-
-                PDFTextStripperByArea stripper = new PDFTextStripperByArea();
-                stripper.setSortByPosition(true);
+	public void extract(Path filePath, Writer writer) throws IOException {
 
-                PDFTextStripper tStripper = new PDFTextStripper();
+		try (PDDocument document = PDDocument.load(filePath.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
 
-                String pdfFileInText = tStripper.getText(document);
-
-                /*
-				// split by whitespace
-                String lines[] = pdfFileInText.split("\\r?\\n");
-                for (String line : lines) {
-                    System.out.println(line);
-                }
-                */
-                
-                return pdfFileInText;
-
-            }			
+			if (document.isEncrypted()) {
+				return;
+			}
+			
+			// one pass over the page tree. Stripping page ranges would walk the tree again for every page.
+			new PDFTextStripper().writeText(document, writer);
 			
 		}
 		
-		return null;		
-		
 	}
 
 }
@@ -5,6 +5,7 @@ package org.eamrf.eastore.core.search.extract;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -46,18 +47,19 @@ public class PlainTextExtractor implements FileTextExtractor {
 
 
 	/* (non-Javadoc)
-	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path)
+	 * @see org.eamrf.eastore.core.service.search.extract.FileContentExtractor#extract(java.nio.file.Path, java.io.Writer)
 	 */
 	@Override
-	public String extract(Path filePath) throws IOException {
+	public void extract(Path filePath, Writer writer) throws IOException {
+		
 		try(BufferedReader br = Files.newBufferedReader(filePath)){
-			String str = null;
-			StringBuffer buffer = new StringBuffer();
-			while ((str = br.readLine()) != null) {
-				buffer.append(str);
+			char[] chars = new char[8192];
+			int numRead = 0;
+			while ((numRead = br.read(chars)) != -1) {
+				writer.write(chars, 0, numRead);
 			}
-			return buffer.toString();
 		}
+		
 	}
 
 }
@@ -0,0 +1,74 @@
+package org.eamrf.eastore.core.search.lucene;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.eamrf.eastore.core.search.service.SearchConstants;
+
+/**
+ * Collector which gathers the distinct directory IDs of the matching documents, using the sorted doc
+ * values written by the StoreIndexer. Like MetadataFacetCollector, ordinals are only resolved to values
+ * when moving to the next segment.
+ *
+ * Documents indexed before the directory ID doc values were added are not collected.
+ *
+ * @author slenzi
+ *
+ */
+class DirectoryIdCollector extends SimpleCollector {
+
+	private final Set<Long> directoryIds = new HashSet<Long>();
+
+	private SortedDocValues directoryValues = null;
+	private boolean[] seenOrds = null;
+
+	public DirectoryIdCollector() {
+
+	}
+
+	@Override
+	protected void doSetNextReader(LeafReaderContext context) throws IOException {
+		flushSegment();
+		directoryValues = DocValues.getSorted(context.reader(), SearchConstants.DIRECTORY_ID);
+		seenOrds = new boolean[directoryValues.getValueCount()];
+	}
+
+	@Override
+	public void collect(int doc) throws IOException {
+		if(directoryValues.advanceExact(doc)) {
+			seenOrds[directoryValues.ordValue()] = true;
+		}
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	/**
+	 * @return IDs of the directories that have at least one matching document
+	 * @throws IOException
+	 */
+	public Set<Long> getDirectoryIds() throws IOException {
+		flushSegment();
+		return directoryIds;
+	}
+
+	private void flushSegment() throws IOException {
+		if(directoryValues == null || seenOrds == null) {
+			return;
+		}
+		for(int ord = 0; ord < seenOrds.length; ord++) {
+			if(seenOrds[ord]) {
+				directoryIds.add(Long.valueOf(directoryValues.lookupOrd(ord).utf8ToString()));
+			}
+		}
+		seenOrds = null;
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.eamrf.eastore.core.search.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eamrf.core.util.CollectionUtil;
+
+/**
+ * Search result for a search performed across several stores. Hits from all stores are merged
+ * into one list ordered by score, and timing for each store is reported separately.
+ *
+ * @author slenzi
+ *
+ */
+public class FederatedSearchResult {
+
+	private String searchValue = null;
+
+	private int numResults = 0;
+
+	private List<StoreSearchHit> hits = null;
+
+	private List<StoreSearchTiming> storeTimings = null;
+
+	// total wall clock time for the federated search, in milliseconds
+	private long elapsedMillis = 0L;
+
+	public FederatedSearchResult() {
+
+	}
+
+	/**
+	 * @return the searchValue
+	 */
+	public String getSearchValue() {
+		return searchValue;
+	}
+
+	/**
+	 * @param searchValue the searchValue to set
+	 */
+	public void setSearchValue(String searchValue) {
+		this.searchValue = searchValue;
+	}
+
+	/**
+	 * @return the numResults
+	 */
+	public int getNumResults() {
+		return numResults;
+	}
+
+	/**
+	 * @param numResults the numResults to set
+	 */
+	public void setNumResults(int numResults) {
+		this.numResults = numResults;
+	}
+
+	/**
+	 * @return the hits
+	 */
+	public List<StoreSearchHit> getHits() {
+		return hits;
+	}
+
+	/**
+	 * @param hits the hits to set
+	 */
+	public void setHits(List<StoreSearchHit> hits) {
+		this.hits = hits;
+	}
+
+	/**
+	 * @return the storeTimings
+	 */
+	public List<StoreSearchTiming> getStoreTimings() {
+		return storeTimings;
+	}
+
+	/**
+	 * @param storeTimings the storeTimings to set
+	 */
+	public void setStoreTimings(List<StoreSearchTiming> storeTimings) {
+		this.storeTimings = storeTimings;
+	}
+
+	/**
+	 * Add timing data for one store
+	 *
+	 * @param timing
+	 */
+	public void addStoreTiming(StoreSearchTiming timing) {
+		if(storeTimings == null) {
+			storeTimings = new ArrayList<StoreSearchTiming>();
+		}
+		storeTimings.add(timing);
+	}
+
+	/**
+	 * @return the elapsedMillis
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @param elapsedMillis the elapsedMillis to set
+	 */
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * Check if the search result returned any hits (i.e. found matches)
+	 *
+	 * @return
+	 */
+	public boolean haveHits() {
+		if(CollectionUtil.isEmpty(hits)) {
+			return false;
+		}
+		return true;
+	}
+
+}
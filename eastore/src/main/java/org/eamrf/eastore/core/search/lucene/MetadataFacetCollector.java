@@ -0,0 +1,100 @@
+package org.eamrf.eastore.core.search.lucene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.eamrf.eastore.core.search.service.SearchConstants;
+
+/**
+ * Collector which counts matching documents by mime type and by directory, using the sorted doc values
+ * written by the StoreIndexer. Counts are kept per segment ordinal, and only resolved to strings when
+ * moving to the next segment, so collecting a document is just an array increment.
+ *
+ * @author slenzi
+ *
+ */
+class MetadataFacetCollector extends SimpleCollector {
+
+	private final Map<String,Integer> mimeTypeCounts = new HashMap<String,Integer>();
+	private final Map<String,Integer> directoryCounts = new HashMap<String,Integer>();
+
+	private SortedDocValues mimeTypeValues = null;
+	private SortedDocValues directoryValues = null;
+	private int[] mimeTypeOrdCounts = null;
+	private int[] directoryOrdCounts = null;
+
+	public MetadataFacetCollector() {
+
+	}
+
+	@Override
+	protected void doSetNextReader(LeafReaderContext context) throws IOException {
+		flushSegmentCounts();
+		mimeTypeValues = DocValues.getSorted(context.reader(), SearchConstants.RESOURCE_MIME_TYPE);
+		directoryValues = DocValues.getSorted(context.reader(), SearchConstants.DIRECTORY_RELATIVE_PATH);
+		mimeTypeOrdCounts = new int[mimeTypeValues.getValueCount()];
+		directoryOrdCounts = new int[directoryValues.getValueCount()];
+	}
+
+	@Override
+	public void collect(int doc) throws IOException {
+		if(mimeTypeValues.advanceExact(doc)) {
+			mimeTypeOrdCounts[mimeTypeValues.ordValue()]++;
+		}
+		if(directoryValues.advanceExact(doc)) {
+			directoryOrdCounts[directoryValues.ordValue()]++;
+		}
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	/**
+	 * @return number of matching documents for each mime type
+	 * @throws IOException
+	 */
+	public Map<String,Integer> getMimeTypeCounts() throws IOException {
+		flushSegmentCounts();
+		return mimeTypeCounts;
+	}
+
+	/**
+	 * @return number of matching documents in each directory, keyed by directory relative path
+	 * @throws IOException
+	 */
+	public Map<String,Integer> getDirectoryCounts() throws IOException {
+		flushSegmentCounts();
+		return directoryCounts;
+	}
+
+	/**
+	 * Resolve the ordinal counts for the current segment to their string values, and add them to the totals.
+	 *
+	 * @throws IOException
+	 */
+	private void flushSegmentCounts() throws IOException {
+		flushSegmentCounts(mimeTypeValues, mimeTypeOrdCounts, mimeTypeCounts);
+		flushSegmentCounts(directoryValues, directoryOrdCounts, directoryCounts);
+		mimeTypeOrdCounts = null;
+		directoryOrdCounts = null;
+	}
+
+	private void flushSegmentCounts(SortedDocValues values, int[] ordCounts, Map<String,Integer> totals) throws IOException {
+		if(values == null || ordCounts == null) {
+			return;
+		}
+		for(int ord = 0; ord < ordCounts.length; ord++) {
+			if(ordCounts[ord] > 0) {
+				totals.merge(values.lookupOrd(ord).utf8ToString(), ordCounts[ord], Integer::sum);
+			}
+		}
+	}
+
+}
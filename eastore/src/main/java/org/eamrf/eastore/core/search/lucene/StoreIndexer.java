@@ -5,8 +5,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -14,10 +12,15 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
@@ -28,10 +31,11 @@ import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.eamrf.core.util.CollectionUtil;
 import org.eamrf.core.util.FileUtil;
 import org.eamrf.core.util.StringUtil;
-import org.eamrf.eastore.core.search.extract.FileTextExtractor;
+import org.eamrf.eastore.core.search.extract.BoundedTextExtractor;
 import org.eamrf.eastore.core.search.service.SearchConstants;
 import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
@@ -55,16 +59,19 @@ public class StoreIndexer {
     private Store store = null;
     private ScheduledExecutorService scheduledExecutor = null;
     
-    private Map<String,FileTextExtractor> extractorMap = new HashMap<String,FileTextExtractor>();
-    private Collection<FileTextExtractor> allExtractors = null;
+    private BoundedTextExtractor textExtractor = null;
     
 	private ExecutorService executorService = Executors.newSingleThreadExecutor();
 	
+	// sequence number (generation) returned by the most recent add/update/delete on the index writer. Searchers
+	// can wait for this generation to become visible to get read-your-writes behavior.
+	private AtomicLong lastGeneration = new AtomicLong(0L);
+	
 	//private boolean rebuildingIndex = false;
 	
-	public StoreIndexer(Store store, Collection<FileTextExtractor> extractors) {
+	public StoreIndexer(Store store, BoundedTextExtractor textExtractor) {
 		this.store = store;
-		this.allExtractors = extractors;
+		this.textExtractor = textExtractor;
 	}
 	
 	/**
@@ -87,6 +94,11 @@ public class StoreIndexer {
 		scheduledExecutor = Executors.newScheduledThreadPool(1);
         commitFuture = scheduledExecutor.scheduleWithFixedDelay(() -> {
             try {
+            	// searches use near-real-time readers opened from the writer, so commits are only needed
+            	// for durability. Skip the commit when nothing has changed since the last one.
+            	if(!indexWriter.hasUncommittedChanges()) {
+            		return;
+            	}
             	indexWriter.flush();
                 long commitReturn = indexWriter.commit();
                 indexWriter.maybeMerge(); // TODO - needed?
@@ -114,6 +126,26 @@ public class StoreIndexer {
 		return indexWriter;
 	}
 
+	/**
+	 * Get the sequence number (generation) of the most recent add, update, or delete operation
+	 * performed on the index writer. Pass this value to the searcher to wait until the change
+	 * is visible to searches.
+	 * 
+	 * @return
+	 */
+	public long getLastGeneration() {
+		return lastGeneration.get();
+	}
+	
+	/**
+	 * Record the sequence number returned by an index writer operation
+	 * 
+	 * @param generation
+	 */
+	private void trackGeneration(long generation) {
+		lastGeneration.accumulateAndGet(generation, Math::max);
+	}
+
 	/**
 	 * Get the full path to the lucene index directory for the store
 	 * 
@@ -154,54 +186,63 @@ public class StoreIndexer {
 	}
 	
 	/**
-	 * Fetch the extractor that can extract text from files with the specified mime type.
+	 * Add a document to the index
 	 * 
-	 * @param mimeType
-	 * @return
+	 * @param fileResource - the file to add to the index.
+	 * @throws IOException
 	 */
-	private FileTextExtractor getExtractorForMime(String mimeType) {
-		FileTextExtractor extractor = extractorMap.get(mimeType);
-		if(extractor == null && allExtractors != null && allExtractors.size() > 0) {
-			for(FileTextExtractor ext : allExtractors) {
-				if(ext.canExtract(mimeType)) {
-					extractor = ext;
-					extractorMap.put(mimeType, extractor);
-					return extractor;
-				}
-			}
-		}
-		return extractor;
+	private void addResource(FileMetaResource fileResource) throws IOException {
+		
+		writeResource(fileResource, false);
+		
 	}
 	
 	/**
-	 * Add a document to the index
+	 * Add a document to the index, or replace the existing document for the file.
 	 * 
 	 * @param fileResource - the file to add to the index.
+	 * @param replaceExisting - true to atomically replace any existing document for the file
 	 * @throws IOException
 	 */
-	private void addResource(FileMetaResource fileResource) throws IOException {
+	private void writeResource(FileMetaResource fileResource, boolean replaceExisting) throws IOException {
 		
 		if(!isInitialized()) {
 			return;
 		}
 		
-		logger.info("Adding file " + fileResource.getRelativePath() + " to store index [id=" + getStore().getId() + 
-				", name=" + getStore().getName() + "]");		
+		logger.info((replaceExisting ? "Updating" : "Adding") + " file " + fileResource.getRelativePath() + 
+				" in store index [id=" + getStore().getId() + ", name=" + getStore().getName() + "]");		
 		
 		Document doc = new Document();
 		
 		// store basic file attributes
 		doc.add(new StringField(SearchConstants.RESOURCE_ID, fileResource.getNodeId().toString(), Field.Store.YES));
 		doc.add(new StringField(SearchConstants.RESOURCE_NAME, fileResource.getPathName(), Field.Store.YES));
+		doc.add(new SortedDocValuesField(SearchConstants.RESOURCE_NAME, new BytesRef(fileResource.getPathName().toLowerCase())));
+		doc.add(new StringField(SearchConstants.RESOURCE_NAME_LOWER, fileResource.getPathName().toLowerCase(), Field.Store.NO));
 		doc.add(new StringField(SearchConstants.RESOURCE_DESC, StringUtil.changeNull(fileResource.getDesc()), Field.Store.YES));
 		doc.add(new StringField(SearchConstants.RESOURCE_RELATIVE_PATH, fileResource.getRelativePath(), Field.Store.YES));
+		doc.add(new SortedDocValuesField(SearchConstants.RESOURCE_RELATIVE_PATH, new BytesRef(fileResource.getRelativePath().toLowerCase())));
+		doc.add(new StringField(SearchConstants.RESOURCE_RELATIVE_PATH_LOWER, fileResource.getRelativePath().toLowerCase(), Field.Store.NO));
+		
+		// store file size and dates as points (for range queries), doc values (for sorting), and stored values
+		addLongField(doc, SearchConstants.RESOURCE_SIZE, fileResource.getFileSize());
+		if(fileResource.getDateCreated() != null) {
+			addLongField(doc, SearchConstants.RESOURCE_DATE_CREATED, fileResource.getDateCreated().getTime());
+		}
+		if(fileResource.getDateUpdated() != null) {
+			addLongField(doc, SearchConstants.RESOURCE_DATE_UPDATED, fileResource.getDateUpdated().getTime());
+		}
 		
-		// store the directory ID and name
+		// store the directory ID and name. Directory path has doc values for facet counts by directory, and directory
+		// ID has doc values so metadata searches can check read access by directory
 		DirectoryResource directory = fileResource.getDirectory();
 		if(directory != null) {
 			doc.add(new StringField(SearchConstants.DIRECTORY_ID, directory.getNodeId().toString() , Field.Store.YES));
+			doc.add(new SortedDocValuesField(SearchConstants.DIRECTORY_ID, new BytesRef(directory.getNodeId().toString())));
 			doc.add(new StringField(SearchConstants.DIRECTORY_NAME, directory.getPathName() , Field.Store.YES));
 			doc.add(new StringField(SearchConstants.DIRECTORY_RELATIVE_PATH, directory.getRelativePath() , Field.Store.YES));
+			doc.add(new SortedDocValuesField(SearchConstants.DIRECTORY_RELATIVE_PATH, new BytesRef(directory.getRelativePath())));
 		}
 		
 		// store the store ID and name, plus the full path to the file, and the parsed file contents
@@ -215,21 +256,57 @@ public class StoreIndexer {
 			doc.add(new StringField(SearchConstants.RESOURCE_PATH, filePath.toString() , Field.Store.YES));
 			
 			String mimeType = FileUtil.detectMimeType(filePath);
+			if(StringUtil.isNullEmpty(mimeType)) {
+				mimeType = fileResource.getMimeType();
+			}
+			if(!StringUtil.isNullEmpty(mimeType)) {
+				doc.add(new StringField(SearchConstants.RESOURCE_MIME_TYPE, mimeType, Field.Store.YES));
+				doc.add(new SortedDocValuesField(SearchConstants.RESOURCE_MIME_TYPE, new BytesRef(mimeType)));
+			}
 			
-			FileTextExtractor extractor = getExtractorForMime(mimeType);
-			if(extractor != null) {
-				doc.add(new TextField(SearchConstants.RESOURCE_CONTENT, StringUtil.changeNull(extractor.extract(filePath)) , Field.Store.YES));
+			// extracted text is capped in length, and is null if extraction timed out. Files which fail
+			// extraction are still indexed with their metadata.
+			String content = null;
+			try {
+				content = textExtractor.extract(filePath, mimeType);
+			} catch (IOException e) {
+				logger.warn("Indexing file " + fileResource.getRelativePath() + " without content, " + e.getMessage());
+			}
+			if(content != null) {
+				doc.add(new TextField(SearchConstants.RESOURCE_CONTENT, content, Field.Store.YES));
 			}
 			
 		}
 		
-		indexWriter.addDocument(doc);
+		if(replaceExisting) {
+			trackGeneration(indexWriter.updateDocument(
+					new Term(SearchConstants.RESOURCE_ID, fileResource.getNodeId().toString()), doc));
+		}else {
+			trackGeneration(indexWriter.addDocument(doc));
+		}
 		
 		//indexWriter.forceMerge(1, false); // hacky
 		//indexWriter.commit();
 		
 	}
 	
+	/**
+	 * Add a numeric field to the document, indexed as a point for range queries, with doc values
+	 * for sorting, and stored so it can be returned with search hits.
+	 * 
+	 * @param doc
+	 * @param fieldName
+	 * @param value - null values are not added
+	 */
+	private void addLongField(Document doc, String fieldName, Long value) {
+		if(value == null) {
+			return;
+		}
+		doc.add(new LongPoint(fieldName, value));
+		doc.add(new NumericDocValuesField(fieldName, value));
+		doc.add(new StoredField(fieldName, value));
+	}
+	
 	/**
 	 * Create a task that adds all files to the lucene index. The task is submitted to an executor for execution.
 	 * 
@@ -308,20 +385,32 @@ public class StoreIndexer {
 	}
 	
 	/**
-	 * Update a document in the index
+	 * Create a task that updates the document for the file in the index. The existing document is replaced
+	 * in a single index writer operation, so searches never see the file missing. The task is submitted to
+	 * an executor for execution.
 	 * 
 	 * @param fileResource
+	 * @return A future for the task.
 	 * @throws IOException
 	 */
-	public Future<Boolean> update(FileMetaResource fileResource) throws IOException {
+	public Future<Boolean> update(final FileMetaResource fileResource) throws IOException {
 		
-		if(!isInitialized()) {
+		if(!isInitialized() || fileResource == null) {
 			return null;
 		}
 		
-		delete(fileResource);
+		Callable<Boolean> callableTask = () -> {
+			if(!fileResource.getStore().getId().equals(getStore().getId())) {
+				logger.error("Failed to update file " + fileResource.getRelativePath() + " in index for store " + getStore().getId() + 
+								". Resource belongs to different store with id " + fileResource.getStore().getId() + ".\n");
+				return false;
+			}else {
+				writeResource(fileResource, true);
+				return true;
+			}
+		};
 		
-		return add(fileResource);
+		return executorService.submit(callableTask);
 		
 	}
 	
@@ -337,7 +426,7 @@ public class StoreIndexer {
 			return;
 		}
 		
-		indexWriter.deleteDocuments(new Term(SearchConstants.RESOURCE_ID, fileResource.getNodeId().toString()));
+		trackGeneration(indexWriter.deleteDocuments(new Term(SearchConstants.RESOURCE_ID, fileResource.getNodeId().toString())));
 		
 	}
 	
@@ -354,6 +443,8 @@ public class StoreIndexer {
 		long deleteReturn = indexWriter.deleteAll();
 		long commitReturn = indexWriter.commit();
 		
+		trackGeneration(deleteReturn);
+		
 		logger.info("deleteAll() return = " + deleteReturn);
 		logger.info("commit() return = " + commitReturn);
 		
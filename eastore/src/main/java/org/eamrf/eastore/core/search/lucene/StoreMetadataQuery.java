@@ -0,0 +1,229 @@
+package org.eamrf.eastore.core.search.lucene;
+
+/**
+ * Criteria for a structured search over file metadata (name, path, mime type, size and dates.)
+ * All criteria are optional, and criteria which are set are combined with AND.
+ *
+ * Name and path patterns are case-insensitive wildcard patterns, where '*' matches any
+ * sequence of characters and '?' matches a single character, e.g. "report*.pdf" or "/projects/2017/*".
+ *
+ * Date values are epoch milliseconds. Range bounds are inclusive.
+ *
+ * @author slenzi
+ *
+ */
+public class StoreMetadataQuery {
+
+	/**
+	 * Fields which metadata search results can be sorted by
+	 */
+	public enum SortBy {
+		NAME,
+		PATH,
+		MIME_TYPE,
+		SIZE,
+		DATE_CREATED,
+		DATE_UPDATED
+	}
+
+	private String namePattern = null;
+	private String pathPattern = null;
+
+	// exact mime type, e.g. "application/pdf", or a prefix ending with '*', e.g. "image/*"
+	private String mimeType = null;
+
+	private Long minSize = null;
+	private Long maxSize = null;
+
+	private Long createdAfter = null;
+	private Long createdBefore = null;
+
+	private Long updatedAfter = null;
+	private Long updatedBefore = null;
+
+	private SortBy sortBy = SortBy.NAME;
+	private boolean sortDescending = false;
+
+	// true to compute facet counts (by mime type and by directory) over all matching files
+	private boolean includeFacets = false;
+
+	public StoreMetadataQuery() {
+
+	}
+
+	/**
+	 * @return the namePattern
+	 */
+	public String getNamePattern() {
+		return namePattern;
+	}
+
+	/**
+	 * @param namePattern the namePattern to set
+	 */
+	public void setNamePattern(String namePattern) {
+		this.namePattern = namePattern;
+	}
+
+	/**
+	 * @return the pathPattern
+	 */
+	public String getPathPattern() {
+		return pathPattern;
+	}
+
+	/**
+	 * @param pathPattern the pathPattern to set
+	 */
+	public void setPathPattern(String pathPattern) {
+		this.pathPattern = pathPattern;
+	}
+
+	/**
+	 * @return the mimeType
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * @param mimeType the mimeType to set
+	 */
+	public void setMimeType(String mimeType) {
+		this.mimeType = mimeType;
+	}
+
+	/**
+	 * @return the minSize
+	 */
+	public Long getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @param minSize the minSize to set
+	 */
+	public void setMinSize(Long minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * @return the maxSize
+	 */
+	public Long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize the maxSize to set
+	 */
+	public void setMaxSize(Long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the createdAfter
+	 */
+	public Long getCreatedAfter() {
+		return createdAfter;
+	}
+
+	/**
+	 * @param createdAfter the createdAfter to set
+	 */
+	public void setCreatedAfter(Long createdAfter) {
+		this.createdAfter = createdAfter;
+	}
+
+	/**
+	 * @return the createdBefore
+	 */
+	public Long getCreatedBefore() {
+		return createdBefore;
+	}
+
+	/**
+	 * @param createdBefore the createdBefore to set
+	 */
+	public void setCreatedBefore(Long createdBefore) {
+		this.createdBefore = createdBefore;
+	}
+
+	/**
+	 * @return the updatedAfter
+	 */
+	public Long getUpdatedAfter() {
+		return updatedAfter;
+	}
+
+	/**
+	 * @param updatedAfter the updatedAfter to set
+	 */
+	public void setUpdatedAfter(Long updatedAfter) {
+		this.updatedAfter = updatedAfter;
+	}
+
+	/**
+	 * @return the updatedBefore
+	 */
+	public Long getUpdatedBefore() {
+		return updatedBefore;
+	}
+
+	/**
+	 * @param updatedBefore the updatedBefore to set
+	 */
+	public void setUpdatedBefore(Long updatedBefore) {
+		this.updatedBefore = updatedBefore;
+	}
+
+	/**
+	 * @return the sortBy
+	 */
+	public SortBy getSortBy() {
+		return sortBy;
+	}
+
+	/**
+	 * @param sortBy the sortBy to set
+	 */
+	public void setSortBy(SortBy sortBy) {
+		this.sortBy = sortBy;
+	}
+
+	/**
+	 * @return the sortDescending
+	 */
+	public boolean isSortDescending() {
+		return sortDescending;
+	}
+
+	/**
+	 * @param sortDescending the sortDescending to set
+	 */
+	public void setSortDescending(boolean sortDescending) {
+		this.sortDescending = sortDescending;
+	}
+
+	/**
+	 * @return the includeFacets
+	 */
+	public boolean isIncludeFacets() {
+		return includeFacets;
+	}
+
+	/**
+	 * @param includeFacets the includeFacets to set
+	 */
+	public void setIncludeFacets(boolean includeFacets) {
+		this.includeFacets = includeFacets;
+	}
+
+	@Override
+	public String toString() {
+		return StoreMetadataQuery.class.getSimpleName() + " [name=" + namePattern + ", path=" + pathPattern + ", mimeType=" + mimeType +
+				", size=" + minSize + ".." + maxSize + ", created=" + createdAfter + ".." + createdBefore +
+				", updated=" + updatedAfter + ".." + updatedBefore + ", sortBy=" + sortBy + (sortDescending ? " desc" : " asc") + "]";
+	}
+
+}
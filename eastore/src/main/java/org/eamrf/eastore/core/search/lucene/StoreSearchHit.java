@@ -13,6 +13,7 @@ public class StoreSearchHit {
 	// lucene specific fields
 	private int luceneDocId = 0;
 	private String[] fragments = null;
+	private float score = 0f;
 	
 	// eastore fields
 	private Long resourceId = 0L;
@@ -28,6 +29,12 @@ public class StoreSearchHit {
 	private Long storeId = 0L;
 	private String storeName = null;
 	
+	// file metadata, date values are epoch milliseconds
+	private Long fileSize = null;
+	private String mimeType = null;
+	private Long dateCreated = null;
+	private Long dateUpdated = null;
+	
 	public StoreSearchHit() {
 		
 	}
@@ -60,6 +67,20 @@ public class StoreSearchHit {
 		this.fragments = fragments;
 	}
 
+	/**
+	 * @return the lucene score for the hit. Used to rank hits when merging results from several stores.
+	 */
+	public float getScore() {
+		return score;
+	}
+
+	/**
+	 * @param score the score to set
+	 */
+	public void setScore(float score) {
+		this.score = score;
+	}
+
 	/**
 	 * @return the resourceId
 	 */
@@ -200,6 +221,60 @@ public class StoreSearchHit {
 		this.storeName = storeName;
 	}
 
+	/**
+	 * @return the fileSize
+	 */
+	public Long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * @param fileSize the fileSize to set
+	 */
+	public void setFileSize(Long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * @return the mimeType
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * @param mimeType the mimeType to set
+	 */
+	public void setMimeType(String mimeType) {
+		this.mimeType = mimeType;
+	}
+
+	/**
+	 * @return the dateCreated
+	 */
+	public Long getDateCreated() {
+		return dateCreated;
+	}
+
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Long dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+	/**
+	 * @return the dateUpdated
+	 */
+	public Long getDateUpdated() {
+		return dateUpdated;
+	}
+
+	/**
+	 * @param dateUpdated the dateUpdated to set
+	 */
+	public void setDateUpdated(Long dateUpdated) {
+		this.dateUpdated = dateUpdated;
+	}
 
-	
 }
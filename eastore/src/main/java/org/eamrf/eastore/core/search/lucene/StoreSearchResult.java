@@ -2,6 +2,7 @@ package org.eamrf.eastore.core.search.lucene;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.eamrf.core.util.CollectionUtil;
 
@@ -19,6 +20,10 @@ public class StoreSearchResult {
 	
 	private List<StoreSearchHit> hits = null;
 	
+	// facet counts for metadata searches, null when facets were not requested
+	private Map<String,Integer> mimeTypeCounts = null;
+	private Map<String,Integer> directoryCounts = null;
+	
 	public StoreSearchResult() {
 		
 	}
@@ -65,6 +70,34 @@ public class StoreSearchResult {
 		this.hits = hits;
 	}
 
+	/**
+	 * @return number of matching files for each mime type
+	 */
+	public Map<String,Integer> getMimeTypeCounts() {
+		return mimeTypeCounts;
+	}
+
+	/**
+	 * @param mimeTypeCounts the mimeTypeCounts to set
+	 */
+	public void setMimeTypeCounts(Map<String,Integer> mimeTypeCounts) {
+		this.mimeTypeCounts = mimeTypeCounts;
+	}
+
+	/**
+	 * @return number of matching files in each directory, keyed by directory relative path
+	 */
+	public Map<String,Integer> getDirectoryCounts() {
+		return directoryCounts;
+	}
+
+	/**
+	 * @param directoryCounts the directoryCounts to set
+	 */
+	public void setDirectoryCounts(Map<String,Integer> directoryCounts) {
+		this.directoryCounts = directoryCounts;
+	}
+
 	/**
 	 * Add a hit to the search result
 	 * 
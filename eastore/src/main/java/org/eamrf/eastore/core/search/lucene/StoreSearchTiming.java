@@ -0,0 +1,97 @@
+package org.eamrf.eastore.core.search.lucene;
+
+/**
+ * Per-store statistics for one leg of a federated (cross-store) search.
+ *
+ * @author slenzi
+ *
+ */
+public class StoreSearchTiming {
+
+	private Long storeId = 0L;
+	private String storeName = null;
+
+	// number of hits returned by the store after read access filtering
+	private int numHits = 0;
+
+	// time spent searching (and filtering) the store, in milliseconds
+	private long elapsedMillis = 0L;
+
+	// error message if the search for this store failed or timed out, null otherwise
+	private String error = null;
+
+	public StoreSearchTiming() {
+
+	}
+
+	/**
+	 * @return the storeId
+	 */
+	public Long getStoreId() {
+		return storeId;
+	}
+
+	/**
+	 * @param storeId the storeId to set
+	 */
+	public void setStoreId(Long storeId) {
+		this.storeId = storeId;
+	}
+
+	/**
+	 * @return the storeName
+	 */
+	public String getStoreName() {
+		return storeName;
+	}
+
+	/**
+	 * @param storeName the storeName to set
+	 */
+	public void setStoreName(String storeName) {
+		this.storeName = storeName;
+	}
+
+	/**
+	 * @return the numHits
+	 */
+	public int getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * @param numHits the numHits to set
+	 */
+	public void setNumHits(int numHits) {
+		this.numHits = numHits;
+	}
+
+	/**
+	 * @return the elapsedMillis
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @param elapsedMillis the elapsedMillis to set
+	 */
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return the error
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @param error the error to set
+	 */
+	public void setError(String error) {
+		this.error = error;
+	}
+
+}
@@ -3,22 +3,36 @@ package org.eamrf.eastore.core.search.lucene;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Paths;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.search.highlight.Formatter;
 import org.apache.lucene.search.highlight.Fragmenter;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -26,6 +40,7 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.util.BytesRef;
 import org.eamrf.core.util.StringUtil;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.eastore.core.search.service.SearchConstants;
@@ -33,19 +48,30 @@ import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Searches the lucene index for a store. Uses near-real-time readers opened from the store's index
+ * writer. A reopen thread refreshes the searcher on demand, when a search waits for a specific index
+ * generation, and otherwise at most every MAX_STALE_SEC seconds.
+ * 
+ * @author slenzi
+ */
 public class StoreSearcher {
 
 	private static final Logger logger = LoggerFactory.getLogger(StoreSearcher.class);
+	
+	// max time (seconds) before changes become visible when no search is waiting on them
+	private static final double MAX_STALE_SEC = 5.0;
+	
+	// min time (seconds) between reopens when a search is waiting on a generation
+	private static final double MIN_STALE_SEC = 0.025;
+	
+	// max time (milliseconds) a search will wait for a generation to become visible
+	private static final long MAX_GENERATION_WAIT_MS = 5000L;
 
 	private IndexWriter indexWriter = null;
     private SearcherManager searcherManager = null;
-    private Future<?> maybeRefreshFuture = null;
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread = null;
     private Store store = null;
-    
-    private ScheduledExecutorService scheduledExecutor = null;
-    
-    //private final 
-   
 	
     /**
      * Create a store searcher using an existing indexer for the store
@@ -66,15 +92,11 @@ public class StoreSearcher {
     public void init() throws IOException {
         //searcherManager = new SearcherManager(indexWriter, true, false, null);
     	searcherManager = new SearcherManager(indexWriter, null);
-        scheduledExecutor = Executors.newScheduledThreadPool(1);
-        maybeRefreshFuture = scheduledExecutor.scheduleWithFixedDelay(() -> {
-            try {
-                boolean refreshStatus = searcherManager.maybeRefresh();
-                //logger.info("Executed 'maybe refresh' on search manager for store [id=" + store.getId() + ", name=" + store.getName() + "], refresh status = " + refreshStatus);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }, 0, 5, TimeUnit.SECONDS);
+    	reopenThread = new ControlledRealTimeReopenThread<IndexSearcher>(
+    			indexWriter, searcherManager, MAX_STALE_SEC, MIN_STALE_SEC);
+    	reopenThread.setName("Lucene NRT Reopen Thread [storeId=" + store.getId() + ", storeName=" + store.getName() + "]");
+    	reopenThread.setDaemon(true);
+    	reopenThread.start();
     }
     
     /**
@@ -97,10 +119,31 @@ public class StoreSearcher {
      */
     public StoreSearchResult searchByContent(String value, int topResults, int maxNumFragments, int fragmentSize) throws IOException, ServiceException {
     	
+    	return searchByContent(value, topResults, maxNumFragments, fragmentSize, -1L);
+    	
+    }
+    
+	/**
+     * Search by document content/body, waiting for the specified index generation to become visible first.
+     * 
+     * @param value - search value
+     * @param topResults - number of top hit results to return
+     * @param maxNumFragments - max number of fragments to return for each hit.
+     * @oaram fragmentSize - length of search fragment
+     * @param generation - index generation (see StoreIndexer.getLastGeneration()) that must be visible to the
+     * search. Pass a value <= 0 to search whatever is currently visible.
+     * @return
+     * @throws IOException 
+     * @throws ParseException 
+     */
+    public StoreSearchResult searchByContent(String value, int topResults, int maxNumFragments, int fragmentSize, long generation) throws IOException, ServiceException {
+    	
     	if(StringUtil.isNullEmpty(value)) {
     		return null;
     	}
     	
+    	waitForGeneration(generation);
+    	
     	logger.info("Searching for term '" + value + "' in store [id=" + store.getId() + ", name=" + store.getName() + "]");
     	
     	StoreSearchResult searchResult = new StoreSearchResult();
@@ -129,61 +172,17 @@ public class StoreSearcher {
             
             int docId = 0;
             Document doc = null;
-            
-            String resourceId = null, resourceContent = null, resourceName = null;
-            String directoryId = null, directoryName = null, directoryRelativePath = null;
-            String resourceDescription = null, resourceRelativePath = null;
-            String resourcePath = null, storeId = null, storeName = null;
+            String resourceContent = null;
             
             String[] fragments = null;
             TokenStream tokeStream = null;
             
             for (int i = 0; i < hits.scoreDocs.length; i++) {
             	
-            	StoreSearchHit hit = new StoreSearchHit();
-            	
             	docId = hits.scoreDocs[i].doc;
             	doc = searcher.doc(docId);
             	
-            	hit.setLuceneDocId(docId);
-            	
-            	resourceId = doc.get(SearchConstants.RESOURCE_ID);
-            	if(!StringUtil.isNullEmpty(resourceId)) {
-            		hit.setResourceId(Long.valueOf(resourceId));
-            	}
-            	
-            	resourceName = doc.get(SearchConstants.RESOURCE_NAME);
-            	hit.setResourceName(resourceName);
-            	
-            	resourceDescription = doc.get(SearchConstants.RESOURCE_DESC);
-            	hit.setResourceDesc(resourceDescription);
-            	
-            	resourceRelativePath = doc.get(SearchConstants.RESOURCE_RELATIVE_PATH);
-            	hit.setResourceRelativePath(resourceRelativePath); 
-            	
-            	resourcePath = doc.get(SearchConstants.RESOURCE_PATH);
-            	if(!StringUtil.isNullEmpty(resourcePath)) {
-            		hit.setResourcePath(Paths.get(resourcePath));
-            	}
-            	
-            	directoryId = doc.get(SearchConstants.DIRECTORY_ID);
-            	if(!StringUtil.isNullEmpty(directoryId)) {
-            		hit.setDirectoryId(Long.valueOf(directoryId));
-            	}
-            	
-            	directoryName = doc.get(SearchConstants.DIRECTORY_NAME);
-            	hit.setDirectoryName(directoryName);
-            	
-            	directoryRelativePath = doc.get(SearchConstants.DIRECTORY_RELATIVE_PATH);
-            	hit.setDirectoryRelativePath(directoryRelativePath);
-            	
-            	storeId = doc.get(SearchConstants.STORE_ID);
-            	if(!StringUtil.isNullEmpty(storeId)) {
-            		hit.setStoreId(Long.valueOf(storeId));
-            	}
-            	
-            	storeName = doc.get(SearchConstants.STORE_NAME);
-            	hit.setStoreName(storeName);
+            	StoreSearchHit hit = createHit(doc, docId, hits.scoreDocs[i].score);
             	
             	resourceContent = doc.get(SearchConstants.RESOURCE_CONTENT);
             	if(!StringUtil.isNullEmpty(resourceContent)) {
@@ -211,12 +210,284 @@ public class StoreSearcher {
     }    
     
     /**
-     * Cancel refresh task and close the search manager
+     * Checks which directories the user can read files in, for metadata searches.
+     */
+    public interface DirectoryAccessFilter {
+    	
+    	/**
+    	 * @param directoryIds - IDs of the directories with matching files
+    	 * @return the IDs of the directories whose files the user can read
+    	 * @throws ServiceException
+    	 */
+    	Set<Long> getReadableDirectories(Set<Long> directoryIds) throws ServiceException;
+    	
+    }
+    
+    /**
+     * Search by file metadata (name, path, mime type, size and dates.)
+     * 
+     * When an access filter is given, the search runs in two passes over the same index snapshot. The first
+     * pass only gathers the directory IDs of the matching files (from doc values.) The access filter picks the
+     * directories the user can read files in, and the second pass collects the hits and facet counts from
+     * those directories only. Permissions are only evaluated for directories that have matching files, never
+     * for the whole store.
+     * 
+     * @param metadataQuery - the search criteria
+     * @param accessFilter - picks the directories the user can read files in. Pass null to skip the read access check.
+     * @param topResults - max number of hits to return
+     * @param generation - index generation that must be visible to the search. Pass a value <= 0 to search
+     * whatever is currently visible.
+     * @return
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public StoreSearchResult searchByMetadata(StoreMetadataQuery metadataQuery, DirectoryAccessFilter accessFilter, 
+    		int topResults, long generation) throws IOException, ServiceException {
+    	
+    	waitForGeneration(generation);
+    	
+    	logger.info("Searching metadata " + metadataQuery + " in store [id=" + store.getId() + ", name=" + store.getName() + "]");
+    	
+    	StoreSearchResult searchResult = new StoreSearchResult();
+    	IndexSearcher searcher = null;
+    	
+    	try {
+    		
+    		searcher = searcherManager.acquire();
+    		
+    		Query query = buildMetadataQuery(metadataQuery);
+    		
+    		if(accessFilter != null) {
+    			DirectoryIdCollector directoryCollector = new DirectoryIdCollector();
+    			searcher.search(query, directoryCollector);
+    			Set<Long> readableDirectoryIds = accessFilter.getReadableDirectories(directoryCollector.getDirectoryIds());
+    			if(readableDirectoryIds.isEmpty()) {
+    				searchResult.setNumResults(0);
+    				return searchResult;
+    			}
+    			query = new BooleanQuery.Builder()
+    					.add(query, Occur.MUST)
+    					.add(new TermInSetQuery(SearchConstants.DIRECTORY_ID, readableDirectoryIds.stream()
+    							.map(id -> new BytesRef(id.toString())).collect(Collectors.toList())), Occur.FILTER)
+    					.build();
+    		}
+    		
+    		Sort sort = new Sort(buildMetadataSortField(metadataQuery), SortField.FIELD_DOC);
+    		
+    		// fill sort fields, no scores (all clauses are filters), and no total hit count (only the top hits are returned)
+    		TopFieldCollector topCollector = TopFieldCollector.create(sort, Math.max(1, topResults), true, false, false, false);
+    		MetadataFacetCollector facetCollector = null;
+    		if(metadataQuery.isIncludeFacets()) {
+    			facetCollector = new MetadataFacetCollector();
+    			searcher.search(query, MultiCollector.wrap(topCollector, facetCollector));
+    		}else {
+    			searcher.search(query, topCollector);
+    		}
+    		
+    		TopDocs hits = topCollector.topDocs();
+    		
+    		searchResult.setNumResults(hits.scoreDocs.length);
+    		for(ScoreDoc scoreDoc : hits.scoreDocs) {
+    			searchResult.addHit(createHit(searcher.doc(scoreDoc.doc), scoreDoc.doc, scoreDoc.score));
+    		}
+    		
+    		if(facetCollector != null) {
+    			searchResult.setMimeTypeCounts(facetCollector.getMimeTypeCounts());
+    			searchResult.setDirectoryCounts(facetCollector.getDirectoryCounts());
+    		}
+    		
+    	} finally {
+    		if (searcher != null) {
+    			searcherManager.release(searcher);
+    		}
+    	}
+    	
+    	return searchResult;
+    	
+    }
+    
+    /**
+     * Build the lucene query for a metadata search. All criteria are added as non-scoring filter clauses.
+     * 
+     * @param metadataQuery
+     * @return
+     */
+    private Query buildMetadataQuery(StoreMetadataQuery metadataQuery) {
+    	
+    	BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    	builder.add(new MatchAllDocsQuery(), Occur.MUST);
+    	
+    	if(!StringUtil.isNullEmpty(metadataQuery.getNamePattern())) {
+    		builder.add(new WildcardQuery(new Term(SearchConstants.RESOURCE_NAME_LOWER, 
+    				metadataQuery.getNamePattern().toLowerCase())), Occur.FILTER);
+    	}
+    	if(!StringUtil.isNullEmpty(metadataQuery.getPathPattern())) {
+    		builder.add(new WildcardQuery(new Term(SearchConstants.RESOURCE_RELATIVE_PATH_LOWER, 
+    				metadataQuery.getPathPattern().toLowerCase())), Occur.FILTER);
+    	}
+    	
+    	String mimeType = metadataQuery.getMimeType();
+    	if(!StringUtil.isNullEmpty(mimeType)) {
+    		if(mimeType.endsWith("*")) {
+    			builder.add(new PrefixQuery(new Term(SearchConstants.RESOURCE_MIME_TYPE, 
+    					mimeType.substring(0, mimeType.length() - 1))), Occur.FILTER);
+    		}else {
+    			builder.add(new TermQuery(new Term(SearchConstants.RESOURCE_MIME_TYPE, mimeType)), Occur.FILTER);
+    		}
+    	}
+    	
+    	addRangeFilter(builder, SearchConstants.RESOURCE_SIZE, metadataQuery.getMinSize(), metadataQuery.getMaxSize());
+    	addRangeFilter(builder, SearchConstants.RESOURCE_DATE_CREATED, metadataQuery.getCreatedAfter(), metadataQuery.getCreatedBefore());
+    	addRangeFilter(builder, SearchConstants.RESOURCE_DATE_UPDATED, metadataQuery.getUpdatedAfter(), metadataQuery.getUpdatedBefore());
+    	
+    	return builder.build();
+    	
+    }
+    
+    /**
+     * Add an inclusive range filter on a numeric field. Null bounds are open ended.
+     * 
+     * @param builder
+     * @param fieldName
+     * @param lower
+     * @param upper
+     */
+    private void addRangeFilter(BooleanQuery.Builder builder, String fieldName, Long lower, Long upper) {
+    	if(lower == null && upper == null) {
+    		return;
+    	}
+    	builder.add(LongPoint.newRangeQuery(fieldName, 
+    			lower != null ? lower : Long.MIN_VALUE, 
+    			upper != null ? upper : Long.MAX_VALUE), Occur.FILTER);
+    }
+    
+    /**
+     * Get the lucene sort field for the metadata query's sort option.
+     * 
+     * @param metadataQuery
+     * @return
+     */
+    private SortField buildMetadataSortField(StoreMetadataQuery metadataQuery) {
+    	boolean reverse = metadataQuery.isSortDescending();
+    	StoreMetadataQuery.SortBy sortBy = metadataQuery.getSortBy() != null ? metadataQuery.getSortBy() : StoreMetadataQuery.SortBy.NAME;
+    	switch(sortBy) {
+    		case PATH:
+    			return new SortField(SearchConstants.RESOURCE_RELATIVE_PATH, SortField.Type.STRING, reverse);
+    		case MIME_TYPE:
+    			return new SortField(SearchConstants.RESOURCE_MIME_TYPE, SortField.Type.STRING, reverse);
+    		case SIZE:
+    			return new SortField(SearchConstants.RESOURCE_SIZE, SortField.Type.LONG, reverse);
+    		case DATE_CREATED:
+    			return new SortField(SearchConstants.RESOURCE_DATE_CREATED, SortField.Type.LONG, reverse);
+    		case DATE_UPDATED:
+    			return new SortField(SearchConstants.RESOURCE_DATE_UPDATED, SortField.Type.LONG, reverse);
+    		case NAME:
+    		default:
+    			return new SortField(SearchConstants.RESOURCE_NAME, SortField.Type.STRING, reverse);
+    	}
+    }
+    
+    /**
+     * Create a search hit from the stored fields of a lucene document
+     * 
+     * @param doc - the lucene document
+     * @param docId - lucene document ID
+     * @param score - the hit score
+     * @return
+     */
+    private StoreSearchHit createHit(Document doc, int docId, float score) {
+    	
+    	StoreSearchHit hit = new StoreSearchHit();
+    	
+    	hit.setLuceneDocId(docId);
+    	hit.setScore(score);
+    	
+    	String resourceId = doc.get(SearchConstants.RESOURCE_ID);
+    	if(!StringUtil.isNullEmpty(resourceId)) {
+    		hit.setResourceId(Long.valueOf(resourceId));
+    	}
+    	
+    	hit.setResourceName(doc.get(SearchConstants.RESOURCE_NAME));
+    	hit.setResourceDesc(doc.get(SearchConstants.RESOURCE_DESC));
+    	hit.setResourceRelativePath(doc.get(SearchConstants.RESOURCE_RELATIVE_PATH));
+    	
+    	String resourcePath = doc.get(SearchConstants.RESOURCE_PATH);
+    	if(!StringUtil.isNullEmpty(resourcePath)) {
+    		hit.setResourcePath(Paths.get(resourcePath));
+    	}
+    	
+    	String directoryId = doc.get(SearchConstants.DIRECTORY_ID);
+    	if(!StringUtil.isNullEmpty(directoryId)) {
+    		hit.setDirectoryId(Long.valueOf(directoryId));
+    	}
+    	
+    	hit.setDirectoryName(doc.get(SearchConstants.DIRECTORY_NAME));
+    	hit.setDirectoryRelativePath(doc.get(SearchConstants.DIRECTORY_RELATIVE_PATH));
+    	
+    	String storeId = doc.get(SearchConstants.STORE_ID);
+    	if(!StringUtil.isNullEmpty(storeId)) {
+    		hit.setStoreId(Long.valueOf(storeId));
+    	}
+    	
+    	hit.setStoreName(doc.get(SearchConstants.STORE_NAME));
+    	
+    	hit.setMimeType(doc.get(SearchConstants.RESOURCE_MIME_TYPE));
+    	hit.setFileSize(getStoredLong(doc, SearchConstants.RESOURCE_SIZE));
+    	hit.setDateCreated(getStoredLong(doc, SearchConstants.RESOURCE_DATE_CREATED));
+    	hit.setDateUpdated(getStoredLong(doc, SearchConstants.RESOURCE_DATE_UPDATED));
+    	
+    	return hit;
+    	
+    }
+    
+    /**
+     * Get a stored numeric value from the document
+     * 
+     * @param doc
+     * @param fieldName
+     * @return the value, or null if the document has no value for the field (e.g. documents indexed before the field was added.)
+     */
+    private Long getStoredLong(Document doc, String fieldName) {
+    	IndexableField field = doc.getField(fieldName);
+    	if(field == null || field.numericValue() == null) {
+    		return null;
+    	}
+    	return field.numericValue().longValue();
+    }
+    
+    /**
+     * Block until the index generation is visible to searches, or until MAX_GENERATION_WAIT_MS has elapsed. 
+     * 
+     * @param generation - the index generation. Values <= 0 return immediately.
+     * @throws ServiceException
+     */
+    private void waitForGeneration(long generation) throws ServiceException {
+    	
+    	if(generation <= 0L) {
+    		return;
+    	}
+    	
+    	try {
+			boolean visible = reopenThread.waitForGeneration(generation, (int)MAX_GENERATION_WAIT_MS);
+			if(!visible) {
+				logger.warn("Index generation " + generation + " not visible after " + MAX_GENERATION_WAIT_MS + 
+						"ms for store [id=" + store.getId() + ", name=" + store.getName() + "], searching current snapshot.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while waiting for index generation " + generation + 
+					" in store [id=" + store.getId() + ", name=" + store.getName() + "]", e);
+		}
+    	
+    }
+    
+    /**
+     * Stop the reopen thread and close the search manager
      * 
      * @throws IOException
      */
     public void destroy() throws IOException {
-        maybeRefreshFuture.cancel(false);
+        reopenThread.close();
         searcherManager.close();
     }    
 
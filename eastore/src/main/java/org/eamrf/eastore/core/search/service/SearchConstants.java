@@ -8,6 +8,14 @@ public abstract class SearchConstants {
 	public static final String RESOURCE_PATH 			= "resourcePath";
 	public static final String RESOURCE_DESC 			= "resourceDescription";
 	public static final String RESOURCE_CONTENT 		= "resourceContent";
+	public static final String RESOURCE_MIME_TYPE		= "resourceMimeType";
+	public static final String RESOURCE_SIZE			= "resourceSize";
+	public static final String RESOURCE_DATE_CREATED	= "resourceDateCreated";
+	public static final String RESOURCE_DATE_UPDATED	= "resourceDateUpdated";
+	
+	// lower case copies of the name and relative path, used for case-insensitive prefix/wildcard queries
+	public static final String RESOURCE_NAME_LOWER				= "resourceNameLower";
+	public static final String RESOURCE_RELATIVE_PATH_LOWER	= "resourceRelativePathLower";
 	
 	public static final String DIRECTORY_ID 			= "directoryId";
 	public static final String DIRECTORY_NAME 			= "directoryName";
@@ -6,7 +6,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+
 import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.search.extract.BoundedTextExtractor;
 import org.eamrf.eastore.core.search.extract.FileTextExtractor;
 import org.eamrf.eastore.core.search.extract.MsExcelExtractor;
 import org.eamrf.eastore.core.search.extract.MsPowerpointExtractor;
@@ -16,6 +20,7 @@ import org.eamrf.eastore.core.search.extract.PlainTextExtractor;
 import org.eamrf.eastore.core.search.lucene.StoreIndexer;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
@@ -29,6 +34,17 @@ public class StoreIndexerService {
 	
     @InjectLogger
     private Logger logger;  
+    
+    @Autowired
+    private ManagedProperties appProps;
+    
+    // defaults used when the search.extract.* properties are not set
+    private final int DEFAULT_EXTRACT_MAX_CHARS			= 5000000;
+    private final int DEFAULT_EXTRACT_TIMEOUT_MILLIS		= 60000;
+    private final int DEFAULT_EXTRACT_THREADS			= 2;
+    
+    // default memory budget for concurrent extractions is a quarter of the max heap
+    private final int DEFAULT_EXTRACT_MEMORY_BUDGET_MB	= (int)(Runtime.getRuntime().maxMemory() / (4L * 1024L * 1024L));
 
 	// add more extractors for additional file/mime types
 	private final List<FileTextExtractor> fileExtractors = Arrays.asList(
@@ -38,6 +54,9 @@ public class StoreIndexerService {
 			new MsPowerpointExtractor(),
 			new MsExcelExtractor());
 	
+	// runs the extractors with a cap on extracted characters, and a per-file timeout. Shared by all stores.
+	private BoundedTextExtractor textExtractor = null;
+	
     // maps all stores to their lucene search indexer
     private Map<Store,StoreIndexer> storeIndexerMap = new HashMap<Store,StoreIndexer>();	
 	
@@ -45,6 +64,24 @@ public class StoreIndexerService {
 		
 	}
 	
+	/**
+	 * Create the text extractor using the search.extract.* properties
+	 */
+	@PostConstruct
+	public void init() {
+		
+		int maxChars = appProps.getIntProperty("search.extract.max.chars", DEFAULT_EXTRACT_MAX_CHARS);
+		long timeoutMillis = appProps.getIntProperty("search.extract.timeout.millis", DEFAULT_EXTRACT_TIMEOUT_MILLIS);
+		int numThreads = appProps.getIntProperty("search.extract.threads", DEFAULT_EXTRACT_THREADS);
+		int memoryBudgetMb = appProps.getIntProperty("search.extract.memory.budget.mb", DEFAULT_EXTRACT_MEMORY_BUDGET_MB);
+		
+		logger.info("Initializing text extractor [maxChars=" + maxChars + ", timeoutMillis=" + timeoutMillis + 
+				", threads=" + numThreads + ", memoryBudgetMb=" + memoryBudgetMb + "]");
+		
+		textExtractor = new BoundedTextExtractor(fileExtractors, maxChars, timeoutMillis, numThreads, memoryBudgetMb);
+		
+	}
+	
 	/**
 	 * Initialize the lucene indexer for the store if it already hasn't been initialized.
 	 * 
@@ -59,7 +96,7 @@ public class StoreIndexerService {
 			
 			logger.info("Initializing store indexer for store [id=" + store.getId() + ", name=" + store.getName() + "]");
 			
-			indexer = new StoreIndexer(store, fileExtractors);
+			indexer = new StoreIndexer(store, textExtractor);
 			indexer.init();
 			storeIndexerMap.put(store, indexer);			
 		}
@@ -92,6 +129,9 @@ public class StoreIndexerService {
 				e.printStackTrace();
 			}
 		}
+		if(textExtractor != null) {
+			textExtractor.shutdown();
+		}
 	}
 
 }
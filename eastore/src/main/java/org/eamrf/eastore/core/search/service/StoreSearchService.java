@@ -2,17 +2,35 @@ package org.eamrf.eastore.core.search.service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.lucene.index.IndexWriter;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.search.lucene.FederatedSearchResult;
+import org.eamrf.eastore.core.search.lucene.StoreMetadataQuery;
 import org.eamrf.eastore.core.search.lucene.StoreSearchHit;
 import org.eamrf.eastore.core.search.lucene.StoreSearchResult;
+import org.eamrf.eastore.core.search.lucene.StoreSearchTiming;
 import org.eamrf.eastore.core.search.lucene.StoreSearcher;
 import org.eamrf.eastore.core.service.file.FileService;
+import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,12 +51,31 @@ public class StoreSearchService {
     @Autowired
     private FileService fileService;
     
+    @Autowired
+    private StoreIndexerService storeIndexerService;
+    
+    @Autowired
+    private SecurePathResourceTreeService secureTreeService;
+    
     // maps all stores to their lucene searcher
-    private Map<Store,StoreSearcher> storeSearcherMap = new HashMap<Store,StoreSearcher>();
+    private Map<Store,StoreSearcher> storeSearcherMap = new ConcurrentHashMap<Store,StoreSearcher>();
     
     private final int MAX_NUM_SEARCH_RESULTS 	= 50;
     private final int MAX_NUM_SEARCH_FRAGMENTS	= 3;
     private final int MAX_FRAGMENT_LENGTH		= 300;
+    
+    // metadata searches return no content fragments, so they can return a larger page of results
+    private final int MAX_NUM_METADATA_RESULTS	= 500;
+    
+    // max number of stores searched concurrently during a federated search
+    private final int MAX_FEDERATED_SEARCH_THREADS	= 8;
+    
+    // max time (seconds) to wait on all stores during a federated search. Stores which take longer are reported as timed out,
+    // but their searches are not stopped, see searchAllStores.
+    private final long FEDERATED_SEARCH_TIMEOUT_SEC	= 30L;
+    
+    // executor used to search stores in parallel for federated searches
+    private final ExecutorService federatedSearchExecutor = Executors.newFixedThreadPool(MAX_FEDERATED_SEARCH_THREADS);
 	
 	public StoreSearchService() {
 		
@@ -76,6 +113,23 @@ public class StoreSearchService {
 	 */
 	public StoreSearchResult searchByContent(Store store, String value, String userId) throws ServiceException {
 		
+		return searchByContent(store, value, userId, false);
+		
+	}
+	
+	/**
+	 * Perform search by file content.
+	 * 
+	 * @param store - the store to search
+	 * @param value - the search term value
+	 * @param userId - ID of user performing the search. Read access will be taken into consideration to filter search results.
+	 * @param waitForIndexWrites - pass true to wait until all writes already applied to the store's index writer are
+	 * visible to the search (read-your-writes.) Pass false to search the current snapshot, which may be a few seconds stale.
+	 * @return
+	 * @throws ServiceException
+	 */
+	public StoreSearchResult searchByContent(Store store, String value, String userId, boolean waitForIndexWrites) throws ServiceException {
+		
 		StoreSearcher searcher = null;
 		try {
 			searcher = this.getSearcherForStore(store);
@@ -83,19 +137,177 @@ public class StoreSearchService {
 			throw new ServiceException("IOException thrown when attempting to retrieve searcher for store [id=" + store.getId() + ", name=" + store.getName() + "]", e);
 		}
 		
+		long generation = -1L;
+		if(waitForIndexWrites) {
+			try {
+				generation = storeIndexerService.getIndexerForStore(store).getLastGeneration();
+			} catch (IOException e) {
+				throw new ServiceException("IOException thrown when attempting to retrieve indexer for store [id=" + store.getId() + ", name=" + store.getName() + "]", e);
+			}
+		}
+		
 		StoreSearchResult result = null;
 		try {
-			result = searcher.searchByContent(value, MAX_NUM_SEARCH_RESULTS, MAX_NUM_SEARCH_FRAGMENTS, MAX_FRAGMENT_LENGTH);
+			result = searcher.searchByContent(value, MAX_NUM_SEARCH_RESULTS, MAX_NUM_SEARCH_FRAGMENTS, MAX_FRAGMENT_LENGTH, generation);
 		} catch (IOException e) {
 			throw new ServiceException("IOException thrown when searching store [id=" + store.getId() + ", name=" + store.getName() + "] for term '" + value + "'", e);
 		}
 		
-		return filterByReadAccess(result, store, userId);
+		return filterHitsByReadAccess(result, store, userId);
+		
+	}
+	
+	/**
+	 * Perform search by file metadata (name, path, mime type, size and dates.) The search only matches files
+	 * the user can read, so hits and facet counts never include files the user does not have access to.
+	 * 
+	 * Read access is evaluated for the directories that have matching files (see StoreSearcher.searchByMetadata),
+	 * and then for each returned hit, never for the whole store. The hit check also drops hits whose index entry
+	 * is out of date (e.g. a file that was moved or deleted since it was indexed.)
+	 * 
+	 * @param store - the store to search
+	 * @param metadataQuery - the search criteria
+	 * @param userId - ID of user performing the search.
+	 * @param waitForIndexWrites - pass true to wait until all pending writes are visible in the store's index.
+	 * @return
+	 * @throws ServiceException
+	 */
+	public StoreSearchResult searchByMetadata(Store store, StoreMetadataQuery metadataQuery, String userId, boolean waitForIndexWrites) throws ServiceException {
+		
+		StoreSearcher searcher = null;
+		try {
+			searcher = this.getSearcherForStore(store);
+		} catch (IOException e) {
+			throw new ServiceException("IOException thrown when attempting to retrieve searcher for store [id=" + store.getId() + ", name=" + store.getName() + "]", e);
+		}
+		
+		long generation = -1L;
+		if(waitForIndexWrites) {
+			try {
+				generation = storeIndexerService.getIndexerForStore(store).getLastGeneration();
+			} catch (IOException e) {
+				throw new ServiceException("IOException thrown when attempting to retrieve indexer for store [id=" + store.getId() + ", name=" + store.getName() + "]", e);
+			}
+		}
+		
+		StoreSearchResult result = null;
+		try {
+			result = searcher.searchByMetadata(metadataQuery, 
+					directoryIds -> secureTreeService.getFileReadableDirectories(directoryIds, userId), 
+					MAX_NUM_METADATA_RESULTS, generation);
+		} catch (IOException e) {
+			throw new ServiceException("IOException thrown when searching store [id=" + store.getId() + ", name=" + store.getName() + "] with query " + metadataQuery, e);
+		}
+		
+		return filterHitsByReadAccess(result, store, userId);
 		
 	}
 	
 	/**
-	 * Filter out search results that the user does not have read permission on.
+	 * Perform search by file content across all stores. Only stores whose root directory the user can read are
+	 * searched. Each store is searched in parallel and filtered by the user's read access, then the hits from all
+	 * stores are merged into one list ordered by score.
+	 * 
+	 * A store which fails or times out does not fail the whole search, the error is reported in the timing
+	 * data for that store.
+	 * 
+	 * A timeout does not stop the store's search. The worker thread is interrupted, which only ends a wait for
+	 * index writes. The Lucene search and the read access checks run to the end, and keep one of the federated
+	 * search threads busy until then, so a slow store can still delay later federated searches.
+	 * 
+	 * @param value - the search term value
+	 * @param userId - ID of user performing the search. Read access will be taken into consideration to filter search results.
+	 * @param waitForIndexWrites - pass true to wait until all pending writes are visible in each store's index.
+	 * @return
+	 * @throws ServiceException
+	 */
+	public FederatedSearchResult searchAllStores(String value, String userId, boolean waitForIndexWrites) throws ServiceException {
+		
+		final long startTime = System.currentTimeMillis();
+		
+		// root directory access bits are evaluated for the user by getStores
+		List<Store> stores = fileService.getStores(userId).stream()
+				.filter(store -> store.getRootDir() != null && Boolean.TRUE.equals(store.getRootDir().getCanRead()))
+				.collect(Collectors.toList());
+		
+		List<Callable<StoreSearchResult>> searchTasks = new ArrayList<Callable<StoreSearchResult>>();
+		List<StoreSearchTiming> timings = new ArrayList<StoreSearchTiming>();
+		// time each worker spent on its store. Only this thread writes the timings, a timed out worker
+		// may still be running when they are filled in.
+		List<AtomicLong> elapsedTimes = new ArrayList<AtomicLong>();
+		for(Store store : stores) {
+			final StoreSearchTiming timing = new StoreSearchTiming();
+			timing.setStoreId(store.getId());
+			timing.setStoreName(store.getName());
+			timings.add(timing);
+			final AtomicLong elapsed = new AtomicLong();
+			elapsedTimes.add(elapsed);
+			searchTasks.add(() -> {
+				final long storeStartTime = System.currentTimeMillis();
+				try {
+					return searchByContent(store, value, userId, waitForIndexWrites);
+				} finally {
+					elapsed.set(System.currentTimeMillis() - storeStartTime);
+				}
+			});
+		}
+		
+		List<Future<StoreSearchResult>> futures = null;
+		try {
+			futures = federatedSearchExecutor.invokeAll(searchTasks, FEDERATED_SEARCH_TIMEOUT_SEC, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while performing federated search for term '" + value + "'", e);
+		}
+		
+		FederatedSearchResult result = new FederatedSearchResult();
+		result.setSearchValue(value);
+		
+		List<StoreSearchHit> mergedHits = new ArrayList<StoreSearchHit>();
+		StoreSearchResult storeResult = null;
+		StoreSearchTiming timing = null;
+		for(int i = 0; i < futures.size(); i++) {
+			timing = timings.get(i);
+			try {
+				storeResult = futures.get(i).get();
+				timing.setElapsedMillis(elapsedTimes.get(i).get());
+				if(storeResult != null && storeResult.haveHits()) {
+					mergedHits.addAll(storeResult.getHits());
+					timing.setNumHits(storeResult.getHits().size());
+				}
+			} catch (CancellationException e) {
+				timing.setElapsedMillis(System.currentTimeMillis() - startTime);
+				timing.setError("Search timed out after " + FEDERATED_SEARCH_TIMEOUT_SEC + " seconds");
+				logger.warn("Federated search for term '" + value + "' timed out on store [id=" + timing.getStoreId() + ", name=" + timing.getStoreName() + "]");
+			} catch (ExecutionException e) {
+				timing.setElapsedMillis(elapsedTimes.get(i).get());
+				timing.setError(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+				logger.error("Federated search for term '" + value + "' failed on store [id=" + timing.getStoreId() + ", name=" + timing.getStoreName() + "]", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceException("Interrupted while performing federated search for term '" + value + "'", e);
+			}
+			result.addStoreTiming(timing);
+		}
+		
+		// merge by score, highest first, and keep the same page size as a single store search
+		Collections.sort(mergedHits, Comparator.comparingDouble(StoreSearchHit::getScore).reversed());
+		if(mergedHits.size() > MAX_NUM_SEARCH_RESULTS) {
+			mergedHits = new ArrayList<StoreSearchHit>(mergedHits.subList(0, MAX_NUM_SEARCH_RESULTS));
+		}
+		
+		result.setHits(mergedHits);
+		result.setNumResults(mergedHits.size());
+		result.setElapsedMillis(System.currentTimeMillis() - startTime);
+		
+		return result;
+		
+	}
+	
+	/**
+	 * Filter out search hits the user can't read, checking only the files in the hits (with their parent
+	 * directories, see SecurePathResourceTreeService.getPathResources.) Hits for files that no longer exist, or
+	 * are no longer where the index says they are, are dropped too.
 	 * 
 	 * @param result
 	 * @param store
@@ -103,26 +315,40 @@ public class StoreSearchService {
 	 * @return
 	 * @throws ServiceException
 	 */
-	private StoreSearchResult filterByReadAccess(StoreSearchResult result, Store store, String userId) throws ServiceException {
+	private StoreSearchResult filterHitsByReadAccess(StoreSearchResult result, Store store, String userId) throws ServiceException {
 		
 		if(result == null || result.haveHits() == false) {
 			return result;
 		}
 		
-		// filter hits based on read access for user
-		List<StoreSearchHit> allHits = result.getHits();
+		List<Long> hitIds = result.getHits().stream()
+				.map(StoreSearchHit::getResourceId)
+				.filter(Objects::nonNull)
+				.distinct()
+				.collect(Collectors.toList());
+		
+		Map<Long,PathResource> resourceMap = new HashMap<Long,PathResource>();
+		int batchSize = secureTreeService.getBatchMaxSize();
+		for(int start = 0; start < hitIds.size(); start += batchSize) {
+			List<Long> batch = hitIds.subList(start, Math.min(start + batchSize, hitIds.size()));
+			for(PathResource resource : secureTreeService.getPathResources(batch, userId)) {
+				resourceMap.put(resource.getNodeId(), resource);
+			}
+		}
+		
 		List<StoreSearchHit> filteredHits = new ArrayList<StoreSearchHit>();
-		Map<Long,Boolean> readAccessMap = fileService.getFileReadAccessMap(store, userId);
-		Boolean canRead = false;
-		for(StoreSearchHit hit : allHits) {
-			canRead = readAccessMap.get(hit.getResourceId());
-			if(canRead != null && canRead) {
+		PathResource resource = null;
+		for(StoreSearchHit hit : result.getHits()) {
+			resource = resourceMap.get(hit.getResourceId());
+			if(resource != null && Boolean.TRUE.equals(resource.getCanRead()) && store.getId().equals(resource.getStoreId()) &&
+					(hit.getDirectoryId() == null || hit.getDirectoryId().equals(resource.getParentNodeId()))) {
 				filteredHits.add(hit);
 			}
 		}
 		result.setHits(filteredHits);
+		result.setNumResults(filteredHits.size());
 		
-		return result;		
+		return result;
 		
 	}
 	
@@ -142,6 +368,7 @@ public class StoreSearchService {
 	 * Shutdown searcher for all stores when application terminates.
 	 */
 	public void cleanup() {
+		federatedSearchExecutor.shutdownNow();
 		for(StoreSearcher searcher : storeSearcherMap.values()) {
 			try {
 				searcher.destroy();
@@ -0,0 +1,394 @@
+/**
+ * 
+ */
+package org.eamrf.eastore.core.service.file;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.ChangeJournalRepository;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ChangeType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceChange;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service for reading the change journal, so clients can sync a store by fetching only what changed
+ * since their last sync, rather than walking the whole tree.
+ * 
+ * A client starts with a full listing of the store and the cursor returned by getLatestChangeId, then
+ * calls getChangesSince with the id of the last change it processed. Within a store, changes are committed
+ * in change id order, because writes to a store's journal are serialized (see ChangeJournalRepository), so a
+ * change with a smaller id than the cursor can never show up after the client has moved past it.
+ * 
+ * Each change is only returned if the user can read the resource (see filterReadable), so the feed never shows
+ * more than a tree listing would.
+ * 
+ * Old changes are pruned on a schedule, and each store keeps the id of the latest change pruned from its
+ * journal. A client whose cursor is older than that has missed changes, and has to do a full listing again
+ * (see isResyncRequired.)
+ * 
+ * @author slenzi
+ */
+@Service
+public class ChangeJournalService {
+
+    @InjectLogger
+    private Logger logger;
+    
+    @Autowired
+    private ManagedProperties appProps;
+    
+    @Autowired
+    private FileService fileService;
+    
+    @Autowired
+    private ErrorHandler errorHandler;
+    
+    @Autowired
+    private SecurePathResourceTreeService secureTreeService;
+    
+    @Autowired
+    private ChangeJournalRepository changeJournalRepository;
+    
+    // default number of days changes are kept in the journal
+    private static final int DEFAULT_RETENTION_DAYS = 30;
+    
+    // default max number of changes returned by one call
+    private static final int DEFAULT_MAX_CHANGES = 1000;
+    
+    // how often old changes are pruned
+    private static final long PRUNE_INTERVAL_MINUTES = 60L;
+    
+    private int retentionDays = DEFAULT_RETENTION_DAYS;
+    
+    private int maxChanges = DEFAULT_MAX_CHANGES;
+    
+    private ScheduledExecutorService pruneExecutor = null;
+    
+	/**
+	 * One page of changes for a client
+	 */
+	public static class ChangePage {
+		
+		private final List<ResourceChange> changes;
+		private final Long cursor;
+		private final boolean hasMore;
+		
+		public ChangePage(List<ResourceChange> changes, Long cursor, boolean hasMore) {
+			this.changes = changes;
+			this.cursor = cursor;
+			this.hasMore = hasMore;
+		}
+
+		/**
+		 * @return the changes the user can see
+		 */
+		public List<ResourceChange> getChanges() {
+			return changes;
+		}
+
+		/**
+		 * @return id of the last change in the page, including changes the user can't see. The client's next cursor.
+		 */
+		public Long getCursor() {
+			return cursor;
+		}
+
+		/**
+		 * @return true if there are more changes after the page
+		 */
+		public boolean isHasMore() {
+			return hasMore;
+		}
+		
+	}
+	
+	/**
+	 * 
+	 */
+	public ChangeJournalService() {
+		
+	}
+	
+	@PostConstruct
+	public void init() {
+		
+		retentionDays = appProps.getIntProperty("change.journal.retention.days", DEFAULT_RETENTION_DAYS);
+		maxChanges = appProps.getIntProperty("change.journal.max.changes", DEFAULT_MAX_CHANGES);
+		
+		pruneExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "change-journal-prune");
+			thread.setDaemon(true);
+			return thread;
+		});
+		pruneExecutor.scheduleWithFixedDelay(() -> {
+			try {
+				pruneChanges();
+			} catch (Exception e) {
+				logger.error("Error pruning change journal, " + e.getMessage(), e);
+			}
+		}, 1L, PRUNE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		
+	}
+	
+	@PreDestroy
+	public void cleanup() {
+		
+		if(pruneExecutor != null) {
+			pruneExecutor.shutdownNow();
+		}
+		
+	}
+	
+	/**
+	 * Get the number of changes to return to a client
+	 * 
+	 * @param limit - number of changes the client asked for, null for the max
+	 * @return the limit, capped at the change.journal.max.changes property
+	 */
+	public int getPageSize(Integer limit) {
+		
+		return (limit == null || limit <= 0 || limit > maxChanges) ? maxChanges : limit;
+		
+	}
+	
+	/**
+	 * Fetch a page of changes for a store that come after the cursor, oldest first, leaving out changes
+	 * the user is not allowed to see (see filterReadable.) The cursor of the page is the id of the last change
+	 * in the journal page, not the last visible one, so hidden changes are never fetched again.
+	 * 
+	 * @param storeId - id of the store
+	 * @param cursor - id of the last change the client has processed
+	 * @param limit - max number of changes the client asked for, see getPageSize
+	 * @param userId - id of user performing the action. Must have read access to the store's root directory.
+	 * @return
+	 * @throws ServiceException
+	 */
+	public ChangePage getChangesSince(Long storeId, Long cursor, Integer limit, String userId) throws ServiceException {
+		
+		checkReadAccess(storeId, userId);
+		
+		int pageSize = getPageSize(limit);
+		List<ResourceChange> changes = null;
+		try {
+			// fetch one extra change, to tell if there are more changes after the page
+			changes = changeJournalRepository.getChangesSince(storeId, cursor, pageSize + 1);
+		} catch (Exception e) {
+			throw new ServiceException("Error fetching changes for store [id=" + storeId + "] since change " + cursor + 
+					", " + e.getMessage(), e);
+		}
+		
+		boolean hasMore = changes.size() > pageSize;
+		if(hasMore) {
+			changes = changes.subList(0, pageSize);
+		}
+		Long pageCursor = changes.isEmpty() ? cursor : changes.get(changes.size() - 1).getChangeId();
+		
+		return new ChangePage(filterReadable(changes, userId), pageCursor, hasMore);
+		
+	}
+	
+	/**
+	 * Remove the changes the user is not allowed to see. Permissions are evaluated with the same rules as every
+	 * other read (see SecurePathResourceTreeBuilder.evaluateParentAccess), using the current state of the
+	 * resources, and of the directories named in the changes.
+	 * 
+	 * Adds, updates, moves, and renames are returned if the user can read the resource, and the directory the
+	 * change put it in. A move the user can't see (e.g. out of a readable directory, into one they can't read) is
+	 * returned as a delete, because the resource left the part of the store the user can see.
+	 * 
+	 * Deleted resources no longer exist, so their own read groups can't be checked. Deletes are returned without
+	 * the resource's name, path, or parent, only the node id (clients only need the id to remove the resource),
+	 * and are left out entirely if their directory still exists and the user can't read it.
+	 * 
+	 * @param changes - the changes
+	 * @param userId - id of user performing the action
+	 * @return the changes the user can see, in the same order
+	 * @throws ServiceException
+	 */
+	private List<ResourceChange> filterReadable(List<ResourceChange> changes, String userId) throws ServiceException {
+		
+		if(changes.isEmpty()) {
+			return changes;
+		}
+		
+		List<Long> nodeIds = changes.stream()
+				.flatMap(change -> Stream.of(change.getNodeId(), change.getParentNodeId()))
+				.filter(Objects::nonNull)
+				.distinct()
+				.collect(Collectors.toList());
+		
+		// resources that still exist, with permissions evaluated
+		Map<Long,PathResource> resourceMap = new HashMap<Long,PathResource>();
+		int batchSize = secureTreeService.getBatchMaxSize();
+		for(int start = 0; start < nodeIds.size(); start += batchSize) {
+			List<Long> batch = nodeIds.subList(start, Math.min(start + batchSize, nodeIds.size()));
+			for(PathResource resource : secureTreeService.getPathResources(batch, userId)) {
+				resourceMap.put(resource.getNodeId(), resource);
+			}
+		}
+		
+		List<ResourceChange> readable = new ArrayList<ResourceChange>(changes.size());
+		for(ResourceChange change : changes) {
+			
+			PathResource parent = resourceMap.get(change.getParentNodeId());
+			
+			if(change.getChangeType() == ChangeType.DELETE) {
+				if(parent == null || parent.getCanRead()) {
+					readable.add(toAnonymousDelete(change));
+				}
+				continue;
+			}
+			
+			PathResource resource = resourceMap.get(change.getNodeId());
+			if(resource == null) {
+				// deleted since, the delete comes later in the journal
+				continue;
+			}
+			
+			// directory named in the change, if the resource has moved since then it has to be checked too
+			boolean parentReadable = change.getParentNodeId() == null || change.getParentNodeId().equals(resource.getParentNodeId()) ||
+					(parent != null && parent.getCanRead());
+			
+			if(resource.getCanRead() && parentReadable) {
+				readable.add(change);
+			}else if(change.getChangeType() == ChangeType.MOVE) {
+				readable.add(toAnonymousDelete(change));
+			}
+			
+		}
+		return readable;
+		
+	}
+	
+	/**
+	 * Copy the change as a delete, without the name, path, and parent of the resource
+	 * 
+	 * @param change
+	 * @return
+	 */
+	private ResourceChange toAnonymousDelete(ResourceChange change) {
+		
+		ResourceChange delete = new ResourceChange();
+		delete.setChangeId(change.getChangeId());
+		delete.setStoreId(change.getStoreId());
+		delete.setNodeId(change.getNodeId());
+		delete.setChangeType(ChangeType.DELETE);
+		delete.setResourceType(change.getResourceType());
+		delete.setChangeDate(change.getChangeDate());
+		return delete;
+		
+	}
+	
+	/**
+	 * Fetch the id of the latest change for a store. Clients use this as their cursor after a full listing
+	 * of the store.
+	 * 
+	 * @param storeId - id of the store
+	 * @param userId - id of user performing the action. Must have read access to the store's root directory.
+	 * @return the id, never null. If the store has no changes in the journal, a value that is safe to use as
+	 * a cursor for the store.
+	 * @throws ServiceException
+	 */
+	public Long getLatestChangeId(Long storeId, String userId) throws ServiceException {
+		
+		checkReadAccess(storeId, userId);
+		
+		try {
+			Long latestChangeId = changeJournalRepository.getLatestChangeId(storeId);
+			if(latestChangeId != null) {
+				return latestChangeId;
+			}
+			// everything was pruned, or the store has no changes yet
+			return changeJournalRepository.getPrunedChangeId(storeId);
+		} catch (Exception e) {
+			throw new ServiceException("Error fetching latest change id for store [id=" + storeId + "], " + e.getMessage(), e);
+		}
+		
+	}
+	
+	/**
+	 * Check if a client with the cursor missed changes that were pruned from the store's journal, in which
+	 * case it must do a full listing of the store again. Only the store's own prune watermark is compared, so
+	 * pruning other stores never forces a resync.
+	 * 
+	 * @param storeId - id of the store
+	 * @param cursor - id of the last change the client has processed
+	 * @return
+	 * @throws ServiceException
+	 */
+	public boolean isResyncRequired(Long storeId, Long cursor) throws ServiceException {
+		
+		if(cursor == null) {
+			return true;
+		}
+		
+		Long prunedChangeId = null;
+		try {
+			prunedChangeId = changeJournalRepository.getPrunedChangeId(storeId);
+		} catch (Exception e) {
+			throw new ServiceException("Error fetching prune watermark for store [id=" + storeId + "], " + e.getMessage(), e);
+		}
+		return cursor < prunedChangeId;
+		
+	}
+	
+	/**
+	 * Delete changes older than the change.journal.retention.days property
+	 * 
+	 * @return number of changes deleted
+	 * @throws ServiceException
+	 */
+	public int pruneChanges() throws ServiceException {
+		
+		Timestamp cutoff = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+		try {
+			return changeJournalRepository.pruneChangesBefore(cutoff);
+		} catch (Exception e) {
+			throw new ServiceException("Error pruning changes older than " + cutoff + ", " + e.getMessage(), e);
+		}
+		
+	}
+	
+	/**
+	 * Make sure the user can read the store, i.e., has read access to the store's root directory.
+	 * 
+	 * @param storeId - id of the store
+	 * @param userId - id of user performing the action
+	 * @throws ServiceException
+	 */
+	private void checkReadAccess(Long storeId, String userId) throws ServiceException {
+		
+		Store store = fileService.getStoreById(storeId, userId);
+		if(store == null) {
+			throw new ServiceException("No store found for store id => " + storeId);
+		}
+		DirectoryResource rootDir = fileService.getDirectory(store.getRootDir().getNodeId(), userId);
+		if(!rootDir.getCanRead()) {
+			errorHandler.handlePermissionDenied(PermissionError.READ, rootDir, userId);
+		}
+		
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.service.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service for serving store files directly to browsers (images, css, docs, etc), see
+ * FileSystemActionResource.dispatchFile.
+ *
+ * Files are read from disk, never from the database binary data. Small files are kept in an in-memory
+ * LRU cache so frequently requested files don't hit the disk. Cache entries are keyed by node id and
+ * checked against the file's ETag, so an updated file is never served from a stale entry.
+ *
+ * @author slenzi
+ */
+@Service
+public class DispatchService {
+
+    @Autowired
+    private ManagedProperties appProps;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private ErrorHandler errorHandler;
+
+    private static final String DEFAULT_CACHE_CONTROL = "private, max-age=300";
+    private static final int DEFAULT_CACHE_MAX_FILE_BYTES = 64 * 1024;
+    private static final int DEFAULT_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+
+    private String defaultCacheControl = DEFAULT_CACHE_CONTROL;
+
+    // files larger than this are never cached
+    private int cacheMaxFileBytes = DEFAULT_CACHE_MAX_FILE_BYTES;
+
+    // max total size of all cached files
+    private long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+
+    private long cacheBytes = 0L;
+
+    // file node id -> cached file, in access order (least recently used first)
+    private final LinkedHashMap<Long,CachedFile> hotFileCache = new LinkedHashMap<Long,CachedFile>(256, 0.75f, true);
+
+	private static class CachedFile {
+
+		private final String eTag;
+		private final byte[] data;
+
+		public CachedFile(String eTag, byte[] data) {
+			this.eTag = eTag;
+			this.data = data;
+		}
+
+	}
+
+	public DispatchService() {
+
+	}
+
+	@PostConstruct
+	public void init() {
+
+		String cacheControl = appProps.getProperty("dispatch.cache.control");
+		if(cacheControl != null && !cacheControl.trim().isEmpty()) {
+			defaultCacheControl = cacheControl.trim();
+		}
+		cacheMaxFileBytes = appProps.getIntProperty("dispatch.cache.max.file.bytes", DEFAULT_CACHE_MAX_FILE_BYTES);
+		cacheMaxBytes = appProps.getIntProperty("dispatch.cache.max.bytes", DEFAULT_CACHE_MAX_BYTES);
+
+	}
+
+	/**
+	 * Fetch a file for dispatch, and make sure the user can read it.
+	 *
+	 * @param storeName - name of the store
+	 * @param relPath - path of the file relative to the store
+	 * @param userId - id of user requesting the file
+	 * @return the file, without binary data
+	 * @throws ServiceException - if the file doesn't exist, or the user doesn't have read access
+	 */
+	public FileMetaResource getFile(String storeName, String relPath, String userId) throws ServiceException {
+
+		FileMetaResource fileMeta = fileService.getFileMetaResource(storeName, relPath, userId, false);
+		if(!fileMeta.getCanRead()) {
+			errorHandler.handlePermissionDenied(PermissionError.READ, fileMeta, userId);
+		}
+		return fileMeta;
+
+	}
+
+	/**
+	 * @param fileMeta
+	 * @return path to the file on disk
+	 */
+	public Path getFilePath(FileMetaResource fileMeta) {
+		return PathResourceUtil.buildPath(fileMeta.getStore(), fileMeta);
+	}
+
+	/**
+	 * Build a strong ETag for the file. Every change to a file's data updates its size or update date, and
+	 * the node id never changes, so the tag changes whenever the bytes do.
+	 *
+	 * @param fileMeta
+	 * @return the ETag value, without quotes
+	 */
+	public String getETag(FileMetaResource fileMeta) {
+
+		long updated = (fileMeta.getDateUpdated() != null) ? fileMeta.getDateUpdated().getTime() : 0L;
+		return Long.toHexString(fileMeta.getNodeId()) + "-" + Long.toHexString(fileMeta.getFileSize()) + "-" + Long.toHexString(updated);
+
+	}
+
+	/**
+	 * Get the Cache-Control header value for files in the store. Uses property 'dispatch.cache.control.{storeName}'
+	 * if it exists, otherwise 'dispatch.cache.control'.
+	 *
+	 * @param store
+	 * @return
+	 */
+	public String getCacheControl(Store store) {
+
+		String cacheControl = appProps.getProperty("dispatch.cache.control." + store.getName().toLowerCase());
+		if(cacheControl != null && !cacheControl.trim().isEmpty()) {
+			return cacheControl.trim();
+		}
+		return defaultCacheControl;
+
+	}
+
+	/**
+	 * Get the file data from the hot file cache, loading it from disk if needed. Only small files are
+	 * cached.
+	 *
+	 * @param fileMeta - the file
+	 * @param eTag - current ETag for the file, see getETag
+	 * @return the file data, or null if the file is too big to cache
+	 * @throws ServiceException
+	 */
+	public byte[] getCachedData(FileMetaResource fileMeta, String eTag) throws ServiceException {
+
+		if(fileMeta.getFileSize() > cacheMaxFileBytes) {
+			return null;
+		}
+
+		Long nodeId = fileMeta.getNodeId();
+		synchronized (hotFileCache) {
+			CachedFile cached = hotFileCache.get(nodeId);
+			if(cached != null && cached.eTag.equals(eTag)) {
+				return cached.data;
+			}
+		}
+
+		byte[] data = null;
+		try {
+			data = Files.readAllBytes(getFilePath(fileMeta));
+		} catch (IOException e) {
+			throw new ServiceException("Error reading file data for dispatch, file [id=" + nodeId +
+					", relPath=" + fileMeta.getRelativePath() + "], " + e.getMessage(), e);
+		}
+
+		// file may have changed on disk since we read the meta data, only cache if sizes agree
+		if(data.length == fileMeta.getFileSize() && data.length <= cacheMaxFileBytes) {
+			synchronized (hotFileCache) {
+				CachedFile previous = hotFileCache.put(nodeId, new CachedFile(eTag, data));
+				if(previous != null) {
+					cacheBytes -= previous.data.length;
+				}
+				cacheBytes += data.length;
+				evict();
+			}
+		}
+
+		return data;
+
+	}
+
+	/**
+	 * Remove least recently used files until the cache is under its size limit. Caller must hold the cache lock.
+	 */
+	private void evict() {
+
+		Iterator<Map.Entry<Long,CachedFile>> iter = hotFileCache.entrySet().iterator();
+		while(cacheBytes > cacheMaxBytes && iter.hasNext()) {
+			cacheBytes -= iter.next().getValue().data.length;
+			iter.remove();
+		}
+
+	}
+}
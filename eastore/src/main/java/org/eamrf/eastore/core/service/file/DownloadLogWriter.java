@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.service.file;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.eamrf.core.util.DateUtil;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.DownloadLogRepository;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DownloadLogEntry;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Writes download log entries to the eas_download table in the background, so downloads don't wait
+ * on the database.
+ *
+ * Entries are added to a bounded in-memory queue, and written with JDBC batch inserts when a full batch
+ * is waiting, or when the flush interval passes, whichever comes first. Anything left in the queue is
+ * written when the application shuts down. If the queue is full the entry is written right away on
+ * the calling thread, so entries are never dropped.
+ *
+ * @author slenzi
+ */
+@Service
+public class DownloadLogWriter {
+
+    @InjectLogger
+    private Logger logger;
+
+    @Autowired
+    private ManagedProperties appProps;
+
+    @Autowired
+    private DownloadLogRepository downloadLogRepository;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final int DEFAULT_FLUSH_MILLIS = 1000;
+
+    // max time to wait for a running flush when shutting down
+    private static final long SHUTDOWN_WAIT_MILLIS = 10000L;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private BlockingQueue<DownloadLogEntry> queue = null;
+
+    private ScheduledExecutorService flushExecutor = null;
+
+    // true when a size triggered flush has been submitted but hasn't started yet
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+
+    // flushes from the executor and the shutdown drain never overlap
+    private final Object flushLock = new Object();
+
+	public DownloadLogWriter() {
+
+	}
+
+	@PostConstruct
+	public void init() {
+
+		queue = new ArrayBlockingQueue<DownloadLogEntry>(appProps.getIntProperty("download.log.queue.capacity", DEFAULT_QUEUE_CAPACITY));
+		batchSize = appProps.getIntProperty("download.log.batch.size", DEFAULT_BATCH_SIZE);
+		int flushMillis = appProps.getIntProperty("download.log.flush.millis", DEFAULT_FLUSH_MILLIS);
+
+		flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "download-log-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flushExecutor.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+	}
+
+	@PreDestroy
+	public void cleanup() {
+
+		if(flushExecutor != null) {
+			flushExecutor.shutdown();
+			try {
+				flushExecutor.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// drain whatever is left
+		flush();
+
+	}
+
+	/**
+	 * Add a download to the log. The entry is written to the database later, see class description.
+	 *
+	 * @param pathToFile - path to the downloaded file
+	 * @param userId - id of the user that downloaded the file
+	 */
+	public void log(Path pathToFile, String userId) {
+
+		DownloadLogEntry entry = new DownloadLogEntry();
+		entry.setFilePath(pathToFile);
+		entry.setUserId(userId);
+		entry.setDownloadDate(DateUtil.getCurrentTime());
+
+		if(!queue.offer(entry)) {
+			logger.warn("Download log queue is full, writing entry on request thread, userId=" + userId +
+					", pathToFile=" + pathToFile.toString());
+			write(Collections.singletonList(entry));
+			return;
+		}
+
+		if(queue.size() >= batchSize && flushPending.compareAndSet(false, true)) {
+			try {
+				flushExecutor.execute(() -> {
+					flushPending.set(false);
+					flush();
+				});
+			} catch (RejectedExecutionException e) {
+				// shutting down, entry will be written by the shutdown drain
+				flushPending.set(false);
+			}
+		}
+
+	}
+
+	/**
+	 * @return number of entries waiting to be written
+	 */
+	public int getPendingCount() {
+		return queue.size();
+	}
+
+	/**
+	 * Write all queued entries, one batch at a time.
+	 */
+	private void flush() {
+
+		synchronized(flushLock) {
+			List<DownloadLogEntry> batch = new ArrayList<DownloadLogEntry>(batchSize);
+			while(queue.drainTo(batch, batchSize) > 0) {
+				write(batch);
+				batch.clear();
+			}
+		}
+
+	}
+
+	/**
+	 * Insert the entries. Errors are logged and not rethrown, failing to log a download should never
+	 * fail the download, or stop the writer.
+	 *
+	 * @param entries
+	 */
+	private void write(List<DownloadLogEntry> entries) {
+
+		try {
+			downloadLogRepository.logDownloads(entries);
+		} catch (Exception e) {
+			logger.warn("Failed to write " + entries.size() + " download log entries, " + e.getMessage(), e);
+		}
+
+	}
+
+}
@@ -7,7 +7,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eamrf.concurrent.task.TaskIdGenerator;
 import org.eamrf.core.logging.stereotype.InjectLogger;
@@ -50,6 +50,9 @@ public class DownloadService {
     @Autowired
     private DownloadLogRepository downloadLogRepository;
     
+    @Autowired
+    private DownloadLogWriter downloadLogWriter;
+    
     @Autowired
     private FileServiceTaskMessageService fileServiceTaskMessageService;    
 	
@@ -155,6 +158,10 @@ public class DownloadService {
 				
 		ZipTask zipTask = new ZipTask(resourceIdList, userId, outZipPath, secureTreeService, fileService);
 		zipTask.setTaskId(TaskIdGenerator.getNextTaskId());
+		zipTask.setNotifyIntervalMillis(fileService.getTaskProgressNotifyIntervalMillis());
+		
+		// progress notifications can come from more than one thread, make sure the zip is only completed once
+		final AtomicBoolean completed = new AtomicBoolean(false);
 		
 		zipTask.registerProgressListener(task -> {
 			
@@ -165,7 +172,7 @@ public class DownloadService {
 			
 			// when task completes, notify completion listener
 			Long percentComplete = Math.round(task.getProgress());
-			if(percentComplete.equals(new Long(100))) {
+			if(percentComplete.equals(new Long(100)) && completed.compareAndSet(false, true)) {
 				
 				// log zip file in download table
 				Long downloadId = this.logDownload(outZipPath, userId);
@@ -177,33 +184,31 @@ public class DownloadService {
 			
 		});
 		
-		Executors.newSingleThreadExecutor().execute(zipTask);
+		// runs on the shared pool for tree tasks, rejected if the user or server is at the limit
+		fileService.executeTreeTask(zipTask);
 		
 	}
 	
 	/**
-	 * Log the download
+	 * Log the download. The log entry is written in the background (see DownloadLogWriter), so the
+	 * download doesn't wait on the database.
 	 * 
 	 * @param file
 	 * @param userId
 	 */
-	public Long logDownload(FileMetaResource file, String userId) {
+	public void logDownload(FileMetaResource file, String userId) {
 
-		try {
-			return downloadLogRepository.logDownload(file, userId);
-		} catch (Exception e) {
-			Path fullPath = PathResourceUtil.buildPath(file.getStore(), file);
-			logger.warn("Faield to log download for userId=" + userId + ", fileMetaResource=" + fullPath.toString());
-			return -1L;
-		}		
+		downloadLogWriter.log(PathResourceUtil.buildPath(file.getStore(), file), userId);
 		
 	}
 	
 	/**
-	 * Log the download
+	 * Log the download right away and return the download id. Used for zip downloads, where the client
+	 * fetches the zip file by its download id.
 	 * 
-	 * @param file
+	 * @param pathToFile
 	 * @param userId
+	 * @return the download id, or -1 if the log entry could not be written
 	 */
 	public Long logDownload(Path pathToFile, String userId) {
 
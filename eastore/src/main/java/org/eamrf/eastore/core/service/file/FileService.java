@@ -5,21 +5,26 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.eamrf.concurrent.task.BoundedTaskExecutor;
 import org.eamrf.concurrent.task.QueuedTaskManager;
+import org.eamrf.concurrent.task.TaskRejectedException;
+import org.eamrf.concurrent.task.TaskJournal;
+import org.eamrf.concurrent.task.TaskJournalEntry;
 import org.eamrf.concurrent.task.TaskIdGenerator;
 import org.eamrf.concurrent.task.TaskManagerProvider;
+import org.eamrf.concurrent.task.TaskPriority;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.core.util.CollectionUtil;
 import org.eamrf.core.util.FileUtil;
@@ -31,25 +36,26 @@ import org.eamrf.eastore.core.properties.ManagedProperties;
 import org.eamrf.eastore.core.search.lucene.StoreIndexer;
 import org.eamrf.eastore.core.search.service.StoreIndexerService;
 import org.eamrf.eastore.core.service.file.task.AddDirectoryTask;
+import org.eamrf.eastore.core.service.file.task.AddFileBatchTask;
 import org.eamrf.eastore.core.service.file.task.AddFileTask;
+import org.eamrf.eastore.core.service.file.task.AddFileToSearchIndexTask;
 import org.eamrf.eastore.core.service.file.task.CopyDirectoryTask;
 import org.eamrf.eastore.core.service.file.task.CopyFileTask;
+import org.eamrf.eastore.core.service.file.task.FileServiceTask;
 import org.eamrf.eastore.core.service.file.task.FileServiceTaskListener;
 import org.eamrf.eastore.core.service.file.task.MoveDirectoryTask;
 import org.eamrf.eastore.core.service.file.task.MoveFileTask;
+import org.eamrf.eastore.core.service.file.task.RebuildStoreIndexTask;
+import org.eamrf.eastore.core.service.file.task.RefreshFileBinaryTask;
 import org.eamrf.eastore.core.service.file.task.RemoveDirectoryTask;
 import org.eamrf.eastore.core.service.file.task.RemoveFileTask;
 import org.eamrf.eastore.core.service.file.task.UpdateDirectoryTask;
 import org.eamrf.eastore.core.service.file.task.UpdateFileMetaTask;
 import org.eamrf.eastore.core.service.security.GatekeeperService;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
 import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
 import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
 import org.eamrf.eastore.core.socket.messaging.ResourceChangeMessageService;
-import org.eamrf.eastore.core.tree.Tree;
-import org.eamrf.eastore.core.tree.TreeNode;
-import org.eamrf.eastore.core.tree.TreeNodeVisitException;
-import org.eamrf.eastore.core.tree.Trees;
-import org.eamrf.eastore.core.tree.Trees.WalkOption;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.DownloadLogRepository;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.FileSystemRepository;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.BinaryResource;
@@ -107,6 +113,28 @@ public class FileService {
     // maps all stores to their task manager
     private Map<Store,StoreTaskManagerMap> storeTaskManagerMap = new HashMap<Store,StoreTaskManagerMap>();     
     
+    // write-ahead journal for the binary and index writer tasks, so they survive a restart
+    private TaskJournal taskJournal = null;
+    private static final String TASK_JOURNAL_FILE_NAME = "task-journal.log";
+    
+    // long running tasks which users can cancel, by task id. Removed once the task and all its child tasks finish.
+    private Map<Long,FileServiceTask<?>> cancellableTasks = new ConcurrentHashMap<Long,FileServiceTask<?>>();
+    
+    // runs the long running tasks which walk a whole tree (copy directory, move directory, zip download)
+    private BoundedTaskExecutor treeTaskExecutor = null;
+    private static final int DEFAULT_TREE_TASK_MAX_CONCURRENT = 4;
+    private static final int DEFAULT_TREE_TASK_MAX_PER_USER = 2;
+    private static final int DEFAULT_TREE_TASK_QUEUE_SIZE = 20;
+    private static final long TREE_TASK_SHUTDOWN_SECONDS = 10L;
+    
+    // number of threads each copy directory task uses to copy file bytes, 1 = copy files one at a time
+    private int copyDirectoryThreads = DEFAULT_COPY_DIRECTORY_THREADS;
+    private static final int DEFAULT_COPY_DIRECTORY_THREADS = 4;
+    
+    // max number of progress notifications per second for each task
+    private static final int DEFAULT_TASK_PROGRESS_NOTIFY_PER_SECOND = 10;
+    private long taskProgressNotifyIntervalMillis = 1000L / DEFAULT_TASK_PROGRESS_NOTIFY_PER_SECOND;
+    
 	public FileService() {
 	
 	}
@@ -117,6 +145,18 @@ public class FileService {
 	@PostConstruct
 	public void init(){
 		
+		treeTaskExecutor = new BoundedTaskExecutor("tree-task",
+				appProps.getIntProperty("tree.task.max.concurrent", DEFAULT_TREE_TASK_MAX_CONCURRENT),
+				appProps.getIntProperty("tree.task.max.per.user", DEFAULT_TREE_TASK_MAX_PER_USER),
+				appProps.getIntProperty("tree.task.queue.size", DEFAULT_TREE_TASK_QUEUE_SIZE));
+		
+		copyDirectoryThreads = appProps.getIntProperty("copy.directory.threads", DEFAULT_COPY_DIRECTORY_THREADS);
+		
+		taskProgressNotifyIntervalMillis = 
+				1000L / appProps.getIntProperty("task.progress.notify.per.second", DEFAULT_TASK_PROGRESS_NOTIFY_PER_SECOND);
+		
+		List<TaskJournalEntry> unfinishedTasks = openTaskJournal();
+		
 		List<Store> stores = null;
 		
 		try {
@@ -133,6 +173,8 @@ public class FileService {
 		
 		initializeTaskManagers(stores);
 		
+		replayUnfinishedTasks(unfinishedTasks);
+		
 	}
 	
 	/**
@@ -140,9 +182,117 @@ public class FileService {
 	 */
 	@PreDestroy
 	public void cleanup() {
+		// tree tasks wait on tasks in the store task managers, so they must stop first
+		if(treeTaskExecutor != null) {
+			treeTaskExecutor.shutdown(TREE_TASK_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+		}
 		for(StoreTaskManagerMap map : storeTaskManagerMap.values()) {
 			map.stopAllManagers();
 		}
+		if(taskJournal != null) {
+			taskJournal.close();
+		}
+	}
+	
+	/**
+	 * Open the task journal in the directory specified by the 'task.journal.directory' property.
+	 * 
+	 * @return tasks that were queued but never completed before the last shutdown
+	 */
+	private List<TaskJournalEntry> openTaskJournal() {
+		
+		String journalDir = appProps.getProperty("task.journal.directory");
+		if(StringUtil.isNullEmpty(journalDir)) {
+			logger.warn("No task.journal.directory property, binary and search index tasks will not be journaled.");
+			return new ArrayList<TaskJournalEntry>();
+		}
+		
+		TaskJournal journal = new TaskJournal(Paths.get(journalDir, TASK_JOURNAL_FILE_NAME),
+				appProps.getIntProperty("task.journal.sync.millis", (int)TaskJournal.DEFAULT_SYNC_INTERVAL_MILLIS));
+		try {
+			List<TaskJournalEntry> unfinishedTasks = journal.open();
+			taskJournal = journal;
+			return unfinishedTasks;
+		} catch (IOException e) {
+			logger.error("Failed to open task journal in " + journalDir + ", binary and search index tasks will not be journaled. " + e.getMessage(), e);
+			return new ArrayList<TaskJournalEntry>();
+		}
+		
+	}
+	
+	/**
+	 * Queue the tasks which never completed before the last shutdown. Each task is recreated from the IDs in its
+	 * journal entry (so it works on the current state of the resource), queued (which journals it again), and then
+	 * the old entry is marked completed. Entries for resources which no longer exist are dropped.
+	 * 
+	 * @param unfinishedTasks
+	 */
+	private void replayUnfinishedTasks(List<TaskJournalEntry> unfinishedTasks) {
+		
+		if(taskJournal == null || CollectionUtil.isEmpty(unfinishedTasks)) {
+			return;
+		}
+		
+		logger.info("Replaying " + unfinishedTasks.size() + " unfinished task(s) from the task journal");
+		
+		for(TaskJournalEntry entry : unfinishedTasks) {
+			try {
+				replayUnfinishedTask(entry);
+			} catch (Exception e) {
+				logger.error("Failed to replay task from journal, dropping it. " + entry + ", " + e.getMessage(), e);
+			}
+			try {
+				taskJournal.recordCompleted(entry.getId());
+			} catch (IOException e) {
+				logger.error("Failed to mark replayed task completed in journal, " + entry + ", " + e.getMessage(), e);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Recreate and queue one unfinished task from the journal
+	 * 
+	 * @param entry
+	 * @throws Exception
+	 */
+	private void replayUnfinishedTask(TaskJournalEntry entry) throws Exception {
+		
+		if(RefreshFileBinaryTask.JOURNAL_TYPE.equals(entry.getType())) {
+			
+			Long fileNodeId = Long.valueOf(entry.getParams().get(RefreshFileBinaryTask.PARAM_FILE_NODE_ID));
+			String userId = entry.getParams().get(RefreshFileBinaryTask.PARAM_USER_ID);
+			FileMetaResource file = fileSystemRepository.getFileMetaResource(fileNodeId, false);
+			Store store = fileSystemRepository.getStoreForResource(file);
+			
+			RefreshFileBinaryTask refreshTask = new RefreshFileBinaryTask(fileNodeId, userId, fileSystemRepository);
+			refreshTask.setName("Refresh binary data in DB (replayed) [" + file.toString() + "]");
+			getBinaryTaskManagerForStore(store).addTask(refreshTask);
+			
+		}else if(AddFileToSearchIndexTask.JOURNAL_TYPE.equals(entry.getType())) {
+			
+			Long fileNodeId = Long.valueOf(entry.getParams().get(AddFileToSearchIndexTask.PARAM_FILE_NODE_ID));
+			String userId = entry.getParams().get(AddFileToSearchIndexTask.PARAM_USER_ID);
+			FileMetaResource file = fileSystemRepository.getFileMetaResource(fileNodeId, false);
+			Store store = fileSystemRepository.getStoreForResource(file);
+			file.setStore(store);
+			
+			// always update, the document may or may not have been added before the restart
+			AddFileToSearchIndexTask indexTask = new AddFileToSearchIndexTask.Builder()
+					.withUserId(userId)
+					.withResource(file)
+					.withIndexer(indexerService)
+					.withHaveExisting(true)
+					.withTaskName("Index Writer Task (replayed) [" + file.toString() + "]")
+					.build();
+			getIndexWriterTaskManagerForStore(store).addTask(indexTask);
+			
+		}else {
+			
+			logger.warn("No replay handler for task journal entry type '" + entry.getType() + "', dropping it. " + entry);
+			
+		}
+		
 	}
 	
 	/**
@@ -180,6 +330,9 @@ public class FileService {
 		binaryManager.setManagerName("Binary Task Manager [storeId=" + store.getId() + ", storeName=" + store.getName() + "]");
 		indexWriterManager.setManagerName("Lucene Index Writer Task Manager [storeId=" + store.getId() + ", storeName=" + store.getName() + "]");
 		
+		binaryManager.setTaskJournal(taskJournal);
+		indexWriterManager.setTaskJournal(taskJournal);
+		
 		ExecutorService generalExecutor = Executors.newSingleThreadExecutor();
 		ExecutorService binaryExecutor = Executors.newSingleThreadExecutor();
 		ExecutorService indexWriterExecutor = Executors.newSingleThreadExecutor();
@@ -194,6 +347,94 @@ public class FileService {
 		
 	}
 	
+	/**
+	 * @return min time between progress notifications for each task, see property 'task.progress.notify.per.second'
+	 */
+	public long getTaskProgressNotifyIntervalMillis() {
+		return taskProgressNotifyIntervalMillis;
+	}
+	
+	/**
+	 * Set the progress notification interval on a new task, and register the listener, if there is one.
+	 * 
+	 * @param task
+	 * @param listener - may be null
+	 */
+	private void registerProgressListener(FileServiceTask<?> task, FileServiceTaskListener listener) {
+		task.setNotifyIntervalMillis(taskProgressNotifyIntervalMillis);
+		if(listener != null) {
+			task.registerProgressListener(listener);
+		}
+	}
+	
+	/**
+	 * Register a long running task so users can cancel it with cancelTask(). The task stays registered until
+	 * it and all the child tasks it queued have finished. The task must already have its task id.
+	 * 
+	 * @param task
+	 */
+	public void registerCancellableTask(FileServiceTask<?> task) {
+		final Long taskId = task.getTaskId();
+		cancellableTasks.put(taskId, task);
+		task.getTreeCompletableFuture().whenComplete((value, error) -> cancellableTasks.remove(taskId));
+	}
+	
+	/**
+	 * Run a long running task which walks a whole tree (e.g. copy directory, move directory, or zip.) These tasks
+	 * queue child tasks and block on them, so they can't run inside a store's task manager. Instead they run on
+	 * a shared pool with a limit on how many run at once, in total and per user. The task is registered so the
+	 * user can cancel it. The task must already have its task id.
+	 * 
+	 * @param task
+	 * @throws ServiceException - if the limit for the user was reached, or the server is too busy to take the task
+	 */
+	public void executeTreeTask(FileServiceTask<?> task) throws ServiceException {
+		
+		registerCancellableTask(task);
+		
+		try {
+			treeTaskExecutor.execute(task, task.getUserId());
+		} catch (TaskRejectedException e) {
+			cancellableTasks.remove(task.getTaskId());
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Cancel a long running task (e.g. copy directory, move directory, remove directory, or zip.) Queued child
+	 * tasks are dropped, and the running task stops between sub-jobs. Work that already completed is not undone.
+	 * 
+	 * @param taskId - id of the task to cancel
+	 * @param userId - id of user cancelling the task, must be the user that started it
+	 * @return the cancelled task
+	 * @throws ServiceException - if there is no cancellable task with the id, or it was started by another user
+	 */
+	public FileServiceTask<?> cancelTask(Long taskId, String userId) throws ServiceException {
+		
+		FileServiceTask<?> task = cancellableTasks.get(taskId);
+		if(task == null) {
+			throw new ServiceException("No cancellable task with id " + taskId + ", the task may have already completed.");
+		}
+		if(userId == null || !userId.equals(task.getUserId())) {
+			throw new ServiceException("User " + userId + " cannot cancel task " + taskId + ", the task was started by another user.");
+		}
+		
+		logger.info("Cancelling task [id=" + taskId + ", name=" + task.getName() + ", userId=" + userId + "]");
+		
+		task.cancel();
+		
+		// if the task itself is still queued, complete it now rather than when it reaches the front of the queue
+		for(StoreTaskManagerMap map : storeTaskManagerMap.values()) {
+			if(map.getGeneralTaskManager().cancelTask(taskId)) {
+				break;
+			}
+		}
+		
+		return task;
+		
+	}
+	
 	/**
 	 * Fetch the general queued task manager for the store;
 	 * 
@@ -509,65 +750,19 @@ public class FileService {
 	
 	}
 	
-	/**
-	 * Walk the tree and add any found FileMetaResource to the collection. Also, for every FileMetaResource
-	 * set the directory that the file is in FileMetaResource.setDirectory
-	 * 
-	 * @param node - The node to start walking at
-	 * @param files - The collection in which we collect all files
-	 */
-	private void collectFilesAndSetDirectory(TreeNode<PathResource> node, Collection<FileMetaResource> files) {
-		
-		collectFilesAndSetDirectory(node, null, files);
-		
-	}
-	
-	/**
-	 * Walk the tree and add any found FileMetaResource to the collection. Also, for every FileMetaResource
-	 * set the directory that the file is in FileMetaResource.setDirectory
-	 * 
-	 * @param node - The node to start walking at
-	 * @param parent - The parent of 'node'
-	 * @param files - The collection in which we collect all files
-	 */
-	private void collectFilesAndSetDirectory(TreeNode<PathResource> node, TreeNode<PathResource> parent, Collection<FileMetaResource> files) {
-		
-		PathResource resource = node.getData();
-		if(resource.getResourceType() == ResourceType.DIRECTORY) {
-			List<TreeNode<PathResource>> children = node.getChildren();
-			if(!CollectionUtil.isEmpty(children)) {
-				for(TreeNode<PathResource> child : children) {
-					collectFilesAndSetDirectory(child, node, files);
-				}
-			}
-		}else if(resource.getResourceType() == ResourceType.FILE) {
-			FileMetaResource f = (FileMetaResource)resource;
-			f.setDirectory( (DirectoryResource)parent.getData()  );
-			files.add(f);
-		}
-		
-	}
 	
 	/**
 	 * Rebuilds the lucene search index by clearing all existing documents and re-adding all the ones from the store.
+	 * The rebuild runs as a tree task, so it can be cancelled, see cancelTask.
 	 * 
 	 * @param storeId
+	 * @param userId - id of user completing the action
+	 * @param listener - a listener to track progress of the operation
 	 * @throws ServiceException 
 	 */
-	public void rebuildStoreSearchIndex(Long storeId, String userId) throws ServiceException {
+	public void rebuildStoreSearchIndex(Long storeId, String userId, FileServiceTaskListener listener) throws ServiceException {
 		
 		final Store store = getStoreById(storeId, userId);
-		
-    	Tree<PathResource> tree = secureTreeService.buildPathResourceTree(store.getRootDir().getNodeId(), userId);
-    	
-    	List<FileMetaResource> files = new ArrayList<FileMetaResource>();
-    	
-    	// this method will set the directory for each file resource. This allows us to store directory
-    	// related meta-data for the file in the lucene index
-    	collectFilesAndSetDirectory(tree.getRootNode(), files);
-    	
-    	logger.info("Store [id='" + store.getId() + "', name='" + store.getName() + "'] has " + 
-    			files.size() + " files to be added to lucene search index.");
     	
     	StoreIndexer indexer = null;
     	try {
@@ -577,14 +772,13 @@ public class FileService {
 					store.getId() + "', name='" + store.getName() + "'], " + e.getMessage());
 		}
     	
-    	try {
-			indexer.deleteAll();
-		} catch (IOException e) {
-			throw new ServiceException("Error clearing existing index for store [id='" + 
-					store.getId() + "', name='" + store.getName() + "'], " + e.getMessage());
-		}
-    	
-    	Future<Boolean> future = indexer.addAll(files);
+    	RebuildStoreIndexTask task = new RebuildStoreIndexTask(store, userId, indexer, secureTreeService);
+    	task.setTaskId(TaskIdGenerator.getNextTaskId());
+		registerProgressListener(task, listener);
+		task.setName("Rebuild store search index [storeId=" + storeId + "]");
+		task.setPriority(TaskPriority.BULK);
+		
+		executeTreeTask(task);
 		
 	}
 	
@@ -913,10 +1107,9 @@ public class FileService {
 		
 		addTask.setName("Add File [dirNodeId=" + toDir.getNodeId() + ", filePath=" + filePath + 
 				", replaceExisting=" + replaceExisting + "]");
+		addTask.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			addTask.registerProgressListener(listener);
-		}
+		registerProgressListener(addTask, listener);
 		
 		generalTaskManager.addTask(addTask);
 		
@@ -959,11 +1152,10 @@ public class FileService {
 				file, newName, newDesc, userId, fileSystemRepository, indexerService,
 				resChangeService, indexWriterTaskManager, this, errorHandler);
 		
-		if(listener != null) {
-			updateTask.registerProgressListener(listener);
-		}		
+		registerProgressListener(updateTask, listener);
 		
 		updateTask.setName("Update File [fileId = " + file.getNodeId() + ", path = " + file.getRelativePath() + "]");
+		updateTask.setPriority(TaskPriority.INTERACTIVE);
 		generalTaskManager.addTask(updateTask);
 		
 		updateTask.waitComplete(); // block until complete		
@@ -998,19 +1190,52 @@ public class FileService {
 	@MethodTimer
 	public void removeFile(FileMetaResource file, String userId, FileServiceTaskListener listener) throws ServiceException {
 		
+		removeFileAsync(file, userId, listener).waitComplete(); // block until finished
+		
+	}
+	
+	/**
+	 * Queue a task to remove the file, but don't wait for it to finish. Use the task's completable
+	 * future to find out when it's done.
+	 * 
+	 * @param fileNodeId - id of file resource to be removed
+	 * @param userId - id of user performing the action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public FileServiceTask<Void> removeFileAsync(Long fileNodeId, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
+		final FileMetaResource fileMetaResource = getFileMetaResource(fileNodeId, userId, false);
+		
+		return removeFileAsync(fileMetaResource, userId, listener);
+		
+	}
+	
+	/**
+	 * Queue a task to remove the file, but don't wait for it to finish.
+	 * 
+	 * @param file - the file resource to remove
+	 * @param userId - id of user performing the action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	private FileServiceTask<Void> removeFileAsync(FileMetaResource file, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
 		final QueuedTaskManager taskManager = getGeneralTaskManagerForStore(getStore(file, userId));
 		
 		RemoveFileTask removeFileTask = new RemoveFileTask(
 				file, userId, fileSystemRepository, resChangeService, this, errorHandler);
 		removeFileTask.setName("Remove File [fileId = " + file.getNodeId() + ", path = " + file.getRelativePath() + "]");
+		removeFileTask.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			removeFileTask.registerProgressListener(listener);
-		}			
+		registerProgressListener(removeFileTask, listener);
 		
 		taskManager.addTask(removeFileTask);
 		
-		removeFileTask.waitComplete(); // block until finished		
+		return removeFileTask;
 		
 	}	
 
@@ -1055,14 +1280,54 @@ public class FileService {
 		
 		task.setName("Copy File [fileId = " + fileToCopy.getNodeId() + 
 				", toDir = " + toDir.getNodeId() + ", replaceExisting=" + replaceExisting + "]");
+		task.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}			
+		registerProgressListener(task, listener);
 		
 		taskManager.addTask(task);		
 		
 	}
+	
+	/**
+	 * Adds many new files to a directory in one task, using batched inserts. The files must already be in
+	 * the directory under temporary names. Spawns the same non-blocking child tasks as addFile for each
+	 * new file. Blocks until the files are added.
+	 * 
+	 * Files whose name matches a resource already in the directory (case insensitive) are not added, they
+	 * are left under their temporary names and are not in the returned list.
+	 * 
+	 * @param toDir - directory where files will be added
+	 * @param stagedFiles - the files, already in 'toDir' under temporary names
+	 * @param fileNames - final name for each file, same order as 'stagedFiles'
+	 * @param userId - Id of the user adding the files
+	 * @param listener - a listener to track progress of the operation
+	 * @return the files that were added
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public List<FileMetaResource> addStagedFiles(
+			DirectoryResource toDir, List<Path> stagedFiles, List<String> fileNames, 
+			String userId, FileServiceTaskListener listener) throws ServiceException {
+		
+		final Store store = getStore(toDir, userId);
+		final QueuedTaskManager generalTaskManager = getGeneralTaskManagerForStore(store);
+		final QueuedTaskManager binaryTaskManager = getBinaryTaskManagerForStore(store);
+		final QueuedTaskManager indexWriterTaskManager = getIndexWriterTaskManagerForStore(store);
+		
+		AddFileBatchTask task = new AddFileBatchTask(toDir, stagedFiles, fileNames, userId, 
+				fileSystemRepository, resChangeService, indexerService, 
+				binaryTaskManager, indexWriterTaskManager, errorHandler);
+		
+		task.setName("Add File Batch [dirNodeId=" + toDir.getNodeId() + ", fileCount=" + stagedFiles.size() + "]");
+		task.setPriority(TaskPriority.INTERACTIVE);
+		
+		registerProgressListener(task, listener);
+		
+		generalTaskManager.addTask(task);
+		
+		return task.get(); // block until complete
+		
+	}
 		
 	/**
 	 * Move a file, preserving same node id.
@@ -1099,6 +1364,46 @@ public class FileService {
 	@MethodTimer
 	public void moveFile(FileMetaResource fileToMove, DirectoryResource destDir, boolean replaceExisting, String userId, FileServiceTaskListener listener) throws ServiceException {
 	
+		moveFileAsync(fileToMove, destDir, replaceExisting, userId, listener).waitComplete(); // MUST block until finished!
+		
+	}
+	
+	/**
+	 * Queue a task to move the file, but don't wait for it to finish. Use the task's completable
+	 * future to find out when it's done.
+	 * 
+	 * @param fileNodeId - id of the file to move
+	 * @param dirNodeId - id of the directory where the file will be moved to
+	 * @param replaceExisting - pass true to replace any existing file in the destination directory with
+	 * same name. If you pass false, and a file already exists, then the task will fail.
+	 * @param userId - id of user performing action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public FileServiceTask<Void> moveFileAsync(Long fileNodeId, Long dirNodeId, boolean replaceExisting, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
+		final FileMetaResource fileToMove = getFileMetaResource(fileNodeId, userId, false);
+		final DirectoryResource destDir = getDirectory(dirNodeId, userId);
+		
+		return moveFileAsync(fileToMove, destDir, replaceExisting, userId, listener);
+		
+	}
+	
+	/**
+	 * Queue a task to move the file, but don't wait for it to finish.
+	 * 
+	 * @param fileToMove - file to move
+	 * @param destDir - the directory where the file will be moved to
+	 * @param replaceExisting - pass true to replace any existing file in the destination directory with same name.
+	 * @param userId - id of user performing action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	private FileServiceTask<Void> moveFileAsync(FileMetaResource fileToMove, DirectoryResource destDir, boolean replaceExisting, String userId, FileServiceTaskListener listener) throws ServiceException {
+	
 		final QueuedTaskManager taskManager = getGeneralTaskManagerForStore(getStore(destDir, userId));
 		
 		MoveFileTask moveTask = new MoveFileTask(
@@ -1106,14 +1411,13 @@ public class FileService {
 				fileSystemRepository, resChangeService, errorHandler, this);
 		
 		moveTask.setName("Move file [fileNodeId=" + fileToMove.getNodeId() + ", dirNodeId=" + destDir.getNodeId() + ", replaceExisting=" + replaceExisting + "]");
+		moveTask.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			moveTask.registerProgressListener(listener);
-		}		
+		registerProgressListener(moveTask, listener);
 		
 		taskManager.addTask(moveTask);
 		
-		moveTask.waitComplete(); // MUST block until finished!	
+		return moveTask;
 		
 	}
 	
@@ -1328,6 +1632,41 @@ public class FileService {
 			String readGroup1, String writeGroup1, String executeGroup1, 
 			String userId, FileServiceTaskListener listener) throws ServiceException {
 		
+		return addDirectoryAsync(parentDir, name, desc, readGroup1, writeGroup1, executeGroup1, userId, listener).get(); // block until complete
+		
+	}
+	
+	/**
+	 * Queue a task to add a new directory, but don't wait for it to finish. Use the task's completable
+	 * future to get the new directory.
+	 * 
+	 * @param dirNodeId - id of parent directory
+	 * @param name - name of new directory
+	 * @param desc - description for new directory
+	 * @param readGroup1 - optional read group
+	 * @param writeGroup1 - optional write group
+	 * @param executeGroup1 - optional execute group
+	 * @param userId - id of user performing the action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public FileServiceTask<DirectoryResource> addDirectoryAsync(
+			Long dirNodeId, String name, String desc, String readGroup1, String writeGroup1, 
+			String executeGroup1, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
+		final DirectoryResource resource = getDirectory(dirNodeId, userId);
+		
+		return addDirectoryAsync(resource, name, desc, readGroup1, writeGroup1, executeGroup1, userId, listener);
+		
+	}
+	
+	private FileServiceTask<DirectoryResource> addDirectoryAsync(
+			DirectoryResource parentDir, String name, String desc, 
+			String readGroup1, String writeGroup1, String executeGroup1, 
+			String userId, FileServiceTaskListener listener) throws ServiceException {
+		
 		final QueuedTaskManager taskManager = getGeneralTaskManagerForStore(getStore(parentDir, userId));		
 		
 		AddDirectoryTask task = new AddDirectoryTask(
@@ -1335,15 +1674,13 @@ public class FileService {
 				fileSystemRepository, resChangeService, this, errorHandler);
 		
 		task.setName("Add directory [dirNodeId=" + parentDir.getNodeId() + ", name=" + name + "]");
-		taskManager.addTask(task);
+		task.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}
+		registerProgressListener(task, listener);
 		
-		DirectoryResource newDir = task.get(); // block until complete
+		taskManager.addTask(task);
 		
-		return newDir;		
+		return task;
 		
 	}
 	
@@ -1377,10 +1714,9 @@ public class FileService {
 				fileSystemRepository, resChangeService, this, errorHandler);
 
 		task.setName("Update directory [dirNodeId=" + dir.getNodeId() + ", name=" + dir.getNodeName() + "]");
+		task.setPriority(TaskPriority.INTERACTIVE);
 		
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}		
+		registerProgressListener(task, listener);
 		
 		taskManager.addTask(task);
 		
@@ -1416,6 +1752,31 @@ public class FileService {
 	@MethodTimer
 	public void removeDirectory(DirectoryResource dirToDelete, String userId, FileServiceTaskListener listener) throws ServiceException {
 		
+		removeDirectoryAsync(dirToDelete, userId, listener).waitComplete(); // block until finished
+		
+	}
+	
+	/**
+	 * Queue a task to remove a directory, but don't wait for it to finish. Use the task's completable
+	 * future to find out when it's done.
+	 * 
+	 * @param dirNodeId - id of directory to remove
+	 * @param userId - id of user completing the action
+	 * @param listener - a listener to track progress of the operation
+	 * @return the queued task
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public FileServiceTask<Void> removeDirectoryAsync(Long dirNodeId, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
+		final DirectoryResource dirToDelete = getDirectory(dirNodeId, userId);
+		
+		return removeDirectoryAsync(dirToDelete, userId, listener);
+		
+	}
+	
+	private FileServiceTask<Void> removeDirectoryAsync(DirectoryResource dirToDelete, String userId, FileServiceTaskListener listener) throws ServiceException {
+		
 		//final Store store = getStore(dirToDelete, userId);
 		
 		final QueuedTaskManager taskManager = getGeneralTaskManagerForStore(getStore(dirToDelete, userId));
@@ -1429,14 +1790,15 @@ public class FileService {
 		RemoveDirectoryTask task = new RemoveDirectoryTask(
 				dirToDelete, parentDir, userId, secureTreeService, fileSystemRepository, resChangeService, errorHandler);
 		task.setName("Remove directory [dirNodeId=" + dirNodeId + "]");
+		task.setPriority(TaskPriority.BULK);
 		
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}		
+		registerProgressListener(task, listener);
 		
 		taskManager.addTask(task);
 		
-		task.waitComplete(); // block until finished		
+		registerCancellableTask(task);
+		
+		return task;
 		
 	}
 	
@@ -1467,16 +1829,16 @@ public class FileService {
 		CopyDirectoryTask task = new CopyDirectoryTask(
 				fromDir, toDir, replaceExisting, userId, secureTreeService, this, errorHandler);
 		task.setTaskId(TaskIdGenerator.getNextTaskId());
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}
+		task.setCopyThreads(copyDirectoryThreads);
+		registerProgressListener(task, listener);
 		task.setName("Copy directory [copyDirNodeId=" + copyDirNodeId + ", destDirNodeId=" + destDirNodeId + 
 				", replaceExisting=" + replaceExisting + "]");
+		task.setPriority(TaskPriority.BULK);
 		
 		// CopyDirectoryTask contains child tasks which block. Since our task manager is a queue and
 		// only runs one task a a time, the child tasks will never run because the parent task is waiting
-		// for the child tasks to finish. Solution is to execute the parent task immediately in
-		Executors.newSingleThreadExecutor().execute(task);		
+		// for the child tasks to finish. Solution is to execute the parent task outside the task manager.
+		executeTreeTask(task);
 		
 	}
 	
@@ -1553,15 +1915,14 @@ public class FileService {
 		MoveDirectoryTask task = new MoveDirectoryTask(
 				dirToMove, destDir, replaceExisting, userId, secureTreeService, fileSystemRepository, this, errorHandler);
 		task.setTaskId(TaskIdGenerator.getNextTaskId());
-		if(listener != null) {
-			task.registerProgressListener(listener);
-		}
+		registerProgressListener(task, listener);
 		task.setName("Movie directory [moveDirId=" + moveDirId + ", destDirId=" + destDirId + ", replaceExisting=" + replaceExisting + "]");
+		task.setPriority(TaskPriority.BULK);
 		
 		// MoveDirectoryTask contains child tasks which block. Since our task manager is a queue and
 		// only runs one task a a time, the child tasks will never run because the parent task is waiting
-		// for the child tasks to finish. Solution is to execute the parent task immediately in
-		Executors.newSingleThreadExecutor().execute(task);		
+		// for the child tasks to finish. Solution is to execute the parent task outside the task manager.
+		executeTreeTask(task);
 		
 	}
 	
@@ -1653,26 +2014,16 @@ public class FileService {
 		
 		//final Store store = getStoreById(storeId, userId);
 		final Long rootNodeId = store.getRootDir().getNodeId();
-		final Tree<PathResource> tree = secureTreeService.buildPathResourceTree(rootNodeId, userId);
 		
-		Map<Long,Boolean> accessMap = new HashMap<Long,Boolean>();
+		// compact tree, so we don't need a PathResource for every resource in the store
+		final PathResourceCompactTree tree = secureTreeService.buildCompactPathResourceTree(rootNodeId, userId);
 		
-		try {
-			// walk tree, top-down
-			Trees.walkTree(tree,
-				(treeNode) -> {
-					if(treeNode.getData().getResourceType() == ResourceType.FILE){
-						FileMetaResource file = (FileMetaResource)treeNode.getData();
-						if(file.getCanRead()) {
-							accessMap.put(file.getNodeId(), true);
-						}
-					}
-				},
-				WalkOption.PRE_ORDER_TRAVERSAL);
-		}catch(TreeNodeVisitException e){
-			throw new ServiceException("Encountered error when walking tree to build read access map. "
-					+ "Tree root node Id => " + rootNodeId + ". " + e.getMessage(), e);
-		}		
+		Map<Long,Boolean> accessMap = new HashMap<Long,Boolean>();
+		for(int i = 0; i < tree.size(); i++) {
+			if(tree.isFile(i) && tree.getCanRead(i)) {
+				accessMap.put(tree.getNodeId(i), true);
+			}
+		}
 		
 		return accessMap;
 		
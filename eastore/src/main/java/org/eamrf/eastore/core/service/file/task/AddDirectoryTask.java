@@ -96,7 +96,7 @@ public class AddDirectoryTask extends FileServiceTask<DirectoryResource> {
 		setCompletedJobCount(this, 1);
 		
 		// broadcast resource change message
-		resChangeService.directoryContentsChanged(parentDir.getNodeId(), userId);
+		resChangeService.directoryContentsChanged(parentDir, userId);
 		
 		return evaluatedDir;		
 		
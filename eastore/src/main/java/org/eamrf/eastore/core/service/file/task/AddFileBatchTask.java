@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.service.file.task;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eamrf.concurrent.task.QueuedTaskManager;
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.search.service.StoreIndexerService;
+import org.eamrf.eastore.core.service.file.ErrorHandler;
+import org.eamrf.eastore.core.service.file.PermissionError;
+import org.eamrf.eastore.core.socket.messaging.ResourceChangeMessageService;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.FileSystemRepository;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Task for adding many new files to a directory at once. The files must already be in the directory
+ * under temporary names (see FileSystemRepository._addNewStagedFilesWithoutBinary). Files whose name
+ * matches a resource already in the directory are skipped, it's up to the caller to handle those.
+ *
+ * @author slenzi
+ */
+public class AddFileBatchTask extends FileServiceTask<List<FileMetaResource>> {
+
+	private Logger logger = LoggerFactory.getLogger(AddFileBatchTask.class);
+
+	private DirectoryResource toDir;
+	private List<Path> stagedFiles;
+	private List<String> fileNames;
+	private String userId;
+
+	private FileSystemRepository fileSystemRepository;
+	private ResourceChangeMessageService resChangeService;
+	private StoreIndexerService indexerService;
+	private QueuedTaskManager binaryTaskManager;
+	private QueuedTaskManager indexWriterTaskManager;
+	private ErrorHandler errorHandler;
+
+	private int jobCount = 0;
+
+	/**
+	 *
+	 * @param toDir - directory where files will be added
+	 * @param stagedFiles - the files, already in 'toDir' under temporary names
+	 * @param fileNames - final name for each file, same order as 'stagedFiles'
+	 * @param userId - Id of the user adding the files
+	 */
+	public AddFileBatchTask(
+			DirectoryResource toDir,
+			List<Path> stagedFiles,
+			List<String> fileNames,
+			String userId,
+			FileSystemRepository fileSystemRepository,
+			ResourceChangeMessageService resChangeService,
+			StoreIndexerService indexerService,
+			QueuedTaskManager binaryTaskManager,
+			QueuedTaskManager indexWriterTaskManager,
+			ErrorHandler errorHandler) {
+
+		this.toDir = toDir;
+		this.stagedFiles = stagedFiles;
+		this.fileNames = fileNames;
+		this.userId = userId;
+		this.fileSystemRepository = fileSystemRepository;
+		this.resChangeService = resChangeService;
+		this.indexerService = indexerService;
+		this.binaryTaskManager = binaryTaskManager;
+		this.indexWriterTaskManager = indexWriterTaskManager;
+		this.errorHandler = errorHandler;
+
+	}
+
+	private void calculateJobCount() {
+
+		// for every file...
+		// 1 = add the file
+		// 2 = update lucene
+		// 3 = update binary data
+		jobCount = stagedFiles.size() * 3;
+
+		notifyChange();
+
+	}
+
+	@Override
+	public List<FileMetaResource> doWork() throws ServiceException {
+
+		calculateJobCount();
+
+		// user must have write permission on destination directory
+		if(!toDir.getCanWrite()){
+			errorHandler.handlePermissionDenied(PermissionError.WRITE, toDir, userId);
+		}
+
+		// load names of existing children once, rather than once per file
+		Set<String> existingNames = new HashSet<String>();
+		try {
+			for(PathResource child : fileSystemRepository.getChildPathResource(toDir.getNodeId())) {
+				existingNames.add(child.getPathName().toLowerCase());
+			}
+		} catch (Exception e) {
+			throw new ServiceException("Error fetching child resources for directory [id=" + toDir.getNodeId() +
+					", relPath=" + toDir.getRelativePath() + "], " + e.getMessage(), e);
+		}
+
+		List<Path> newStagedFiles = new ArrayList<Path>();
+		List<String> newFileNames = new ArrayList<String>();
+		for(int i = 0; i < stagedFiles.size(); i++) {
+			if(existingNames.add(fileNames.get(i).toLowerCase())) {
+				newStagedFiles.add(stagedFiles.get(i));
+				newFileNames.add(fileNames.get(i));
+			}
+		}
+
+		List<FileMetaResource> newFiles = null;
+		try {
+			newFiles = fileSystemRepository._addNewStagedFilesWithoutBinary(toDir.getStore(), toDir, newStagedFiles, newFileNames);
+		} catch (Exception e) {
+			throw new ServiceException("Error adding " + newStagedFiles.size() + " new files to "
+					+ "directory [id=" + toDir.getNodeId() + ", relPath=" + toDir.getRelativePath() + "], " + e.getMessage(), e);
+		}
+
+		// skipped files are handled by the caller, don't count their jobs here
+		jobCount = newFiles.size() * 3;
+
+		// job 1 of 3 complete, for each file
+		setCompletedJobCount(this, newFiles.size());
+
+		if(newFiles.isEmpty()) {
+			return newFiles;
+		}
+
+		// broadcast directory contents changed event, once for the whole batch
+		resChangeService.directoryContentsChanged(toDir, userId);
+
+		for(FileMetaResource newFile : newFiles) {
+
+			// set the directory so we can store that information in the lucene index
+			newFile.setDirectory(toDir);
+
+			// Child task for adding file to lucene index
+			AddFileToSearchIndexTask indexTask = new AddFileToSearchIndexTask.Builder()
+					.withUserId(userId)
+					.withResource(newFile)
+					.withIndexer(indexerService)
+					.withHaveExisting(false)
+					.withTaskName("Index Writer Task [" + newFile.toString() + "]")
+					.build();
+			indexTask.registerProgressListener(task -> {
+				// job 2 of 3 complete
+				setCompletedJobCount(task, task.getCompletedJobCount());
+			});
+			indexWriterTaskManager.addTask(indexTask);
+
+			// Child task refreshes the binary data in the database.
+			RefreshFileBinaryTask refreshTask = new RefreshFileBinaryTask(
+					newFile.getNodeId(), userId, fileSystemRepository);
+			refreshTask.setName("Refresh binary data in DB [" + newFile.toString() + "]");
+			refreshTask.registerProgressListener(task -> {
+				// job 3 of 3 complete
+				setCompletedJobCount(task, task.getCompletedJobCount());
+			});
+			binaryTaskManager.addTask(refreshTask);
+
+		}
+
+		return newFiles;
+
+	}
+
+	@Override
+	public Logger getLogger() {
+		return logger;
+	}
+
+	@Override
+	public int getJobCount() {
+		return jobCount;
+	}
+
+	@Override
+	public String getStatusMessage() {
+
+		if(getJobCount() <= 0) {
+			return "Add file batch task pending...";
+		}else{
+			return "Add file batch task is " + Math.round(getProgress()) + "% complete (job " + this.getCompletedJobCount() + " of " + this.getJobCount() + " processed)";
+		}
+
+	}
+
+	@Override
+	public String getUserId() {
+		return userId;
+	}
+
+}
@@ -125,7 +125,7 @@ public class AddFileTask extends FileServiceTask<FileMetaResource> {
 		setCompletedJobCount(this, 1);
 		
 		// broadcast directory contents changed event
-		resChangeService.directoryContentsChanged(toDir.getNodeId(), userId);
+		resChangeService.directoryContentsChanged(toDir, userId);
 
 		// Child task for adding file to lucene index
 		AddFileToSearchIndexTask indexTask = new AddFileToSearchIndexTask.Builder()
@@ -4,7 +4,11 @@
 package org.eamrf.eastore.core.service.file.task;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.eamrf.concurrent.task.JournaledTask;
+import org.eamrf.concurrent.task.TaskPriority;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.eastore.core.search.service.StoreIndexerService;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
@@ -16,7 +20,11 @@ import org.slf4j.LoggerFactory;
  * 
  * @author slenzi
  */
-public class AddFileToSearchIndexTask extends FileServiceTask<Void> {
+public class AddFileToSearchIndexTask extends FileServiceTask<Void> implements JournaledTask {
+
+	public static final String JOURNAL_TYPE = "add-file-to-search-index";
+	public static final String PARAM_FILE_NODE_ID = "fileNodeId";
+	public static final String PARAM_USER_ID = "userId";
 
 	private Logger logger = LoggerFactory.getLogger(AddFileToSearchIndexTask.class);
 	
@@ -27,6 +35,8 @@ public class AddFileToSearchIndexTask extends FileServiceTask<Void> {
 	
 	private int jobCount = 0;
 	
+	private long journalId = 0L;
+	
 	public static class Builder {
 	
 		private FileMetaResource documentToIndex = null;
@@ -77,6 +87,8 @@ public class AddFileToSearchIndexTask extends FileServiceTask<Void> {
 		
 		super.setName(builder.taskName);
 		
+		setPriority(TaskPriority.BACKGROUND);
+		
 		//notifyChange();
 		
 	}
@@ -134,6 +146,38 @@ public class AddFileToSearchIndexTask extends FileServiceTask<Void> {
 
 	}
 	
+	/**
+	 * Keeps the database and search index in sync with a file that was already added, so it's not
+	 * cancelled along with the task that queued it.
+	 */
+	@Override
+	protected boolean inheritsCancellation() {
+		return false;
+	}
+
+	@Override
+	public String getJournalType() {
+		return JOURNAL_TYPE;
+	}
+
+	@Override
+	public Map<String, String> getJournalParams() {
+		Map<String,String> params = new HashMap<String,String>();
+		params.put(PARAM_FILE_NODE_ID, String.valueOf(documentToIndex.getNodeId()));
+		params.put(PARAM_USER_ID, userId);
+		return params;
+	}
+
+	@Override
+	public long getJournalId() {
+		return journalId;
+	}
+
+	@Override
+	public void setJournalId(long journalId) {
+		this.journalId = journalId;
+	}
+
 	@Override
 	public String getUserId() {
 		return userId;
@@ -3,10 +3,29 @@
  */
 package org.eamrf.eastore.core.service.file.task;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eamrf.concurrent.task.TaskCancelledException;
+import org.eamrf.core.util.FileUtil;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.eastore.core.service.file.ErrorHandler;
 import org.eamrf.eastore.core.service.file.FileService;
 import org.eamrf.eastore.core.service.file.PermissionError;
+import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
 import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
 import org.eamrf.eastore.core.tree.Tree;
 import org.eamrf.eastore.core.tree.TreeNode;
@@ -23,6 +42,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Task for copying a directory
  * 
+ * When more than one copy thread is set the copy runs in three passes. First the directory tree is
+ * created, then file bytes are copied on a pool of threads into temporary files in the destination
+ * directories, then the file meta data for each directory is added in batches as the copies finish.
+ * With one copy thread files are copied one at a time by walking the tree.
+ * 
  * @author slenzi
  */
 public class CopyDirectoryTask extends FileServiceTask<Void> {
@@ -41,6 +65,27 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 	
 	private int jobCount = 0;
 	
+	private int copyThreads = 1;
+	
+	// max number of files added to the database in one batch
+	private static final int FILE_BATCH_SIZE = 100;
+	
+	// how long to wait for copy threads to stop when the task ends early
+	private static final long COPY_POOL_SHUTDOWN_SECONDS = 30L;
+	
+	// files to copy into one destination directory, along with the copies running for them
+	private class FileBatch {
+		
+		private DirectoryResource toDir;
+		private List<FileMetaResource> files = new ArrayList<FileMetaResource>();
+		private List<Future<Path>> copies = new ArrayList<Future<Path>>();
+		
+		public FileBatch(DirectoryResource toDir) {
+			this.toDir = toDir;
+		}
+		
+	}
+	
 	/**
 	 * 
 	 */
@@ -82,18 +127,244 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 		}
 		
 		final Store fromStore = fileService.getStore(fromDir, userId);
-		final Store toStore = fileService.getStore(fromDir, userId);
+		final Store toStore = fileService.getStore(toDir, userId);
 
 		final Tree<PathResource> fromTree = secureTreeService.buildPathResourceTree(fromDir, userId);
 		
 		calculateJobCount(fromTree);
 		
-		copyDirectoryTraversal(fromStore, toStore, fromTree.getRootNode(), toDir, replaceExisting, userId);		
+		if(copyThreads > 1) {
+			parallelCopy(fromStore, toStore, fromTree.getRootNode(), toDir, replaceExisting, userId);
+		}else {
+			copyDirectoryTraversal(fromStore, toStore, fromTree.getRootNode(), toDir, replaceExisting, userId);
+		}
 		
 		return null;
 		
 	}
 	
+	/**
+	 * Copy the tree using a pool of threads to copy the file bytes.
+	 * 
+	 * @param fromStore - store under which the source directory resides
+	 * @param toStore - store under which the destination directory resides
+	 * @param rootNode - root node for the source tree being copied
+	 * @param toDir - the destination directory
+	 * @param replaceExisting
+	 * @param userId
+	 * @throws ServiceException
+	 */
+	private void parallelCopy(
+			Store fromStore, 
+			Store toStore, 
+			TreeNode<PathResource> rootNode, 
+			DirectoryResource toDir, 
+			boolean replaceExisting,
+			String userId) throws ServiceException {
+		
+		// pass 1, create directories and collect the files to copy into each one
+		List<FileBatch> batches = new ArrayList<FileBatch>();
+		createDirectorySkeleton(rootNode, toDir, batches, userId);
+		
+		// temporary files which have not been added to the database, deleted if the task ends early
+		final Set<Path> stagedPaths = ConcurrentHashMap.newKeySet();
+		final List<String> failedCopies = new ArrayList<String>();
+		
+		final AtomicInteger threadNumber = new AtomicInteger(1);
+		ExecutorService copyPool = Executors.newFixedThreadPool(copyThreads, runnable -> {
+			Thread thread = new Thread(runnable, "copy-directory-" + getTaskId() + "-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		try {
+			
+			// pass 2, copy file bytes. Batches are submitted in order so the first batches finish first.
+			for(FileBatch batch : batches) {
+				for(FileMetaResource file : batch.files) {
+					batch.copies.add(copyPool.submit(() -> stageFile(fromStore, toStore, file, batch.toDir, stagedPaths)));
+				}
+			}
+			
+			// pass 3, add file meta data for each batch once its copies are done
+			for(FileBatch batch : batches) {
+				addFileBatch(batch, stagedPaths, failedCopies, replaceExisting, userId);
+			}
+			
+		} finally {
+			
+			copyPool.shutdownNow();
+			try {
+				if(!copyPool.awaitTermination(COPY_POOL_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+					logger.warn("Copy threads for task " + getTaskId() + " did not stop after " + COPY_POOL_SHUTDOWN_SECONDS + " seconds.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for(Path stagedPath : stagedPaths) {
+				try {
+					Files.deleteIfExists(stagedPath);
+				} catch (IOException e) {
+					logger.error("Failed to delete temporary copy " + stagedPath + ", " + e.getMessage());
+				}
+			}
+			
+		}
+		
+		if(!failedCopies.isEmpty()) {
+			throw new ServiceException("Failed to copy " + failedCopies.size() + " file(s) from directory [id=" + fromDir.getNodeId() + 
+					"] to directory [id=" + toDir.getNodeId() + "], " + String.join(", ", failedCopies));
+		}
+		
+	}
+	
+	/**
+	 * Recursively walk the tree, creating a copy of each directory, and collecting the files that need
+	 * to be copied to each new directory. Permissions are checked here, before any file is copied.
+	 * 
+	 * @param pathResourceNode - current node in the source tree
+	 * @param toDir - the destination directory
+	 * @param batches - file batches are added to this list
+	 * @param userId
+	 * @throws ServiceException
+	 */
+	private void createDirectorySkeleton(
+			TreeNode<PathResource> pathResourceNode, 
+			DirectoryResource toDir, 
+			List<FileBatch> batches,
+			String userId) throws ServiceException {
+		
+		checkCancelled();
+		
+		DirectoryResource dirToCopy = (DirectoryResource) pathResourceNode.getData();
+		
+		// user needs read permission on directory to copy
+		if(!dirToCopy.getCanRead()) {
+			errorHandler.handlePermissionDenied(PermissionError.READ, dirToCopy, userId);
+		}
+		// user need write permission on destination directory
+		if(!toDir.getCanWrite()) {
+			errorHandler.handlePermissionDenied(PermissionError.WRITE, toDir, userId);
+		}
+		
+		DirectoryResource newToDir = fileService.createCopyOfDirectory(dirToCopy, toDir, userId, task -> {
+			setCompletedJobCount(task, task.getCompletedJobCount());
+		});
+		
+		if(!pathResourceNode.hasChildren()){
+			return;
+		}
+		
+		FileBatch batch = null;
+		for(TreeNode<PathResource> child : pathResourceNode.getChildren()){
+			PathResource resource = child.getData();
+			if(resource.getResourceType() == ResourceType.DIRECTORY) {
+				createDirectorySkeleton(child, newToDir, batches, userId);
+			}else if(resource.getResourceType() == ResourceType.FILE) {
+				// file resource inherits permission from parent directory
+				if(!resource.getCanRead()) {
+					errorHandler.handlePermissionDenied(PermissionError.READ, resource, userId);
+				}
+				if(batch == null || batch.files.size() >= FILE_BATCH_SIZE) {
+					batch = new FileBatch(newToDir);
+					batches.add(batch);
+				}
+				batch.files.add((FileMetaResource) resource);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Copy the bytes for a file to a temporary file in the destination directory. Runs on the copy pool.
+	 * 
+	 * @return path to the temporary file
+	 */
+	private Path stageFile(Store fromStore, Store toStore, FileMetaResource file, DirectoryResource toDir, Set<Path> stagedPaths) throws Exception {
+		
+		checkCancelled();
+		
+		Path sourcePath = PathResourceUtil.buildPath(fromStore, file);
+		Path stagedPath = PathResourceUtil.buildPath(toStore, toDir).resolve("." + file.getNodeId() + ".copy-" + getTaskId() + ".tmp");
+		
+		stagedPaths.add(stagedPath);
+		FileUtil.copyFile(sourcePath, stagedPath, StandardCopyOption.REPLACE_EXISTING);
+		
+		return stagedPath;
+		
+	}
+	
+	/**
+	 * Wait for the copies in the batch to finish, then add the file meta data. Files which already exist in the
+	 * destination directory are copied one at a time, so 'replaceExisting' is handled the same as a file copy.
+	 * 
+	 * @param batch
+	 * @param stagedPaths - temporary files not yet added to the database
+	 * @param failedCopies - description of each file which failed to copy is added to this list
+	 * @param replaceExisting
+	 * @param userId
+	 * @throws ServiceException
+	 */
+	private void addFileBatch(
+			FileBatch batch, 
+			Set<Path> stagedPaths, 
+			List<String> failedCopies, 
+			boolean replaceExisting, 
+			String userId) throws ServiceException {
+		
+		List<FileMetaResource> stagedResources = new ArrayList<FileMetaResource>();
+		List<Path> stagedFiles = new ArrayList<Path>();
+		List<String> fileNames = new ArrayList<String>();
+		
+		for(int i = 0; i < batch.files.size(); i++) {
+			FileMetaResource file = batch.files.get(i);
+			try {
+				stagedFiles.add(batch.copies.get(i).get());
+				stagedResources.add(file);
+				fileNames.add(file.getPathName());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceException("Interrupted while waiting for file copies for task " + getTaskId(), e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof TaskCancelledException) {
+					throw (TaskCancelledException) e.getCause();
+				}
+				logger.error("Failed to copy file [id=" + file.getNodeId() + ", relPath=" + file.getRelativePath() + "], " + e.getCause().getMessage());
+				failedCopies.add(file.getRelativePath());
+			}
+		}
+		
+		checkCancelled();
+		
+		FileServiceTaskListener listener = task -> {
+			setCompletedJobCount(task, task.getCompletedJobCount());
+		};
+		
+		List<FileMetaResource> addedFiles = fileService.addStagedFiles(batch.toDir, stagedFiles, fileNames, userId, listener);
+		
+		// the batch task adds the first file for each name (case insensitive), the rest conflict with an existing resource
+		Set<String> addedNames = new HashSet<String>();
+		for(FileMetaResource addedFile : addedFiles) {
+			addedNames.add(addedFile.getPathName().toLowerCase());
+		}
+		Set<String> matchedNames = new HashSet<String>();
+		for(int i = 0; i < stagedFiles.size(); i++) {
+			String name = fileNames.get(i).toLowerCase();
+			if(addedNames.contains(name) && matchedNames.add(name)) {
+				stagedPaths.remove(stagedFiles.get(i));
+			}else {
+				try {
+					Files.deleteIfExists(stagedFiles.get(i));
+				} catch (IOException e) {
+					logger.error("Failed to delete temporary copy " + stagedFiles.get(i) + ", " + e.getMessage());
+				}
+				stagedPaths.remove(stagedFiles.get(i));
+				fileService.copyFile(stagedResources.get(i), batch.toDir, replaceExisting, userId, listener);
+			}
+		}
+		
+	}
+	
 	/**
 	 * Recursively walk the tree to copy all child path resources
 	 * 
@@ -113,6 +384,8 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 			boolean replaceExisting,
 			String userId) throws ServiceException {		
 		
+		checkCancelled();
+		
 		PathResource resourceToCopy = pathResourceNode.getData();
 		
 		if(resourceToCopy.getResourceType() == ResourceType.DIRECTORY){
@@ -133,7 +406,6 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 			// the one we are copying?
 			DirectoryResource newToDir = fileService.createCopyOfDirectory(dirToCopy, toDir, userId, task -> {
 				setCompletedJobCount(task, task.getCompletedJobCount());
-				logCompletedMap();
 			});
 			
 			// copy over children of the directory (files and sub-directories)
@@ -147,21 +419,32 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 			
 			fileService.copyFile( (FileMetaResource)resourceToCopy, toDir, replaceExisting, userId, task -> {
 				setCompletedJobCount(task, task.getCompletedJobCount());
-				logCompletedMap();
 			});
 			
 		}
 		
 	}
 	
+	/**
+	 * Set the number of threads used to copy file bytes. With 1 thread (the default) files are
+	 * copied one at a time.
+	 * 
+	 * @param copyThreads
+	 */
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = Math.max(1, copyThreads);
+	}
+	
 	private void calculateJobCount(Tree<PathResource> fromTree) throws ServiceException {
 		
 		int numDirToCopy = 0;
 		int numFileToCopy = 0;
 		
 		try {
-			numDirToCopy = Trees.nodeCount(fromTree, DirectoryResource.class);
-			numFileToCopy = Trees.nodeCount(fromTree, FileMetaResource.class);
+			// one walk of the tree for both counts
+			int[] counts = Trees.nodeCounts(fromTree, DirectoryResource.class, FileMetaResource.class);
+			numDirToCopy = counts[0];
+			numFileToCopy = counts[1];
 		} catch (TreeNodeVisitException e) {
 			throw new ServiceException("Failed to get resource count for source directory, " + e.getMessage(), e);
 		}	
@@ -172,6 +455,17 @@ public class CopyDirectoryTask extends FileServiceTask<Void> {
 		
 	}	
 
+	/**
+	 * Files and directories already copied are left in place, each one is a complete copy. Temporary
+	 * copies from the parallel copy are deleted.
+	 */
+	@Override
+	protected void onCancelled() {
+		logger.info("Copy directory task cancelled [id=" + getTaskId() + ", fromDir=" + fromDir.getNodeId() + ", toDir=" + toDir.getNodeId() + 
+				"], " + getCompletedJobCount() + " of " + getJobCount() + " jobs completed.");
+		super.onCancelled();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eamrf.concurrent.task.AbstractQueuedTask#getLogger()
 	 */
@@ -3,14 +3,12 @@
  */
 package org.eamrf.eastore.core.service.file.task;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eamrf.concurrent.task.AbstractQueuedTask;
-import org.eamrf.core.util.CollectionUtil;
+import org.eamrf.concurrent.task.ProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,34 +22,14 @@ public abstract class FileServiceTask<T> extends AbstractQueuedTask<T> {
 	Logger logger = LoggerFactory.getLogger(FileServiceTask.class.getName());
 	
 	//private int jobCompletedCount = 0;
-	private Double progress = 0.0;
+	private volatile Double progress = 0.0;
 	
-	// track the number of completed jobs for the task, and all child tasks
-	// keys = task ids, values = completed job count for task
-	private TreeMap<Long,TaskCompleted> taskCompletedJobMap = new TreeMap<Long,TaskCompleted>();
+	// track the number of completed jobs for the task, and all child tasks. Child tasks
+	// report from other threads, so this must be thread safe. Notifications are not rate
+	// limited until setNotifyIntervalMillis() is called.
+	private final ProgressTracker progressTracker = new ProgressTracker(0L);
 	
-	// helper class which maps a task to its number of completed jobs
-	private class TaskCompleted {
-		
-		private FileServiceTask<?> task;
-		private int completedJobs = 0;
-		
-		public TaskCompleted(FileServiceTask<?> task, int completedJobs) {
-			this.task = task;
-			this.completedJobs = completedJobs;
-		}
-
-		public FileServiceTask<?> getTask() {
-			return task;
-		}
-
-		public int getCompletedJobs() {
-			return completedJobs;
-		}
-
-	}
-	
-	private List<FileServiceTaskListener> listeners = new ArrayList<FileServiceTaskListener>();
+	private List<FileServiceTaskListener> listeners = new CopyOnWriteArrayList<FileServiceTaskListener>();
 	
 	/**
 	 * Register a listener for the task to monitor progess
@@ -69,25 +47,54 @@ public abstract class FileServiceTask<T> extends AbstractQueuedTask<T> {
 		listeners.forEach(listener -> listener.onProgressChange(this) );
 	}
 	
+	/**
+	 * Set the min time between progress notifications for this task. The notification for the last job is
+	 * always sent, and a suppressed notification is sent once the interval has passed.
+	 * 
+	 * @param notifyIntervalMillis - zero or less to notify listeners on every change
+	 */
+	public void setNotifyIntervalMillis(long notifyIntervalMillis) {
+		progressTracker.setNotifyIntervalMillis(notifyIntervalMillis);
+	}
+	
+	/**
+	 * Set the completed job count for this task, or one of its child tasks. Listeners are notified at most
+	 * once per notify interval, except when all jobs are complete. If a notification is suppressed, listeners
+	 * are notified at the end of the interval, so the latest progress isn't held back until the next job.
+	 * 
+	 * @param task - this task, or a child task
+	 * @param count - number of jobs completed by 'task'
+	 */
 	protected void setCompletedJobCount(FileServiceTask<?> task, int count) {
 		if(task.getTaskId() <= 0) {
 			logger.warn("Cannot track completed job count for task, ID must be >= 1 [id=" + task.getTaskId() + ", name=" + task.getName() + "].");
 			return;
 		}
-		taskCompletedJobMap.put(task.getTaskId(), new TaskCompleted(task, count));
-		//logCompletedMap();
+		progressTracker.setCompleted(task.getTaskId(), task.getName(), count);
 		updateProgress();
+		if(progressTracker.tryNotify(getCompletedJobCount() >= getJobCount(), this::notifySuppressedChange)) {
+			notifyChange();
+		}
+	}
+	
+	/**
+	 * Trailing notification for a suppressed progress update. Skipped once the task is done, the final
+	 * notification is always sent by setCompletedJobCount, or by onCancelled.
+	 */
+	private void notifySuppressedChange() {
+		if(isCancelled() || getCompletedJobCount() >= getJobCount() || 
+				(getCompletableFuture() != null && getCompletableFuture().isDone())) {
+			return;
+		}
 		notifyChange();
 	}
 	
 	// debug method which can be deleted later...
 	protected void logCompletedMap(){
 		
-		SortedSet<Long> keys = new TreeSet<>(taskCompletedJobMap.keySet());
 		StringBuffer buf = new StringBuffer();
-		for(Long id : keys){
-			buf.append("\t[id=" + id + ", completedJobs=" + taskCompletedJobMap.get(id).getCompletedJobs() + 
-					", totalJobs=" + this.getJobCount() + ", name=" + taskCompletedJobMap.get(id).getTask().getName() + "]\n");
+		for(Map.Entry<Long,String> entry : progressTracker.getSubtaskCounts().entrySet()){
+			buf.append("\t[id=" + entry.getKey() + ", " + entry.getValue() + ", totalJobs=" + this.getJobCount() + "]\n");
 		}		
 		logger.info("Jobs completed for task [id=" + getTaskId() + ", name=" + getName() + ", jobCount=" + getJobCount() + "]\n" + buf.toString());
 	
@@ -97,6 +104,15 @@ public abstract class FileServiceTask<T> extends AbstractQueuedTask<T> {
 		notifyProgressListeners();
 	}
 	
+	/**
+	 * Notify listeners one last time so they see the task was cancelled. Subclasses which override this
+	 * to clean up should call super.
+	 */
+	@Override
+	protected void onCancelled() {
+		notifyChange();
+	}
+	
 	/**
 	 * Recalculate the progress based on the number of jobs completed
 	 */
@@ -140,11 +156,7 @@ public abstract class FileServiceTask<T> extends AbstractQueuedTask<T> {
 	 * @return
 	 */
 	public int getCompletedJobCount() {
-		int completedJobCount = 0;
-		for(TaskCompleted tk : CollectionUtil.emptyIfNull(taskCompletedJobMap.values())){
-			completedJobCount += tk.getCompletedJobs();
-		}
-		return completedJobCount;
+		return progressTracker.getCompleted();
 	}
 
 	/* (non-Javadoc)
@@ -111,6 +111,9 @@ public class MoveDirectoryTask extends FileServiceTask<Void> {
 		// existing moveFile method.
 		moveDirectoryTraversal(fromStore, toStore, fromTree.getRootNode(), destDir, replaceExisting, userId);
 		
+		// only remove the source directory if everything was moved out of it
+		checkCancelled();
+		
 		// remove from dir and all child directories
 		fileService.removeDirectory(dirToMove.getNodeId(), userId, task -> {
 			setCompletedJobCount(task, task.getCompletedJobCount());
@@ -140,6 +143,8 @@ public class MoveDirectoryTask extends FileServiceTask<Void> {
 			boolean replaceExisting,
 			String userId) throws ServiceException {
 		
+		checkCancelled();
+		
 		PathResource resourceToMove = pathResourceNode.getData();
 		
 		if(resourceToMove.getResourceType() == ResourceType.DIRECTORY){
@@ -189,8 +194,10 @@ public class MoveDirectoryTask extends FileServiceTask<Void> {
 		int numFileToCopy = 0;
 		
 		try {
-			numDirToCopy = Trees.nodeCount(fromTree, DirectoryResource.class);
-			numFileToCopy = Trees.nodeCount(fromTree, FileMetaResource.class);
+			// one walk of the tree for both counts
+			int[] counts = Trees.nodeCounts(fromTree, DirectoryResource.class, FileMetaResource.class);
+			numDirToCopy = counts[0];
+			numFileToCopy = counts[1];
 		} catch (TreeNodeVisitException e) {
 			throw new ServiceException("Failed to get resource count for source directory, " + e.getMessage(), e);
 		}	
@@ -203,6 +210,17 @@ public class MoveDirectoryTask extends FileServiceTask<Void> {
 		
 	}	
 
+	/**
+	 * Files already moved stay in the destination, and the source directory is left in place with whatever
+	 * was not moved yet.
+	 */
+	@Override
+	protected void onCancelled() {
+		logger.info("Move directory task cancelled [id=" + getTaskId() + ", dirToMove=" + dirToMove.getNodeId() + ", destDir=" + destDir.getNodeId() + 
+				"], " + getCompletedJobCount() + " of " + getJobCount() + " jobs completed.");
+		super.onCancelled();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eamrf.concurrent.task.AbstractQueuedTask#getLogger()
 	 */
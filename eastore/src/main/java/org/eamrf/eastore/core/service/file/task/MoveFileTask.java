@@ -104,8 +104,8 @@ public class MoveFileTask extends FileServiceTask<Void> {
 		// TODO - if you add a child task for updating lucene, don't forget to increment the job count (and for other parent tasks like MoveDirectoryTask)
 		
 		// broadcast resource change message
-		resChangeService.directoryContentsChanged(sourceDir.getNodeId(), userId);
-		resChangeService.directoryContentsChanged(destDir.getNodeId(), userId);
+		resChangeService.directoryContentsChanged(sourceDir, userId);
+		resChangeService.directoryContentsChanged(destDir, userId);
 		
 		return null;		
 		
@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.service.file.task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.eamrf.core.util.CollectionUtil;
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.search.lucene.StoreIndexer;
+import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
+import org.eamrf.eastore.core.tree.Tree;
+import org.eamrf.eastore.core.tree.TreeNode;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.slf4j.Logger;
+
+/**
+ * A task for rebuilding the lucene search index for a store. All existing documents are deleted, then every
+ * file in the store is added again, one at a time, so the task can be cancelled between documents. A cancelled
+ * rebuild leaves the files added so far in the index, run the rebuild again to finish it.
+ *
+ * @author slenzi
+ */
+public class RebuildStoreIndexTask extends FileServiceTask<Void> {
+
+	private Store store;
+	private String userId;
+	private StoreIndexer indexer;
+	private SecurePathResourceTreeService secureTreeService;
+
+	private int jobCount = 0;
+
+	public RebuildStoreIndexTask(
+			Store store,
+			String userId,
+			StoreIndexer indexer,
+			SecurePathResourceTreeService secureTreeService) {
+
+		this.store = store;
+		this.userId = userId;
+		this.indexer = indexer;
+		this.secureTreeService = secureTreeService;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eamrf.eastore.core.service.file.task.FileServiceTask#getJobCount()
+	 */
+	@Override
+	public int getJobCount() {
+		return jobCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eamrf.eastore.core.service.file.task.FileServiceTask#getStatusMessage()
+	 */
+	@Override
+	public String getStatusMessage() {
+
+		if(getJobCount() <= 0) {
+			return "Rebuild store search index task pending...";
+		}else{
+			return "Rebuild store search index task is " + Math.round(getProgress()) + "% complete (job " +
+					this.getCompletedJobCount() + " of " + this.getJobCount() + " processed)";
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eamrf.eastore.core.service.file.task.FileServiceTask#getUserId()
+	 */
+	@Override
+	public String getUserId() {
+		return userId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eamrf.concurrent.task.AbstractQueuedTask#doWork()
+	 */
+	@Override
+	public Void doWork() throws ServiceException {
+
+		Tree<PathResource> tree = secureTreeService.buildPathResourceTree(store.getRootDir().getNodeId(), userId);
+
+		List<FileMetaResource> files = new ArrayList<FileMetaResource>();
+
+		// this method will set the directory for each file resource. This allows us to store directory
+		// related meta-data for the file in the lucene index
+		collectFilesAndSetDirectory(tree.getRootNode(), null, files);
+
+		logger.info("Store [id='" + store.getId() + "', name='" + store.getName() + "'] has " +
+				files.size() + " files to be added to lucene search index.");
+
+		jobCount = files.size();
+
+		notifyChange();
+
+		checkCancelled();
+
+		try {
+			indexer.deleteAll();
+		} catch (IOException e) {
+			throw new ServiceException("Error clearing existing index for store [id='" +
+					store.getId() + "', name='" + store.getName() + "'], " + e.getMessage(), e);
+		}
+
+		int failedCount = 0;
+		for(FileMetaResource file : files) {
+
+			checkCancelled();
+
+			if(!indexFile(file)) {
+				failedCount++;
+			}
+
+			setCompletedJobCount(this, getCompletedJobCount() + 1);
+
+		}
+
+		if(failedCount > 0) {
+			logger.warn(failedCount + " of " + files.size() + " files could not be added to the search index for store [id='" +
+					store.getId() + "', name='" + store.getName() + "']");
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Add one file to the index and wait for it to be written. Documents are replaced rather than added, so a file
+	 * that was also indexed by a regular index task while the rebuild was running isn't added twice.
+	 *
+	 * @param file
+	 * @return true if the file was indexed, false if there was an error (the error is logged.)
+	 * @throws ServiceException - if the thread was interrupted while waiting
+	 */
+	private boolean indexFile(FileMetaResource file) throws ServiceException {
+
+		try {
+			Future<Boolean> future = indexer.update(file);
+			return future != null && Boolean.TRUE.equals(future.get());
+		} catch (IOException | ExecutionException e) {
+			logger.warn("Failed to add file " + file.getRelativePath() + " to search index for store [id='" +
+					store.getId() + "', name='" + store.getName() + "'], " + e.getMessage());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while rebuilding search index for store [id='" +
+					store.getId() + "', name='" + store.getName() + "']", e);
+		}
+
+	}
+
+	/**
+	 * Walk the tree and add any found FileMetaResource to the collection. Also, for every FileMetaResource
+	 * set the directory that the file is in FileMetaResource.setDirectory
+	 * 
+	 * @param node - The node to start walking at
+	 * @param parent - The parent of 'node'
+	 * @param files - The collection in which we collect all files
+	 */
+	private void collectFilesAndSetDirectory(TreeNode<PathResource> node, TreeNode<PathResource> parent, Collection<FileMetaResource> files) {
+
+		PathResource resource = node.getData();
+		if(resource.getResourceType() == ResourceType.DIRECTORY) {
+			List<TreeNode<PathResource>> children = node.getChildren();
+			if(!CollectionUtil.isEmpty(children)) {
+				for(TreeNode<PathResource> child : children) {
+					collectFilesAndSetDirectory(child, node, files);
+				}
+			}
+		}else if(resource.getResourceType() == ResourceType.FILE) {
+			FileMetaResource f = (FileMetaResource)resource;
+			f.setDirectory( (DirectoryResource)parent.getData()  );
+			files.add(f);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eamrf.concurrent.task.AbstractQueuedTask#getLogger()
+	 */
+	@Override
+	public Logger getLogger() {
+		return logger;
+	}
+
+}
@@ -3,6 +3,11 @@
  */
 package org.eamrf.eastore.core.service.file.task;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eamrf.concurrent.task.JournaledTask;
+import org.eamrf.concurrent.task.TaskPriority;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.FileSystemRepository;
 import org.slf4j.Logger;
@@ -13,7 +18,11 @@ import org.slf4j.LoggerFactory;
  * 
  * @author slenzi
  */
-public class RefreshFileBinaryTask extends FileServiceTask<Void> {
+public class RefreshFileBinaryTask extends FileServiceTask<Void> implements JournaledTask {
+
+	public static final String JOURNAL_TYPE = "refresh-file-binary";
+	public static final String PARAM_FILE_NODE_ID = "fileNodeId";
+	public static final String PARAM_USER_ID = "userId";
 
 	private Logger logger = LoggerFactory.getLogger(RefreshFileBinaryTask.class);
 	
@@ -23,6 +32,8 @@ public class RefreshFileBinaryTask extends FileServiceTask<Void> {
 	
 	private int jobCount = 0;
 	
+	private long journalId = 0L;
+	
 	/**
 	 * 
 	 */
@@ -32,6 +43,8 @@ public class RefreshFileBinaryTask extends FileServiceTask<Void> {
 		this.userId = userId;
 		this.fileSystemRepository = fileSystemRepository;
 		
+		setPriority(TaskPriority.BACKGROUND);
+		
 		//notifyChange();
 		
 	}
@@ -84,6 +97,38 @@ public class RefreshFileBinaryTask extends FileServiceTask<Void> {
 	
 	}	
 
+	/**
+	 * Keeps the database and search index in sync with a file that was already added, so it's not
+	 * cancelled along with the task that queued it.
+	 */
+	@Override
+	protected boolean inheritsCancellation() {
+		return false;
+	}
+
+	@Override
+	public String getJournalType() {
+		return JOURNAL_TYPE;
+	}
+
+	@Override
+	public Map<String, String> getJournalParams() {
+		Map<String,String> params = new HashMap<String,String>();
+		params.put(PARAM_FILE_NODE_ID, String.valueOf(fileNodeId));
+		params.put(PARAM_USER_ID, userId);
+		return params;
+	}
+
+	@Override
+	public long getJournalId() {
+		return journalId;
+	}
+
+	@Override
+	public void setJournalId(long journalId) {
+		this.journalId = journalId;
+	}
+
 	@Override
 	public String getUserId() {
 		return userId;
@@ -102,6 +102,9 @@ public class RemoveDirectoryTask extends FileServiceTask<Void> {
 				(treeNode) -> {
 					
 					try {
+						
+						checkCancelled();
+						
 						if(treeNode.getData().getResourceType() == ResourceType.FILE){
 							
 							FileMetaResource fileToDelete = (FileMetaResource)treeNode.getData();
@@ -117,7 +120,7 @@ public class RemoveDirectoryTask extends FileServiceTask<Void> {
 							if(treeNode.hasParent()) {
 								DirectoryResource pdir = (DirectoryResource)treeNode.getParent().getData();
 								if(pdir != null) {
-									resChangeService.directoryContentsChanged(pdir.getNodeId(), userId);
+									resChangeService.directoryContentsChanged(pdir, userId);
 								}
 							}
 							
@@ -136,7 +139,7 @@ public class RemoveDirectoryTask extends FileServiceTask<Void> {
 							if(treeNode.hasParent()) {
 								DirectoryResource pdir = (DirectoryResource)treeNode.getParent().getData();
 								if(pdir != null) {
-									resChangeService.directoryContentsChanged(pdir.getNodeId(), userId);
+									resChangeService.directoryContentsChanged(pdir, userId);
 								}
 							}									
 							
@@ -154,7 +157,7 @@ public class RemoveDirectoryTask extends FileServiceTask<Void> {
 				},
 				WalkOption.POST_ORDER_TRAVERSAL);
 			
-			resChangeService.directoryContentsChanged(parentDir.getNodeId(), userId);
+			resChangeService.directoryContentsChanged(parentDir, userId);
 		
 		}catch(TreeNodeVisitException e){
 			throw new ServiceException("Encountered error when deleting directory with node id => " + 
@@ -165,6 +168,18 @@ public class RemoveDirectoryTask extends FileServiceTask<Void> {
 		
 	}
 
+	/**
+	 * The tree is removed bottom-up, so whatever was not removed yet is still a valid directory tree.
+	 */
+	@Override
+	protected void onCancelled() {
+		logger.info("Remove directory task cancelled [id=" + getTaskId() + ", dirToDelete=" + dirToDelete.getNodeId() + 
+				"], " + getCompletedJobCount() + " of " + getJobCount() + " resources removed.");
+		// directory contents changed for whatever was removed so far
+		resChangeService.directoryContentsChanged(parentDir, userId);
+		super.onCancelled();
+	}
+
 	@Override
 	public Logger getLogger() {
 		return logger;
@@ -80,7 +80,7 @@ public class RemoveFileTask extends FileServiceTask<Void> {
 		
 		setCompletedJobCount(this, 1);
 		
-		resChangeService.directoryContentsChanged(file.getDirectory().getNodeId(), userId);
+		resChangeService.directoryContentsChanged(file.getDirectory(), userId);
 		
 		// TODO - remove from lucene index!
 		
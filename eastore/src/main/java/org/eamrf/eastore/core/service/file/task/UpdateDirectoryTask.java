@@ -126,7 +126,7 @@ public class UpdateDirectoryTask extends FileServiceTask<Void> {
 		
 		// won't have a parent dir if this is a root directory for a store
 		if(parentDir != null) {
-			resChangeService.directoryContentsChanged(parentDir.getNodeId(), userId);
+			resChangeService.directoryContentsChanged(parentDir, userId);
 		}
 		
 		return null;		
@@ -213,7 +213,7 @@ public class UpdateFileMetaTask extends FileServiceTask<Void> {
 		indexWriterTaskManager.addTask(indexTask);
 		
 		// broadcast resource change message
-		resChangeService.directoryContentsChanged(file.getDirectory().getNodeId(), userId);		
+		resChangeService.directoryContentsChanged(file.getDirectory(), userId);		
 		
 		return null;		
 		
@@ -7,6 +7,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -165,38 +166,44 @@ public class ZipTask extends FileServiceTask<Void> {
 		}
         ZipOutputStream zipOut = new ZipOutputStream(fos);			
 		
-        // add all files to zip file
-		Path filePath = null;
-		for(FileMetaResource file : CollectionUtil.emptyIfNull(filesToZip)) {
-			filePath = PathResourceUtil.buildPath(file.getStore(), file);
-			try {
-				zipFile(file, file.getPathName(), zipOut);
-			} catch (IOException e) {
-				throw new ServiceException("Error adding file " + filePath.toString() + " to zip file " + pathToZip.toString());
-			}	
-		}
+        try {
+        
+	        // add all files to zip file
+			Path filePath = null;
+			for(FileMetaResource file : CollectionUtil.emptyIfNull(filesToZip)) {
+				filePath = PathResourceUtil.buildPath(file.getStore(), file);
+				try {
+					zipFile(file, file.getPathName(), zipOut);
+				} catch (IOException e) {
+					throw new ServiceException("Error adding file " + filePath.toString() + " to zip file " + pathToZip.toString());
+				}	
+			}
+			
+			// add all directories, and all files under the directories, to the zip file 
+			Path dirPathPath = null;
+			TreeNode<PathResource> treeNode = null;
+			for(Tree<PathResource> tree : CollectionUtil.emptyIfNull(directoriesToZip)) {
+				treeNode = tree.getRootNode();
+				dirPathPath = PathResourceUtil.buildPath(treeNode.getData().getStore(), treeNode.getData());
+				try {
+					zipFile(treeNode, treeNode.getData().getPathName(), zipOut);
+				} catch (IOException e) {
+					throw new ServiceException("Error adding all files under directory " + dirPathPath.toString() + " to zip file " + pathToZip.toString());
+				}
+			}
+		
+        } finally {
 		
-		// add all directories, and all files under the directories, to the zip file 
-		Path dirPathPath = null;
-		TreeNode<PathResource> treeNode = null;
-		for(Tree<PathResource> tree : CollectionUtil.emptyIfNull(directoriesToZip)) {
-			treeNode = tree.getRootNode();
-			dirPathPath = PathResourceUtil.buildPath(treeNode.getData().getStore(), treeNode.getData());
+			// close output streams
 			try {
-				zipFile(treeNode, treeNode.getData().getPathName(), zipOut);
+				zipOut.close();
+				fos.close();
 			} catch (IOException e) {
-				throw new ServiceException("Error adding all files under directory " + dirPathPath.toString() + " to zip file " + pathToZip.toString());
+				logger.warn("Error closing ZipOutputStream and/or FileOutputStream for zip file " + pathToZip.toString());
+				// eat it..
 			}
-		}
-		
-		// close output streams
-		try {
-			zipOut.close();
-			fos.close();
-		} catch (IOException e) {
-			logger.warn("Error closing ZipOutputStream and/or FileOutputStream for zip file " + pathToZip.toString());
-			// eat it..
-		}
+			
+        }
 		
 		return null;
 		
@@ -210,8 +217,10 @@ public class ZipTask extends FileServiceTask<Void> {
 	 * @param zipOut
 	 * @throws IOException
 	 */
-	private void zipFile(FileMetaResource file, String fileName, ZipOutputStream zipOut) throws IOException {
+	private void zipFile(FileMetaResource file, String fileName, ZipOutputStream zipOut) throws IOException, ServiceException {
         
+		checkCancelled();
+		
 		FileInputStream fis = new FileInputStream(PathResourceUtil.buildPath(file.getStore(), file).toFile());
         ZipEntry zipEntry = new ZipEntry(fileName);
         zipOut.putNextEntry(zipEntry);
@@ -234,7 +243,7 @@ public class ZipTask extends FileServiceTask<Void> {
 	 * @param zipOut
 	 * @throws IOException
 	 */
-	private void zipFile(TreeNode<PathResource> node, String pathName, ZipOutputStream zipOut) throws IOException {
+	private void zipFile(TreeNode<PathResource> node, String pathName, ZipOutputStream zipOut) throws IOException, ServiceException {
 		PathResource resource = node.getData();
 		if(resource.getResourceType() == ResourceType.FILE) {
 			zipFile((FileMetaResource)resource, pathName, zipOut);
@@ -246,6 +255,19 @@ public class ZipTask extends FileServiceTask<Void> {
 		}
 	}
 
+	/**
+	 * Remove the partially written zip file
+	 */
+	@Override
+	protected void onCancelled() {
+		try {
+			Files.deleteIfExists(pathToZip);
+		} catch (IOException e) {
+			logger.warn("Failed to delete partial zip file " + pathToZip.toString() + " for cancelled zip task, " + e.getMessage());
+		}
+		super.onCancelled();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eamrf.concurrent.task.AbstractQueuedTask#getLogger()
 	 */
@@ -0,0 +1,598 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.service.tree.file;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eamrf.eastore.core.tree.Tree;
+import org.eamrf.eastore.core.tree.TreeNode;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+
+/**
+ * A compact, array backed tree of path resources, for bulk operations on large trees (e.g. every
+ * resource in a store.)
+ *
+ * A Tree<PathResource> needs a TreeNode, a child list, a PathResource, and a Store object for every
+ * resource. Here each resource is an index into a set of arrays. Node ids, parent links, sizes, and dates
+ * are primitives. Names, mime types, and groups are shared string instances, and there is one Store object
+ * for the whole tree. Relative paths are not stored, they are built from the names when needed.
+ *
+ * Resources are added parent first (e.g. in order of closure depth) so a resource's index is always
+ * greater than its parent's index. That lets code walk the tree top-down with a plain loop over the
+ * indexes (see SecurePathResourceTreeBuilder.evaluateAccess.)
+ *
+ * PathResource objects are only created on request, by getResource(index), or by the Tree/TreeNode adapter
+ * returned from toTree(), which creates nodes one level at a time as they are visited.
+ *
+ * @author slenzi
+ */
+public class PathResourceCompactTree {
+
+	private static final int NO_NODE = -1;
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	private static final byte TYPE_DIRECTORY = 0;
+	private static final byte TYPE_FILE = 1;
+
+	private final Store store;
+
+	// relative path of the root resource, paths for other resources are built from this
+	private String rootRelativePath = null;
+
+	private int size = 0;
+
+	private long[] nodeIds;
+	private long[] parentNodeIds;
+	private int[] parentIndexes;
+	private int[] firstChildIndexes;
+	private int[] lastChildIndexes;
+	private int[] nextSiblingIndexes;
+	private byte[] types;
+	private String[] names;
+	private String[] descriptions;
+	private String[] readGroups;
+	private String[] writeGroups;
+	private String[] executeGroups;
+	private long[] dateCreated;
+	private long[] dateUpdated;
+
+	// file only
+	private long[] fileSizes;
+	private String[] mimeTypes;
+	private final BitSet binaryInDatabase = new BitSet();
+
+	// access bits, set by SecurePathResourceTreeBuilder.evaluateAccess
+	private final BitSet canRead = new BitSet();
+	private final BitSet canWrite = new BitSet();
+	private final BitSet canExecute = new BitSet();
+
+	// node id -> index
+	private final NodeIndex nodeIndex;
+
+	// one instance of each distinct name, mime type, and group
+	private Map<String,String> strings = new HashMap<String,String>();
+
+	/**
+	 *
+	 * @param store - the store all resources in the tree are in
+	 * @param expectedSize - expected number of resources, the tree grows as needed
+	 */
+	public PathResourceCompactTree(Store store, int expectedSize) {
+
+		this.store = store;
+
+		int capacity = Math.max(16, expectedSize);
+		nodeIds = new long[capacity];
+		parentNodeIds = new long[capacity];
+		parentIndexes = new int[capacity];
+		firstChildIndexes = new int[capacity];
+		lastChildIndexes = new int[capacity];
+		nextSiblingIndexes = new int[capacity];
+		types = new byte[capacity];
+		names = new String[capacity];
+		descriptions = new String[capacity];
+		readGroups = new String[capacity];
+		writeGroups = new String[capacity];
+		executeGroups = new String[capacity];
+		dateCreated = new long[capacity];
+		dateUpdated = new long[capacity];
+		fileSizes = new long[capacity];
+		mimeTypes = new String[capacity];
+		nodeIndex = new NodeIndex(capacity);
+
+	}
+
+	/**
+	 * Add a resource to the tree. The first resource added is the root of the tree. Every other resource
+	 * must be added after its parent.
+	 *
+	 * @param nodeId - id of the resource
+	 * @param parentNodeId - id of the resource's parent directory
+	 * @param type - file or directory
+	 * @param name - resource name
+	 * @param relativePath - relative path of the resource. Only used for the root, other paths are built from names.
+	 * @param desc - optional description
+	 * @param readGroup1 - optional read group
+	 * @param writeGroup1 - optional write group
+	 * @param executeGroup1 - optional execute group
+	 * @param created - date created
+	 * @param updated - date updated
+	 * @param fileSize - size of file, ignored for directories
+	 * @param mimeType - mime type of file, ignored for directories
+	 * @param isBinaryInDatabase - true if file data is in the database, ignored for directories
+	 * @return index of the new resource
+	 */
+	public int add(
+			long nodeId,
+			long parentNodeId,
+			ResourceType type,
+			String name,
+			String relativePath,
+			String desc,
+			String readGroup1,
+			String writeGroup1,
+			String executeGroup1,
+			Timestamp created,
+			Timestamp updated,
+			long fileSize,
+			String mimeType,
+			boolean isBinaryInDatabase) {
+
+		int parentIndex = NO_NODE;
+		if(size == 0) {
+			rootRelativePath = relativePath;
+		}else {
+			parentIndex = nodeIndex.get(parentNodeId);
+			if(parentIndex == NO_NODE) {
+				throw new IllegalStateException("Cannot add resource " + nodeId + " to compact tree, parent resource " +
+						parentNodeId + " has not been added.");
+			}
+		}
+
+		ensureCapacity(size + 1);
+
+		int index = size++;
+		nodeIds[index] = nodeId;
+		parentNodeIds[index] = parentNodeId;
+		parentIndexes[index] = parentIndex;
+		firstChildIndexes[index] = NO_NODE;
+		lastChildIndexes[index] = NO_NODE;
+		nextSiblingIndexes[index] = NO_NODE;
+		types[index] = (type == ResourceType.FILE) ? TYPE_FILE : TYPE_DIRECTORY;
+		names[index] = intern(name);
+		descriptions[index] = desc;
+		readGroups[index] = intern(readGroup1);
+		writeGroups[index] = intern(writeGroup1);
+		executeGroups[index] = intern(executeGroup1);
+		dateCreated[index] = (created != null) ? created.getTime() : NO_DATE;
+		dateUpdated[index] = (updated != null) ? updated.getTime() : NO_DATE;
+		if(type == ResourceType.FILE) {
+			fileSizes[index] = fileSize;
+			mimeTypes[index] = intern(mimeType);
+			binaryInDatabase.set(index, isBinaryInDatabase);
+		}
+
+		// link to parent, children keep the order they were added in
+		if(parentIndex != NO_NODE) {
+			if(firstChildIndexes[parentIndex] == NO_NODE) {
+				firstChildIndexes[parentIndex] = index;
+			}else {
+				nextSiblingIndexes[lastChildIndexes[parentIndex]] = index;
+			}
+			lastChildIndexes[parentIndex] = index;
+		}
+
+		nodeIndex.put(nodeId, index);
+
+		return index;
+
+	}
+
+	/**
+	 * Call once all resources are added. Releases memory that was only needed while building the tree.
+	 */
+	public void trimToSize() {
+
+		nodeIds = Arrays.copyOf(nodeIds, size);
+		parentNodeIds = Arrays.copyOf(parentNodeIds, size);
+		parentIndexes = Arrays.copyOf(parentIndexes, size);
+		firstChildIndexes = Arrays.copyOf(firstChildIndexes, size);
+		lastChildIndexes = Arrays.copyOf(lastChildIndexes, size);
+		nextSiblingIndexes = Arrays.copyOf(nextSiblingIndexes, size);
+		types = Arrays.copyOf(types, size);
+		names = Arrays.copyOf(names, size);
+		descriptions = Arrays.copyOf(descriptions, size);
+		readGroups = Arrays.copyOf(readGroups, size);
+		writeGroups = Arrays.copyOf(writeGroups, size);
+		executeGroups = Arrays.copyOf(executeGroups, size);
+		dateCreated = Arrays.copyOf(dateCreated, size);
+		dateUpdated = Arrays.copyOf(dateUpdated, size);
+		fileSizes = Arrays.copyOf(fileSizes, size);
+		mimeTypes = Arrays.copyOf(mimeTypes, size);
+		strings = new HashMap<String,String>();
+
+	}
+
+	private void ensureCapacity(int capacity) {
+
+		if(capacity <= nodeIds.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, nodeIds.length + (nodeIds.length >> 1));
+		nodeIds = Arrays.copyOf(nodeIds, newCapacity);
+		parentNodeIds = Arrays.copyOf(parentNodeIds, newCapacity);
+		parentIndexes = Arrays.copyOf(parentIndexes, newCapacity);
+		firstChildIndexes = Arrays.copyOf(firstChildIndexes, newCapacity);
+		lastChildIndexes = Arrays.copyOf(lastChildIndexes, newCapacity);
+		nextSiblingIndexes = Arrays.copyOf(nextSiblingIndexes, newCapacity);
+		types = Arrays.copyOf(types, newCapacity);
+		names = Arrays.copyOf(names, newCapacity);
+		descriptions = Arrays.copyOf(descriptions, newCapacity);
+		readGroups = Arrays.copyOf(readGroups, newCapacity);
+		writeGroups = Arrays.copyOf(writeGroups, newCapacity);
+		executeGroups = Arrays.copyOf(executeGroups, newCapacity);
+		dateCreated = Arrays.copyOf(dateCreated, newCapacity);
+		dateUpdated = Arrays.copyOf(dateUpdated, newCapacity);
+		fileSizes = Arrays.copyOf(fileSizes, newCapacity);
+		mimeTypes = Arrays.copyOf(mimeTypes, newCapacity);
+
+	}
+
+	private String intern(String value) {
+		if(value == null) {
+			return null;
+		}
+		String existing = strings.putIfAbsent(value, value);
+		return (existing != null) ? existing : value;
+	}
+
+	/**
+	 * @return number of resources in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the store all resources in the tree are in
+	 */
+	public Store getStore() {
+		return store;
+	}
+
+	/**
+	 * @param nodeId - id of a resource
+	 * @return index of the resource, or -1 if it's not in the tree
+	 */
+	public int indexOf(long nodeId) {
+		return nodeIndex.get(nodeId);
+	}
+
+	public long getNodeId(int index) {
+		return nodeIds[index];
+	}
+
+	/**
+	 * @param index
+	 * @return index of the resource's parent, or -1 for the root
+	 */
+	public int getParentIndex(int index) {
+		return parentIndexes[index];
+	}
+
+	/**
+	 * @param index
+	 * @return index of the resource's first child, or -1 if it has none
+	 */
+	public int getFirstChildIndex(int index) {
+		return firstChildIndexes[index];
+	}
+
+	/**
+	 * @param index
+	 * @return index of the resource's next sibling, or -1 if it's the last child
+	 */
+	public int getNextSiblingIndex(int index) {
+		return nextSiblingIndexes[index];
+	}
+
+	public boolean isFile(int index) {
+		return types[index] == TYPE_FILE;
+	}
+
+	public boolean isDirectory(int index) {
+		return types[index] == TYPE_DIRECTORY;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public String getReadGroup(int index) {
+		return readGroups[index];
+	}
+
+	public String getWriteGroup(int index) {
+		return writeGroups[index];
+	}
+
+	public String getExecuteGroup(int index) {
+		return executeGroups[index];
+	}
+
+	public long getFileSize(int index) {
+		return fileSizes[index];
+	}
+
+	public String getMimeType(int index) {
+		return mimeTypes[index];
+	}
+
+	/**
+	 * Build the relative path of a resource from its name and the names of its parents
+	 *
+	 * @param index
+	 * @return
+	 */
+	public String getRelativePath(int index) {
+
+		if(parentIndexes[index] == NO_NODE) {
+			return rootRelativePath;
+		}
+
+		List<String> pathNames = new ArrayList<String>();
+		int next = index;
+		while(parentIndexes[next] != NO_NODE) {
+			pathNames.add(names[next]);
+			next = parentIndexes[next];
+		}
+		StringBuilder path = new StringBuilder(rootRelativePath);
+		for(int i = pathNames.size() - 1; i >= 0; i--) {
+			path.append('/').append(pathNames.get(i));
+		}
+		return path.toString();
+
+	}
+
+	public boolean getCanRead(int index) {
+		return canRead.get(index);
+	}
+
+	public void setCanRead(int index, boolean value) {
+		canRead.set(index, value);
+	}
+
+	public boolean getCanWrite(int index) {
+		return canWrite.get(index);
+	}
+
+	public void setCanWrite(int index, boolean value) {
+		canWrite.set(index, value);
+	}
+
+	public boolean getCanExecute(int index) {
+		return canExecute.get(index);
+	}
+
+	public void setCanExecute(int index, boolean value) {
+		canExecute.set(index, value);
+	}
+
+	/**
+	 * Create a PathResource for a resource in the tree. A new object is returned on every call.
+	 *
+	 * @param index
+	 * @return a FileMetaResource or DirectoryResource
+	 */
+	public PathResource getResource(int index) {
+
+		PathResource r = null;
+		if(types[index] == TYPE_FILE) {
+			FileMetaResource file = new FileMetaResource();
+			file.setFileSize(fileSizes[index]);
+			file.setMimeType(mimeTypes[index]);
+			file.setIsBinaryInDatabase(binaryInDatabase.get(index));
+			r = file;
+		}else {
+			r = new DirectoryResource();
+		}
+
+		r.setNodeId(nodeIds[index]);
+		r.setParentNodeId(parentNodeIds[index]);
+		r.setChildNodeId(nodeIds[index]);
+		r.setDateCreated(dateCreated[index] != NO_DATE ? new Timestamp(dateCreated[index]) : null);
+		r.setDateUpdated(dateUpdated[index] != NO_DATE ? new Timestamp(dateUpdated[index]) : null);
+		r.setPathName(names[index]);
+		r.setRelativePath(getRelativePath(index));
+		r.setResourceType(types[index] == TYPE_FILE ? ResourceType.FILE : ResourceType.DIRECTORY);
+		r.setStoreId(store.getId());
+		r.setStore(store);
+		r.setDesc(descriptions[index]);
+		r.setReadGroup1(readGroups[index]);
+		r.setWriteGroup1(writeGroups[index]);
+		r.setExecuteGroup1(executeGroups[index]);
+		r.setCanRead(canRead.get(index));
+		r.setCanWrite(canWrite.get(index));
+		r.setCanExecute(canExecute.get(index));
+
+		return r;
+
+	}
+
+	/**
+	 * Get a Tree view of the compact tree, for code that works with Tree/TreeNode. Each TreeNode (and its
+	 * PathResource) is created the first time its parent's children are requested, so walking part of the
+	 * tree only creates objects for that part.
+	 *
+	 * The PathResources in the view are copies, changes to them are not written back to the compact tree.
+	 *
+	 * @return
+	 */
+	public Tree<PathResource> toTree() {
+
+		if(size == 0) {
+			return new Tree<PathResource>();
+		}
+		return new Tree<PathResource>(new CompactTreeNode(this, 0, null));
+
+	}
+
+	/**
+	 * TreeNode for a resource in the compact tree. Child nodes are created on first access.
+	 */
+	private static class CompactTreeNode extends TreeNode<PathResource> {
+
+		private final PathResourceCompactTree compactTree;
+		private final int index;
+		private boolean childrenLoaded = false;
+
+		public CompactTreeNode(PathResourceCompactTree compactTree, int index, TreeNode<PathResource> parent) {
+			super(compactTree.getResource(index), parent);
+			this.compactTree = compactTree;
+			this.index = index;
+		}
+
+		private void loadChildren() {
+			if(childrenLoaded) {
+				return;
+			}
+			childrenLoaded = true;
+			int child = compactTree.getFirstChildIndex(index);
+			if(child == NO_NODE) {
+				return;
+			}
+			List<TreeNode<PathResource>> children = new ArrayList<TreeNode<PathResource>>();
+			for(; child != NO_NODE; child = compactTree.getNextSiblingIndex(child)) {
+				children.add(new CompactTreeNode(compactTree, child, this));
+			}
+			super.setChildren(children);
+		}
+
+		@Override
+		public void addChildNode(TreeNode<PathResource> child) {
+			loadChildren();
+			super.addChildNode(child);
+		}
+
+		@Override
+		public void addChildren(List<TreeNode<PathResource>> children) {
+			loadChildren();
+			super.addChildren(children);
+		}
+
+		@Override
+		public void setChildren(List<TreeNode<PathResource>> children) {
+			childrenLoaded = true;
+			super.setChildren(children);
+		}
+
+		@Override
+		public List<TreeNode<PathResource>> getChildren() {
+			loadChildren();
+			return super.getChildren();
+		}
+
+		@Override
+		public boolean hasChildren() {
+			loadChildren();
+			return super.hasChildren();
+		}
+
+		@Override
+		public int getChildCount() {
+			loadChildren();
+			return super.getChildCount();
+		}
+
+		@Override
+		public TreeNode<PathResource> getFirstChild() {
+			loadChildren();
+			return super.getFirstChild();
+		}
+
+		@Override
+		public void sortChildren(Comparator<TreeNode<PathResource>> comparator) {
+			loadChildren();
+			super.sortChildren(comparator);
+		}
+
+	}
+
+	/**
+	 * Open addressing hash map from node id to index, so we don't need a Long and an Integer
+	 * object for every resource.
+	 */
+	private static class NodeIndex {
+
+		private long[] keys;
+		private int[] values;
+		private int count = 0;
+
+		public NodeIndex(int expectedSize) {
+			int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+			keys = new long[capacity];
+			values = new int[capacity];
+			Arrays.fill(values, NO_NODE);
+		}
+
+		public int get(long key) {
+			int mask = keys.length - 1;
+			for(int slot = hash(key) & mask; values[slot] != NO_NODE; slot = (slot + 1) & mask) {
+				if(keys[slot] == key) {
+					return values[slot];
+				}
+			}
+			return NO_NODE;
+		}
+
+		public void put(long key, int value) {
+			if((count + 1) * 2 > keys.length) {
+				resize();
+			}
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			for(; values[slot] != NO_NODE; slot = (slot + 1) & mask) {
+				if(keys[slot] == key) {
+					values[slot] = value;
+					return;
+				}
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			count++;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldValues.length * 2];
+			Arrays.fill(values, NO_NODE);
+			count = 0;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldValues[i] != NO_NODE) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+	}
+
+}
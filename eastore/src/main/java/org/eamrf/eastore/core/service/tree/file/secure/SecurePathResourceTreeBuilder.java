@@ -3,7 +3,10 @@
  */
 package org.eamrf.eastore.core.service.tree.file.secure;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -14,10 +17,12 @@ import org.eamrf.core.util.CollectionUtil;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.eastore.core.service.security.GatekeeperService;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
 import org.eamrf.eastore.core.tree.Tree;
 import org.eamrf.eastore.core.tree.TreeNode;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store.AccessRule;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -94,6 +99,188 @@ public class SecurePathResourceTreeBuilder {
 		
 	}
 	
+	/**
+	 * Evaluate access permissions on a compact tree, and set the read, write, and execute bits for
+	 * every resource. Same rules as buildPathResourceTree, but no PathResource objects are created.
+	 * 
+	 * Parents are always before their children in the compact tree, so one pass over the indexes
+	 * visits the tree top-down.
+	 * 
+	 * @param tree - the compact tree
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID). 
+	 * @param dirResource - the directory resource that is the root of the tree. The directory resource
+	 * should have its permissions evaluated (read, write, and execute bits) already set for the user.
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public void evaluateAccess(PathResourceCompactTree tree, String userId, PathResource dirResource) throws ServiceException {
+		
+		Set<String> userGroupCodes = gatekeeperService.getUserGroupCodes(userId);
+		
+		AccessRule storeAccessRule = tree.getStore().getAccessRule();
+		
+		int size = tree.size();
+		
+		// groups from the resource, or the ones from the last parent that had them
+		String[] lastReadGroups = new String[size];
+		String[] lastWriteGroups = new String[size];
+		String[] lastExecuteGroups = new String[size];
+		
+		for(int i = 0; i < size; i++) {
+			
+			int parent = tree.getParentIndex(i);
+			
+			String parentReadGroup = (parent < 0) ? dirResource.getReadGroup1() : lastReadGroups[parent];
+			String parentWriteGroup = (parent < 0) ? dirResource.getWriteGroup1() : lastWriteGroups[parent];
+			String parentExecuteGroup = (parent < 0) ? dirResource.getExecuteGroup1() : lastExecuteGroups[parent];
+			boolean parentReadBit = (parent < 0) ? Boolean.TRUE.equals(dirResource.getCanRead()) : tree.getCanRead(parent);
+			boolean parentWriteBit = (parent < 0) ? Boolean.TRUE.equals(dirResource.getCanWrite()) : tree.getCanWrite(parent);
+			boolean parentExecuteBit = (parent < 0) ? Boolean.TRUE.equals(dirResource.getCanExecute()) : tree.getCanExecute(parent);
+			
+			String readGroup = tree.getReadGroup(i);
+			lastReadGroups[i] = (readGroup != null) ? readGroup : parentReadGroup;
+			tree.setCanRead(i, hasAccess(storeAccessRule, userGroupCodes, readGroup, parentReadGroup, parentReadBit));
+			
+			String writeGroup = tree.getWriteGroup(i);
+			lastWriteGroups[i] = (writeGroup != null) ? writeGroup : parentWriteGroup;
+			tree.setCanWrite(i, hasAccess(storeAccessRule, userGroupCodes, writeGroup, parentWriteGroup, parentWriteBit));
+			
+			String executeGroup = tree.getExecuteGroup(i);
+			lastExecuteGroups[i] = (executeGroup != null) ? executeGroup : parentExecuteGroup;
+			tree.setCanExecute(i, hasAccess(storeAccessRule, userGroupCodes, executeGroup, parentExecuteGroup, parentExecuteBit));
+			
+		}
+		
+	}
+	
+	/**
+	 * Evaluate access permissions for a set of resources and set the read, write, and execute bits
+	 * on each one. The set must include every parent directory of every resource, up to the store root
+	 * (see FileSystemRepository.getPathResourcesWithParents). Same rules as buildParentPathResourceTree,
+	 * but parents shared by many resources are only evaluated once.
+	 * 
+	 * @param resources - the resources, and all their parent directories, in any order
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public void evaluateParentAccess(Collection<PathResource> resources, String userId) throws ServiceException {
+		
+		evaluateParentAccess(resources, gatekeeperService.getUserGroupCodes(userId));
+		
+	}
+	
+	/**
+	 * Find the directories whose files the user can read. Files never have their own read group, so
+	 * read access for a file depends only on the directory it's in, and the directory's parents. The set
+	 * must include every parent directory of every directory, up to the store root (see
+	 * FileSystemRepository.getPathResourcesWithParents).
+	 * 
+	 * @param resources - the directories, and all their parent directories, in any order
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @return IDs of the directories in the set whose files the user can read
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public Set<Long> evaluateFileReadAccess(Collection<PathResource> resources, String userId) throws ServiceException {
+		
+		Set<String> userGroupCodes = gatekeeperService.getUserGroupCodes(userId);
+		Map<Long,String[]> lastGroups = evaluateParentAccess(resources, userGroupCodes);
+		
+		Set<Long> readableDirectoryIds = new HashSet<Long>();
+		for(PathResource res : resources) {
+			// same rule as for a file without its own read group, inside the directory
+			if(res.getResourceType() == ResourceType.DIRECTORY && hasAccess(res.getStore().getAccessRule(), userGroupCodes, 
+					null, lastGroups.get(res.getNodeId())[0], Boolean.TRUE.equals(res.getCanRead()))) {
+				readableDirectoryIds.add(res.getNodeId());
+			}
+		}
+		return readableDirectoryIds;
+		
+	}
+	
+	/**
+	 * Evaluate access permissions for a set of resources, see evaluateParentAccess(Collection, String)
+	 * 
+	 * @param resources - the resources, and all their parent directories, in any order
+	 * @param userGroupCodes - the user's groups
+	 * @return read, write, and execute groups in effect for each resource (its own, or the closest parent's), by node id
+	 */
+	private Map<Long,String[]> evaluateParentAccess(Collection<PathResource> resources, Set<String> userGroupCodes) {
+		
+		Map<Long,PathResource> resourceMap = new HashMap<Long,PathResource>();
+		for(PathResource res : resources) {
+			resourceMap.put(res.getNodeId(), res);
+		}
+		
+		// read, write, and execute groups from the resource, or the ones from the last parent that had them
+		Map<Long,String[]> lastGroups = new HashMap<Long,String[]>();
+		
+		Deque<PathResource> unevaluated = new ArrayDeque<PathResource>();
+		for(PathResource res : resources) {
+			
+			// collect the resource and any parents not evaluated yet, closest to the root on top
+			for(PathResource next = res; next != null && !lastGroups.containsKey(next.getNodeId());
+					next = resourceMap.get(next.getParentNodeId())) {
+				unevaluated.push(next);
+			}
+			
+			while(!unevaluated.isEmpty()) {
+				
+				PathResource next = unevaluated.pop();
+				PathResource parent = resourceMap.get(next.getParentNodeId());
+				AccessRule storeAccessRule = next.getStore().getAccessRule();
+				
+				String[] parentGroups = (parent != null) ? lastGroups.get(parent.getNodeId()) : new String[3];
+				boolean parentReadBit = parent != null && Boolean.TRUE.equals(parent.getCanRead());
+				boolean parentWriteBit = parent != null && Boolean.TRUE.equals(parent.getCanWrite());
+				boolean parentExecuteBit = parent != null && Boolean.TRUE.equals(parent.getCanExecute());
+				
+				String[] groups = new String[] {
+					(next.getReadGroup1() != null) ? next.getReadGroup1() : parentGroups[0],
+					(next.getWriteGroup1() != null) ? next.getWriteGroup1() : parentGroups[1],
+					(next.getExecuteGroup1() != null) ? next.getExecuteGroup1() : parentGroups[2]
+				};
+				lastGroups.put(next.getNodeId(), groups);
+				
+				next.setCanRead(hasAccess(storeAccessRule, userGroupCodes, next.getReadGroup1(), parentGroups[0], parentReadBit));
+				next.setCanWrite(hasAccess(storeAccessRule, userGroupCodes, next.getWriteGroup1(), parentGroups[1], parentWriteBit));
+				next.setCanExecute(hasAccess(storeAccessRule, userGroupCodes, next.getExecuteGroup1(), parentGroups[2], parentExecuteBit));
+				
+			}
+			
+		}
+		
+		return lastGroups;
+		
+	}
+	
+	/**
+	 * Evaluate one access bit (read, write, or execute) for a resource. See
+	 * addChildrenFromPathResourceMap for the rules.
+	 * 
+	 * @param storeAccessRule - Access rule for store
+	 * @param userGroupCodes - Users groups codes
+	 * @param group - group from the resource, may be null
+	 * @param lastGroup - group from the last parent that had one, may be null
+	 * @param lastBit - bit from the parent
+	 * @return
+	 */
+	private boolean hasAccess(AccessRule storeAccessRule, Set<String> userGroupCodes, String group, String lastGroup, boolean lastBit) {
+		
+		if(group != null) {
+			return userGroupCodes.contains(group);
+		}
+		if(storeAccessRule == AccessRule.ALLOW) {
+			return true;
+		}
+		if(lastGroup != null && userGroupCodes.contains(lastGroup)) {
+			return true;
+		}
+		return lastBit;
+		
+	}
+	
 	/**
 	 * Build a bottom-up (leaf node to root node) tree of PathResource objects, but only up
 	 * to a specified number of levels.
@@ -4,12 +4,22 @@
 package org.eamrf.eastore.core.service.tree.file.secure;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
 import org.eamrf.eastore.core.tree.Tree;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.FileSystemRepository;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
@@ -37,10 +47,33 @@ public class SecurePathResourceTreeService {
     @Autowired
     private SecurePathResourceTreeBuilder securePathResourceTreeBuilder; 
 	
+    @Autowired
+    private ManagedProperties appProps;
+    
+    // max number of resources fetched by one call to getPathResources
+    private int batchMaxSize = DEFAULT_BATCH_MAX_SIZE;
+    
+    private static final int DEFAULT_BATCH_MAX_SIZE = 500;
+    
+    // oracle allows at most 1000 values in an 'in' list
+    private static final int MAX_IN_LIST_SIZE = 1000;
+	
 	public SecurePathResourceTreeService() {
 		
 	}
 	
+	@PostConstruct
+	public void init() {
+		batchMaxSize = Math.min(appProps.getIntProperty("path.resource.batch.max.size", DEFAULT_BATCH_MAX_SIZE), MAX_IN_LIST_SIZE);
+	}
+	
+	/**
+	 * @return max number of resources that can be fetched with one call to getPathResources
+	 */
+	public int getBatchMaxSize() {
+		return batchMaxSize;
+	}
+	
 	/**
 	 * Build a top-down (from root node to leaf nodes) tree of PathResource objects.
 	 * 
@@ -127,6 +160,57 @@ public class SecurePathResourceTreeService {
 		
 	}
 	
+	/**
+	 * Build a top-down compact tree, with access permissions evaluated for the user. Uses much less
+	 * memory than buildPathResourceTree, use for large trees (e.g. every resource in a store.) Call
+	 * PathResourceCompactTree.toTree() if you need a Tree.
+	 * 
+	 * @param nodeId - Id of node which will become the root of the tree.
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @return
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public PathResourceCompactTree buildCompactPathResourceTree(Long nodeId, String userId) throws ServiceException {
+		
+		PathResource resource = getPathResource(nodeId, userId);
+		
+		return this.buildCompactPathResourceTree(resource, userId, Integer.MAX_VALUE);
+		
+	}
+	
+	/**
+	 * Build a top-down compact tree, with access permissions evaluated for the user, but only
+	 * include nodes up to a specified depth.
+	 * 
+	 * @param resource - resource which will become the root of the tree. Permission bits must already be set.
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @param depth - depth of child nodes to include.
+	 * @return
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public PathResourceCompactTree buildCompactPathResourceTree(PathResource resource, String userId, int depth) throws ServiceException {
+		
+		PathResourceCompactTree tree = null;
+		try {
+			tree = fileSystemRepository.getCompactPathResourceTree(resource.getNodeId(), depth);
+		} catch (Exception e) {
+			throw new ServiceException("Error getting compact PathResource tree for node " + 
+					resource.getNodeId() + ". " + e.getMessage(), e);
+		}
+		
+		if(tree == null || tree.size() == 0){
+			throw new ServiceException("No top-down compact PathResource tree for resource node " + resource.getNodeId() + 
+					". Returned tree was null or empty.");
+		}
+		
+		securePathResourceTreeBuilder.evaluateAccess(tree, userId, resource);
+		
+		return tree;
+		
+	}
+	
 	/**
 	 * Build a bottom-up (leaf node to root node) tree of PathResource objects.
 	 * 
@@ -266,6 +350,82 @@ public class SecurePathResourceTreeService {
 		
 	}
 	
+	/**
+	 * Fetch many PathResources by Id, and evaluate the permissions. All resources, and their parent
+	 * directories, are fetched with one query, and parents shared by several resources are only evaluated
+	 * once. Much faster than calling getPathResource(nodeId, userId) for each node.
+	 * 
+	 * @param nodeIds - ids of the resources, at most 'path.resource.batch.max.size' of them
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @return the resources, in the same order as nodeIds. Nodes that don't exist are left out.
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public List<PathResource> getPathResources(List<Long> nodeIds, String userId) throws ServiceException {
+		
+		if(nodeIds == null || nodeIds.isEmpty()) {
+			return new ArrayList<PathResource>();
+		}
+		
+		List<Long> distinctIds = nodeIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		if(distinctIds.size() > batchMaxSize) {
+			throw new ServiceException("Cannot fetch " + distinctIds.size() + " path resources at once, the limit is " + batchMaxSize);
+		}
+		
+		List<PathResource> resources = null;
+		try {
+			resources = fileSystemRepository.getPathResourcesWithParents(distinctIds);
+		} catch (Exception e) {
+			throw new ServiceException("Error fetching path resources for " + distinctIds.size() + " nodes, " + e.getMessage(), e);
+		}
+		
+		securePathResourceTreeBuilder.evaluateParentAccess(resources, userId);
+		
+		Map<Long,PathResource> resourceMap = new HashMap<Long,PathResource>();
+		for(PathResource res : resources) {
+			resourceMap.put(res.getNodeId(), res);
+		}
+		
+		return distinctIds.stream()
+				.map(resourceMap::get)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+		
+	}
+	
+	/**
+	 * Find the directories whose files the user can read (see SecurePathResourceTreeBuilder.evaluateFileReadAccess.)
+	 * Directories are fetched with their parents in batches of 'path.resource.batch.max.size', so only the
+	 * branches of the tree that lead to the directories are evaluated.
+	 * 
+	 * @param directoryIds - ids of the directories
+	 * @param userId - User ID used to evaluate access permissions (e.g. CTEP ID).
+	 * @return ids of the directories whose files the user can read. Directories that don't exist are left out.
+	 * @throws ServiceException
+	 */
+	@MethodTimer
+	public Set<Long> getFileReadableDirectories(Collection<Long> directoryIds, String userId) throws ServiceException {
+		
+		List<Long> distinctIds = directoryIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		
+		Set<Long> readableIds = new HashSet<Long>();
+		for(int start = 0; start < distinctIds.size(); start += batchMaxSize) {
+			List<Long> batch = distinctIds.subList(start, Math.min(start + batchMaxSize, distinctIds.size()));
+			List<PathResource> resources = null;
+			try {
+				resources = fileSystemRepository.getPathResourcesWithParents(batch);
+			} catch (Exception e) {
+				throw new ServiceException("Error fetching path resources for " + batch.size() + " directories, " + e.getMessage(), e);
+			}
+			readableIds.addAll(securePathResourceTreeBuilder.evaluateFileReadAccess(resources, userId));
+		}
+		
+		// the sets include parent directories too
+		readableIds.retainAll(distinctIds);
+		return readableIds;
+		
+	}
+	
 	/**
 	 * Fetch a PathResource by store name and relative path of resource, and evaluate the permissions.
 	 * 
@@ -3,8 +3,13 @@
  */
 package org.eamrf.eastore.core.socket.messaging;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -14,6 +19,7 @@ import org.eamrf.concurrent.task.TaskManagerProvider;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
 import org.eamrf.eastore.core.service.file.task.FileServiceTask;
 import org.eamrf.eastore.core.socket.messaging.model.FileServiceTaskMessage;
 import org.slf4j.Logger;
@@ -29,7 +35,13 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 /**
  * Message service for notifying clients of progress of file service tasks
  * 
- * Messages are broadcasted to /topic/file/task
+ * Messages are broadcasted to /topic/file/task, and sent to the user who started the task on
+ * /user/queue/file/task. Messages are only built for destinations which have subscribers.
+ * 
+ * Each task gets at most 'task.broadcast.frames.per.second' messages per second. Updates which arrive
+ * in between are merged, and the latest progress is sent once the interval has passed. When the broadcast
+ * queue is backed up intermediate updates are dropped. The final message for a task (all jobs complete,
+ * cancelled, or failed) is always sent.
  * 
  * @author slenzi
  */
@@ -45,11 +57,54 @@ public class FileServiceTaskMessageService {
     @Autowired
     private TaskManagerProvider taskManagerProvider;    
     
+    @Autowired
+    private ManagedProperties appProps;
+    
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+    
     private final String messageDestination = "/topic/file/task";
+    private final String userMessageDestination = "/queue/file/task";
     
     private ExecutorService executorService = null;
     private QueuedTaskManager taskManager = null;
     
+    // token bucket settings for the broadcast task manager, limits messages for all tasks combined
+    private static final double BROADCASTS_PER_SECOND = 20.0D;
+    private static final int BROADCAST_BURST = 40;
+    
+    // per task limits
+    private static final int DEFAULT_FRAMES_PER_SECOND = 2;
+    private long minFrameIntervalMillis = 1000L / DEFAULT_FRAMES_PER_SECOND;
+    
+    // intermediate updates are dropped when this many broadcasts are waiting in the queue
+    private static final int MAX_QUEUED_BROADCASTS = 100;
+    
+    // broadcast state for tasks which have not sent their final message, by task ID
+    private final ConcurrentMap<Long,BroadcastState> broadcastStates = new ConcurrentHashMap<Long,BroadcastState>();
+    
+    // state for tasks which stop sending updates without a final message is removed after this long
+    private static final long STALE_STATE_MILLIS = 10L * 60L * 1000L;
+    
+    // sends delayed updates, and removes stale state
+    private ScheduledExecutorService delayedBroadcastExecutor = null;
+    
+    /**
+     * Broadcast state for a single task
+     */
+    private static class BroadcastState {
+    	
+    	// time the last message was queued
+    	private volatile long lastSentTime = 0L;
+    	
+    	// time of the last update from the task
+    	private volatile long lastUpdateTime = 0L;
+    	
+    	// true when a delayed broadcast is scheduled, later updates are merged into it
+    	private final AtomicBoolean delayedPending = new AtomicBoolean(false);
+    	
+    }
+    
     /**
      * A task for the queued task manager which encapsulates the logic for broadcasting file service task status messages
      * 
@@ -80,15 +135,33 @@ public class FileServiceTaskMessageService {
 			
 			calculateJobCount();
 			
+			boolean sendToTopic = subscriptionRegistry.hasSubscribers(messageDestination);
+			boolean sendToUser = subscriptionRegistry.hasUserSubscribers(task.getUserId(), userMessageDestination);
+			if(!sendToTopic && !sendToUser) {
+				// nobody is listening
+				setCompletedJobCount(this, 1);
+				return null;
+			}
+			
 			FileServiceTaskMessage mesg = new FileServiceTaskMessage();
 			mesg.setId(String.valueOf(task.getTaskId()));
 			mesg.setJobCount(task.getJobCount());
 			mesg.setJobCompletedCount(task.getCompletedJobCount());
 			mesg.setProgress(String.valueOf(Math.round(task.getProgress())));
-			mesg.setMessage(task.getStatusMessage());
+			if(task.isCancelled()) {
+				mesg.setMessage("Cancelled. " + task.getStatusMessage());
+				mesg.setCancelled(true);
+			}else {
+				mesg.setMessage(task.getStatusMessage());
+			}
 			mesg.setUserId(task.getUserId());
 			
-			template.convertAndSend(messageDestination, mesg);
+			if(sendToTopic) {
+				template.convertAndSend(messageDestination, mesg);
+			}
+			if(sendToUser) {
+				template.convertAndSendToUser(task.getUserId(), userMessageDestination, mesg);
+			}
 			
 			setCompletedJobCount(this, 1);
 			
@@ -151,11 +224,24 @@ public class FileServiceTaskMessageService {
 		
 		executorService = Executors.newSingleThreadExecutor();
 		
-		// wait 2 seconds between consuming tasks. Don't want to flood the clients with update messages
-		taskManager = taskManagerProvider.createQueuedTaskManager(1000L);
+		// rate limit broadcasts, don't want to flood the clients with update messages. Short bursts go out right away.
+		taskManager = taskManagerProvider.createQueuedTaskManager(BROADCASTS_PER_SECOND, BROADCAST_BURST);
+		
+		// broadcasts are independent of the file service task which triggered them
+		taskManager.setLinkParentTasks(false);
+		taskManager.setManagerName("File Service Task Broadcast Manager");
 		
 		taskManager.startTaskManager(executorService);
 		
+		minFrameIntervalMillis = 1000L / appProps.getIntProperty("task.broadcast.frames.per.second", DEFAULT_FRAMES_PER_SECOND);
+		
+		delayedBroadcastExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "file-task-broadcast-delay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		delayedBroadcastExecutor.scheduleWithFixedDelay(this::removeStaleStates, 1L, 1L, TimeUnit.MINUTES);
+		
 		// custom converter which supports java8 LocalDate and LocalTime formats
 		MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
 		converter.setObjectMapper(objectMapper());
@@ -166,6 +252,10 @@ public class FileServiceTaskMessageService {
 	@PreDestroy
 	public void cleanup() {
 		
+		if(delayedBroadcastExecutor != null) {
+			delayedBroadcastExecutor.shutdownNow();
+		}
+		
 		taskManager.stopTaskManager();
 		
 	}
@@ -183,27 +273,81 @@ public class FileServiceTaskMessageService {
 	}	
 	
 	/**
-	 * Broadcasts a message that the contents of the directory changed.
-	 * 
-	 * When clients receive this message, they can issue a REST call to the server to get
-	 * the latest data (if they wish.)
+	 * Broadcasts the progress of a file service task. Intermediate updates may be delayed or dropped, see
+	 * class comments. The final update for a task is always sent.
 	 * 
-	 * @param dirNodeId - the id of the directory path resource
+	 * @param task - the task
 	 */
 	@MethodTimer
 	public void broadcast(FileServiceTask<?> task){
 		
-		FileServiceTaskBroadcaster broadcastTask = createTask(task);
+		final long taskId = task.getTaskId();
+		
+		if(isFinal(task)) {
+			broadcastStates.remove(taskId);
+			queueBroadcast(task);
+			return;
+		}
+		
+		BroadcastState state = broadcastStates.computeIfAbsent(taskId, id -> new BroadcastState());
+		
+		long now = System.currentTimeMillis();
+		state.lastUpdateTime = now;
+		long waitMillis = (state.lastSentTime + minFrameIntervalMillis) - now;
 		
-		// Don't want to flood the clients with messages, so only add the task if the task
-		// manager doesn't already have a similar task.
-		if(!taskManager.contains(broadcastTask)) {
-			logger.info("Adding task for broadcast => " + task.getStatusMessage());
-			taskManager.addTask(broadcastTask);
+		if(waitMillis <= 0L && taskManager.getQueueDepth() < MAX_QUEUED_BROADCASTS) {
+			state.lastSentTime = now;
+			queueBroadcast(task);
+		}else if(state.delayedPending.compareAndSet(false, true)) {
+			// send the latest progress once the interval has passed, updates until then are merged
+			try {
+				delayedBroadcastExecutor.schedule(() -> {
+					state.delayedPending.set(false);
+					// skip if the final message was already sent
+					if(broadcastStates.get(taskId) == state) {
+						broadcast(task);
+					}
+				}, Math.max(waitMillis, minFrameIntervalMillis), TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				state.delayedPending.set(false);
+				logger.warn("Failed to schedule progress broadcast for task " + taskId + ", " + e.getMessage());
+			}
 		}
 		
 	}
 	
+	/**
+	 * The final update for a task is the one sent after all jobs complete, or after the task is cancelled or fails.
+	 * 
+	 * @param task
+	 * @return
+	 */
+	private boolean isFinal(FileServiceTask<?> task) {
+		return task.isCancelled()
+				|| (task.getCompletableFuture() != null && task.getCompletableFuture().isDone())
+				|| (task.getJobCount() > 0 && task.getCompletedJobCount() >= task.getJobCount());
+	}
+	
+	/**
+	 * Add a broadcast to the queue. If a broadcast for the same task is already queued this one is merged
+	 * into it, the queued broadcast reads the task's latest progress when it runs.
+	 * 
+	 * @param task
+	 */
+	private void queueBroadcast(FileServiceTask<?> task) {
+		
+		taskManager.addTask(createTask(task));
+		
+	}
+	
+	/**
+	 * Remove state for tasks which stopped sending updates without sending a final update.
+	 */
+	private void removeStaleStates() {
+		long cutoff = System.currentTimeMillis() - STALE_STATE_MILLIS;
+		broadcastStates.entrySet().removeIf(entry -> entry.getValue().lastUpdateTime < cutoff);
+	}
+	
 	/**
 	 * Create a new resource change task
 	 * 
@@ -215,6 +359,7 @@ public class FileServiceTaskMessageService {
 		
 		FileServiceTaskBroadcaster broadcastTask = new FileServiceTaskBroadcaster(task);
 		broadcastTask.setName("Broadcast event: [FileServiceTask: taskId=" + task.getTaskId() + "]");
+		broadcastTask.setCoalescingKey(task.getTaskId());
 		
 		return broadcastTask;
 		
@@ -5,21 +5,31 @@ package org.eamrf.eastore.core.socket.messaging;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.eamrf.concurrent.task.AbstractQueuedTask;
+import org.eamrf.concurrent.task.QueuedTask;
 import org.eamrf.concurrent.task.QueuedTaskManager;
 import org.eamrf.concurrent.task.TaskManagerProvider;
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
 import org.eamrf.eastore.core.service.file.task.FileServiceTask;
 import org.eamrf.eastore.core.socket.messaging.model.EventCode;
 import org.eamrf.eastore.core.socket.messaging.model.ResourceChangeMessage;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
@@ -33,7 +43,13 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 /**
  * Message service for notifying clients that resources have changed on the server.
  * 
- * Messages are broadcasted to /topic/resource/change
+ * Messages are broadcasted to /topic/resource/change. Clients which only care about one store or one directory
+ * can subscribe to /topic/resource/change/store/{storeId} or /topic/resource/change/directory/{nodeId} instead.
+ * Messages are only built for destinations which have subscribers.
+ * 
+ * Changes are collected for a short window ('resource.change.batch.window.millis') and sent as one message
+ * listing every changed directory, so clients refresh each directory once per burst of changes rather than
+ * once per file.
  * 
  * @author slenzi
  */
@@ -49,11 +65,54 @@ public class ResourceChangeMessageService {
     @Autowired
     private TaskManagerProvider taskManagerProvider;    
     
+    @Autowired
+    private ManagedProperties appProps;
+    
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+    
     private final String messageDestination = "/topic/resource/change";
+    private final String storeDestinationPrefix = "/topic/resource/change/store/";
+    private final String directoryDestinationPrefix = "/topic/resource/change/directory/";
     
     private ExecutorService executorService = null;
     private QueuedTaskManager taskManager = null;
     
+    // token bucket settings for the broadcast task manager
+    private static final double BROADCASTS_PER_SECOND = 2.0D;
+    private static final int BROADCAST_BURST = 4;
+    
+    // how long changes are collected before they're sent
+    private static final int DEFAULT_BATCH_WINDOW_MILLIS = 250;
+    private long batchWindowMillis = DEFAULT_BATCH_WINDOW_MILLIS;
+    
+    // max number of nodes listed in one message, larger batches are split
+    private static final int MAX_NODES_PER_MESSAGE = 500;
+    
+    // changed directories waiting for the batch window to close, by node ID
+    private final Map<Long,DirectoryChange> pendingChanges = new LinkedHashMap<Long,DirectoryChange>();
+    private final Object pendingLock = new Object();
+    
+    private ScheduledExecutorService batchExecutor = null;
+    
+    /**
+     * A change to a directory
+     */
+    private static class DirectoryChange {
+    	
+    	// store the directory is in, null if not known
+    	private final Long storeId;
+    	
+    	// user who made the last change
+    	private final String userId;
+    	
+    	public DirectoryChange(Long storeId, String userId) {
+    		this.storeId = storeId;
+    		this.userId = userId;
+    	}
+    	
+    }
+    
     /**
      * A task for the queued task manager which encapsulates the logic for broadcasting a resource change message.
      * 
@@ -62,9 +121,9 @@ public class ResourceChangeMessageService {
      */
 	private class ResourceChangeTask extends FileServiceTask<Void> {
 
-		private Long nodeId = null;
+		// changed nodes, by node ID. Guarded by 'this'
+		private final Map<Long,DirectoryChange> changes;
 		private EventCode event = null;
-		private String userId = null;
 		
 		private int jobCount = 0;
 		
@@ -72,13 +131,11 @@ public class ResourceChangeMessageService {
 		 * Create a task for broadcasting the change event
 		 * 
 		 * @param event - The type of event we're broadcasting
-		 * @param nodeId - The resource node ID that has changed
-		 * @param userId - Id of the user that changed the resource
+		 * @param changes - The resource node IDs that have changed, mapped to the change
 		 */
-		public ResourceChangeTask(EventCode event, Long nodeId, String userId) {
+		public ResourceChangeTask(EventCode event, Map<Long,DirectoryChange> changes) {
 			this.event = event;
-			this.nodeId = nodeId;
-			this.userId = userId;
+			this.changes = new LinkedHashMap<Long,DirectoryChange>(changes);
 			//notifyChange();
 		}
 		
@@ -95,18 +152,33 @@ public class ResourceChangeMessageService {
 			
 			calculateJobCount();
 			
-			ResourceChangeMessage mesg = new ResourceChangeMessage();
-			mesg.setCode(event.getCodeString());
-			mesg.setMessage(EventCode.getCodeMessage(event.getCodeString()));
-			mesg.setNodeId(nodeId);
-			mesg.setDate(LocalDate.now());
-			mesg.setTime(LocalTime.now());
-			mesg.setUserId(userId);
+			List<Map.Entry<Long,DirectoryChange>> changeList = null;
+			synchronized(this) {
+				changeList = new ArrayList<Map.Entry<Long,DirectoryChange>>(changes.entrySet());
+			}
 			
-			// broadcast the actual message to the clients
-			logger.info("Broadcasting directory change event for nodeId = " + nodeId);
+			// all changes, on the global topic
+			if(subscriptionRegistry.hasSubscribers(messageDestination)) {
+				sendInParts(messageDestination, changeList, null);
+			}
 			
-			template.convertAndSend(messageDestination, mesg);
+			// changes grouped by store, on each store topic
+			Map<Long,List<Map.Entry<Long,DirectoryChange>>> changesByStore = new LinkedHashMap<Long,List<Map.Entry<Long,DirectoryChange>>>();
+			for(Map.Entry<Long,DirectoryChange> change : changeList) {
+				Long storeId = change.getValue().storeId;
+				if(storeId != null && subscriptionRegistry.hasSubscribers(storeDestinationPrefix + storeId)) {
+					changesByStore.computeIfAbsent(storeId, id -> new ArrayList<Map.Entry<Long,DirectoryChange>>()).add(change);
+				}
+			}
+			changesByStore.forEach((storeId, storeChanges) -> sendInParts(storeDestinationPrefix + storeId, storeChanges, storeId));
+			
+			// each change on its directory topic
+			for(Map.Entry<Long,DirectoryChange> change : changeList) {
+				String directoryDestination = directoryDestinationPrefix + change.getKey();
+				if(subscriptionRegistry.hasSubscribers(directoryDestination)) {
+					sendInParts(directoryDestination, Collections.singletonList(change), change.getValue().storeId);
+				}
+			}
 			
 			setCompletedJobCount(this, 1);
 			
@@ -115,37 +187,82 @@ public class ResourceChangeMessageService {
 		}
 		
 		/**
-		 * Get Id of node that we're broadcasting a change event for
+		 * Send the changes to the destination, split into messages of at most MAX_NODES_PER_MESSAGE nodes.
 		 * 
-		 * @return
+		 * @param destination
+		 * @param changeList
+		 * @param storeId - set on the messages when all the changes are in one store
 		 */
-		public Long getNodeId() {
-			return this.nodeId;
+		private void sendInParts(String destination, List<Map.Entry<Long,DirectoryChange>> changeList, Long storeId) {
+			
+			for(int start = 0; start < changeList.size(); start += MAX_NODES_PER_MESSAGE) {
+				
+				List<Map.Entry<Long,DirectoryChange>> part = changeList.subList(start, Math.min(start + MAX_NODES_PER_MESSAGE, changeList.size()));
+				
+				List<Long> nodeIds = new ArrayList<Long>(part.size());
+				String userId = part.get(0).getValue().userId;
+				for(Map.Entry<Long,DirectoryChange> change : part) {
+					nodeIds.add(change.getKey());
+					// only report a user when one user made all the changes
+					if(userId != null && !userId.equals(change.getValue().userId)) {
+						userId = null;
+					}
+				}
+				
+				ResourceChangeMessage mesg = new ResourceChangeMessage();
+				mesg.setCode(event.getCodeString());
+				mesg.setMessage(EventCode.getCodeMessage(event.getCodeString()));
+				mesg.setNodeId(nodeIds.size() == 1 ? nodeIds.get(0) : null);
+				mesg.setNodeIds(nodeIds);
+				mesg.setStoreId(storeId);
+				mesg.setDate(LocalDate.now());
+				mesg.setTime(LocalTime.now());
+				mesg.setUserId(userId);
+				
+				// broadcast the actual message to the clients
+				logger.info("Broadcasting directory change event to " + destination + " for " + nodeIds.size() + " node(s), nodeIds = " + nodeIds);
+				
+				template.convertAndSend(destination, mesg);
+				
+			}
+			
 		}
-
+		
 		/**
-		 * Get logger for this task
+		 * A later batch was merged into this task, add its changes. For nodes in both batches the user who
+		 * made the later change is reported.
 		 */
 		@Override
-		public Logger getLogger() {
-			return logger;
+		public void coalesce(QueuedTask<?> duplicate) {
+			if(duplicate instanceof ResourceChangeTask) {
+				Map<Long,DirectoryChange> otherChanges = ((ResourceChangeTask)duplicate).getChanges();
+				synchronized(this) {
+					otherChanges.forEach((nodeId, change) -> {
+						DirectoryChange previous = changes.get(nodeId);
+						if(change.storeId == null && previous != null) {
+							change = new DirectoryChange(previous.storeId, change.userId);
+						}
+						changes.put(nodeId, change);
+					});
+				}
+			}
+		}
+		
+		/**
+		 * Get the nodes that we're broadcasting a change event for, mapped to the change
+		 * 
+		 * @return
+		 */
+		public synchronized Map<Long,DirectoryChange> getChanges() {
+			return new LinkedHashMap<Long,DirectoryChange>(changes);
 		}
 
 		/**
-		 * Compare this task with other tasks. We use this equality check to
-		 * make sure that we don't add a duplicate ResourceChangeTask to our queue.
+		 * Get logger for this task
 		 */
 		@Override
-		public boolean equals(Object otherObject) {
-			if(otherObject instanceof ResourceChangeTask) {
-				ResourceChangeTask otherTask = (ResourceChangeTask)otherObject;
-				//logger.info("This node = " + this.nodeId + " and other node = " + otherTask.getNodeId());
-				if(this.getNodeId() != null && otherTask.getNodeId() != null && this.getNodeId().equals(otherTask.getNodeId())) {
-					// a ResourceChangeTask for the same node...
-					return true;
-				}
-			}
-			return false;
+		public Logger getLogger() {
+			return logger;
 		}
 
 		@Override
@@ -156,15 +273,15 @@ public class ResourceChangeMessageService {
 		@Override
 		public String getStatusMessage() {
 			if(getJobCount() <= 0) {
-				return "Broadcasting resource change message for nodeId " + nodeId + " is pending...";
+				return "Broadcasting resource change message for " + getChanges().size() + " node(s) is pending...";
 			}else {
-				return "Broadcasting resource change message for nodeId " + nodeId;
+				return "Broadcasting resource change message for " + getChanges().size() + " node(s)";
 			}
 		}
 
 		@Override
 		public String getUserId() {
-			return userId;
+			return null;
 		}
 		
 	};    
@@ -176,11 +293,23 @@ public class ResourceChangeMessageService {
 		
 		executorService = Executors.newSingleThreadExecutor();
 		
-		// wait 2 seconds between consuming tasks. Don't want to flood the clients with update messages
-		taskManager = taskManagerProvider.createQueuedTaskManager(2000L);
+		// rate limit broadcasts, don't want to flood the clients with update messages. Short bursts go out right away.
+		taskManager = taskManagerProvider.createQueuedTaskManager(BROADCASTS_PER_SECOND, BROADCAST_BURST);
+		
+		// broadcasts are independent of the file service task which triggered them
+		taskManager.setLinkParentTasks(false);
+		taskManager.setManagerName("Resource Change Broadcast Manager");
 		
 		taskManager.startTaskManager(executorService);
 		
+		batchWindowMillis = appProps.getIntProperty("resource.change.batch.window.millis", DEFAULT_BATCH_WINDOW_MILLIS);
+		
+		batchExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "resource-change-batch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
 		// custom converter which supports java8 LocalDate and LocalTime formats
 		MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
 		converter.setObjectMapper(objectMapper());
@@ -191,6 +320,10 @@ public class ResourceChangeMessageService {
 	@PreDestroy
 	public void cleanup() {
 		
+		if(batchExecutor != null) {
+			batchExecutor.shutdownNow();
+		}
+		
 		taskManager.stopTaskManager();
 		
 	}
@@ -213,19 +346,83 @@ public class ResourceChangeMessageService {
 	 * When clients receive this message, they can issue a REST call to the server to get
 	 * the latest data (if they wish.)
 	 * 
+	 * The change is not sent right away, it's added to the current batch, which is sent when the
+	 * batch window closes.
+	 * 
 	 * @param dirNodeId - id of the directory path resource that changed
 	 * @param userId - id of the user that changed the directory
 	 */
 	@MethodTimer
 	public void directoryContentsChanged(Long dirNodeId, String userId){
 		
-		ResourceChangeTask task = createResourceChangeTask(EventCode.DIRECTORY_CONTENTS_CHANGED, dirNodeId, userId);
+		addChange(dirNodeId, null, userId);
 		
-		// Don't want to flood the clients with messages, so only add the task if the task
-		// manager doesn't already have a similar task.
-		if(!taskManager.contains(task)) {
-			taskManager.addTask(task);
-		}		
+	}
+	
+	/**
+	 * Broadcasts a message that the contents of the directory changed. Same as directoryContentsChanged(Long, String),
+	 * but the message is also sent to the topic for the directory's store.
+	 * 
+	 * @param dir - the directory path resource that changed
+	 * @param userId - id of the user that changed the directory
+	 */
+	@MethodTimer
+	public void directoryContentsChanged(DirectoryResource dir, String userId){
+		
+		addChange(dir.getNodeId(), dir.getStoreId(), userId);
+		
+	}
+	
+	/**
+	 * Add a change to the current batch, scheduling the batch to be sent if it's the first change.
+	 * 
+	 * @param dirNodeId
+	 * @param storeId - null if not known
+	 * @param userId
+	 */
+	private void addChange(Long dirNodeId, Long storeId, String userId) {
+		
+		boolean firstChange = false;
+		boolean batchFull = false;
+		synchronized(pendingLock) {
+			firstChange = pendingChanges.isEmpty();
+			DirectoryChange previous = pendingChanges.get(dirNodeId);
+			if(storeId == null && previous != null) {
+				storeId = previous.storeId;
+			}
+			pendingChanges.put(dirNodeId, new DirectoryChange(storeId, userId));
+			batchFull = pendingChanges.size() >= MAX_NODES_PER_MESSAGE;
+		}
+		
+		if(batchFull) {
+			flushChanges();
+		}else if(firstChange) {
+			try {
+				batchExecutor.schedule(this::flushChanges, batchWindowMillis, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				// executor is shutting down, send right away
+				flushChanges();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Queue a broadcast for the changes collected in the current batch. Don't want to flood the clients with
+	 * messages, if a broadcast is already queued the changes are merged into it.
+	 */
+	private void flushChanges() {
+		
+		Map<Long,DirectoryChange> changes = null;
+		synchronized(pendingLock) {
+			if(pendingChanges.isEmpty()) {
+				return;
+			}
+			changes = new LinkedHashMap<Long,DirectoryChange>(pendingChanges);
+			pendingChanges.clear();
+		}
+		
+		taskManager.addTask(createResourceChangeTask(EventCode.DIRECTORY_CONTENTS_CHANGED, changes));
 		
 	}
 	
@@ -233,13 +430,13 @@ public class ResourceChangeMessageService {
 	 * Create a new resource change task
 	 * 
 	 * @param event - 
-	 * @param dirNodeId - id of the directory path resource that changed
-	 * @param userId - id of the user that changed the directory
+	 * @param changes - ids of the path resources that changed, mapped to the change
 	 * @return
 	 */
-	private ResourceChangeTask createResourceChangeTask(EventCode event, Long nodeId, String userId) {
-		ResourceChangeTask task = new ResourceChangeTask(event, nodeId, userId);
-		task.setName("Broadcast event: " + event.toString() + " [nodeId=" + nodeId + ", userId=" + userId + "]");
+	private ResourceChangeTask createResourceChangeTask(EventCode event, Map<Long,DirectoryChange> changes) {
+		ResourceChangeTask task = new ResourceChangeTask(event, changes);
+		task.setName("Broadcast event: " + event.toString() + " [nodeIds=" + changes.keySet() + "]");
+		task.setCoalescingKey(event.getCodeString());
 		return task;
 	}
 
@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package org.eamrf.eastore.core.socket.messaging;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+/**
+ * Keeps track of which websocket destinations have subscribers, so the message services can skip
+ * building and sending messages nobody is listening for.
+ *
+ * User destinations (e.g. /user/queue/file/task) are tracked per user, using the name of the
+ * session's principal.
+ *
+ * @author slenzi
+ */
+@Service
+public class SubscriptionRegistry {
+
+	private static final String USER_DESTINATION_PREFIX = "/user";
+
+	// number of subscriptions for each destination key
+	private final ConcurrentMap<String,Integer> subscriptionCounts = new ConcurrentHashMap<String,Integer>();
+
+	// destination keys for each subscription, by session ID then subscription ID
+	private final ConcurrentMap<String,ConcurrentMap<String,String>> sessionSubscriptions =
+			new ConcurrentHashMap<String,ConcurrentMap<String,String>>();
+
+	// subscriptions to destination patterns (e.g. /topic/resource/change/directory/**), pattern -> count
+	private final ConcurrentMap<String,Integer> patternCounts = new ConcurrentHashMap<String,Integer>();
+
+	private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+	public SubscriptionRegistry() {
+
+	}
+
+	@EventListener
+	public void onSubscribe(SessionSubscribeEvent event) {
+
+		StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+		String sessionId = accessor.getSessionId();
+		String subscriptionId = accessor.getSubscriptionId();
+		String destination = accessor.getDestination();
+		if(sessionId == null || subscriptionId == null || destination == null) {
+			return;
+		}
+
+		String key = destinationKey(destination, accessor.getUser());
+
+		String previousKey = sessionSubscriptions
+				.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<String,String>())
+				.put(subscriptionId, key);
+		if(previousKey != null) {
+			decrement(previousKey);
+		}
+		increment(key);
+
+	}
+
+	@EventListener
+	public void onUnsubscribe(SessionUnsubscribeEvent event) {
+
+		StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+		String sessionId = accessor.getSessionId();
+		String subscriptionId = accessor.getSubscriptionId();
+		if(sessionId == null || subscriptionId == null) {
+			return;
+		}
+
+		Map<String,String> subscriptions = sessionSubscriptions.get(sessionId);
+		if(subscriptions != null) {
+			String key = subscriptions.remove(subscriptionId);
+			if(key != null) {
+				decrement(key);
+			}
+		}
+
+	}
+
+	@EventListener
+	public void onDisconnect(SessionDisconnectEvent event) {
+
+		Map<String,String> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+		if(subscriptions != null) {
+			subscriptions.values().forEach(this::decrement);
+		}
+
+	}
+
+	/**
+	 * Check if any client is subscribed to the destination.
+	 *
+	 * @param destination - e.g. /topic/resource/change
+	 * @return
+	 */
+	public boolean hasSubscribers(String destination) {
+		if(subscriptionCounts.containsKey(destination)) {
+			return true;
+		}
+		for(String pattern : patternCounts.keySet()) {
+			if(pathMatcher.match(pattern, destination)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the user has a session subscribed to the user destination.
+	 *
+	 * @param userId - id of the user
+	 * @param destination - the user destination without the /user prefix, e.g. /queue/file/task
+	 * @return
+	 */
+	public boolean hasUserSubscribers(String userId, String destination) {
+		if(userId == null) {
+			return false;
+		}
+		return subscriptionCounts.containsKey(userKey(userId, destination));
+	}
+
+	/**
+	 * @return number of subscriptions for each destination, useful for debugging
+	 */
+	public Map<String,Integer> getSubscriptionCounts() {
+		Map<String,Integer> counts = new TreeMap<String,Integer>(subscriptionCounts);
+		counts.putAll(patternCounts);
+		return counts;
+	}
+
+	private String destinationKey(String destination, Principal user) {
+		if(destination.startsWith(USER_DESTINATION_PREFIX + "/")) {
+			String userName = user != null ? user.getName() : null;
+			return userKey(userName, destination.substring(USER_DESTINATION_PREFIX.length()));
+		}
+		return destination;
+	}
+
+	private String userKey(String userId, String destination) {
+		return USER_DESTINATION_PREFIX + "/" + userId + destination;
+	}
+
+	private ConcurrentMap<String,Integer> countsFor(String key) {
+		return pathMatcher.isPattern(key) ? patternCounts : subscriptionCounts;
+	}
+
+	private void increment(String key) {
+		countsFor(key).merge(key, 1, Integer::sum);
+	}
+
+	private void decrement(String key) {
+		countsFor(key).computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+	}
+
+}
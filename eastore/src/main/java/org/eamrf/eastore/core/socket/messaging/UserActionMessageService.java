@@ -26,6 +26,9 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
  * Message service for notifying users the status of various actions they
  * triggered on the server. (e.g., zip-download action)
  * 
+ * Messages are broadcasted to /topic/action, and sent to the user on /user/queue/action. Messages are
+ * only sent to destinations which have subscribers.
+ * 
  * @author slenzi
  *
  */
@@ -41,11 +44,19 @@ public class UserActionMessageService {
     @Autowired
     private TaskManagerProvider taskManagerProvider;    
     
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+    
     private final String messageDestination = "/topic/action";
+    private final String userMessageDestination = "/queue/action";
     
     private ExecutorService executorService = null;
     private QueuedTaskManager taskManager = null;
     
+    // token bucket settings for the broadcast task manager
+    private static final double BROADCASTS_PER_SECOND = 4.0D;
+    private static final int BROADCAST_BURST = 8;
+    
     private class UserActionBroadcaster extends FileServiceTask<Void> {
 
     	private int jobCount = 0;
@@ -77,7 +88,12 @@ public class UserActionMessageService {
 		@Override
 		public Void doWork() throws ServiceException {
 			
-			template.convertAndSend(messageDestination, message);
+			if(subscriptionRegistry.hasSubscribers(messageDestination)) {
+				template.convertAndSend(messageDestination, message);
+			}
+			if(subscriptionRegistry.hasUserSubscribers(message.getUserId(), userMessageDestination)) {
+				template.convertAndSendToUser(message.getUserId(), userMessageDestination, message);
+			}
 			setCompletedJobCount(this, 1);
 			return null;			
 			
@@ -99,8 +115,12 @@ public class UserActionMessageService {
 		
 		executorService = Executors.newSingleThreadExecutor();
 		
-		// wait 2 seconds between consuming tasks. Don't want to flood the clients with update messages
-		taskManager = taskManagerProvider.createQueuedTaskManager(1000L);
+		// rate limit broadcasts, don't want to flood the clients with update messages. Short bursts go out right away.
+		taskManager = taskManagerProvider.createQueuedTaskManager(BROADCASTS_PER_SECOND, BROADCAST_BURST);
+		
+		// broadcasts are independent of the file service task which triggered them
+		taskManager.setLinkParentTasks(false);
+		taskManager.setManagerName("User Action Broadcast Manager");
 		
 		taskManager.startTaskManager(executorService);
 		
@@ -23,6 +23,7 @@ public class FileServiceTaskMessage implements Serializable {
 	private Integer jobCount = 0;
 	private Integer jobCompletedCount = 0;
 	private String message = null;
+	private Boolean cancelled = false;
 	
 	/**
 	 * 
@@ -115,13 +116,27 @@ public class FileServiceTaskMessage implements Serializable {
 		this.message = message;
 	}
 
+	/**
+	 * @return true if the task was cancelled
+	 */
+	public Boolean getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @param cancelled true if the task was cancelled
+	 */
+	public void setCancelled(Boolean cancelled) {
+		this.cancelled = cancelled;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
 		return FileServiceTaskMessage.class.getName() + " [id=" + id + ", userId=" + userId + ", progress=" + progress + ", jobCount="
-				+ jobCount + ", jobCompletedCount=" + jobCompletedCount + ", message=" + message + "]";
+				+ jobCount + ", jobCompletedCount=" + jobCompletedCount + ", message=" + message + ", cancelled=" + cancelled + "]";
 	}
 
 	
@@ -3,6 +3,7 @@ package org.eamrf.eastore.core.socket.messaging.model;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.List;
 
 /**
  * Message object used to notify clients that a resource had changed on the server.
@@ -17,6 +18,8 @@ public class ResourceChangeMessage implements Serializable {
 	private String code = null;
 	private String message = null;
 	private Long nodeId = null;
+	private List<Long> nodeIds = null;
+	private Long storeId = null;
 	private String userId = null;
 	private LocalDate date = null;
 	private LocalTime time = null;
@@ -57,6 +60,34 @@ public class ResourceChangeMessage implements Serializable {
 		this.nodeId = nodeId;
 	}
 
+	/**
+	 * @return IDs of all the nodes which changed. 'nodeId' is also set when only one node changed.
+	 */
+	public List<Long> getNodeIds() {
+		return nodeIds;
+	}
+
+	/**
+	 * @param nodeIds IDs of all the nodes which changed
+	 */
+	public void setNodeIds(List<Long> nodeIds) {
+		this.nodeIds = nodeIds;
+	}
+
+	/**
+	 * @return ID of the store when all the changed nodes are in one store, otherwise null
+	 */
+	public Long getStoreId() {
+		return storeId;
+	}
+
+	/**
+	 * @param storeId ID of the store when all the changed nodes are in one store
+	 */
+	public void setStoreId(Long storeId) {
+		this.storeId = storeId;
+	}
+
 	public void setDate(LocalDate date) {
 		this.date = date;
 	}
@@ -84,7 +115,7 @@ public class ResourceChangeMessage implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		return "ResourceChangeMessage [code=" + code + ", message=" + message + ", nodeId=" + nodeId + ", userId="
+		return "ResourceChangeMessage [code=" + code + ", message=" + message + ", nodeId=" + nodeId + ", nodeIds=" + nodeIds + ", storeId=" + storeId + ", userId="
 				+ userId + ", date=" + date + ", time=" + time + "]";
 	}
 
@@ -17,8 +17,12 @@ import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.RequestUpgradeStrategy;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
 /**
+ * Sets the principal for websocket sessions. The principal name is the user ID, so messages can be sent
+ * to a user with SimpMessagingTemplate.convertAndSendToUser(userId, ...)
+ * 
  * @author slenzi
  *
  */
@@ -52,10 +56,21 @@ public class CtepUserHandshakerHandler extends DefaultHandshakeHandler {
 		if(principal != null) {
 			String principalName = StringUtil.changeNull(principal.getName());
 			logger.info("Principal Name = " + principalName);
+			if(!principalName.trim().equals("")) {
+				return principal;
+			}
 		}
 		
 		logRequestHeaders(request);
 		
+		// clients pass their user ID on the connect URL, same as the REST calls, e.g. /stomp-service?userId=...
+		String userId = StringUtil.changeNull(
+				UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("userId")).trim();
+		if(!userId.equals("")) {
+			logger.info("Websocket user ID = " + userId);
+			return new StompPrincipal(userId);
+		}
+		
         // Generate principal with UUID as name
         return new StompPrincipal(UUID.randomUUID().toString());	
 		
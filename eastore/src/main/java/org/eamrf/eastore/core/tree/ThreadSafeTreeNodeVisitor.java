@@ -0,0 +1,14 @@
+package org.eamrf.eastore.core.tree;
+
+/**
+ * A TreeNodeVisitor that can visit many nodes at the same time, from different threads. Only visitors of
+ * this type can be used with Trees.walkTreeParallel.
+ * 
+ * @author sal
+ *
+ * @param <N>
+ */
+@FunctionalInterface
+public interface ThreadSafeTreeNodeVisitor<N> extends TreeNodeVisitor<N> {
+
+}
@@ -1,8 +1,15 @@
 package org.eamrf.eastore.core.tree;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eamrf.eastore.core.tree.Trees.WalkOption;
@@ -81,25 +88,40 @@ public final class Trees {
 	}
 
 	/**
-	 * Walk tree in post-order traversal
+	 * Walk tree in post-order traversal. Uses an explicit stack rather than recursion, so very deep
+	 * trees don't overflow the call stack.
 	 * 
 	 * @param node
 	 * @param visitor
 	 */
 	private static <N> void postOrderTraversal(TreeNode<N> node, TreeNodeVisitor<N> visitor)
 			throws TreeNodeVisitException {
-		if (node.hasChildren()) {
-			for (TreeNode<N> childNode : node.getChildren()) {
-				postOrderTraversal(childNode, visitor);
+		
+		// path from the start node to the current node, and where we are in each node's child list
+		Deque<TreeNode<N>> nodeStack = new ArrayDeque<TreeNode<N>>();
+		Deque<Iterator<TreeNode<N>>> childStack = new ArrayDeque<Iterator<TreeNode<N>>>();
+		
+		nodeStack.push(node);
+		childStack.push(childIterator(node));
+		
+		while (!nodeStack.isEmpty()) {
+			Iterator<TreeNode<N>> children = childStack.peek();
+			if (children.hasNext()) {
+				TreeNode<N> childNode = children.next();
+				nodeStack.push(childNode);
+				childStack.push(childIterator(childNode));
+			} else {
+				// all children visited
+				childStack.pop();
+				visitor.visitNode(nodeStack.pop());
 			}
-			visitor.visitNode(node);
-		} else {
-			visitor.visitNode(node);
 		}
+		
 	}
 
 	/**
-	 * Walk tree in pre-order traversal
+	 * Walk tree in pre-order traversal. Uses an explicit stack rather than recursion, so very deep
+	 * trees don't overflow the call stack.
 	 * 
 	 * @param node
 	 * @param visitor
@@ -107,14 +129,188 @@ public final class Trees {
 	private static <N> void preOrderTraversal(TreeNode<N> node, TreeNodeVisitor<N> visitor)
 			throws TreeNodeVisitException {
 
-		visitor.visitNode(node);
+		Deque<TreeNode<N>> stack = new ArrayDeque<TreeNode<N>>();
+		stack.push(node);
+		
+		while (!stack.isEmpty()) {
+			TreeNode<N> nextNode = stack.pop();
+			visitor.visitNode(nextNode);
+			if (nextNode.hasChildren()) {
+				// push in reverse so children are visited in list order
+				List<TreeNode<N>> children = nextNode.getChildren();
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
 
-		if (node.hasChildren()) {
-			for (TreeNode<N> childNode : node.getChildren()) {
-				preOrderTraversal(childNode, visitor);
+	}
+	
+	private static <N> Iterator<TreeNode<N>> childIterator(TreeNode<N> node) {
+		return node.hasChildren() ? node.getChildren().iterator() : Collections.<TreeNode<N>>emptyIterator();
+	}
+	
+	/**
+	 * Walk a tree using many threads, in the common fork/join pool.
+	 * 
+	 * @param tree
+	 *            - will start at the tree's root node
+	 * @param visitor
+	 * @param walkOption
+	 * @see #walkTreeParallel(TreeNode, ThreadSafeTreeNodeVisitor, WalkOption, ForkJoinPool)
+	 */
+	public static <N> void walkTreeParallel(Tree<N> tree, ThreadSafeTreeNodeVisitor<N> visitor, WalkOption walkOption)
+			throws TreeNodeVisitException {
+		walkTreeParallel(tree.getRootNode(), visitor, walkOption, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Walk a tree using many threads. Sibling nodes (and their subtrees) are visited at the same time, in
+	 * no particular order, but the walk option is still honored for each path through the tree:
+	 * 
+	 * PRE_ORDER_TRAVERSAL - a node is always visited before any of its children
+	 * POST_ORDER_TRAVERSAL - a node is always visited after all of its children
+	 * 
+	 * If the visitor throws an exception for any node no new nodes are visited, and the exception is
+	 * rethrown once the nodes already being visited are done.
+	 * 
+	 * When called from a task that is already running in a fork/join pool the tree is walked on the calling
+	 * thread, the same as walkTree, rather than blocking a pool thread while waiting for the walk.
+	 * 
+	 * @param start
+	 *            - node to start at
+	 * @param visitor
+	 *            - must be safe to call from many threads at once
+	 * @param walkOption
+	 * @param pool
+	 *            - pool to run the walk in
+	 */
+	public static <N> void walkTreeParallel(
+			TreeNode<N> start, ThreadSafeTreeNodeVisitor<N> visitor, WalkOption walkOption, ForkJoinPool pool)
+			throws TreeNodeVisitException {
+		
+		if (ForkJoinTask.inForkJoinPool()) {
+			walkTree(start, visitor, walkOption);
+			return;
+		}
+		
+		// Wait on a latch rather than joining the task. Joining a counted completer from outside the pool
+		// makes the waiting thread scan for subtasks, which is slow when the tree is deep.
+		ParallelVisit<N> rootVisit = new ParallelVisit<N>(null, start, visitor, walkOption == WalkOption.POST_ORDER_TRAVERSAL);
+		pool.execute(rootVisit);
+		try {
+			rootVisit.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rootVisit.cancel(false);
+			throw new TreeNodeVisitException("Interrupted while waiting for parallel tree walk to complete", e);
+		}
+		
+		// fork/join may wrap the exception thrown by the worker thread in another one
+		Throwable error = rootVisit.getException();
+		Throwable cause = error;
+		while (cause != null && !(cause instanceof VisitFailure)) {
+			cause = cause.getCause();
+		}
+		if (cause != null) {
+			throw (TreeNodeVisitException) cause.getCause();
+		}
+		if (error != null) {
+			throw new TreeNodeVisitException("Error during parallel tree walk, " + error.getMessage(), error);
+		}
+		
+	}
+	
+	/**
+	 * Carries a TreeNodeVisitException out of a fork/join task
+	 */
+	private static class VisitFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 5281316734585436126L;
+
+		public VisitFailure(TreeNodeVisitException cause) {
+			super(cause);
+		}
+		
+	}
+	
+	/**
+	 * Visits one node, and forks a task for each child. A completer only finishes once all of its
+	 * children have, so for post-order the node is visited in onCompletion. No task ever waits on
+	 * another one, so the walk doesn't use more stack the deeper the tree is.
+	 */
+	private static class ParallelVisit<N> extends CountedCompleter<Void> {
+
+		private static final long serialVersionUID = -2466312457937391540L;
+		
+		private final TreeNode<N> node;
+		private final ThreadSafeTreeNodeVisitor<N> visitor;
+		private final boolean postOrder;
+		
+		// task for the start node. Kept here because getRoot() walks up the whole chain of completers.
+		private final ParallelVisit<N> root;
+		
+		// released when the whole walk is done, normally or not. Only used on the root task.
+		private final CountDownLatch done;
+		
+		public ParallelVisit(ParallelVisit<N> parent, TreeNode<N> node, ThreadSafeTreeNodeVisitor<N> visitor, boolean postOrder) {
+			super(parent);
+			this.node = node;
+			this.visitor = visitor;
+			this.postOrder = postOrder;
+			this.root = (parent != null) ? parent.root : this;
+			this.done = (parent != null) ? null : new CountDownLatch(1);
+		}
+
+		@Override
+		public void compute() {
+			
+			// another node failed, stop visiting
+			if (root.isCompletedAbnormally()) {
+				return;
 			}
+			
+			if (!postOrder) {
+				visit();
+			}
+			
+			if (node.hasChildren()) {
+				for (TreeNode<N> childNode : node.getChildren()) {
+					addToPendingCount(1);
+					new ParallelVisit<N>(this, childNode, visitor, postOrder).fork();
+				}
+			}
+			
+			tryComplete();
+			
 		}
 
+		@Override
+		public void onCompletion(CountedCompleter<?> caller) {
+			if (postOrder && !root.isCompletedAbnormally()) {
+				visit();
+			}
+			if (this == root) {
+				done.countDown();
+			}
+		}
+		
+		@Override
+		public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+			if (this == root) {
+				done.countDown();
+			}
+			return true;
+		}
+		
+		private void visit() {
+			try {
+				visitor.visitNode(node);
+			} catch (TreeNodeVisitException e) {
+				throw new VisitFailure(e);
+			}
+		}
+		
 	}
 
 	/**
@@ -261,10 +457,15 @@ public final class Trees {
 	 */
 	public static <N> void sortChildren(TreeNode<N> node, Comparator<TreeNode<N>> comparator) {
 		
-		if(node.hasChildren()){
-			Collections.sort(node.getChildren(), comparator);
-			for(TreeNode<N> child : node.getChildren()){
-				Trees.sortChildren(child, comparator);
+		Deque<TreeNode<N>> stack = new ArrayDeque<TreeNode<N>>();
+		stack.push(node);
+		while(!stack.isEmpty()){
+			TreeNode<N> nextNode = stack.pop();
+			if(nextNode.hasChildren()){
+				Collections.sort(nextNode.getChildren(), comparator);
+				for(TreeNode<N> child : nextNode.getChildren()){
+					stack.push(child);
+				}
 			}
 		}
 		
@@ -325,6 +526,39 @@ public final class Trees {
 			}
 		}, WalkOption.PRE_ORDER_TRAVERSAL);
 		return nodeCount.get();
-	}	
+	}
+	
+	/**
+	 * Counts the number of nodes of several types, in one walk of the tree.
+	 * 
+	 * @param tree - the tree to traverse
+	 * @param classes - the types of nodes to count
+	 * @return count for each type, same order as 'classes'. A node is counted once for every type it is an instance of.
+	 * @throws TreeNodeVisitException
+	 */
+	public static <N> int[] nodeCounts(Tree<N> tree, Class<?>... classes) throws TreeNodeVisitException {
+		return Trees.nodeCounts(tree.getRootNode(), classes);
+	}
+	
+	/**
+	 * Counts the number of nodes of several types, in one walk of the tree.
+	 * 
+	 * @param node - the root node of the tree
+	 * @param classes - the types of nodes to count
+	 * @return count for each type, same order as 'classes'. A node is counted once for every type it is an instance of.
+	 * @throws TreeNodeVisitException
+	 */
+	public static <N> int[] nodeCounts(TreeNode<N> node, Class<?>... classes) throws TreeNodeVisitException {
+		final int[] counts = new int[classes.length];
+		Trees.walkTree(node, (treeNode) -> {
+			N data = treeNode.getData();
+			for(int i = 0; i < classes.length; i++) {
+				if(classes[i].isInstance(data)) {
+					counts[i]++;
+				}
+			}
+		}, WalkOption.PRE_ORDER_TRAVERSAL);
+		return counts;
+	}
 
 }
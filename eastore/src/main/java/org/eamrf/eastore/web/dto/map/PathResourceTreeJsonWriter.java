@@ -0,0 +1,178 @@
+package org.eamrf.eastore.web.dto.map;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes a compact path resource tree as JSON, one node at a time, directly to an output stream. No
+ * PathResource or DTO objects are created, and nothing is buffered beyond the JSON generator's buffer.
+ *
+ * Two formats are supported:
+ *
+ * JSON - one nested object for the root, with each directory's children in a "children" array.
+ *
+ * NDJSON - one object per line, in depth-first order, with "depth" and "parentNodeId" fields so the
+ * client can rebuild the tree.
+ *
+ * @author slenzi
+ */
+public class PathResourceTreeJsonWriter {
+
+	public enum Format {
+		JSON,
+		NDJSON;
+	}
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	// flush after this many nodes, so clients can start rendering before the whole tree is written
+	private static final int FLUSH_INTERVAL = 1000;
+
+	private final PathResourceCompactTree tree;
+	private final Format format;
+	private final boolean readableOnly;
+
+	/**
+	 *
+	 * @param tree - the tree, with access permissions already evaluated
+	 * @param format - JSON or NDJSON
+	 * @param readableOnly - pass true to leave out resources the user can't read (and everything under them)
+	 */
+	public PathResourceTreeJsonWriter(PathResourceCompactTree tree, Format format, boolean readableOnly) {
+		this.tree = tree;
+		this.format = format;
+		this.readableOnly = readableOnly;
+	}
+
+	/**
+	 * Write the tree depth-first. Walks the tree with the parent, first child, and next sibling links,
+	 * so no stack is needed no matter how deep the tree is.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+
+		JsonGenerator gen = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+		gen.setRootValueSeparator(null);
+		// the response stream is closed by the container
+		gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		final int root = 0;
+		if(tree.size() == 0 || !isVisible(root)) {
+			gen.close();
+			return;
+		}
+
+		boolean nested = (format == Format.JSON);
+		int count = 0;
+		int depth = 0;
+		int index = root;
+		writeNode(gen, index, depth, nested);
+
+		while(true) {
+
+			if(++count % FLUSH_INTERVAL == 0) {
+				gen.flush();
+			}
+
+			// go down to first child
+			int child = nextVisible(tree.getFirstChildIndex(index));
+			if(child >= 0) {
+				if(nested) {
+					gen.writeArrayFieldStart("children");
+				}
+				index = child;
+				depth++;
+				writeNode(gen, index, depth, nested);
+				continue;
+			}
+
+			// no children, close the node then move to the next sibling, or back up to the parent
+			endNode(gen, nested);
+			while(index != root) {
+				int sibling = nextVisible(tree.getNextSiblingIndex(index));
+				if(sibling >= 0) {
+					index = sibling;
+					writeNode(gen, index, depth, nested);
+					break;
+				}
+				index = tree.getParentIndex(index);
+				depth--;
+				if(nested) {
+					gen.writeEndArray();
+				}
+				endNode(gen, nested);
+			}
+			if(index == root) {
+				break;
+			}
+
+		}
+
+		gen.flush();
+		gen.close();
+
+	}
+
+	/**
+	 * Write the fields for a node. In JSON format the object is left open so children can be added.
+	 */
+	private void writeNode(JsonGenerator gen, int index, int depth, boolean nested) throws IOException {
+
+		gen.writeStartObject();
+		gen.writeNumberField("nodeId", tree.getNodeId(index));
+		int parent = tree.getParentIndex(index);
+		if(parent >= 0) {
+			gen.writeNumberField("parentNodeId", tree.getNodeId(parent));
+		}
+		if(!nested) {
+			gen.writeNumberField("depth", depth);
+		}
+		gen.writeStringField("resourceType", tree.isFile(index) ? ResourceType.FILE.name() : ResourceType.DIRECTORY.name());
+		gen.writeStringField("pathName", tree.getName(index));
+		gen.writeStringField("relativePath", tree.getRelativePath(index));
+		gen.writeNumberField("storeId", tree.getStore().getId());
+		if(tree.isFile(index)) {
+			gen.writeNumberField("fileSize", tree.getFileSize(index));
+			gen.writeStringField("mimeType", tree.getMimeType(index));
+		}
+		gen.writeBooleanField("canRead", tree.getCanRead(index));
+		gen.writeBooleanField("canWrite", tree.getCanWrite(index));
+		gen.writeBooleanField("canExecute", tree.getCanExecute(index));
+		if(!nested) {
+			gen.writeEndObject();
+			gen.writeRaw('\n');
+		}
+
+	}
+
+	private void endNode(JsonGenerator gen, boolean nested) throws IOException {
+		if(nested) {
+			gen.writeEndObject();
+		}
+	}
+
+	private boolean isVisible(int index) {
+		return !readableOnly || tree.getCanRead(index);
+	}
+
+	/**
+	 * @param index - a child index, or -1
+	 * @return the first visible resource starting at index and moving through its siblings, or -1
+	 */
+	private int nextVisible(int index) {
+		while(index >= 0 && !isVisible(index)) {
+			index = tree.getNextSiblingIndex(index);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.eamrf.eastore.web.dto.map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eamrf.core.util.CollectionUtil;
+import org.eamrf.eastore.web.dto.model.ResourceChangeDto;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceChange;
+
+/**
+ * @author slenzi
+ *
+ */
+public class ResourceChangeMapper {
+
+	public ResourceChangeMapper() {
+		
+	}
+	
+	/**
+	 * Map change journal entry to change dto
+	 * 
+	 * @param change
+	 * @return
+	 */
+	public ResourceChangeDto map(ResourceChange change) {
+		
+		if(change == null) {
+			return null;
+		}
+		
+		ResourceChangeDto dto = new ResourceChangeDto();
+		
+		dto.setChangeId(change.getChangeId());
+		dto.setChangeType(change.getChangeType() != null ? change.getChangeType().getTypeString() : null);
+		dto.setResourceType(change.getResourceType() != null ? change.getResourceType().getTypeString() : null);
+		dto.setNodeId(change.getNodeId());
+		dto.setParentNodeId(change.getParentNodeId());
+		dto.setPathName(change.getPathName());
+		dto.setRelativePath(change.getRelativePath());
+		dto.setChangeDate(change.getChangeDate());
+		
+		return dto;
+		
+	}
+	
+	/**
+	 * Map list of change journal entries to list of change dtos
+	 * 
+	 * @param changes
+	 * @return
+	 */
+	public List<ResourceChangeDto> map(List<ResourceChange> changes){
+		
+		List<ResourceChangeDto> dtoList = new ArrayList<ResourceChangeDto>();
+		if(CollectionUtil.isEmpty(changes)) {
+			return dtoList;
+		}
+		for(ResourceChange c : changes) {
+			dtoList.add(map(c));
+		}
+		return dtoList;
+		
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * 
+ */
+package org.eamrf.eastore.web.dto.model;
+
+import java.sql.Timestamp;
+
+/**
+ * One change from the change journal
+ * 
+ * @author slenzi
+ */
+public class ResourceChangeDto {
+
+	// id of the change, clients use the id of the last change they processed as their cursor
+	private Long changeId = null;
+	
+	// Add, Update, Move, Rename, or Delete
+	private String changeType = null;
+	
+	// File or Directory
+	private String resourceType = null;
+	
+	private Long nodeId = null;
+	
+	// values after the change (for deletes, the values before the delete)
+	private Long parentNodeId = null;
+	private String pathName = null;
+	private String relativePath = null;
+	
+	private Timestamp changeDate = null;
+	
+	public ResourceChangeDto() {
+		
+	}
+
+	/**
+	 * @return the changeId
+	 */
+	public Long getChangeId() {
+		return changeId;
+	}
+
+	/**
+	 * @param changeId the changeId to set
+	 */
+	public void setChangeId(Long changeId) {
+		this.changeId = changeId;
+	}
+
+	/**
+	 * @return the changeType
+	 */
+	public String getChangeType() {
+		return changeType;
+	}
+
+	/**
+	 * @param changeType the changeType to set
+	 */
+	public void setChangeType(String changeType) {
+		this.changeType = changeType;
+	}
+
+	/**
+	 * @return the resourceType
+	 */
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @param resourceType the resourceType to set
+	 */
+	public void setResourceType(String resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	/**
+	 * @return the nodeId
+	 */
+	public Long getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @param nodeId the nodeId to set
+	 */
+	public void setNodeId(Long nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * @return the parentNodeId
+	 */
+	public Long getParentNodeId() {
+		return parentNodeId;
+	}
+
+	/**
+	 * @param parentNodeId the parentNodeId to set
+	 */
+	public void setParentNodeId(Long parentNodeId) {
+		this.parentNodeId = parentNodeId;
+	}
+
+	/**
+	 * @return the pathName
+	 */
+	public String getPathName() {
+		return pathName;
+	}
+
+	/**
+	 * @param pathName the pathName to set
+	 */
+	public void setPathName(String pathName) {
+		this.pathName = pathName;
+	}
+
+	/**
+	 * @return the relativePath
+	 */
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	/**
+	 * @param relativePath the relativePath to set
+	 */
+	public void setRelativePath(String relativePath) {
+		this.relativePath = relativePath;
+	}
+
+	/**
+	 * @return the changeDate
+	 */
+	public Timestamp getChangeDate() {
+		return changeDate;
+	}
+
+	/**
+	 * @param changeDate the changeDate to set
+	 */
+	public void setChangeDate(Timestamp changeDate) {
+		this.changeDate = changeDate;
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * 
+ */
+package org.eamrf.eastore.web.dto.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of changes from the change journal, for one store
+ * 
+ * @author slenzi
+ */
+public class ResourceChangeSetDto {
+
+	private Long storeId = null;
+	
+	// cursor to pass on the next call, i.e., id of the last change in this set
+	private Long cursor = null;
+	
+	// true if there are more changes after this set
+	private boolean hasMore = false;
+	
+	// true if the client may have missed changes and must do a full listing of the store,
+	// then continue from 'cursor'
+	private boolean resyncRequired = false;
+	
+	private List<ResourceChangeDto> changes = new ArrayList<ResourceChangeDto>();
+	
+	public ResourceChangeSetDto() {
+		
+	}
+
+	/**
+	 * @return the storeId
+	 */
+	public Long getStoreId() {
+		return storeId;
+	}
+
+	/**
+	 * @param storeId the storeId to set
+	 */
+	public void setStoreId(Long storeId) {
+		this.storeId = storeId;
+	}
+
+	/**
+	 * @return the cursor
+	 */
+	public Long getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @param cursor the cursor to set
+	 */
+	public void setCursor(Long cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return the hasMore
+	 */
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	/**
+	 * @param hasMore the hasMore to set
+	 */
+	public void setHasMore(boolean hasMore) {
+		this.hasMore = hasMore;
+	}
+
+	/**
+	 * @return the resyncRequired
+	 */
+	public boolean isResyncRequired() {
+		return resyncRequired;
+	}
+
+	/**
+	 * @param resyncRequired the resyncRequired to set
+	 */
+	public void setResyncRequired(boolean resyncRequired) {
+		this.resyncRequired = resyncRequired;
+	}
+
+	/**
+	 * @return the changes
+	 */
+	public List<ResourceChangeDto> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * @param changes the changes to set
+	 */
+	public void setChanges(List<ResourceChangeDto> changes) {
+		this.changes = changes;
+	}
+
+}
@@ -7,10 +7,18 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import javax.activation.DataHandler;
 import javax.servlet.http.HttpServletRequest;
@@ -23,7 +31,12 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.MultivaluedMap;
@@ -38,8 +51,11 @@ import org.eamrf.core.util.CollectionUtil;
 import org.eamrf.core.util.StringUtil;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.service.file.DispatchService;
 import org.eamrf.eastore.core.service.file.DownloadService;
 import org.eamrf.eastore.core.service.file.FileService;
+import org.eamrf.eastore.core.service.file.task.FileServiceTask;
 import org.eamrf.eastore.core.service.io.FileIOService;
 import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
 import org.eamrf.eastore.core.service.upload.UploadPipeline;
@@ -63,6 +79,8 @@ import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.gson.Gson;
+
 /**
  * JAX-RS resource for modifying our file system (edit files and directories, etc)
  * 
@@ -99,6 +117,24 @@ public class FileSystemActionResource extends BaseResourceHandler {
     @Autowired
     private HttpServletRequest request;   
     
+    @Autowired
+    private ManagedProperties appProps;
+    
+    @Autowired
+    private DispatchService dispatchService;
+    
+    // request attributes for tomcat's sendfile support, see org.apache.catalina.servlets.DefaultServlet
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    
+    // how long async requests wait for their task before responding with 202 (accepted)
+    private static final int DEFAULT_ASYNC_TIMEOUT_MILLIS = 10000;
+    
+    // max timeout a client can ask for, so a request can't hold its connection open indefinitely
+    private static final int DEFAULT_ASYNC_MAX_TIMEOUT_MILLIS = 60000;
+    
 	public FileSystemActionResource() {
 
 	}
@@ -285,47 +321,146 @@ public class FileSystemActionResource extends BaseResourceHandler {
 	}
 
 	/**
-	 * Uses request dispatcher to 'load' the resource
+	 * Serve a store file directly to a browser (e.g. images, css, and docs referenced from a web page.)
 	 * 
-	 * @param storeName
-	 * @param list
+	 * The user must have read access to the file. Responses carry a strong ETag, Last-Modified, and the
+	 * Cache-Control policy for the store (see DispatchService.getCacheControl), and conditional requests
+	 * get a 304 (not modified) response. Small files are served from an in-memory cache. Larger files
+	 * are sent from disk using the container's sendfile support when available, so the data never passes
+	 * through the JVM heap, and are streamed through a file channel otherwise.
+	 * 
+	 * @param storeName - name of the store
+	 * @param list - path of the file relative to the store
+	 * @param userId - id of user requesting the file
 	 * @return
 	 * @throws WebServiceException
 	 */
 	@GET
 	@Path("/dispatch/{storeName}/{relPath:.+}")
-	public void dispatchFile(
+	public Response dispatchFile(
 			@PathParam("storeName") String storeName,
-			@PathParam("relPath") List<PathSegment> list) throws WebServiceException {
-		
-		handleError("Feature not supported", WebExceptionType.CODE_IO_ERROR);
-		
-		// TODO - Cannot use request dispatcher on resources that live outside the
-		// current servlet context. For a CMS site you should put the file store (all resources)
-		// under the /WEB-INF/jsp directory. Perhaps something like /WEB-INF/jsp/cms/sites/{storeName}
+			@PathParam("relPath") List<PathSegment> list,
+			@QueryParam("userId") String userId,
+			@Context Request rsRequest) throws WebServiceException {
 		
-		/*
+		validateUserId(userId);
 		
 		if(StringUtil.isNullEmpty(storeName) || list == null || list.size() == 0){
 			handleError("Missing storeName, and/or relPath segment parameters", WebExceptionType.CODE_IO_ERROR);
 		}	
 		storeName = storeName.trim();
 		String relPath = buildRelativePathSegment(list);
-		logger.info("File Download: storeName=" + storeName + ", relPath=" + relPath);
 		
 		FileMetaResource fileMeta = null;
 		try {
-			fileMeta = fileSystemService.getFileMetaResource(storeName, relPath, false);
+			fileMeta = dispatchService.getFile(storeName, relPath, userId);
 		} catch (ServiceException e) {
-			handleError("Error downloading file, failed to get file resource with binary data, " + 
+			handleError("Error dispatching file, storeName=" + storeName + ", relPath=" + relPath + ", " + 
 					e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
 		}
-		Store store = fileMeta.getStore();
-		java.nio.file.Path pathToFile = fileSystemUtil.buildPath(store, fileMeta);
 		
-		//RequestDispatcher requestDispatcher = request.getRequestDispatcher(forwardPath);
+		EntityTag eTag = new EntityTag(dispatchService.getETag(fileMeta));
+		Date lastModified = fileMeta.getDateUpdated();
+		String cacheControl = dispatchService.getCacheControl(fileMeta.getStore());
 		
-		*/
+		// client already has the current version
+		Response.ResponseBuilder notModified = (lastModified != null) ? 
+				rsRequest.evaluatePreconditions(lastModified, eTag) : rsRequest.evaluatePreconditions(eTag);
+		if(notModified != null) {
+			return notModified.tag(eTag).header("Cache-Control", cacheControl).build();
+		}
+		
+		String contentType = fileMeta.getMimeType();
+		if(StringUtil.isNullEmpty(contentType)) {
+			contentType = MediaType.APPLICATION_OCTET_STREAM;
+		}
+		
+		Response.ResponseBuilder builder = null;
+		try {
+			
+			byte[] cachedData = dispatchService.getCachedData(fileMeta, eTag.getValue());
+			if(cachedData != null) {
+				builder = Response.ok(cachedData, contentType);
+			}else {
+				builder = buildFileResponse(dispatchService.getFilePath(fileMeta), fileMeta.getFileSize(), contentType);
+			}
+			
+		} catch (ServiceException e) {
+			handleError("Error dispatching file, storeName=" + storeName + ", relPath=" + relPath + ", " + 
+					e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+		
+		return builder
+				.tag(eTag)
+				.lastModified(lastModified)
+				.header("Cache-Control", cacheControl)
+				.header("Content-Disposition", buildContentDisposition("inline", fileMeta.getPathName()))
+				.build();
+		
+	}
+	
+	/**
+	 * Build a Content-Disposition header value (RFC 6266.) The file name is sent twice: as a quoted ASCII
+	 * fallback, where non-ASCII characters, quotes, backslashes, and control characters are replaced with '_',
+	 * and as the UTF-8 percent-encoded filename* parameter (RFC 5987), which clients use when they support it.
+	 * 
+	 * @param dispositionType - inline or attachment
+	 * @param fileName - name of the file
+	 * @return
+	 */
+	private String buildContentDisposition(String dispositionType, String fileName) {
+		
+		StringBuilder fallback = new StringBuilder(fileName.length());
+		for(int i = 0; i < fileName.length(); i++) {
+			char c = fileName.charAt(i);
+			fallback.append((c < 0x20 || c > 0x7E || c == '"' || c == '\\') ? '_' : c);
+		}
+		
+		StringBuilder encoded = new StringBuilder(fileName.length());
+		for(byte b : fileName.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char)(b & 0xFF);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "!#$&+-.^_`|~".indexOf(c) >= 0) {
+				encoded.append(c);
+			}else {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+					.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+		}
+		
+		return dispositionType + "; filename=\"" + fallback + "\"; filename*=UTF-8''" + encoded;
+		
+	}
+	
+	/**
+	 * Build a response which sends the file from disk. Uses Tomcat's sendfile (the file is copied to the socket
+	 * by the OS) if the connector supports it, otherwise streams the file through a file channel.
+	 * 
+	 * @param filePath - path to the file
+	 * @param fileSize - size of the file
+	 * @param contentType - content type for the response
+	 * @return
+	 */
+	private Response.ResponseBuilder buildFileResponse(java.nio.file.Path filePath, long fileSize, String contentType) {
+		
+		if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+			request.setAttribute(SENDFILE_FILENAME_ATTR, filePath.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START_ATTR, Long.valueOf(0L));
+			request.setAttribute(SENDFILE_END_ATTR, Long.valueOf(fileSize));
+			return Response.ok().type(contentType).header("Content-Length", fileSize);
+		}
+		
+		StreamingOutput output = out -> {
+			try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+				WritableByteChannel target = Channels.newChannel(out);
+				long position = 0L;
+				long size = channel.size();
+				while(position < size) {
+					position += channel.transferTo(position, size - position, target);
+				}
+			}
+			out.flush();
+		};
+		return Response.ok(output, contentType).header("Content-Length", fileSize);
 		
 	}
 	
@@ -805,6 +940,41 @@ public class FileSystemActionResource extends BaseResourceHandler {
     	
     }
     
+    /**
+     * Cancel a running or queued file service task (e.g. directory copy, move, remove, or zip download.)
+     * Cancellation is cooperative, the task stops at its next check point, and work it already completed
+     * is not undone.
+     * 
+     * @param taskId - id of the task to cancel
+     * @param userId - id of user completing action, must be the user who started the task
+     * @return
+     * @throws WebServiceException
+     */
+    @POST
+    @Path("/task/cancel")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelTask(@QueryParam("taskId") Long taskId, @QueryParam("userId") String userId) throws WebServiceException {
+    	
+    	validateUserId(userId);
+    	
+    	if(taskId == null){
+    		handleError("Missing taskId param.", WebExceptionType.CODE_IO_ERROR);
+    	}
+    	
+    	try {
+			FileServiceTask<?> task = fileService.cancelTask(taskId, userId);
+			
+			fileServiceTaskMessageService.broadcast(task);
+			
+			logger.info("Cancel requested for task " + taskId + " {user : " + userId + " }");
+		} catch (ServiceException e) {
+			handleError(e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+    	
+    	return Response.ok(buildJsonOK(), MediaType.APPLICATION_JSON).build();
+    	
+    }
+    
     /**
      * Copy a file
      * 
@@ -1026,7 +1196,8 @@ public class FileSystemActionResource extends BaseResourceHandler {
     }
     
     /**
-     * Trigger the process to rebuild the store search (Lucene) index.
+     * Trigger the process to rebuild the store search (Lucene) index. The rebuild runs in the background, and
+     * can be cancelled with /task/cancel. Progress is sent on the file task websocket queue.
      * 
      * @param storeId - ID of the store.
      * @param userId - ID of user triggering the process.
@@ -1045,15 +1216,283 @@ public class FileSystemActionResource extends BaseResourceHandler {
     	}
     	
     	try {
-			fileService.rebuildStoreSearchIndex(storeId, userId);
+			fileService.rebuildStoreSearchIndex(storeId, userId, task -> {
+				
+				fileServiceTaskMessageService.broadcast(task);
+				
+				logger.info("Rebuild store index progress at " + Math.round(task.getProgress()) + "%, job " + task.getCompletedJobCount() + " of " + task.getJobCount() + " completed"
+						+ " {storeId : " + storeId + ", user : " + userId + " }");
+			});
 		} catch (ServiceException e) {
-			handleError("Error creating test store, " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+			handleError("Error rebuilding store search index, " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
 		}
     	
     	return Response.ok(buildJsonOK(), MediaType.APPLICATION_JSON).build();
     	
     }
     
+    /**
+     * Async version of removeFile. The request thread is released as soon as the task is queued. The response
+     * is sent when the task finishes, or, if it's still queued or running after the timeout, a 202 (accepted)
+     * response with the task id is sent, and the client can follow the task on the file task websocket queue.
+     * 
+     * @param fileNodeId
+     * @param userId - id of user completing action
+     * @param timeout - optional timeout in milliseconds, defaults to property 'async.task.timeout.millis', and can't be
+     * 	more than property 'async.task.max.timeout.millis'
+     * @param asyncResponse
+     * @throws WebServiceException
+     */
+    @POST
+    @Path("/async/removeFile")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void removeFileAsync(
+    		@QueryParam("fileNodeId") Long fileNodeId,
+    		@QueryParam("userId") String userId,
+    		@QueryParam("timeout") Long timeout,
+    		@Suspended AsyncResponse asyncResponse) throws WebServiceException {
+    	
+    	validateUserId(userId);
+    	
+    	if(fileNodeId == null){
+    		handleError("Missing fileNodeId param.", WebExceptionType.CODE_IO_ERROR);
+    	}
+    	
+    	FileServiceTask<Void> task = null;
+    	try {
+    		task = fileService.removeFileAsync(fileNodeId, userId, progressTask -> {
+    			
+    			fileServiceTaskMessageService.broadcast(progressTask);
+    			
+				logger.info("Remove file progress at " + Math.round(progressTask.getProgress()) + "%, job " + progressTask.getCompletedJobCount() + " of " + progressTask.getJobCount() + " completed"
+						+ " {fileNodeId : " + fileNodeId + ", user : " + userId + " }");
+			});
+		} catch (ServiceException e) {
+			handleError(e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+    	
+    	resumeOnComplete(asyncResponse, task, timeout, value -> buildJsonOK());
+    	
+    }
+    
+    /**
+     * Async version of removeDirectory, see removeFileAsync.
+     * 
+     * @param dirNodeId - id of directory to delete
+     * @param userId - id of user completing action
+     * @param timeout - optional timeout in milliseconds, defaults to property 'async.task.timeout.millis', and can't be
+     * 	more than property 'async.task.max.timeout.millis'
+     * @param asyncResponse
+     * @throws WebServiceException
+     */
+    @POST
+    @Path("/async/removeDirectory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void removeDirectoryAsync(
+    		@QueryParam("dirNodeId") Long dirNodeId,
+    		@QueryParam("userId") String userId,
+    		@QueryParam("timeout") Long timeout,
+    		@Suspended AsyncResponse asyncResponse) throws WebServiceException {
+    	
+    	validateUserId(userId);
+    	
+    	if(dirNodeId == null){
+    		handleError("Missing dirNodeId param.", WebExceptionType.CODE_IO_ERROR);
+    	}
+    	
+    	FileServiceTask<Void> task = null;
+    	try {
+			task = fileService.removeDirectoryAsync(dirNodeId, userId, progressTask -> {
+				
+				fileServiceTaskMessageService.broadcast(progressTask);
+				
+				logger.info("Remove directory progress at " + Math.round(progressTask.getProgress()) + "%, job " + progressTask.getCompletedJobCount() + " of " + progressTask.getJobCount() + " completed"
+						+ " {dirNodeId : " + dirNodeId + ", user : " + userId + " }");
+			});
+		} catch (ServiceException e) {
+			handleError(e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+    	
+    	resumeOnComplete(asyncResponse, task, timeout, value -> buildJsonOK());
+    	
+    }
+    
+    /**
+     * Async version of moveFile, see removeFileAsync.
+     * 
+     * @param fileNodeId - id of file to move
+     * @param dirNodeId - id of directory where file will be moved to
+     * @param replaceExisting - pass true to replace any existing file with the same name in the target directory.
+     * @param userId - id of user completing action
+     * @param timeout - optional timeout in milliseconds, defaults to property 'async.task.timeout.millis', and can't be
+     * 	more than property 'async.task.max.timeout.millis'
+     * @param asyncResponse
+     * @throws WebServiceException
+     */
+    @POST
+    @Path("/async/moveFile")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void moveFileAsync(
+    		@QueryParam("fileNodeId") Long fileNodeId,
+    		@QueryParam("dirNodeId") Long dirNodeId,
+    		@QueryParam("replaceExisting") Boolean replaceExisting,
+    		@QueryParam("userId") String userId,
+    		@QueryParam("timeout") Long timeout,
+    		@Suspended AsyncResponse asyncResponse) throws WebServiceException {
+    	
+    	validateUserId(userId);
+    	
+    	if(fileNodeId == null || dirNodeId == null || replaceExisting == null){
+    		handleError("Cannot move file, missing fileNodeId, dirNodeId, and/or replaceExisting params.", 
+    				WebExceptionType.CODE_IO_ERROR);
+    	}
+    	
+    	FileServiceTask<Void> task = null;
+    	try {
+			task = fileService.moveFileAsync(fileNodeId, dirNodeId, replaceExisting.booleanValue(), userId, progressTask -> {
+				
+				fileServiceTaskMessageService.broadcast(progressTask);
+				
+				logger.info("Move file progress at " + Math.round(progressTask.getProgress()) + "%, job " + progressTask.getCompletedJobCount() + " of " + progressTask.getJobCount() + " completed"
+						+ " {fileNodeId : " + fileNodeId + ", dirNodeId : " + dirNodeId + ", user : " + userId + " }");
+			});
+		} catch (ServiceException e) {
+			handleError(e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+    	
+    	resumeOnComplete(asyncResponse, task, timeout, value -> buildJsonOK());
+    	
+    }
+    
+    /**
+     * Async version of addDirectory, see removeFileAsync. Responds with the new directory if the task
+     * finishes before the timeout.
+     * 
+     * @param dirNodeId - id of parent directory. New directory will be created under the parent.
+     * @param name - name for new directory
+     * @param desc - description for new directory
+     * @param readGroup1 - optional read group
+     * @param writeGroup1 - optional write group
+     * @param executeGroup1 - optional execute group
+     * @param userId - id of user completing action
+     * @param timeout - optional timeout in milliseconds, defaults to property 'async.task.timeout.millis', and can't be
+     * 	more than property 'async.task.max.timeout.millis'
+     * @param asyncResponse
+     * @throws WebServiceException
+     */
+    @GET
+    @Path("/async/addDirectory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void addDirectoryAsync(
+    		@QueryParam("dirNodeId") Long dirNodeId,
+    		@QueryParam("name") String name,
+    		@QueryParam("desc") String desc,
+    		@QueryParam("readGroup1") String readGroup1,
+    		@QueryParam("writeGroup1") String writeGroup1,
+    		@QueryParam("executeGroup1") String executeGroup1,
+    		@QueryParam("userId") String userId,
+    		@QueryParam("timeout") Long timeout,
+    		@Suspended AsyncResponse asyncResponse) throws WebServiceException {
+    	
+    	validateUserId(userId);
+    	
+    	if(dirNodeId == null || StringUtil.isNullEmpty(name) || StringUtil.isNullEmpty(desc)){
+    		handleError("Missing 'dirNodeId', 'name', and/or 'desc' params.", WebExceptionType.CODE_IO_ERROR);
+    	}
+    	
+    	FileServiceTask<DirectoryResource> task = null;
+    	try {
+    		task = fileService.addDirectoryAsync(dirNodeId, name, desc, readGroup1, writeGroup1, executeGroup1, userId, progressTask -> {
+    			
+    			fileServiceTaskMessageService.broadcast(progressTask);
+    			
+				logger.info("Add directory progress at " + Math.round(progressTask.getProgress()) + "%, job " + progressTask.getCompletedJobCount() + " of " + progressTask.getJobCount() + " completed"
+						+ " {dirNodeId (parent) : " + dirNodeId + ", name : " + name + ", user : " + userId + " }");
+			});
+		} catch (ServiceException e) {
+			handleError(e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+    	
+    	DirectoryResourceMapper mapper = new DirectoryResourceMapper();
+    	
+    	resumeOnComplete(asyncResponse, task, timeout, newDir -> mapper.map(newDir));
+    	
+    }
+    
+    /**
+     * Resume the suspended response when the task completes. If the task hasn't completed before the timeout
+     * then respond with 202 (accepted) and the task id, so the request doesn't wait on the store's task queue.
+     * 
+     * @param asyncResponse - the suspended response
+     * @param task - the queued task
+     * @param timeout - timeout in milliseconds, or null to use the default
+     * @param toEntity - creates the response entity from the task result
+     */
+    private <T> void resumeOnComplete(AsyncResponse asyncResponse, FileServiceTask<T> task, Long timeout, Function<T,Object> toEntity) {
+    	
+    	final long taskId = task.getTaskId();
+    	
+    	asyncResponse.setTimeout(getAsyncTimeoutMillis(timeout), TimeUnit.MILLISECONDS);
+    	asyncResponse.setTimeoutHandler(response -> {
+    		response.resume(Response.status(Response.Status.ACCEPTED)
+    				.entity(buildJsonAccepted(taskId))
+    				.type(MediaType.APPLICATION_JSON)
+    				.build());
+    	});
+    	
+    	task.getCompletableFuture().whenComplete((value, error) -> {
+    		if(error == null) {
+    			asyncResponse.resume(Response.ok(toEntity.apply(value), MediaType.APPLICATION_JSON).build());
+    			return;
+    		}
+    		Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    		try {
+    			handleError("Task failed [id=" + taskId + "]", WebExceptionType.CODE_IO_ERROR, cause);
+    		} catch (WebServiceException e) {
+    			asyncResponse.resume(e);
+    		}
+    	});
+    	
+    }
+    
+    /**
+     * @param timeout - timeout from the request, may be null
+     * @return timeout in milliseconds for async requests. The timeout from the request is capped at
+     * 	property 'async.task.max.timeout.millis' (never less than 'async.task.timeout.millis'.)
+     */
+    private long getAsyncTimeoutMillis(Long timeout) {
+    	
+    	long defaultMillis = appProps.getIntProperty("async.task.timeout.millis", DEFAULT_ASYNC_TIMEOUT_MILLIS);
+    	
+    	if(timeout != null && timeout > 0L) {
+    		long maxMillis = Math.max(defaultMillis, 
+    				appProps.getIntProperty("async.task.max.timeout.millis", DEFAULT_ASYNC_MAX_TIMEOUT_MILLIS));
+    		return Math.min(timeout, maxMillis);
+    	}
+    	
+    	return defaultMillis;
+    	
+    }
+    
+    /**
+     * Builds a JSON reply for a task that has been accepted but is not finished yet.
+     * 
+     * @param taskId
+     * @return
+     */
+    private String buildJsonAccepted(long taskId) {
+    	
+    	Gson gson = new Gson();
+    	StringBuffer buf = new StringBuffer();
+    	buf.append("{");
+    	buf.append(gson.toJson("reply") + " : " + gson.toJson("accepted") + ", ");
+    	buf.append(gson.toJson("taskId") + " : " + taskId);
+    	buf.append("}");
+    	
+    	return buf.toString();
+    	
+    }
+    
     /**
      * Fetch a string value from the multipart body
      * 
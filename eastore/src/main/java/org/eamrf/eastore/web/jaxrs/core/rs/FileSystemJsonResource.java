@@ -4,23 +4,34 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.core.util.StringUtil;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.service.file.ChangeJournalService;
 import org.eamrf.eastore.core.service.file.FileService;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
 import org.eamrf.eastore.core.service.tree.file.secure.SecurePathResourceTreeService;
 import org.eamrf.eastore.core.tree.Tree;
 import org.eamrf.eastore.core.tree.TreeNode;
 import org.eamrf.eastore.web.dto.map.PathResourceMapper;
+import org.eamrf.eastore.web.dto.map.PathResourceTreeJsonWriter;
+import org.eamrf.eastore.web.dto.map.ResourceChangeMapper;
 import org.eamrf.eastore.web.dto.map.StoreMapper;
 import org.eamrf.eastore.web.dto.model.PathResourceDto;
+import org.eamrf.eastore.web.dto.model.ResourceChangeSetDto;
 import org.eamrf.eastore.web.dto.model.StoreDto;
 import org.eamrf.eastore.web.jaxrs.BaseResourceHandler;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
@@ -52,8 +63,15 @@ public class FileSystemJsonResource extends BaseResourceHandler {
     @Autowired
     private SecurePathResourceTreeService securePathResourceService;
     
+    @Autowired
+    private ChangeJournalService changeJournalService;
+    
+    // newline delimited JSON, one object per line
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    
     private PathResourceMapper resourceMapper = new PathResourceMapper();
     private StoreMapper storeMapper = new StoreMapper();
+    private ResourceChangeMapper changeMapper = new ResourceChangeMapper();
     
 	public FileSystemJsonResource() {
 		
@@ -148,6 +166,42 @@ public class FileSystemJsonResource extends BaseResourceHandler {
 
 	}	
 	
+	/**
+	 * Fetch many path resources by node id with one call. Post the node ids as a JSON array, e.g. [1, 2, 3].
+	 * 
+	 * @param nodeIds - ids of the resources
+	 * @param userId - id of user performing the action
+	 * @return the resources, in the same order as the node ids. Ids for resources that don't exist are left out.
+	 * @throws WebServiceException
+	 */
+	@POST
+	@Path("/resource/batch/userId/{userId}")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<PathResourceDto> getPathResourcesById(List<Long> nodeIds, @PathParam("userId") String userId)
+			throws WebServiceException {
+
+		validateUserId(userId);
+
+		if (nodeIds == null || nodeIds.isEmpty()) {
+			handleError("Missing list of node ids", WebExceptionType.CODE_IO_ERROR);
+		}
+		if (nodeIds.size() > securePathResourceService.getBatchMaxSize()) {
+			handleError("Too many node ids, " + nodeIds.size() + " given, max is " + securePathResourceService.getBatchMaxSize(),
+					WebExceptionType.CODE_IO_ERROR);
+		}
+
+		List<PathResource> resources = null;
+		try {
+			resources = securePathResourceService.getPathResources(nodeIds, userId);
+		} catch (ServiceException e) {
+			handleError("Error fetching path resources, " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+
+		return mapToDto(resources);
+
+	}
+	
 	/**
 	 * Fetch a path resource by store name and resource relative path.
 	 * 
@@ -617,5 +671,124 @@ public class FileSystemJsonResource extends BaseResourceHandler {
 		return storeMapper.map(stores);
 
 	}
+	
+	/**
+	 * Fetch changes made to a store since the client's last sync, oldest first.
+	 * 
+	 * Call without 'since' to get the current cursor for the store (do this before a full listing of the
+	 * store.) Then call with the cursor from the previous response until 'hasMore' is false. If 'resyncRequired'
+	 * is true the client missed changes that are no longer in the journal, and must do a full listing of the
+	 * store again, then continue from the returned cursor.
+	 * 
+	 * Only changes to resources the user can read are returned. Deletes only have the node id of the
+	 * resource, and a page may have fewer changes than the limit (or none) while 'hasMore' is true.
+	 * 
+	 * @param storeId - id of the store
+	 * @param since - cursor from the previous response, i.e., id of the last change the client processed
+	 * @param limit - optional max number of changes to return
+	 * @param userId - id of user performing the action
+	 * @return
+	 * @throws WebServiceException
+	 */
+	@GET
+	@Path("/changes/userId/{userId}/storeId/{storeId}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ResourceChangeSetDto getChangesSince(
+			@PathParam("storeId") Long storeId,
+			@PathParam("userId") String userId,
+			@QueryParam("since") Long since,
+			@QueryParam("limit") Integer limit) throws WebServiceException {
+
+		validateUserId(userId);
+
+		if (storeId == null) {
+			handleError("Missing storeId parameter", WebExceptionType.CODE_IO_ERROR);
+		}
+
+		ResourceChangeSetDto changeSet = new ResourceChangeSetDto();
+		changeSet.setStoreId(storeId);
+		
+		try {
+			
+			if(changeJournalService.isResyncRequired(storeId, since)) {
+				changeSet.setResyncRequired(since != null);
+				changeSet.setCursor(changeJournalService.getLatestChangeId(storeId, userId));
+				return changeSet;
+			}
+			
+			ChangeJournalService.ChangePage page = changeJournalService.getChangesSince(storeId, since, limit, userId);
+			changeSet.setHasMore(page.isHasMore());
+			changeSet.setCursor(page.getCursor());
+			changeSet.setChanges(changeMapper.map(page.getChanges()));
+			
+		} catch (ServiceException e) {
+			handleError("Error fetching changes for store, storeId=" + storeId + ", since=" + since + ", " + e.getMessage(),
+					WebExceptionType.CODE_IO_ERROR, e);
+		}
+
+		return changeSet;
+
+	}
+	
+	/**
+	 * Export the tree under a resource. Nodes are written to the response depth-first as the tree is
+	 * walked, so large trees are never built up in memory as DTOs or strings, and clients can start
+	 * rendering before the whole tree arrives.
+	 * 
+	 * @param nodeId - id of the resource that will be the root of the tree
+	 * @param userId - id of user performing the action
+	 * @param format - 'json' (default) for one nested object, or 'ndjson' for one object per line
+	 * @param depth - optional max depth of child resources to include
+	 * @param readableOnly - leave out resources the user can't read, default true
+	 * @return
+	 * @throws WebServiceException
+	 */
+	@GET
+	@Path("/tree/userId/{userId}/nodeId/{nodeId}")
+	@Produces({ MediaType.APPLICATION_JSON, NDJSON_MEDIA_TYPE })
+	public Response exportTree(
+			@PathParam("nodeId") Long nodeId,
+			@PathParam("userId") String userId,
+			@QueryParam("format") @DefaultValue("json") String format,
+			@QueryParam("depth") Integer depth,
+			@QueryParam("readableOnly") @DefaultValue("true") boolean readableOnly) throws WebServiceException {
+
+		validateUserId(userId);
+
+		if (nodeId == null) {
+			handleError("Missing nodeId parameter", WebExceptionType.CODE_IO_ERROR);
+		}
+		
+		PathResourceTreeJsonWriter.Format treeFormat = null;
+		try {
+			treeFormat = PathResourceTreeJsonWriter.Format.valueOf(format.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			handleError("Unsupported tree format '" + format + "', use 'json' or 'ndjson'", WebExceptionType.CODE_IO_ERROR, e);
+		}
+		
+		if (depth != null && depth < 0) {
+			handleError("Depth parameter must be zero or greater", WebExceptionType.CODE_IO_ERROR);
+		}
+
+		PathResourceCompactTree tree = null;
+		try {
+			PathResource resource = securePathResourceService.getPathResource(nodeId, userId);
+			if (readableOnly && !resource.getCanRead()) {
+				handleError("User " + userId + " does not have read permission on resource [id=" + nodeId + "]",
+						WebExceptionType.CODE_IO_ERROR);
+			}
+			tree = securePathResourceService.buildCompactPathResourceTree(resource, userId,
+					(depth != null) ? depth : Integer.MAX_VALUE);
+		} catch (ServiceException e) {
+			handleError("Error fetching tree for resource, nodeId=" + nodeId + ", " + e.getMessage(),
+					WebExceptionType.CODE_IO_ERROR, e);
+		}
+
+		final PathResourceTreeJsonWriter writer = new PathResourceTreeJsonWriter(tree, treeFormat, readableOnly);
+		String contentType = (treeFormat == PathResourceTreeJsonWriter.Format.NDJSON) ? NDJSON_MEDIA_TYPE : MediaType.APPLICATION_JSON;
+		
+		return Response.ok((StreamingOutput) writer::write, contentType).build();
+
+	}
 
 }
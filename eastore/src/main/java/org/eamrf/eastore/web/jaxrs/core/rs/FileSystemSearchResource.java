@@ -8,6 +8,9 @@ import javax.ws.rs.core.MediaType;
 
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.search.lucene.FederatedSearchResult;
+import org.eamrf.eastore.core.search.lucene.StoreMetadataQuery;
+import org.eamrf.eastore.core.search.lucene.StoreMetadataQuery.SortBy;
 import org.eamrf.eastore.core.search.lucene.StoreSearchResult;
 import org.eamrf.eastore.core.search.service.StoreSearchService;
 import org.eamrf.eastore.core.service.file.FileService;
@@ -47,6 +50,8 @@ public class FileSystemSearchResource extends BaseResourceHandler {
 	 * @param storeId - the ID of the store to search
 	 * @param searchTerm - the search term to search for
 	 * @param userId - id of user performing the search
+	 * @param waitForIndex - optional, pass true to wait for pending index writes to become visible before searching, so
+	 * recently added or updated files are included in the results.
 	 * @return An instance of StoreSearchResult which encapsulates the search results
 	 * @throws WebServiceException
 	 */
@@ -56,7 +61,8 @@ public class FileSystemSearchResource extends BaseResourceHandler {
 	public StoreSearchResult doSearch(
 			@QueryParam("storeId") Long storeId,
 			@QueryParam("searchTerm") String searchTerm,
-			@QueryParam("userId") String userId) throws WebServiceException {
+			@QueryParam("userId") String userId,
+			@QueryParam("waitForIndex") Boolean waitForIndex) throws WebServiceException {
 		
 		Store store = null;
 		try {
@@ -67,7 +73,7 @@ public class FileSystemSearchResource extends BaseResourceHandler {
 		
 		StoreSearchResult result = null;
 		try {
-			result = searchService.searchByContent(store, searchTerm, userId);
+			result = searchService.searchByContent(store, searchTerm, userId, Boolean.TRUE.equals(waitForIndex));
 		} catch (ServiceException e) {
 			handleError("Error performing search for term '" + searchTerm + "' on store, id=" + storeId + ", " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
 		}
@@ -76,6 +82,114 @@ public class FileSystemSearchResource extends BaseResourceHandler {
 		
 	}
 
+	/**
+	 * Perform a structured search on file metadata. All criteria are optional, and are combined with AND.
+	 * 
+	 * @param storeId - the ID of the store to search
+	 * @param userId - id of user performing the search
+	 * @param name - optional, case-insensitive wildcard pattern for the file name, e.g. "report*.pdf"
+	 * @param path - optional, case-insensitive wildcard pattern for the file relative path, e.g. "/projects/2017/*"
+	 * @param mimeType - optional, exact mime type, e.g. "application/pdf", or prefix ending with '*', e.g. "image/*"
+	 * @param minSize - optional, min file size in bytes
+	 * @param maxSize - optional, max file size in bytes
+	 * @param createdAfter - optional, epoch milliseconds
+	 * @param createdBefore - optional, epoch milliseconds
+	 * @param updatedAfter - optional, epoch milliseconds
+	 * @param updatedBefore - optional, epoch milliseconds
+	 * @param sort - optional, one of NAME, PATH, MIME_TYPE, SIZE, DATE_CREATED, DATE_UPDATED. Defaults to NAME.
+	 * @param sortDesc - optional, pass true to sort in descending order
+	 * @param facets - optional, pass true to include file counts by mime type and by directory
+	 * @param waitForIndex - optional, pass true to wait for pending index writes to become visible before searching.
+	 * @return An instance of StoreSearchResult which encapsulates the search results
+	 * @throws WebServiceException
+	 */
+	@GET
+	@Path("/metadata")
+	@Produces(MediaType.APPLICATION_JSON)
+	public StoreSearchResult doMetadataSearch(
+			@QueryParam("storeId") Long storeId,
+			@QueryParam("userId") String userId,
+			@QueryParam("name") String name,
+			@QueryParam("path") String path,
+			@QueryParam("mimeType") String mimeType,
+			@QueryParam("minSize") Long minSize,
+			@QueryParam("maxSize") Long maxSize,
+			@QueryParam("createdAfter") Long createdAfter,
+			@QueryParam("createdBefore") Long createdBefore,
+			@QueryParam("updatedAfter") Long updatedAfter,
+			@QueryParam("updatedBefore") Long updatedBefore,
+			@QueryParam("sort") String sort,
+			@QueryParam("sortDesc") Boolean sortDesc,
+			@QueryParam("facets") Boolean facets,
+			@QueryParam("waitForIndex") Boolean waitForIndex) throws WebServiceException {
+		
+		StoreMetadataQuery query = new StoreMetadataQuery();
+		query.setNamePattern(name);
+		query.setPathPattern(path);
+		query.setMimeType(mimeType);
+		query.setMinSize(minSize);
+		query.setMaxSize(maxSize);
+		query.setCreatedAfter(createdAfter);
+		query.setCreatedBefore(createdBefore);
+		query.setUpdatedAfter(updatedAfter);
+		query.setUpdatedBefore(updatedBefore);
+		query.setSortDescending(Boolean.TRUE.equals(sortDesc));
+		query.setIncludeFacets(Boolean.TRUE.equals(facets));
+		if(sort != null) {
+			try {
+				query.setSortBy(SortBy.valueOf(sort.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				handleError("Invalid sort value '" + sort + "'", WebExceptionType.CODE_INVALID_INPUT, e);
+			}
+		}
+		
+		Store store = null;
+		try {
+			store = fileService.getStoreById(storeId, userId);
+		} catch (ServiceException e) {
+			handleError("Error fetching store, id=" + storeId + ", " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+		
+		StoreSearchResult result = null;
+		try {
+			result = searchService.searchByMetadata(store, query, userId, Boolean.TRUE.equals(waitForIndex));
+		} catch (ServiceException e) {
+			handleError("Error performing metadata search " + query + " on store, id=" + storeId + ", " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+		
+		return result;
+		
+	}
+	
+	/**
+	 * Perform a basic search on file content across all stores. Stores are searched in parallel, and the
+	 * hits are merged into one list ordered by score.
+	 * 
+	 * @param searchTerm - the search term to search for
+	 * @param userId - id of user performing the search
+	 * @param waitForIndex - optional, pass true to wait for pending index writes to become visible before searching.
+	 * @return An instance of FederatedSearchResult which encapsulates the merged search results, plus timing data for each store.
+	 * @throws WebServiceException
+	 */
+	@GET
+	@Path("/basic/content/all")
+	@Produces(MediaType.APPLICATION_JSON)
+	public FederatedSearchResult doSearchAllStores(
+			@QueryParam("searchTerm") String searchTerm,
+			@QueryParam("userId") String userId,
+			@QueryParam("waitForIndex") Boolean waitForIndex) throws WebServiceException {
+		
+		FederatedSearchResult result = null;
+		try {
+			result = searchService.searchAllStores(searchTerm, userId, Boolean.TRUE.equals(waitForIndex));
+		} catch (ServiceException e) {
+			handleError("Error performing search for term '" + searchTerm + "' across all stores, " + e.getMessage(), WebExceptionType.CODE_IO_ERROR, e);
+		}
+		
+		return result;
+		
+	}
+
 	@Override
 	public Logger getLogger() {
 		return logger;
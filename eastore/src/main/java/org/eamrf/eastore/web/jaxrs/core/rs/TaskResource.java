@@ -0,0 +1,71 @@
+package org.eamrf.eastore.web.jaxrs.core.rs;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import org.eamrf.concurrent.task.TaskManagerProvider;
+import org.eamrf.concurrent.task.metrics.TaskManagerStats;
+import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.eamrf.eastore.web.jaxrs.BaseResourceHandler;
+import org.eamrf.web.rs.exception.WebServiceException;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * JAX-RS resource for monitoring the task managers, e.g. the general, binary and index writer
+ * task managers for each store.
+ * 
+ * The same metrics are available over JMX, see QueuedTaskManagerMXBean.
+ * 
+ * @author slenzi
+ */
+@Path("/task")
+@Service("taskResource")
+public class TaskResource extends BaseResourceHandler {
+
+    @InjectLogger
+    private Logger logger;
+    
+    @Autowired
+    private TaskManagerProvider taskManagerProvider;
+	
+	public TaskResource() {
+		
+	}
+	
+	/**
+	 * Get queue depth, enqueue rate, wait and run time histograms per task class, and the currently
+	 * running task, for every active task manager.
+	 * 
+	 * @param managerName - optional, only return managers whose name contains this value (case insensitive)
+	 * @return
+	 * @throws WebServiceException
+	 */
+	@GET
+	@Path("/metrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<TaskManagerStats> getTaskManagerMetrics(@QueryParam("managerName") String managerName) throws WebServiceException {
+		
+		List<TaskManagerStats> stats = taskManagerProvider.getTaskManagerStats();
+		
+		if(managerName != null && !managerName.trim().isEmpty()) {
+			String match = managerName.trim().toLowerCase();
+			stats.removeIf(s -> s.getManagerName() == null || !s.getManagerName().toLowerCase().contains(match));
+		}
+		
+		return stats;
+		
+	}
+
+	@Override
+	public Logger getLogger() {
+		return logger;
+	}
+
+}
@@ -583,11 +583,12 @@ public class TreeResource extends BaseResourceHandler {
     	// 1. total size of all files
     	// 2. number of files
     	// 3. number of directories
+    	// the walk only reads the tree and the counters are atomic, so it can run on many threads
     	AtomicInteger fileCount = new AtomicInteger();
     	AtomicInteger directoryCount = new AtomicInteger();
     	AtomicLong totalSize = new AtomicLong();
     	try {
-			Trees.walkTree(tree, (treeNode) -> {
+			Trees.walkTreeParallel(tree, (treeNode) -> {
 				PathResource r = treeNode.getData();
 				if(r.getResourceType() == ResourceType.FILE){
 					fileCount.addAndGet(1);
@@ -0,0 +1,284 @@
+/**
+ * 
+ */
+package org.eamrf.repository.jdbc.oracle.ecoguser.eastore;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eamrf.core.logging.stereotype.InjectLogger;
+import org.eamrf.core.util.DateUtil;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ChangeType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceChange;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Repository for the change journal (eas_change.) FileSystemRepository records an entry for every
+ * add, update, move, rename, and delete, in the same transaction as the change itself, so the journal
+ * never has entries for changes that were rolled back.
+ * 
+ * Change ids come from an ordered sequence, and clients use them as a cursor to fetch only the changes
+ * they have not seen yet. For that to work, within a store, a change with a larger id must never be committed
+ * before a change with a smaller id, otherwise a client could read change N+1, move its cursor past N, and
+ * never see N. Sequence order alone does not guarantee that (e.g. a move between stores writes to the source
+ * store's journal from the destination store's task queue.) So before writing to a store's journal, the
+ * transaction locks the store's row in eas_store (see lockStores), and holds the lock until it commits or
+ * rolls back. Journal writes for a store are serialized, and ids are always drawn in commit order.
+ * 
+ * @author slenzi
+ */
+@Repository
+@Transactional(propagation=Propagation.REQUIRED, rollbackFor=Exception.class)
+public class ChangeJournalRepository {
+
+    @InjectLogger
+    private Logger logger;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    // key for the set of stores locked by the current transaction, see lockStores
+    private final Object lockedStoresKey = new Object();
+    
+    private final RowMapper<ResourceChange> resourceChangeRowMapper = (rs, rowNum) -> {
+    	ResourceChange c = new ResourceChange();
+    	c.setChangeId(rs.getLong("change_id"));
+    	c.setStoreId(rs.getLong("store_id"));
+    	c.setNodeId(rs.getLong("node_id"));
+    	c.setParentNodeId(rs.getLong("parent_node_id"));
+    	c.setChangeType(ChangeType.getFromString(rs.getString("change_type")));
+    	c.setResourceType(ResourceType.getFromString(rs.getString("path_type")));
+    	c.setPathName(rs.getString("path_name"));
+    	c.setRelativePath(rs.getString("relative_path"));
+    	c.setChangeDate(rs.getTimestamp("change_date"));
+    	return c;
+    };
+    
+	/**
+	 * 
+	 */
+	public ChangeJournalRepository() {
+	
+	}
+	
+	/**
+	 * Record a change to a resource.
+	 * 
+	 * @param changeType - the type of change
+	 * @param resource - the resource, with the values it has after the change (for deletes, the values it
+	 * had before the delete.)
+	 * @throws Exception
+	 */
+	public void recordChange(ChangeType changeType, PathResource resource) throws Exception {
+		
+		recordChange(changeType, resource.getStoreId(), resource.getNodeId(), resource.getParentNodeId(),
+				resource.getResourceType(), resource.getPathName(), resource.getRelativePath());
+		
+	}
+	
+	/**
+	 * Record a change to a resource, for when the resource model does not have the values the resource
+	 * has after the change (e.g. moves and renames, where only the database is updated.)
+	 * 
+	 * @param changeType - the type of change
+	 * @param storeId - id of the store the resource is in
+	 * @param nodeId - id of the resource
+	 * @param parentNodeId - id of the resource's parent directory
+	 * @param resourceType - file or directory
+	 * @param pathName - name of the resource
+	 * @param relativePath - relative path of the resource
+	 * @throws Exception
+	 */
+	public void recordChange(
+			ChangeType changeType,
+			Long storeId,
+			Long nodeId,
+			Long parentNodeId,
+			ResourceType resourceType,
+			String pathName,
+			String relativePath) throws Exception {
+		
+		lockStores(storeId);
+		
+		jdbcTemplate.update(
+				"insert into eas_change (change_id, store_id, node_id, parent_node_id, change_type, path_type, path_name, " +
+				"relative_path, change_date) values (eas_change_id_sequence.nextval, ?, ?, ?, ?, ?, ?, ?, ?)",
+				storeId, nodeId, parentNodeId, changeType.getTypeString(), resourceType.getTypeString(), pathName, 
+				relativePath, DateUtil.getCurrentTime());
+		
+	}
+	
+	/**
+	 * Record the same type of change for many resources, with one batched insert.
+	 * 
+	 * @param changeType - the type of change
+	 * @param resources - the resources, with the values they have after the change
+	 * @throws Exception
+	 */
+	public void recordChanges(ChangeType changeType, List<? extends PathResource> resources) throws Exception {
+		
+		if(resources == null || resources.isEmpty()) {
+			return;
+		}
+		
+		lockStores(resources.stream().map(PathResource::getStoreId).toArray(Long[]::new));
+		
+		Timestamp dtNow = DateUtil.getCurrentTime();
+		List<Object[]> args = new ArrayList<Object[]>(resources.size());
+		for(PathResource resource : resources) {
+			args.add(new Object[] { resource.getStoreId(), resource.getNodeId(), resource.getParentNodeId(), changeType.getTypeString(),
+					resource.getResourceType().getTypeString(), resource.getPathName(), resource.getRelativePath(), dtNow });
+		}
+		
+		jdbcTemplate.batchUpdate(
+				"insert into eas_change (change_id, store_id, node_id, parent_node_id, change_type, path_type, path_name, " +
+				"relative_path, change_date) values (eas_change_id_sequence.nextval, ?, ?, ?, ?, ?, ?, ?, ?)",
+				args);
+		
+	}
+	
+	/**
+	 * Lock the stores' rows in eas_store until the current transaction ends, so no other transaction can write
+	 * to the stores' journals until this one commits. Stores are locked in order of id, so two transactions that
+	 * write to the same two stores (e.g. moves between the stores in opposite directions) can't deadlock. Call this
+	 * for all stores up front, before writing any changes, when a transaction writes to more than one store.
+	 * 
+	 * Stores already locked by the current transaction are skipped.
+	 * 
+	 * @param storeIds - ids of the stores
+	 * @throws Exception
+	 */
+	public void lockStores(Long... storeIds) throws Exception {
+		
+		Set<Long> lockedStores = getLockedStores();
+		for(Long storeId : new TreeSet<Long>(Arrays.asList(storeIds))) {
+			if(lockedStores.add(storeId)) {
+				jdbcTemplate.queryForObject("select store_id from eas_store where store_id = ? for update", Long.class, storeId);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Get the ids of stores locked by the current transaction (see lockStores.) The set is bound to the
+	 * transaction, and discarded when it completes.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<Long> getLockedStores() {
+		
+		Set<Long> lockedStores = (Set<Long>) TransactionSynchronizationManager.getResource(lockedStoresKey);
+		if(lockedStores == null) {
+			lockedStores = new HashSet<Long>();
+			TransactionSynchronizationManager.bindResource(lockedStoresKey, lockedStores);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(lockedStoresKey);
+				}
+			});
+		}
+		return lockedStores;
+		
+	}
+	
+	/**
+	 * Fetch changes for a store that come after the cursor, oldest first.
+	 * 
+	 * @param storeId - id of the store
+	 * @param cursor - id of the last change the client has seen, only changes with a larger id are returned
+	 * @param maxChanges - max number of changes to return
+	 * @return
+	 * @throws Exception
+	 */
+	@Transactional(propagation=Propagation.REQUIRED, readOnly=true)
+	public List<ResourceChange> getChangesSince(Long storeId, Long cursor, int maxChanges) throws Exception {
+		
+		final String sql =
+				"select * from ( " +
+				"  select c.change_id, c.store_id, c.node_id, c.parent_node_id, c.change_type, c.path_type, c.path_name, " +
+				"  c.relative_path, c.change_date from eas_change c where c.store_id = ? and c.change_id > ? " +
+				"  order by c.change_id " +
+				") where rownum <= ?";
+		
+		return jdbcTemplate.query(sql, resourceChangeRowMapper, new Object[] { storeId, cursor, maxChanges });
+		
+	}
+	
+	/**
+	 * Fetch the store's prune watermark, the id of the latest change pruned from the store's journal. Every
+	 * change the store still has in the journal has a larger id.
+	 * 
+	 * @param storeId - id of the store
+	 * @return the id, 0 if nothing was pruned from the store's journal yet
+	 * @throws Exception
+	 */
+	@Transactional(propagation=Propagation.REQUIRED, readOnly=true)
+	public Long getPrunedChangeId(Long storeId) throws Exception {
+		
+		return jdbcTemplate.queryForObject("select change_prune_id from eas_store where store_id = ?", Long.class, storeId);
+		
+	}
+	
+	/**
+	 * Fetch the id of the latest change recorded for a store.
+	 * 
+	 * @param storeId - id of the store
+	 * @return the id, or null if there are no changes for the store
+	 * @throws Exception
+	 */
+	@Transactional(propagation=Propagation.REQUIRED, readOnly=true)
+	public Long getLatestChangeId(Long storeId) throws Exception {
+		
+		return jdbcTemplate.queryForObject("select max(change_id) from eas_change where store_id = ?", Long.class, storeId);
+		
+	}
+	
+	/**
+	 * Delete changes recorded before the cutoff date. Each store's prune watermark (see getPrunedChangeId) is
+	 * first moved up to the latest change about to be deleted from that store, so a client can tell if it missed
+	 * changes in its own store, no matter what was pruned from other stores.
+	 * 
+	 * Changes are always recorded with the current time, so no change older than the cutoff can be committed
+	 * while this runs. The delete only removes changes covered by the watermark all the same.
+	 * 
+	 * @param cutoff - changes older than this are deleted
+	 * @return number of changes deleted
+	 * @throws Exception
+	 */
+	public int pruneChangesBefore(Timestamp cutoff) throws Exception {
+		
+		jdbcTemplate.update(
+				"update eas_store s set s.change_prune_id = ( " +
+				"  select max(c.change_id) from eas_change c where c.store_id = s.store_id and c.change_date < ? " +
+				") where exists ( " +
+				"  select 1 from eas_change c where c.store_id = s.store_id and c.change_date < ? and c.change_id > s.change_prune_id " +
+				")", cutoff, cutoff);
+		
+		int deleteCount = jdbcTemplate.update(
+				"delete from eas_change c where c.change_date < ? and " +
+				"c.change_id <= (select s.change_prune_id from eas_store s where s.store_id = c.store_id)", cutoff);
+		
+		logger.info("Pruned " + deleteCount + " change journal entries older than " + cutoff);
+		
+		return deleteCount;
+		
+	}
+
+}
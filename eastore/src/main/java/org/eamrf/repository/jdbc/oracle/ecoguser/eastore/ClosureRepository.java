@@ -4,6 +4,7 @@
 package org.eamrf.repository.jdbc.oracle.ecoguser.eastore;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.sql.DataSource;
@@ -294,6 +295,68 @@ public class ClosureRepository {
 		
 	}
 	
+	/**
+	 * Add many new nodes under the same parent node, using batched inserts.
+	 * 
+	 * @param parentNodeId - id of the parent node
+	 * @param names - node names
+	 * @return the new nodes, in the same order as the names
+	 * @throws Exception
+	 */
+	@MethodTimer
+	public List<Node> addNodes(Long parentNodeId, List<String> names) throws Exception {
+		
+		List<Node> nodes = new ArrayList<Node>();
+		if(names == null || names.isEmpty()) {
+			return nodes;
+		}
+		
+		Timestamp dtNow = DateUtil.getCurrentTime();
+		
+		List<Long> newNodeIds = getNextNodeIds(names.size());
+		
+		List<Object[]> nodeArgs = new ArrayList<Object[]>();
+		List<Object[]> closureArgs = new ArrayList<Object[]>();
+		List<Object[]> makeParentArgs = new ArrayList<Object[]>();
+		for(int i = 0; i < names.size(); i++) {
+			Long newNodeId = newNodeIds.get(i);
+			nodeArgs.add(new Object[] { newNodeId, parentNodeId, names.get(i), dtNow, dtNow });
+			closureArgs.add(new Object[] { newNodeId, newNodeId });
+			makeParentArgs.add(new Object[] { parentNodeId, newNodeId });
+			
+			Node n = new Node();
+			n.setNodeId(newNodeId);
+			n.setNodeName(names.get(i));
+			n.setParentNodeId(parentNodeId);
+			n.setDateCreated(dtNow);
+			n.setDateUpdated(dtNow);
+			nodes.add(n);
+		}
+		
+		jdbcTemplate.batchUpdate(
+				"insert into eas_node (node_id, parent_node_id, node_name, creation_date, updated_date) " +
+				"values (?, ?, ?, ?, ?)", nodeArgs);
+		
+		// depth-0 entries in the closure table
+		jdbcTemplate.batchUpdate(
+				"insert into eas_closure (link_id, parent_node_id, child_node_id, depth) " +
+				"values (eas_link_id_sequence.nextval, ?, ?, 0)", closureArgs);
+		
+		// same make-parent query as addNode(), once per new node
+		String makeParentQuery =
+			"insert into eas_closure (link_id, parent_node_id, child_node_id, depth) " +
+			"select " +
+			"	eas_link_id_sequence.nextval, p.parent_node_id, c.child_node_id, (p.depth + c.depth + 1) as depth " +
+			"from " +
+			"	eas_closure p, eas_closure c " +
+			"where " +
+			"	p.child_node_id = ? and c.parent_node_id = ?";
+		jdbcTemplate.batchUpdate(makeParentQuery, makeParentArgs);
+		
+		return nodes;
+		
+	}
+	
 	/**
 	 * Delete a node, along with everything under it.
 	 * 
@@ -479,6 +542,22 @@ public class ClosureRepository {
 		
 	}
 	
+	/**
+	 * Get the next 'count' ids from eas_node_id_sequence, in one query
+	 * 
+	 * @param count
+	 * @return
+	 * @throws Exception
+	 */
+	public List<Long> getNextNodeIds(int count) throws Exception {
+		
+		List<Long> ids = jdbcTemplate.queryForList(
+				"select eas_node_id_sequence.nextval from dual connect by level <= ?", Long.class, count);
+		
+		return ids;
+		
+	}
+	
 	/**
 	 * Get next id from eas_link_id_sequence
 	 * 
@@ -6,6 +6,8 @@ package org.eamrf.repository.jdbc.oracle.ecoguser.eastore;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eamrf.core.logging.stereotype.InjectLogger;
 import org.eamrf.core.util.DateUtil;
@@ -111,6 +113,27 @@ public class DownloadLogRepository {
 		
 	}	
 	
+	/**
+	 * Insert the entries into the download log table using a single JDBC batch. Download ids are
+	 * assigned from eas_download_id_sequence by the insert, and are not set on the entries.
+	 * 
+	 * @param entries - the log entries, file path, user id, and download date must be set
+	 * @return number of rows inserted for each entry
+	 * @throws Exception
+	 */
+	public int[] logDownloads(List<DownloadLogEntry> entries) throws Exception {
+		
+		List<Object[]> batchArgs = new ArrayList<Object[]>(entries.size());
+		for(DownloadLogEntry entry : entries) {
+			batchArgs.add(new Object[] { entry.getFilePath().toString(), entry.getUserId(), entry.getDownloadDate() });
+		}
+		
+		return jdbcTemplate.batchUpdate(
+				"insert into eas_download (down_id, file_path, user_id, down_date) values (eas_download_id_sequence.nextval, ?, ?, ?)",
+				batchArgs);
+		
+	}
+	
 	/**
 	 * Get next id from eas_download_id_sequence
 	 * 
@@ -18,6 +18,7 @@ import org.eamrf.core.util.DateUtil;
 import org.eamrf.eastore.core.aop.profiler.MethodTimer;
 import org.eamrf.eastore.core.exception.ServiceException;
 import org.eamrf.eastore.core.service.io.FileIOService;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
 import org.eamrf.eastore.core.service.tree.file.PathResourceUtil;
 import org.eamrf.eastore.core.service.tree.file.PathResourceTreeBuilder;
 import org.eamrf.eastore.core.tree.Tree;
@@ -25,6 +26,7 @@ import org.eamrf.eastore.core.tree.Trees;
 import org.eamrf.eastore.core.tree.Trees.WalkOption;
 import org.eamrf.repository.jdbc.SpringJdbcUtil;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.BinaryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ChangeType;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
 import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Node;
@@ -67,6 +69,9 @@ public class FileSystemRepository {
     @Autowired
     private ClosureRepository closureRepository;
     
+    @Autowired
+    private ChangeJournalRepository changeJournalRepository;
+    
     //@Autowired
     //private PathResourceUtil pathResourceUtil;
     //private PathResourceUtil pathResourceUtil = new PathResourceUtil();
@@ -157,6 +162,59 @@ public class FileSystemRepository {
 		return r;
 	};
 	
+    /**
+     * Reads results from a path resource tree query into a compact tree. Results must be ordered by
+     * depth so parents are added before their children. All resources are in the same store, so the
+     * store is read from the first row only.
+     */
+	private final ResultSetExtractor<PathResourceCompactTree> compactTreeExtractor = (rs) -> {
+		
+		PathResourceCompactTree tree = null;
+		
+		while(rs.next()){
+			
+			if(tree == null){
+				Store s = new Store();
+				s.setId(rs.getLong("store_id"));
+				s.setName(rs.getString("store_name"));
+				s.setDescription(rs.getString("store_description"));
+				s.setMaxFileSizeBytes(rs.getLong("max_file_size_in_db"));
+				s.setAccessRule(AccessRule.fromString(rs.getString("access_rule")));
+				s.setPath(Paths.get(rs.getString("store_path")));
+				s.setNodeId(rs.getLong("store_root_node_id"));
+				s.setDateCreated(rs.getTimestamp("store_creation_date"));
+				s.setDateUpdated(rs.getTimestamp("store_updated_date"));
+				tree = new PathResourceCompactTree(s, 1024);
+			}
+			
+			ResourceType type = ResourceType.getFromString(rs.getString("path_type"));
+			boolean isFile = type == ResourceType.FILE;
+			
+			tree.add(
+					rs.getLong("node_id"),
+					rs.getLong("parent_node_id"),
+					type,
+					rs.getString("path_name"),
+					rs.getString("relative_path"),
+					rs.getString("path_desc"),
+					rs.getString("read_group_1"),
+					rs.getString("write_group_1"),
+					rs.getString("execute_group_1"),
+					rs.getTimestamp("creation_date"),
+					rs.getTimestamp("updated_date"),
+					isFile ? rs.getLong("file_size") : 0L,
+					isFile ? rs.getString("mime_type") : null,
+					isFile && "y".equalsIgnoreCase(rs.getString("is_file_data_in_db")));
+			
+		}
+		
+		if(tree != null){
+			tree.trimToSize();
+		}
+		
+		return tree;
+	};
+	
     /**
      * Maps results from query to Store objects
      */
@@ -348,6 +406,91 @@ public class FileSystemRepository {
 		
 	}
 	
+	/**
+	 * Get the path resources for many nodes, plus all of their parent directories up to the store root,
+	 * in one query. Parents shared by several nodes are only returned once, so permissions for all the
+	 * nodes can be evaluated together (see SecurePathResourceTreeBuilder.evaluateParentAccess)
+	 * 
+	 * Nodes that don't exist are left out.
+	 * 
+	 * @param nodeIds - ids of the nodes, at most 1000 (oracle limit for an 'in' list)
+	 * @return unordered list of resources
+	 * @throws Exception
+	 */
+	public List<PathResource> getPathResourcesWithParents(List<Long> nodeIds) throws Exception {
+		
+		if(nodeIds == null || nodeIds.isEmpty()) {
+			return new ArrayList<PathResource>();
+		}
+		
+		String inList = nodeIds.stream().map(id -> "?").collect(Collectors.joining(", "));
+		
+		String sql =
+			"select " +
+			"  n2.node_id, n2.parent_node_id, n2.node_id as child_node_id, n2.node_name, n2.creation_date, n2.updated_date, " + 
+			"  r.path_type, r.path_name, r.relative_path, r.store_id, r.path_desc, r.read_group_1, r.write_group_1, execute_group_1, " +
+			"  fmr.mime_type, fmr.file_size, fmr.is_file_data_in_db, " +
+			"  s.store_id, s.store_name, s.store_description, s.store_path, s.node_id as store_root_node_id, " +
+			"  s.max_file_size_in_db, s.access_rule, s.creation_date as store_creation_date, s.updated_date as store_updated_date " +  
+			"from " +
+			"  eas_node n2 inner join " +  
+			"  (  " +
+			"	select distinct c.parent_node_id " + 
+			"	from eas_closure c  " +
+			"	where c.child_node_id in (" + inList + ")  " +
+			"  ) nlist on (n2.node_id = nlist.parent_node_id) " + 
+			"inner join eas_path_resource r on n2.node_id = r.node_id " +
+			"inner join eas_store s on r.store_id = s.store_id " +
+			"left join eas_directory_resource dr on r.node_id = dr.node_id " + 
+			"left join eas_file_meta_resource fmr on r.node_id = fmr.node_id";
+		
+		List<PathResource> resources = jdbcTemplate.query(
+				sql, nodeIds.toArray(), resourcePathRowMapper);
+		
+		return resources;
+		
+	}
+	
+	/**
+	 * Same as getPathResourceTree(Long nodeId), but returns a compact tree rather than a list of
+	 * PathResource. Rows are added to the tree as they are read, so no PathResource or Store objects
+	 * are created. Use for large trees, e.g. every resource in a store.
+	 * 
+	 * @param nodeId
+	 * @return
+	 * @throws Exception
+	 */
+	public PathResourceCompactTree getCompactPathResourceTree(Long nodeId) throws Exception {
+		
+		String sql =
+			SQL_PATH_RESOURCE_COMMON +
+			"where c.parent_node_id = ? " +
+			"order by c.depth, n.node_name";
+		
+		return jdbcTemplate.query(sql, new Object[] { nodeId }, compactTreeExtractor);
+		
+	}
+	
+	/**
+	 * Same as getPathResourceTree(Long nodeId, int depth), but returns a compact tree rather than a list of
+	 * PathResource.
+	 * 
+	 * @param nodeId
+	 * @param depth
+	 * @return
+	 * @throws Exception
+	 */
+	public PathResourceCompactTree getCompactPathResourceTree(Long nodeId, int depth) throws Exception {
+		
+		String sql =
+			SQL_PATH_RESOURCE_COMMON +
+			"where c.parent_node_id = ? and c.depth <= ? " +
+			"order by c.depth, n.node_name";
+		
+		return jdbcTemplate.query(sql, new Object[] { nodeId, depth }, compactTreeExtractor);
+		
+	}
+	
 	/**
 	 * Fetch bottom-up (leaf node to root node), PathResource list. This can
 	 * be used to build a tree (or more of a single path) from root to leaf.
@@ -1064,6 +1207,8 @@ public class FileSystemRepository {
 				"insert into eas_file_meta_resource (node_id, file_size, mime_type, is_file_data_in_db) values (?, ?, ?, ?)",
 					newFileResource.getNodeId(), fileSizeBytes, fileMimeType, ((isBinaryInDb) ? "Y" : "N"));
 		
+		changeJournalRepository.recordChange(ChangeType.ADD, newFileResource);
+		
 		// copy file to directory in the tree
 		Path newFilePath = PathResourceUtil.buildPath(store, newFileResource);
 		try {
@@ -1077,6 +1222,104 @@ public class FileSystemRepository {
 		
 	}
 	
+	/**
+	 * Internal helper method for adding many new files to a directory at once (never to be used to replace an
+	 * existing file.) The files must already be in the directory under temporary names (e.g. copied there in
+	 * parallel). Metadata for all the files is added with batched inserts, then each file is renamed to its final
+	 * name. If anything fails the inserts are rolled back, and files already renamed are given their temporary
+	 * names back, so the caller can delete them.
+	 * 
+	 * This method adds new FileMetaResources, but does not add data to eas_binary_resource
+	 * 
+	 * @param store - the store that 'directory' param is under
+	 * @param directory - directory where files will be added
+	 * @param stagedFiles - the files, already in 'directory' under temporary names
+	 * @param fileNames - final name for each file, same order as 'stagedFiles'
+	 * @return the new file resources, same order as 'stagedFiles'
+	 * @throws Exception
+	 */
+	@MethodTimer
+	public List<FileMetaResource> _addNewStagedFilesWithoutBinary(
+			Store store, DirectoryResource directory, List<Path> stagedFiles, List<String> fileNames) throws Exception {
+		
+		List<FileMetaResource> newFiles = new ArrayList<FileMetaResource>();
+		if(stagedFiles.isEmpty()) {
+			return newFiles;
+		}
+		
+		// add entries to eas_node and eas_closure
+		List<Node> newNodes = null;
+		try {
+			newNodes = closureRepository.addNodes(directory.getNodeId(), fileNames);
+		} catch (Exception e) {
+			throw new Exception("Error adding file nodes", e);
+		}
+		
+		List<Object[]> pathResourceArgs = new ArrayList<Object[]>();
+		List<Object[]> fileMetaArgs = new ArrayList<Object[]>();
+		for(int i = 0; i < stagedFiles.size(); i++) {
+			
+			Node newNode = newNodes.get(i);
+			String fileName = fileNames.get(i);
+			Long fileSizeBytes = fileService.getSize(stagedFiles.get(i));
+			String fileMimeType = fileService.getMimeType(stagedFiles.get(i));
+			
+			FileMetaResource newFileResource = new FileMetaResource();
+			newFileResource.setNodeId(newNode.getNodeId());
+			newFileResource.setResourceType(ResourceType.FILE);
+			newFileResource.setDateCreated(newNode.getDateCreated());
+			newFileResource.setDateUpdated(newNode.getDateUpdated());
+			newFileResource.setPathName(fileName);
+			newFileResource.setParentNodeId(newNode.getParentNodeId());
+			newFileResource.setRelativePath(PathResourceUtil.buildRelativePath(directory, fileName));
+			newFileResource.setDesc(null);
+			newFileResource.setStoreId(store.getId());
+			newFileResource.setStore(store);
+			newFileResource.setFileSize(fileSizeBytes);
+			newFileResource.setMimeType(fileMimeType);
+			newFileResource.setIsBinaryInDatabase(false);
+			newFiles.add(newFileResource);
+			
+			pathResourceArgs.add(new Object[] { newFileResource.getNodeId(), newFileResource.getStoreId(), newFileResource.getPathName(),
+					newFileResource.getResourceType().getTypeString(), newFileResource.getRelativePath(), newFileResource.getDesc() });
+			fileMetaArgs.add(new Object[] { newFileResource.getNodeId(), fileSizeBytes, fileMimeType, "N" });
+			
+		}
+		
+		// add entries to eas_path_resource
+		jdbcTemplate.batchUpdate(
+				"insert into eas_path_resource (node_id, store_id, path_name, path_type, relative_path, path_desc) " +
+				"values (?, ?, ?, ?, ?, ?)", pathResourceArgs);
+		
+		// add entries to eas_file_meta_resource
+		jdbcTemplate.batchUpdate(
+				"insert into eas_file_meta_resource (node_id, file_size, mime_type, is_file_data_in_db) values (?, ?, ?, ?)",
+				fileMetaArgs);
+		
+		changeJournalRepository.recordChanges(ChangeType.ADD, newFiles);
+		
+		// give the files their final names
+		int renamed = 0;
+		try {
+			for(; renamed < stagedFiles.size(); renamed++) {
+				fileService.moveFile(stagedFiles.get(renamed), PathResourceUtil.buildPath(store, newFiles.get(renamed)));
+			}
+		} catch (Exception e) {
+			for(int i = 0; i < renamed; i++) {
+				try {
+					fileService.moveFile(PathResourceUtil.buildPath(store, newFiles.get(i)), stagedFiles.get(i));
+				} catch (Exception moveBackError) {
+					logger.error("Failed to restore temporary name for " + stagedFiles.get(i) + ", " + moveBackError.getMessage());
+				}
+			}
+			throw new Exception("Failed to move file from => " + stagedFiles.get(renamed) + " to " + 
+					PathResourceUtil.buildPath(store, newFiles.get(renamed)) + ". " + e.getMessage(), e);
+		}
+		
+		return newFiles;
+		
+	}
+	
 	/**
 	 * Updates the physical file on disk, then removes the old binary data from the database.
 	 * 
@@ -1132,6 +1375,8 @@ public class FileSystemRepository {
 		// update eas_node
 		closureRepository.updateNodeMeta(currFileRes);
 		
+		changeJournalRepository.recordChange(ChangeType.UPDATE, currFileRes);
+		
 		// delete old file on local disk
 		try {
 			fileService.deletePath(oldFilePath);
@@ -1217,6 +1462,8 @@ public class FileSystemRepository {
 		// add entry to eas_directory_resource
 		jdbcTemplate.update(
 				"insert into eas_directory_resource (node_id) values (?)", resource.getNodeId());
+		
+		changeJournalRepository.recordChange(ChangeType.ADD, resource);
 
 		// create directory on local file system. If there is any error throw a RuntimeException,
 		// or update the @Transactional annotation to rollback for any exception type, i.e.,
@@ -1296,6 +1543,8 @@ public class FileSystemRepository {
 		jdbcTemplate.update(
 				"insert into eas_directory_resource (node_id) values (?)", dirResource.getNodeId());		
 		
+		changeJournalRepository.recordChange(ChangeType.ADD, dirResource);
+		
 		// create directory on local file system. If there is any error throw a RuntimeException,
 		// or update the @Transactional annotation to rollback for any exception type, i.e.,
 		// @Transactional(rollbackFor=Exception.class)
@@ -1445,6 +1694,8 @@ public class FileSystemRepository {
 		// delete closure data and node
 		closureRepository.deleteNode(resource.getNodeId());
 		
+		changeJournalRepository.recordChange(ChangeType.DELETE, resource);
+		
 		// remove file for local file system
 		if(Files.exists(filePath)) {
 			fileService.deletePath(filePath);
@@ -1474,6 +1725,8 @@ public class FileSystemRepository {
 		// delete closure data and node
 		closureRepository.deleteNode(resource.getNodeId());
 		
+		changeJournalRepository.recordChange(ChangeType.DELETE, resource);
+		
 		// remove file for local file system
 		fileService.deletePath(dirPath);		
 		
@@ -1526,7 +1779,10 @@ public class FileSystemRepository {
 		if(hasExisting && replaceExisting){
 			
 			Store sourceStore = this.getStoreForResource(fileToMove);
-			Store destinationStore = this.getStoreForResource(destDir);			
+			Store destinationStore = this.getStoreForResource(destDir);
+			
+			// a move between stores writes to both stores' journals, lock them in a safe order first
+			changeJournalRepository.lockStores(sourceStore.getId(), destinationStore.getId());
 			
 			// current/old path to file on local file system
 			Path oldFullPath = PathResourceUtil.buildPath(sourceStore, fileToMove);
@@ -1552,6 +1808,8 @@ public class FileSystemRepository {
 					"update eas_path_resource set store_id = ?, relative_path = ? where node_id = ?", 
 					destinationStore.getId(), newRelativePath, fileToMove.getNodeId());			
 			
+			recordMove(fileToMove, destDir, sourceStore, destinationStore, newRelativePath);
+			
 			// move physical file on disk
 			try {
 				fileService.moveFile(oldFullPath, newFullPath);
@@ -1570,7 +1828,10 @@ public class FileSystemRepository {
 		}else{
 			
 			Store sourceStore = this.getStoreForResource(fileToMove);
-			Store destinationStore = this.getStoreForResource(destDir);			
+			Store destinationStore = this.getStoreForResource(destDir);
+			
+			// a move between stores writes to both stores' journals, lock them in a safe order first
+			changeJournalRepository.lockStores(sourceStore.getId(), destinationStore.getId());
 			
 			// current/old path to file on local file system
 			Path oldFullPath = PathResourceUtil.buildPath(sourceStore, fileToMove);
@@ -1593,6 +1854,8 @@ public class FileSystemRepository {
 					"update eas_path_resource set store_id = ?, relative_path = ? where node_id = ?", 
 					destinationStore.getId(), newRelativePath, fileToMove.getNodeId());			
 			
+			recordMove(fileToMove, destDir, sourceStore, destinationStore, newRelativePath);
+			
 			// move physical file on disk
 			try {
 				fileService.moveFile(oldFullPath, newFullPath);
@@ -1629,6 +1892,8 @@ public class FileSystemRepository {
 		jdbcTemplate.update("update eas_path_resource set path_desc = ?, read_group_1 = ?, write_group_1 = ?, execute_group_1 = ? where node_id = ?",
 				desc, readGroup1, writeGroup1, executeGroup1, dir.getNodeId());		
 		
+		recordUpdate(dir, name);
+		
 	}
 
 	/**
@@ -1650,6 +1915,59 @@ public class FileSystemRepository {
 		jdbcTemplate.update("update eas_path_resource set path_desc = ? where node_id = ?",
 				newDesc, file.getNodeId());			
 		
+		recordUpdate(file, newName);
+		
+	}
+
+	/**
+	 * Record a file move in the change journal. A move within a store is recorded as a move. A move to
+	 * another store is recorded as a delete in the source store, and an add in the destination store, so
+	 * clients syncing either store see the change.
+	 * 
+	 * @param fileToMove - the file, with the values it had before the move
+	 * @param destDir - the directory the file was moved to
+	 * @param sourceStore - store the file was in
+	 * @param destinationStore - store the file is now in
+	 * @param newRelativePath - relative path of the file after the move
+	 * @throws Exception
+	 */
+	private void recordMove(FileMetaResource fileToMove, DirectoryResource destDir, Store sourceStore, 
+			Store destinationStore, String newRelativePath) throws Exception {
+		
+		if(sourceStore.getId().equals(destinationStore.getId())) {
+			changeJournalRepository.recordChange(ChangeType.MOVE, destinationStore.getId(), fileToMove.getNodeId(), 
+					destDir.getNodeId(), ResourceType.FILE, fileToMove.getPathName(), newRelativePath);
+		}else {
+			changeJournalRepository.recordChange(ChangeType.DELETE, sourceStore.getId(), fileToMove.getNodeId(), 
+					fileToMove.getParentNodeId(), ResourceType.FILE, fileToMove.getPathName(), fileToMove.getRelativePath());
+			changeJournalRepository.recordChange(ChangeType.ADD, destinationStore.getId(), fileToMove.getNodeId(), 
+					destDir.getNodeId(), ResourceType.FILE, fileToMove.getPathName(), newRelativePath);
+		}
+		
+	}
+	
+	/**
+	 * Record an update to a file or directory in the change journal. If the name changed it's recorded as
+	 * a rename. For directories only the directory itself is recorded, clients update the paths of the
+	 * resources under it.
+	 * 
+	 * @param resource - the resource, with the values it had before the update
+	 * @param newName - the resource's name after the update
+	 * @throws Exception
+	 */
+	private void recordUpdate(PathResource resource, String newName) throws Exception {
+		
+		String oldName = resource.getPathName();
+		String oldRelPath = resource.getRelativePath();
+		
+		if(oldName.equals(newName)) {
+			changeJournalRepository.recordChange(ChangeType.UPDATE, resource);
+		}else {
+			String newRelPath = oldRelPath.substring(0, oldRelPath.lastIndexOf(oldName)) + newName;
+			changeJournalRepository.recordChange(ChangeType.RENAME, resource.getStoreId(), resource.getNodeId(), 
+					resource.getParentNodeId(), resource.getResourceType(), newName, newRelPath);
+		}
+		
 	}
 
 }
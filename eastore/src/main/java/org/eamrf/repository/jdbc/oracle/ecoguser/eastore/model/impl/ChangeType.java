@@ -0,0 +1,43 @@
+/**
+ * 
+ */
+package org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl;
+
+/**
+ * Type of change recorded in the change journal
+ * 
+ * @author slenzi
+ */
+public enum ChangeType {
+
+	ADD("Add"),
+	UPDATE("Update"),
+	MOVE("Move"),
+	RENAME("Rename"),
+	DELETE("Delete");
+	
+	private final String type;
+	
+	private ChangeType(final String type){
+		this.type = type;
+	}
+	
+	public String getTypeString(){
+		return type;
+	}
+	
+	public static ChangeType getFromString(String type){
+		for(ChangeType changeType : values()) {
+			if(changeType.getTypeString().equals(type)) {
+				return changeType;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return type;
+	}
+	
+}
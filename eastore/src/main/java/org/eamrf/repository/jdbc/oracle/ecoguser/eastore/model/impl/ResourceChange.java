@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * An entry in the change journal, records one change to a path resource.
+ * 
+ * @author slenzi
+ */
+public class ResourceChange implements Serializable {
+
+	private static final long serialVersionUID = 6120932841558837716L;
+
+	private Long changeId = null;
+	private Long storeId = null;
+	private Long nodeId = null;
+	private Long parentNodeId = null;
+	private ChangeType changeType = null;
+	private ResourceType resourceType = null;
+	private String pathName = null;
+	private String relativePath = null;
+	private Timestamp changeDate = null;
+	
+	public ResourceChange() {
+		
+	}
+
+	/**
+	 * @return the changeId, increases with every change
+	 */
+	public Long getChangeId() {
+		return changeId;
+	}
+
+	/**
+	 * @param changeId the changeId to set
+	 */
+	public void setChangeId(Long changeId) {
+		this.changeId = changeId;
+	}
+
+	/**
+	 * @return id of the store the resource is in (after the change)
+	 */
+	public Long getStoreId() {
+		return storeId;
+	}
+
+	/**
+	 * @param storeId the storeId to set
+	 */
+	public void setStoreId(Long storeId) {
+		this.storeId = storeId;
+	}
+
+	/**
+	 * @return id of the resource that changed
+	 */
+	public Long getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @param nodeId the nodeId to set
+	 */
+	public void setNodeId(Long nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * @return id of the resource's parent directory (after the change)
+	 */
+	public Long getParentNodeId() {
+		return parentNodeId;
+	}
+
+	/**
+	 * @param parentNodeId the parentNodeId to set
+	 */
+	public void setParentNodeId(Long parentNodeId) {
+		this.parentNodeId = parentNodeId;
+	}
+
+	/**
+	 * @return the changeType
+	 */
+	public ChangeType getChangeType() {
+		return changeType;
+	}
+
+	/**
+	 * @param changeType the changeType to set
+	 */
+	public void setChangeType(ChangeType changeType) {
+		this.changeType = changeType;
+	}
+
+	/**
+	 * @return the resourceType
+	 */
+	public ResourceType getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @param resourceType the resourceType to set
+	 */
+	public void setResourceType(ResourceType resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	/**
+	 * @return name of the resource (after the change)
+	 */
+	public String getPathName() {
+		return pathName;
+	}
+
+	/**
+	 * @param pathName the pathName to set
+	 */
+	public void setPathName(String pathName) {
+		this.pathName = pathName;
+	}
+
+	/**
+	 * @return relative path of the resource (after the change)
+	 */
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	/**
+	 * @param relativePath the relativePath to set
+	 */
+	public void setRelativePath(String relativePath) {
+		this.relativePath = relativePath;
+	}
+
+	/**
+	 * @return the changeDate
+	 */
+	public Timestamp getChangeDate() {
+		return changeDate;
+	}
+
+	/**
+	 * @param changeDate the changeDate to set
+	 */
+	public void setChangeDate(Timestamp changeDate) {
+		this.changeDate = changeDate;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ResourceChange [changeId=" + changeId + ", storeId=" + storeId + ", nodeId=" + nodeId + ", parentNodeId="
+				+ parentNodeId + ", changeType=" + changeType + ", resourceType=" + resourceType + ", pathName="
+				+ pathName + ", relativePath=" + relativePath + ", changeDate=" + changeDate + "]";
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.eamrf.concurrent.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for BoundedTaskExecutor. Each test blocks the executor's only thread with a task that waits on
+ * a latch, so the state of the queue is known.
+ *
+ * @author slenzi
+ */
+public class BoundedTaskExecutorTest {
+
+	private static final long TIMEOUT_SECONDS = 10L;
+
+	private CountDownLatch started = null;
+	private CountDownLatch release = null;
+
+	@Before
+	public void setUp() {
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+	}
+
+	@Test
+	public void rejectsWhenUserOrQueueIsAtLimit() throws Exception {
+
+		BoundedTaskExecutor executor = new BoundedTaskExecutor("bounded-test", 1, 1, 1);
+		try {
+
+			TestTask running = blockingTask("running");
+			executor.execute(running, "user-a");
+			assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+			// user already has a task
+			assertRejected(executor, "user-a");
+
+			TestTask waiting = new TestTask("waiting", TaskPriority.NORMAL);
+			executor.execute(waiting, "user-b");
+			assertEquals(1, executor.getQueuedCount());
+
+			// queue is full
+			assertRejected(executor, "user-c");
+
+			assertEquals(2L, executor.getRejectedCount());
+
+			release.countDown();
+			running.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			waiting.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+			// the user's slot is released once their task is done
+			TestTask again = new TestTask("again", TaskPriority.NORMAL);
+			executor.execute(again, "user-a");
+			assertEquals("again", again.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		} finally {
+			release.countDown();
+			executor.shutdown(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+
+	}
+
+	@Test
+	public void shutdownCancelsWaitingTasks() throws Exception {
+
+		BoundedTaskExecutor executor = new BoundedTaskExecutor("bounded-test", 1, 2, 2);
+
+		TestTask running = blockingTask("running");
+		executor.execute(running, "user-a");
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		TestTask waiting = new TestTask("waiting", TaskPriority.NORMAL);
+		executor.execute(waiting, "user-b");
+
+		// shutdown waits for the running task, so run it on another thread
+		Thread shutdown = new Thread(() -> executor.shutdown(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		shutdown.start();
+
+		try {
+			waiting.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			fail("Expected waiting task to be cancelled");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TaskCancelledException);
+		}
+		assertEquals(0, waiting.getRunCount());
+
+		release.countDown();
+		assertEquals("running", running.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		shutdown.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+		assertRejected(executor, "user-c");
+
+	}
+
+	private TestTask blockingTask(String name) {
+		return new TestTask(name, TaskPriority.NORMAL, task -> {
+			started.countDown();
+			release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			return task.getName();
+		});
+	}
+
+	private void assertRejected(BoundedTaskExecutor executor, String userId) {
+		try {
+			executor.execute(new TestTask("rejected", TaskPriority.NORMAL), userId);
+			fail("Expected task for " + userId + " to be rejected");
+		} catch (TaskRejectedException e) {
+			// expected
+		}
+	}
+
+}
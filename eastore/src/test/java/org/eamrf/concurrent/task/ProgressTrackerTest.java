@@ -0,0 +1,124 @@
+package org.eamrf.concurrent.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for ProgressTracker
+ *
+ * @author slenzi
+ */
+public class ProgressTrackerTest {
+
+	private static final long TIMEOUT_SECONDS = 10L;
+
+	@Test
+	public void completedIsSumOfSubtaskCounts() {
+
+		ProgressTracker tracker = new ProgressTracker(0L);
+		tracker.setCompleted(1L, "parent", 5);
+		tracker.setCompleted(2L, "child", 3);
+		tracker.setCompleted(1L, "parent", 7);
+
+		assertEquals(10, tracker.getCompleted());
+		assertEquals("parent=7", tracker.getSubtaskCounts().get(1L));
+		assertEquals("child=3", tracker.getSubtaskCounts().get(2L));
+
+	}
+
+	@Test
+	public void concurrentSubtaskUpdates() throws InterruptedException {
+
+		final int threads = 8;
+		final int jobsPerThread = 1000;
+
+		ProgressTracker tracker = new ProgressTracker(0L);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for(int t = 0; t < threads; t++) {
+			final long subtaskId = t + 1;
+			executor.execute(() -> {
+				for(int count = 1; count <= jobsPerThread; count++) {
+					tracker.setCompleted(subtaskId, "subtask-" + subtaskId, count);
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		assertEquals(threads * jobsPerThread, tracker.getCompleted());
+
+	}
+
+	@Test
+	public void zeroIntervalAllowsEveryNotification() {
+
+		ProgressTracker tracker = new ProgressTracker(0L);
+
+		assertTrue(tracker.tryNotify(false));
+		assertTrue(tracker.tryNotify(false));
+		assertTrue(tracker.tryNotify(false));
+
+	}
+
+	@Test
+	public void notificationsAreLimitedToOnePerInterval() {
+
+		ProgressTracker tracker = new ProgressTracker(60000L);
+
+		assertTrue(tracker.tryNotify(false));
+		assertFalse(tracker.tryNotify(false));
+		// the final notification is always sent
+		assertTrue(tracker.tryNotify(true));
+
+	}
+
+	@Test
+	public void suppressedNotificationIsSentAtEndOfInterval() throws InterruptedException {
+
+		ProgressTracker tracker = new ProgressTracker(100L);
+		AtomicInteger trailingCount = new AtomicInteger(0);
+		CountDownLatch trailingSent = new CountDownLatch(1);
+		Runnable trailingNotify = () -> {
+			trailingCount.incrementAndGet();
+			trailingSent.countDown();
+		};
+
+		assertTrue(tracker.tryNotify(false, trailingNotify));
+		assertFalse(tracker.tryNotify(false, trailingNotify));
+		assertFalse(tracker.tryNotify(false, trailingNotify));
+
+		assertTrue(trailingSent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// suppressed notifications in the same interval are merged into one trailing notification
+		Thread.sleep(300L);
+		assertEquals(1, trailingCount.get());
+
+	}
+
+	@Test
+	public void noTrailingNotificationAfterForcedNotification() throws InterruptedException {
+
+		ProgressTracker tracker = new ProgressTracker(100L);
+		AtomicInteger trailingCount = new AtomicInteger(0);
+		Runnable trailingNotify = trailingCount::incrementAndGet;
+
+		assertTrue(tracker.tryNotify(false, trailingNotify));
+		assertFalse(tracker.tryNotify(false, trailingNotify));
+		assertTrue(tracker.tryNotify(true, trailingNotify));
+
+		// the forced notification already sent the latest progress
+		Thread.sleep(400L);
+		assertEquals(0, trailingCount.get());
+
+	}
+
+}
@@ -0,0 +1,393 @@
+package org.eamrf.concurrent.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for QueuedTaskManager. Tasks are added before the manager is started where the order they run
+ * in matters, so the consumer sees all of them at once.
+ *
+ * @author slenzi
+ */
+public class QueuedTaskManagerTest {
+
+	private static final long TIMEOUT_SECONDS = 10L;
+
+	@Rule
+	public TestName testName = new TestName();
+
+	private QueuedTaskManager manager = null;
+	private boolean started = false;
+
+	@Before
+	public void setUp() {
+		manager = createManager(new QueuedTaskManager());
+	}
+
+	@After
+	public void tearDown() {
+		if(started) {
+			manager.stopTaskManager();
+		}
+	}
+
+	@Test
+	public void tasksRunInQueuedOrder() throws Exception {
+
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		List<TestTask> tasks = Arrays.asList(
+				recordingTask("task-1", order),
+				recordingTask("task-2", order),
+				recordingTask("task-3", order));
+		tasks.forEach(manager::addTask);
+
+		startManager();
+		awaitAll(tasks);
+
+		assertEquals(Arrays.asList("task-1", "task-2", "task-3"), order);
+
+	}
+
+	@Test
+	public void taskWaitingForRateLimitStaysQueued() throws Exception {
+
+		// one task a minute, so the second task waits on the rate limit for the rest of the test
+		manager = createManager(new QueuedTaskManager(1.0D / 60.0D, 1));
+
+		TestTask first = new TestTask("first");
+		startManager();
+		manager.addTask(first);
+		first.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+		TestTask waiting = new TestTask("waiting");
+		waiting.setCoalescingKey("reindex-1");
+		TestTask duplicate = new TestTask("duplicate");
+		duplicate.setCoalescingKey("reindex-1");
+		manager.addTask(waiting);
+		Thread.sleep(100L);
+		manager.addTask(duplicate);
+
+		// the consumer is waiting for a permit, and the task is still in the queue
+		assertEquals(1, manager.taskCount());
+		assertTrue(manager.containsKey("reindex-1"));
+		assertEquals(1L, manager.getStats().getCoalescedCount());
+
+		assertTrue(manager.cancelTask(waiting.getTaskId()));
+		assertCancelled(waiting);
+		assertEquals(0, waiting.getRunCount());
+
+	}
+
+	@Test
+	public void tasksRunInPriorityOrder() throws Exception {
+
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		List<TestTask> tasks = Arrays.asList(
+				recordingTask("bulk-1", TaskPriority.BULK, order),
+				recordingTask("normal-1", TaskPriority.NORMAL, order),
+				recordingTask("interactive-1", TaskPriority.INTERACTIVE, order),
+				recordingTask("background-1", TaskPriority.BACKGROUND, order),
+				recordingTask("interactive-2", TaskPriority.INTERACTIVE, order),
+				recordingTask("bulk-2", TaskPriority.BULK, order));
+		tasks.forEach(manager::addTask);
+
+		startManager();
+		awaitAll(tasks);
+
+		assertEquals(Arrays.asList("interactive-1", "interactive-2", "normal-1", "bulk-1", "bulk-2", "background-1"), order);
+
+	}
+
+	@Test
+	public void waitingTaskAgesIntoMoreUrgentClass() throws Exception {
+
+		manager.setAgingMillis(50L);
+
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		TestTask bulk = recordingTask("bulk-1", TaskPriority.BULK, order);
+		TestTask interactive = recordingTask("interactive-1", TaskPriority.INTERACTIVE, order);
+
+		// long enough for the bulk task to age two classes, to the same class as the interactive task
+		manager.addTask(bulk);
+		Thread.sleep(200L);
+		manager.addTask(interactive);
+
+		startManager();
+		awaitAll(Arrays.asList(bulk, interactive));
+
+		// same class, so the task queued first runs first
+		assertEquals(Arrays.asList("bulk-1", "interactive-1"), order);
+
+	}
+
+	@Test
+	public void childTaskRunsAtParentPriority() throws Exception {
+
+		TestTask child = new TestTask("child", TaskPriority.INTERACTIVE);
+		TestTask parent = new TestTask("parent", TaskPriority.BULK, task -> {
+			manager.addTask(child);
+			return task.getName();
+		});
+
+		startManager();
+		manager.addTask(parent);
+
+		parent.getTreeCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+		assertEquals(TaskPriority.BULK, child.getPriority());
+		assertSame(parent, child.getParentTask());
+		assertEquals(1, child.getRunCount());
+
+	}
+
+	@Test
+	public void idleManagerRunsTaskAddedLater() throws Exception {
+
+		startManager();
+
+		// the consumer is blocked on the empty queue by now
+		Thread.sleep(100L);
+
+		TestTask task = new TestTask("later");
+		long start = System.nanoTime();
+		manager.addTask(task);
+
+		assertEquals("later", task.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("waited " + waitedMillis + "ms", waitedMillis < 1000L);
+		assertEquals(0, manager.taskCount());
+
+	}
+
+	@Test
+	public void rateLimitSpacesTaskStarts() throws Exception {
+
+		// one task every 100 milliseconds, no burst
+		manager = createManager(new QueuedTaskManager(10.0D, 1));
+
+		List<Long> startTimes = Collections.synchronizedList(new ArrayList<Long>());
+		List<TestTask> tasks = new ArrayList<TestTask>();
+		for(int i = 0; i < 3; i++) {
+			tasks.add(new TestTask("task-" + i, task -> {
+				startTimes.add(System.nanoTime());
+				return task.getName();
+			}));
+		}
+		tasks.forEach(manager::addTask);
+
+		startManager();
+		awaitAll(tasks);
+
+		for(int i = 1; i < startTimes.size(); i++) {
+			long gapMillis = TimeUnit.NANOSECONDS.toMillis(startTimes.get(i) - startTimes.get(i - 1));
+			assertTrue("gap " + gapMillis + "ms", gapMillis >= 80L);
+		}
+
+	}
+
+	@Test
+	public void duplicateTaskIsCoalescedIntoQueuedTask() throws Exception {
+
+		TestTask first = new TestTask("first", TaskPriority.NORMAL);
+		first.setCoalescingKey("reindex-1");
+		TestTask duplicate = new TestTask("duplicate", TaskPriority.NORMAL);
+		duplicate.setCoalescingKey("reindex-1");
+
+		manager.addTask(first);
+		manager.addTask(duplicate);
+
+		assertEquals(1, manager.taskCount());
+		assertTrue(manager.containsKey("reindex-1"));
+
+		startManager();
+
+		// the duplicate completes with the value of the task it was merged into
+		assertEquals("first", duplicate.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(1, first.getRunCount());
+		assertEquals(0, duplicate.getRunCount());
+		assertFalse(manager.containsKey("reindex-1"));
+		assertEquals(1L, manager.getStats().getCoalescedCount());
+
+	}
+
+	@Test
+	public void duplicateOfRunningTaskIsQueued() throws Exception {
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		TestTask first = new TestTask("first", TaskPriority.NORMAL, task -> {
+			started.countDown();
+			release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			return task.getName();
+		});
+		first.setCoalescingKey("reindex-1");
+		TestTask second = new TestTask("second", TaskPriority.NORMAL);
+		second.setCoalescingKey("reindex-1");
+
+		startManager();
+		manager.addTask(first);
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// the first task has been taken off the queue, so it would not see the second task's changes
+		manager.addTask(second);
+		assertEquals(1, manager.taskCount());
+
+		release.countDown();
+
+		assertEquals("second", second.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(1, first.getRunCount());
+		assertEquals(1, second.getRunCount());
+
+	}
+
+	@Test
+	public void concurrentDuplicatesAllComplete() throws Exception {
+
+		final int threads = 8;
+		final int tasksPerThread = 250;
+
+		startManager();
+
+		Queue<TestTask> tasks = new ConcurrentLinkedQueue<TestTask>();
+		CountDownLatch go = new CountDownLatch(1);
+		ExecutorService producers = Executors.newFixedThreadPool(threads);
+		try {
+			for(int t = 0; t < threads; t++) {
+				final int thread = t;
+				producers.execute(() -> {
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					for(int i = 0; i < tasksPerThread; i++) {
+						TestTask task = new TestTask("task-" + thread + "-" + i, TaskPriority.NORMAL);
+						task.setCoalescingKey("key-" + (i % 4));
+						tasks.add(task);
+						manager.addTask(task);
+					}
+				});
+			}
+			go.countDown();
+		} finally {
+			producers.shutdown();
+			assertTrue(producers.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		}
+
+		// every task completes, whether it ran or was merged into another task
+		awaitAll(tasks);
+
+		int runCount = 0;
+		for(TestTask task : tasks) {
+			runCount += task.getRunCount();
+		}
+		assertEquals(threads * tasksPerThread, tasks.size());
+		assertEquals(tasks.size(), runCount + manager.getStats().getCoalescedCount());
+		assertEquals(0, manager.taskCount());
+		for(int i = 0; i < 4; i++) {
+			assertFalse(manager.containsKey("key-" + i));
+		}
+
+	}
+
+	@Test
+	public void cancelQueuedTask() throws Exception {
+
+		TestTask task = new TestTask("queued", TaskPriority.NORMAL);
+		manager.addTask(task);
+
+		assertTrue(manager.cancelTask(task.getTaskId()));
+
+		assertEquals(0, manager.taskCount());
+		assertEquals(0, task.getRunCount());
+		assertCancelled(task);
+
+		// no longer in the manager
+		assertFalse(manager.cancelTask(task.getTaskId()));
+
+	}
+
+	@Test
+	public void cancelRunningTask() throws Exception {
+
+		CountDownLatch started = new CountDownLatch(1);
+		TestTask task = new TestTask("running", TaskPriority.NORMAL, t -> {
+			started.countDown();
+			while(true) {
+				t.checkCancelled();
+				Thread.sleep(10L);
+			}
+		});
+
+		startManager();
+		manager.addTask(task);
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		assertTrue(manager.cancelTask(task.getTaskId()));
+
+		assertCancelled(task);
+
+	}
+
+	private QueuedTaskManager createManager(QueuedTaskManager taskManager) {
+		taskManager.setLogger(LoggerFactory.getLogger(QueuedTaskManagerTest.class));
+		taskManager.setManagerName(QueuedTaskManagerTest.class.getSimpleName() + "-" + testName.getMethodName());
+		return taskManager;
+	}
+
+	private TestTask recordingTask(String name, List<String> order) {
+		return recordingTask(name, TaskPriority.NORMAL, order);
+	}
+
+	private TestTask recordingTask(String name, TaskPriority priority, List<String> order) {
+		return new TestTask(name, priority, task -> {
+			order.add(task.getName());
+			return task.getName();
+		});
+	}
+
+	private void startManager() {
+		manager.startTaskManager(Executors.newSingleThreadExecutor());
+		started = true;
+	}
+
+	private void awaitAll(Iterable<TestTask> tasks) throws Exception {
+		for(TestTask task : tasks) {
+			task.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	private void assertCancelled(TestTask task) throws Exception {
+		try {
+			task.getCompletableFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			fail("Expected task " + task.getName() + " to be cancelled");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TaskCancelledException);
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+package org.eamrf.concurrent.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for TaskJournal. Tasks queued but never completed must be returned when the journal is opened
+ * again, and the journal must be compacted down to just those tasks.
+ *
+ * @author slenzi
+ */
+public class TaskJournalTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Path journalFile = null;
+	private TaskJournal journal = null;
+
+	@Before
+	public void setUp() {
+		journalFile = tempFolder.getRoot().toPath().resolve("journal").resolve("tasks.journal");
+	}
+
+	@After
+	public void tearDown() {
+		if(journal != null) {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void openCreatesEmptyJournal() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+
+		assertTrue(journal.open().isEmpty());
+		assertTrue(Files.exists(journalFile));
+		assertEquals(0, journal.getPendingCount());
+
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void recordBeforeOpenFails() throws IOException {
+
+		new TaskJournal(journalFile).recordQueued(new Task("binary", "1"));
+
+	}
+
+	@Test
+	public void unfinishedTasksAreReplayedInQueuedOrder() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+		journal.open();
+		long first = journal.recordQueued(new Task("binary", "1"));
+		long second = journal.recordQueued(new Task("index", "2"));
+		long third = journal.recordQueued(new Task("binary", "3"));
+		journal.recordCompleted(second);
+		assertEquals(2, journal.getPendingCount());
+		journal.close();
+
+		journal = new TaskJournal(journalFile);
+		List<TaskJournalEntry> replay = journal.open();
+
+		assertEquals(2, replay.size());
+		assertEntry(replay.get(0), first, "binary", "1");
+		assertEntry(replay.get(1), third, "binary", "3");
+		assertEquals(2, journal.getPendingCount());
+
+	}
+
+	@Test
+	public void openCompactsJournalToPendingTasks() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+		journal.open();
+		for(int i = 0; i < 10; i++) {
+			long journalId = journal.recordQueued(new Task("binary", String.valueOf(i)));
+			if(i != 4) {
+				journal.recordCompleted(journalId);
+			}
+		}
+		journal.close();
+		assertEquals(20 - 1, lineCount());
+
+		journal = new TaskJournal(journalFile);
+		List<TaskJournalEntry> replay = journal.open();
+
+		assertEquals(1, replay.size());
+		assertEquals("4", replay.get(0).getParams().get("nodeId"));
+		assertEquals(1, lineCount());
+
+	}
+
+	@Test
+	public void journalIdsContinueAfterReopen() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+		journal.open();
+		journal.recordQueued(new Task("binary", "1"));
+		long last = journal.recordQueued(new Task("binary", "2"));
+		journal.recordCompleted(last);
+		journal.close();
+
+		// the completed task is compacted away, its ID must still not be reused
+		journal = new TaskJournal(journalFile);
+		journal.open();
+
+		assertTrue(journal.recordQueued(new Task("binary", "3")) > last);
+
+	}
+
+	@Test
+	public void partialLastRecordIsSkipped() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+		journal.open();
+		long journalId = journal.recordQueued(new Task("index", "7"));
+		journal.close();
+
+		// crash part way through writing the next record
+		Files.write(journalFile, "{\"op\":\"queued\",\"id\":2,\"ty".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		journal = new TaskJournal(journalFile);
+		List<TaskJournalEntry> replay = journal.open();
+
+		assertEquals(1, replay.size());
+		assertEntry(replay.get(0), journalId, "index", "7");
+
+	}
+
+	@Test
+	public void completedRecordsAreCompactedUnderLoad() throws IOException {
+
+		journal = new TaskJournal(journalFile);
+		journal.open();
+		long pendingId = journal.recordQueued(new Task("binary", "pending"));
+		for(int i = 0; i < 6000; i++) {
+			journal.recordCompleted(journal.recordQueued(new Task("index", String.valueOf(i))));
+		}
+
+		// compacted down to the one pending task at 10000 records, then 2000 more records written
+		assertTrue("journal has " + lineCount() + " lines", lineCount() < 3000);
+		assertEquals(1, journal.getPendingCount());
+		journal.close();
+
+		journal = new TaskJournal(journalFile);
+		List<TaskJournalEntry> replay = journal.open();
+
+		assertEquals(1, replay.size());
+		assertEntry(replay.get(0), pendingId, "binary", "pending");
+
+	}
+
+	private void assertEntry(TaskJournalEntry entry, long journalId, String type, String nodeId) {
+		assertEquals(TaskJournalEntry.OP_QUEUED, entry.getOp());
+		assertEquals(journalId, entry.getId());
+		assertEquals(type, entry.getType());
+		assertEquals(Collections.singletonMap("nodeId", nodeId), entry.getParams());
+	}
+
+	private int lineCount() throws IOException {
+		return Files.readAllLines(journalFile, StandardCharsets.UTF_8).size();
+	}
+
+	/**
+	 * Journaled task with a single node ID parameter
+	 */
+	private static class Task implements JournaledTask {
+
+		private final String type;
+		private final String nodeId;
+		private long journalId = 0L;
+
+		Task(String type, String nodeId) {
+			this.type = type;
+			this.nodeId = nodeId;
+		}
+
+		@Override
+		public String getJournalType() {
+			return type;
+		}
+
+		@Override
+		public Map<String,String> getJournalParams() {
+			return Collections.singletonMap("nodeId", nodeId);
+		}
+
+		@Override
+		public long getJournalId() {
+			return journalId;
+		}
+
+		@Override
+		public void setJournalId(long journalId) {
+			this.journalId = journalId;
+		}
+
+	}
+
+}
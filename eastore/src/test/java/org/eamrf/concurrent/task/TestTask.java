@@ -0,0 +1,107 @@
+package org.eamrf.concurrent.task;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Task used by the task manager and executor tests. Runs the given work, and counts how many times
+ * the work was run.
+ *
+ * @author slenzi
+ */
+public class TestTask extends AbstractQueuedTask<String> {
+
+	private static final Logger logger = LoggerFactory.getLogger(TestTask.class);
+
+	@FunctionalInterface
+	public interface Work {
+
+		public String run(TestTask task) throws Exception;
+
+	}
+
+	private final Work work;
+	private final AtomicInteger runCount = new AtomicInteger(0);
+	private volatile Double progress = 0.0;
+
+	/**
+	 * Task which returns its name
+	 *
+	 * @param name
+	 */
+	public TestTask(String name) {
+		this(name, task -> task.getName());
+	}
+
+	/**
+	 *
+	 * @param name
+	 * @param work - the work to run, its return value is the task's value
+	 */
+	public TestTask(String name, Work work) {
+		this(name, TaskPriority.NORMAL, work);
+	}
+
+	/**
+	 * Task which returns its name
+	 *
+	 * @param name
+	 * @param priority
+	 */
+	public TestTask(String name, TaskPriority priority) {
+		this(name, priority, task -> task.getName());
+	}
+
+	/**
+	 *
+	 * @param name
+	 * @param priority
+	 * @param work - the work to run, its return value is the task's value
+	 */
+	public TestTask(String name, TaskPriority priority, Work work) {
+		setName(name);
+		setPriority(priority);
+		this.work = work;
+	}
+
+	/**
+	 * @return number of times the work was run
+	 */
+	public int getRunCount() {
+		return runCount.get();
+	}
+
+	@Override
+	public String doWork() throws ServiceException {
+		runCount.incrementAndGet();
+		try {
+			return work.run(this);
+		} catch (ServiceException e) {
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Interrupted while running task " + getName(), e);
+		} catch (Exception e) {
+			throw new ServiceException("Error running task " + getName() + ", " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void setProgress(Double progress) {
+		this.progress = progress;
+	}
+
+	@Override
+	public Double getProgress() {
+		return progress;
+	}
+
+	@Override
+	public Logger getLogger() {
+		return logger;
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.eamrf.concurrent.task;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for TokenBucket
+ *
+ * @author slenzi
+ */
+public class TokenBucketTest {
+
+	@Test
+	public void burstIsAvailableRightAway() {
+
+		TokenBucket bucket = new TokenBucket(1.0D, 3);
+
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+
+	}
+
+	@Test
+	public void everyMillisAllowsOnePermitPerInterval() {
+
+		TokenBucket bucket = TokenBucket.everyMillis(60000L);
+
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+
+	}
+
+	@Test
+	public void acquireWaitsForNextPermit() throws InterruptedException {
+
+		// one permit every 50 milliseconds
+		TokenBucket bucket = new TokenBucket(20.0D, 1);
+		bucket.acquire();
+
+		long start = System.nanoTime();
+		bucket.acquire();
+		long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("waited " + waitedMillis + "ms", waitedMillis >= 40L);
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateMustBePositive() {
+
+		new TokenBucket(0.0D, 1);
+
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.eamrf.eastore.core.search.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for BoundedTextExtractor memory aware admission, and for the handling of workers which don't
+ * stop when their extraction times out.
+ *
+ * @author slenzi
+ */
+public class BoundedTextExtractorTest {
+
+	private static final int MB = 1024 * 1024;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private BoundedTextExtractor extractor = null;
+
+	@After
+	public void tearDown() {
+		if(extractor != null) {
+			extractor.shutdown();
+		}
+	}
+
+	@Test
+	public void smallFilesAreExtractedConcurrently() throws Exception {
+
+		ConcurrencyExtractor concurrency = new ConcurrencyExtractor();
+		extractor = new BoundedTextExtractor(Arrays.asList(concurrency), 1000, 10000L, 2, 2);
+
+		extractTwice(file("a.txt", 1), file("b.txt", 1));
+
+		assertEquals(2, concurrency.maxRunning.get());
+		assertEquals(2, extractor.getAvailablePermits());
+
+	}
+
+	@Test
+	public void largeFilesWaitForMemoryBudget() throws Exception {
+
+		ConcurrencyExtractor concurrency = new ConcurrencyExtractor();
+		extractor = new BoundedTextExtractor(Arrays.asList(concurrency), 1000, 10000L, 2, 2);
+
+		// each file needs the whole budget, so only one runs at a time even though there are two threads
+		extractTwice(file("a.txt", 2 * MB), file("b.txt", 2 * MB));
+
+		assertEquals(1, concurrency.maxRunning.get());
+		assertEquals(0L, extractor.getNotAdmittedCount());
+		assertEquals(2, extractor.getAvailablePermits());
+
+	}
+
+	@Test
+	public void fileLargerThanBudgetRunsAlone() throws Exception {
+
+		extractor = new BoundedTextExtractor(Arrays.asList(new ConcurrencyExtractor()), 1000, 10000L, 2, 2);
+
+		assertEquals("text", extractor.extract(file("big.txt", 3 * MB), "text/plain"));
+		assertEquals(2, extractor.getAvailablePermits());
+
+	}
+
+	@Test
+	public void abandonedWorkerReturnsPermitsAndIsReplaced() throws Exception {
+
+		StuckExtractor stuck = new StuckExtractor();
+		extractor = new BoundedTextExtractor(Arrays.asList(stuck, new ConcurrencyExtractor()), 1000, 300L, 1, 4);
+
+		assertNull(extractor.extract(file("stuck.bin", 1), StuckExtractor.MIME_TYPE));
+
+		assertEquals(1L, extractor.getTimeoutCount());
+		assertEquals(1, extractor.getAbandonedWorkers());
+		assertEquals(1, extractor.getLeakedPermits());
+		assertEquals(4, extractor.getAvailablePermits());
+
+		// the only configured thread is still stuck, a replacement thread runs the next file
+		assertEquals("text", extractor.extract(file("a.txt", 1), "text/plain"));
+
+		stuck.release.countDown();
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(extractor.getAbandonedWorkers() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+
+		assertEquals(0, extractor.getAbandonedWorkers());
+		assertEquals(0, extractor.getLeakedPermits());
+		// permits aren't returned twice when the abandoned worker finishes
+		assertEquals(4, extractor.getAvailablePermits());
+
+	}
+
+	/**
+	 * Extract text from both files at the same time
+	 */
+	private void extractTwice(Path first, Path second) throws Exception {
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> a = callers.submit(() -> extractor.extract(first, "text/plain"));
+			Future<String> b = callers.submit(() -> extractor.extract(second, "text/plain"));
+			assertEquals("text", a.get(10L, TimeUnit.SECONDS));
+			assertEquals("text", b.get(10L, TimeUnit.SECONDS));
+		} finally {
+			callers.shutdownNow();
+		}
+	}
+
+	private Path file(String name, int size) throws IOException {
+		Path path = tempFolder.getRoot().toPath().resolve(name);
+		Files.write(path, new byte[size]);
+		return path;
+	}
+
+	/**
+	 * Takes a little time on each file, and records how many extractions run at the same time
+	 */
+	private static class ConcurrencyExtractor implements FileTextExtractor {
+
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+
+		@Override
+		public boolean canExtract(String mimeType) {
+			return "text/plain".equals(mimeType);
+		}
+
+		@Override
+		public void extract(Path filePath, Writer writer) throws IOException {
+			int now = running.incrementAndGet();
+			maxRunning.accumulateAndGet(now, Math::max);
+			try {
+				Thread.sleep(200L);
+				writer.write("text");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+
+	}
+
+	/**
+	 * Ignores interrupts, and only finishes once released
+	 */
+	private static class StuckExtractor implements FileTextExtractor {
+
+		static final String MIME_TYPE = "application/x-stuck";
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public boolean canExtract(String mimeType) {
+			return MIME_TYPE.equals(mimeType);
+		}
+
+		@Override
+		public void extract(Path filePath, Writer writer) throws IOException {
+			while(true) {
+				try {
+					release.await();
+					return;
+				} catch (InterruptedException e) {
+					// keep going, like a parser which never checks for interrupts
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.eamrf.eastore.core.service.tree.file;
+
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.A_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.B_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.INHERIT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.LOCKED_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.PUBLIC_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.ROOT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.ROOT_TXT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eamrf.eastore.core.tree.Tree;
+import org.eamrf.eastore.core.tree.TreeNode;
+import org.eamrf.eastore.core.tree.Trees;
+import org.eamrf.eastore.core.tree.Trees.WalkOption;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store.AccessRule;
+import org.junit.Test;
+
+/**
+ * Tests for PathResourceCompactTree
+ *
+ * @author slenzi
+ */
+public class PathResourceCompactTreeTest {
+
+	@Test
+	public void childrenAreLinkedInOrderAdded() {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+
+		assertEquals(8, tree.size());
+		assertEquals(Arrays.asList(PUBLIC_ID, INHERIT_ID, ROOT_TXT_ID), childIds(tree, ROOT_ID));
+		assertEquals(Arrays.asList(A_TXT_ID, LOCKED_ID), childIds(tree, PUBLIC_ID));
+		assertEquals(Arrays.asList(B_TXT_ID), childIds(tree, LOCKED_ID));
+		assertEquals(Arrays.asList(), childIds(tree, ROOT_TXT_ID));
+
+		assertEquals(-1, tree.getParentIndex(0));
+		assertEquals(tree.indexOf(PUBLIC_ID), tree.getParentIndex(tree.indexOf(LOCKED_ID)));
+		assertEquals(-1, tree.indexOf(999L));
+
+	}
+
+	@Test
+	public void relativePathIsBuiltFromNames() {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+
+		assertEquals("/test", tree.getRelativePath(tree.indexOf(ROOT_ID)));
+		assertEquals("/test/public/locked/b.txt", tree.getRelativePath(tree.indexOf(B_TXT_ID)));
+		assertEquals("/test/root.txt", tree.getRelativePath(tree.indexOf(ROOT_TXT_ID)));
+
+	}
+
+	@Test
+	public void getResourceMatchesAddedResource() {
+
+		Store store = PathResourceTestData.store(AccessRule.DENY);
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(store);
+		int index = tree.indexOf(A_TXT_ID);
+		tree.setCanRead(index, true);
+
+		PathResource expected = PathResourceTestData.resources(store).get(2);
+		PathResource resource = tree.getResource(index);
+
+		assertTrue(resource instanceof FileMetaResource);
+		assertEquals(expected.getNodeId(), resource.getNodeId());
+		assertEquals(expected.getParentNodeId(), resource.getParentNodeId());
+		assertEquals(expected.getPathName(), resource.getPathName());
+		assertEquals(expected.getRelativePath(), resource.getRelativePath());
+		assertEquals(expected.getDateCreated(), resource.getDateCreated());
+		assertEquals(ResourceType.FILE, resource.getResourceType());
+		assertEquals(store.getId(), resource.getStoreId());
+		assertEquals(((FileMetaResource)expected).getFileSize(), ((FileMetaResource)resource).getFileSize());
+		assertEquals("text/plain", ((FileMetaResource)resource).getMimeType());
+		assertNull(resource.getReadGroup1());
+		assertTrue(resource.getCanRead());
+		assertFalse(resource.getCanWrite());
+
+	}
+
+	@Test
+	public void toTreeMatchesCompactTree() throws Exception {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+		Tree<PathResource> view = tree.toTree();
+
+		List<String> paths = new ArrayList<String>();
+		Trees.walkTree(view, node -> paths.add(node.getData().getRelativePath()), WalkOption.PRE_ORDER_TRAVERSAL);
+
+		assertEquals(Arrays.asList(
+				"/test",
+				"/test/public",
+				"/test/public/a.txt",
+				"/test/public/locked",
+				"/test/public/locked/b.txt",
+				"/test/inherit",
+				"/test/inherit/c.txt",
+				"/test/root.txt"), paths);
+
+		TreeNode<PathResource> publicNode = view.getRootNode().getFirstChild();
+		assertEquals(Long.valueOf(PUBLIC_ID), publicNode.getData().getNodeId());
+		assertEquals(view.getRootNode(), publicNode.getParent());
+
+	}
+
+	@Test
+	public void treeGrowsPastExpectedSize() {
+
+		final int size = 5000;
+		PathResourceCompactTree tree = new PathResourceCompactTree(PathResourceTestData.store(AccessRule.ALLOW), 1);
+		tree.add(1L, 0L, ResourceType.DIRECTORY, "root", "/root", null, null, null, null, null, null, 0L, null, false);
+		for(long nodeId = 2; nodeId <= size; nodeId++) {
+			// every tenth resource is a directory, the rest go in the last directory added
+			long parentNodeId = ((nodeId - 1) / 10) * 10 + 1;
+			if(parentNodeId == nodeId) {
+				parentNodeId = 1L;
+			}
+			ResourceType type = (nodeId % 10 == 1) ? ResourceType.DIRECTORY : ResourceType.FILE;
+			tree.add(nodeId, parentNodeId, type, "r" + nodeId, null, null, null, null, null, null, null, nodeId, null, false);
+		}
+		tree.trimToSize();
+
+		assertEquals(size, tree.size());
+		for(long nodeId = 1; nodeId <= size; nodeId++) {
+			int index = tree.indexOf(nodeId);
+			assertEquals(nodeId, tree.getNodeId(index));
+		}
+		assertEquals("/root/r4991/r5000", tree.getRelativePath(tree.indexOf(5000L)));
+
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void parentMustBeAddedFirst() {
+
+		PathResourceCompactTree tree = new PathResourceCompactTree(PathResourceTestData.store(AccessRule.ALLOW), 4);
+		tree.add(1L, 0L, ResourceType.DIRECTORY, "root", "/root", null, null, null, null, null, null, 0L, null, false);
+		tree.add(3L, 2L, ResourceType.FILE, "orphan.txt", null, null, null, null, null, null, null, 0L, null, false);
+
+	}
+
+	private List<Long> childIds(PathResourceCompactTree tree, long nodeId) {
+		List<Long> ids = new ArrayList<Long>();
+		for(int child = tree.getFirstChildIndex(tree.indexOf(nodeId)); child >= 0; child = tree.getNextSiblingIndex(child)) {
+			ids.add(tree.getNodeId(child));
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.eamrf.eastore.core.service.tree.file;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.FileMetaResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store.AccessRule;
+
+/**
+ * A small store used by the path resource tree tests, available both as a list of path resources
+ * (the way the repository returns them) and as a compact tree built from that list.
+ *
+ * <pre>
+ * /test                      read=staff, write=admins
+ * +-- public                 read=everyone
+ * |   +-- a.txt
+ * |   +-- locked             read=secret, execute=admins
+ * |       +-- b.txt
+ * +-- inherit
+ * |   +-- c.txt
+ * +-- root.txt
+ * </pre>
+ *
+ * @author slenzi
+ */
+public final class PathResourceTestData {
+
+	public static final long STORE_ID = 1L;
+
+	public static final long ROOT_ID = 10L;
+	public static final long PUBLIC_ID = 11L;
+	public static final long A_TXT_ID = 12L;
+	public static final long LOCKED_ID = 13L;
+	public static final long B_TXT_ID = 14L;
+	public static final long INHERIT_ID = 15L;
+	public static final long C_TXT_ID = 16L;
+	public static final long ROOT_TXT_ID = 17L;
+
+	// parent of the store root directory
+	private static final long ROOT_PARENT_ID = 0L;
+
+	private static final Timestamp CREATED = Timestamp.valueOf("2018-01-02 03:04:05");
+
+	private PathResourceTestData() {
+
+	}
+
+	/**
+	 * @param accessRule - access rule for resources with no groups
+	 * @return
+	 */
+	public static Store store(AccessRule accessRule) {
+
+		Store store = new Store();
+		store.setId(STORE_ID);
+		store.setName("test");
+		store.setNodeId(ROOT_ID);
+		store.setAccessRule(accessRule);
+		return store;
+
+	}
+
+	/**
+	 * New resources on every call, with no access bits set, parents before children.
+	 *
+	 * @param store
+	 * @return
+	 */
+	public static List<PathResource> resources(Store store) {
+
+		List<PathResource> resources = new ArrayList<PathResource>();
+		resources.add(directory(store, ROOT_ID, ROOT_PARENT_ID, "test", "/test", "staff", "admins", null));
+		resources.add(directory(store, PUBLIC_ID, ROOT_ID, "public", "/test/public", "everyone", null, null));
+		resources.add(file(store, A_TXT_ID, PUBLIC_ID, "a.txt", "/test/public/a.txt"));
+		resources.add(directory(store, LOCKED_ID, PUBLIC_ID, "locked", "/test/public/locked", "secret", null, "admins"));
+		resources.add(file(store, B_TXT_ID, LOCKED_ID, "b.txt", "/test/public/locked/b.txt"));
+		resources.add(directory(store, INHERIT_ID, ROOT_ID, "inherit", "/test/inherit", null, null, null));
+		resources.add(file(store, C_TXT_ID, INHERIT_ID, "c.txt", "/test/inherit/c.txt"));
+		resources.add(file(store, ROOT_TXT_ID, ROOT_ID, "root.txt", "/test/root.txt"));
+		return resources;
+
+	}
+
+	/**
+	 * Compact tree with the same resources as resources(store), no access bits set.
+	 *
+	 * @param store
+	 * @return
+	 */
+	public static PathResourceCompactTree compactTree(Store store) {
+
+		List<PathResource> resources = resources(store);
+		PathResourceCompactTree tree = new PathResourceCompactTree(store, resources.size());
+		for(PathResource r : resources) {
+			boolean isFile = r.getResourceType() == ResourceType.FILE;
+			tree.add(
+					r.getNodeId(),
+					r.getParentNodeId(),
+					r.getResourceType(),
+					r.getPathName(),
+					r.getRelativePath(),
+					r.getDesc(),
+					r.getReadGroup1(),
+					r.getWriteGroup1(),
+					r.getExecuteGroup1(),
+					r.getDateCreated(),
+					r.getDateUpdated(),
+					isFile ? ((FileMetaResource)r).getFileSize() : 0L,
+					isFile ? ((FileMetaResource)r).getMimeType() : null,
+					false);
+		}
+		tree.trimToSize();
+		return tree;
+
+	}
+
+	private static DirectoryResource directory(Store store, long nodeId, long parentNodeId, String name, String relativePath,
+			String readGroup, String writeGroup, String executeGroup) {
+
+		DirectoryResource dir = new DirectoryResource();
+		setCommon(dir, store, nodeId, parentNodeId, name, relativePath);
+		dir.setResourceType(ResourceType.DIRECTORY);
+		dir.setReadGroup1(readGroup);
+		dir.setWriteGroup1(writeGroup);
+		dir.setExecuteGroup1(executeGroup);
+		return dir;
+
+	}
+
+	private static FileMetaResource file(Store store, long nodeId, long parentNodeId, String name, String relativePath) {
+
+		FileMetaResource file = new FileMetaResource();
+		setCommon(file, store, nodeId, parentNodeId, name, relativePath);
+		file.setResourceType(ResourceType.FILE);
+		file.setFileSize(nodeId * 100L);
+		file.setMimeType("text/plain");
+		file.setIsBinaryInDatabase(false);
+		return file;
+
+	}
+
+	private static void setCommon(PathResource r, Store store, long nodeId, long parentNodeId, String name, String relativePath) {
+
+		r.setNodeId(nodeId);
+		r.setChildNodeId(nodeId);
+		r.setParentNodeId(parentNodeId);
+		r.setPathName(name);
+		r.setRelativePath(relativePath);
+		r.setStoreId(store.getId());
+		r.setStore(store);
+		r.setDateCreated(CREATED);
+		r.setDateUpdated(CREATED);
+
+	}
+
+}
@@ -0,0 +1,256 @@
+package org.eamrf.eastore.core.service.tree.file.secure;
+
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.A_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.B_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.C_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.LOCKED_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.PUBLIC_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.ROOT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.service.security.GatekeeperService;
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
+import org.eamrf.eastore.core.service.tree.file.PathResourceTestData;
+import org.eamrf.eastore.core.tree.Tree;
+import org.eamrf.eastore.core.tree.Trees;
+import org.eamrf.eastore.core.tree.Trees.WalkOption;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.PathResource;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store.AccessRule;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests for SecurePathResourceTreeBuilder. The compact tree evaluation must give the same access bits as
+ * building a Tree<PathResource> from the same resources, and the parent evaluation used by the bulk lookup
+ * must give the same access bits as building the parent tree for each resource.
+ *
+ * @author slenzi
+ */
+public class SecurePathResourceTreeBuilderTest {
+
+	// user id -> gatekeeper groups
+	private static final Map<String,Set<String>> USER_GROUPS = new HashMap<String,Set<String>>();
+	static {
+		USER_GROUPS.put("staff", new HashSet<String>(Arrays.asList("staff", "everyone")));
+		USER_GROUPS.put("admin", new HashSet<String>(Arrays.asList("admins", "secret")));
+		USER_GROUPS.put("guest", new HashSet<String>(Arrays.asList("everyone")));
+		USER_GROUPS.put("nobody", Collections.<String>emptySet());
+	}
+
+	private SecurePathResourceTreeBuilder builder = null;
+
+	@Before
+	public void setUp() {
+
+		GatekeeperService gatekeeperService = new GatekeeperService() {
+			@Override
+			public Set<String> getUserGroupCodes(String userId) throws ServiceException {
+				return USER_GROUPS.get(userId);
+			}
+		};
+		builder = new SecurePathResourceTreeBuilder();
+		ReflectionTestUtils.setField(builder, "gatekeeperService", gatekeeperService);
+
+	}
+
+	@Test
+	public void evaluateAccessMatchesBuildPathResourceTree() throws Exception {
+
+		for(AccessRule accessRule : AccessRule.values()) {
+			for(String userId : USER_GROUPS.keySet()) {
+				for(boolean rootBits : new boolean[] { false, true }) {
+
+					Store store = PathResourceTestData.store(accessRule);
+					String fixture = "rule=" + accessRule + ", user=" + userId + ", root bits=" + rootBits;
+
+					Map<Long,boolean[]> expected = buildTreeAccess(store, userId, rootBits);
+					Map<Long,boolean[]> actual = compactTreeAccess(store, userId, rootBits);
+
+					assertEquals(fixture, expected.keySet(), actual.keySet());
+					for(Long nodeId : expected.keySet()) {
+						assertTrue(fixture + ", node=" + nodeId + ", expected " + Arrays.toString(expected.get(nodeId)) +
+								" but was " + Arrays.toString(actual.get(nodeId)), Arrays.equals(expected.get(nodeId), actual.get(nodeId)));
+					}
+
+				}
+			}
+		}
+
+	}
+
+	@Test
+	public void groupsAreInheritedUnderDenyRule() throws Exception {
+
+		Map<Long,boolean[]> access = compactTreeAccess(PathResourceTestData.store(AccessRule.DENY), "staff", false);
+
+		// read group on the public directory
+		assertTrue(access.get(A_TXT_ID)[0]);
+		// locked directory has its own read group
+		assertFalse(access.get(LOCKED_ID)[0]);
+		assertFalse(access.get(B_TXT_ID)[0]);
+		// no groups, inherits the store root's read group
+		assertTrue(access.get(C_TXT_ID)[0]);
+		// write group on the root, staff isn't in it
+		assertFalse(access.get(C_TXT_ID)[1]);
+
+	}
+
+	@Test
+	public void resourcesWithoutGroupsAreOpenUnderAllowRule() throws Exception {
+
+		Map<Long,boolean[]> access = compactTreeAccess(PathResourceTestData.store(AccessRule.ALLOW), "nobody", false);
+
+		assertFalse(access.get(ROOT_ID)[0]);
+		assertTrue(access.get(C_TXT_ID)[0]);
+		assertTrue(access.get(C_TXT_ID)[1]);
+		assertFalse(access.get(LOCKED_ID)[0]);
+		// files never have their own groups
+		assertTrue(access.get(B_TXT_ID)[0]);
+
+	}
+
+	@Test
+	public void evaluateParentAccessMatchesBuildParentPathResourceTree() throws Exception {
+
+		for(AccessRule accessRule : AccessRule.values()) {
+			for(String userId : USER_GROUPS.keySet()) {
+
+				Store store = PathResourceTestData.store(accessRule);
+				String fixture = "rule=" + accessRule + ", user=" + userId;
+
+				// children before parents, the order must not matter
+				List<PathResource> resources = PathResourceTestData.resources(store);
+				Collections.reverse(resources);
+				builder.evaluateParentAccess(resources, userId);
+
+				for(PathResource r : resources) {
+					boolean[] expected = parentTreeAccess(store, userId, r.getNodeId());
+					boolean[] actual = new boolean[] { r.getCanRead(), r.getCanWrite(), r.getCanExecute() };
+					assertTrue(fixture + ", node=" + r.getNodeId() + ", expected " + Arrays.toString(expected) +
+							" but was " + Arrays.toString(actual), Arrays.equals(expected, actual));
+				}
+
+			}
+		}
+
+	}
+
+	@Test
+	public void evaluateParentAccessOnOnePath() throws Exception {
+
+		// just b.txt and its parents, the way getPathResourcesWithParents returns a single node
+		List<PathResource> resources = new ArrayList<PathResource>();
+		for(PathResource r : PathResourceTestData.resources(PathResourceTestData.store(AccessRule.DENY))) {
+			if(r.getNodeId() == ROOT_ID || r.getNodeId() == PUBLIC_ID || r.getNodeId() == LOCKED_ID || r.getNodeId() == B_TXT_ID) {
+				resources.add(r);
+			}
+		}
+
+		builder.evaluateParentAccess(resources, "admin");
+
+		Map<Long,PathResource> byId = new HashMap<Long,PathResource>();
+		resources.forEach(r -> byId.put(r.getNodeId(), r));
+		// admin isn't in the public read group, but is in the locked directory's read group
+		assertFalse(byId.get(PUBLIC_ID).getCanRead());
+		assertTrue(byId.get(LOCKED_ID).getCanRead());
+		assertTrue(byId.get(B_TXT_ID).getCanRead());
+		// write group inherited from the root
+		assertTrue(byId.get(B_TXT_ID).getCanWrite());
+		assertTrue(byId.get(B_TXT_ID).getCanExecute());
+
+	}
+
+	/**
+	 * Evaluate access with buildParentPathResourceTree, for the path from the store root down to one node
+	 *
+	 * @return read, write, and execute bits for the node
+	 */
+	private boolean[] parentTreeAccess(Store store, String userId, long nodeId) throws Exception {
+
+		Map<Long,PathResource> byId = new HashMap<Long,PathResource>();
+		PathResourceTestData.resources(store).forEach(r -> byId.put(r.getNodeId(), r));
+
+		List<PathResource> path = new ArrayList<PathResource>();
+		for(PathResource r = byId.get(nodeId); r != null; r = byId.get(r.getParentNodeId())) {
+			path.add(0, r);
+		}
+
+		builder.buildParentPathResourceTree(path, userId, false);
+
+		PathResource r = path.get(path.size() - 1);
+		return new boolean[] { r.getCanRead(), r.getCanWrite(), r.getCanExecute() };
+
+	}
+
+	/**
+	 * Evaluate access with buildPathResourceTree
+	 *
+	 * @return read, write, and execute bits by node id
+	 */
+	private Map<Long,boolean[]> buildTreeAccess(Store store, String userId, boolean rootBits) throws Exception {
+
+		List<PathResource> resources = PathResourceTestData.resources(store);
+		Tree<PathResource> tree = builder.buildPathResourceTree(resources, userId, rootParent(store, rootBits));
+
+		Map<Long,boolean[]> access = new HashMap<Long,boolean[]>();
+		Trees.walkTree(tree, node -> {
+			PathResource r = node.getData();
+			access.put(r.getNodeId(), new boolean[] { r.getCanRead(), r.getCanWrite(), r.getCanExecute() });
+		}, WalkOption.PRE_ORDER_TRAVERSAL);
+		return access;
+
+	}
+
+	/**
+	 * Evaluate access with evaluateAccess
+	 *
+	 * @return read, write, and execute bits by node id
+	 */
+	private Map<Long,boolean[]> compactTreeAccess(Store store, String userId, boolean rootBits) throws Exception {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(store);
+		builder.evaluateAccess(tree, userId, rootParent(store, rootBits));
+
+		Map<Long,boolean[]> access = new HashMap<Long,boolean[]>();
+		for(int i = 0; i < tree.size(); i++) {
+			access.put(tree.getNodeId(i), new boolean[] { tree.getCanRead(i), tree.getCanWrite(i), tree.getCanExecute(i) });
+		}
+		return access;
+
+	}
+
+	/**
+	 * The store root directory, with its access bits already evaluated (the bits it inherited from its parents.)
+	 */
+	private PathResource rootParent(Store store, boolean bits) {
+
+		PathResource root = PathResourceTestData.resources(store).get(0);
+		DirectoryResource dir = new DirectoryResource();
+		dir.setNodeId(root.getNodeId());
+		dir.setReadGroup1(root.getReadGroup1());
+		dir.setWriteGroup1(root.getWriteGroup1());
+		dir.setExecuteGroup1(root.getExecuteGroup1());
+		dir.setStore(store);
+		dir.setCanRead(bits);
+		dir.setCanWrite(bits);
+		dir.setCanExecute(bits);
+		return dir;
+
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.eamrf.eastore.core.socket.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eamrf.concurrent.task.TaskManagerProvider;
+import org.eamrf.eastore.core.exception.ServiceException;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.eastore.core.service.file.task.FileServiceTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the per task broadcast limits in FileServiceTaskMessageService. Messages sent by the service
+ * are captured from the messaging template's channel.
+ *
+ * @author slenzi
+ */
+public class FileServiceTaskMessageServiceTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileServiceTaskMessageServiceTest.class);
+
+	// 2 frames per second
+	private static final long FRAME_INTERVAL_MILLIS = 500L;
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final BlockingQueue<Message<?>> sentMessages = new LinkedBlockingQueue<Message<?>>();
+
+	private FileServiceTaskMessageService service = null;
+
+	@Before
+	public void setUp() {
+
+		MessageChannel channel = new MessageChannel() {
+			@Override
+			public boolean send(Message<?> message) {
+				return sentMessages.add(message);
+			}
+			@Override
+			public boolean send(Message<?> message, long timeout) {
+				return sentMessages.add(message);
+			}
+		};
+		ManagedProperties appProps = new ManagedProperties() {
+			@Override
+			public int getIntProperty(String name, int defaultValue) {
+				return "task.broadcast.frames.per.second".equals(name) ? (int)(1000L / FRAME_INTERVAL_MILLIS) : defaultValue;
+			}
+		};
+		SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry() {
+			@Override
+			public boolean hasSubscribers(String destination) {
+				return true;
+			}
+			@Override
+			public boolean hasUserSubscribers(String userId, String destination) {
+				return false;
+			}
+		};
+
+		service = new FileServiceTaskMessageService();
+		ReflectionTestUtils.setField(service, "logger", logger);
+		ReflectionTestUtils.setField(service, "template", new SimpMessagingTemplate(channel));
+		ReflectionTestUtils.setField(service, "taskManagerProvider", new TaskManagerProvider());
+		ReflectionTestUtils.setField(service, "appProps", appProps);
+		ReflectionTestUtils.setField(service, "subscriptionRegistry", subscriptionRegistry);
+		service.init();
+
+	}
+
+	@After
+	public void tearDown() {
+		service.cleanup();
+	}
+
+	@Test
+	public void updatesWithinIntervalAreMerged() throws Exception {
+
+		ProgressTask task = new ProgressTask(1L);
+
+		long startTime = System.currentTimeMillis();
+		task.update(1);
+		service.broadcast(task);
+		assertProgress(1L, "10", nextMessage());
+
+		task.update(2);
+		service.broadcast(task);
+		task.update(3);
+		service.broadcast(task);
+		task.update(4);
+		service.broadcast(task);
+
+		// one delayed message with the latest progress
+		JsonNode delayed = nextMessage();
+		assertTrue(System.currentTimeMillis() - startTime >= FRAME_INTERVAL_MILLIS - 50L);
+		assertProgress(1L, "40", delayed);
+		assertNull(sentMessages.poll(FRAME_INTERVAL_MILLIS * 2L, TimeUnit.MILLISECONDS));
+
+	}
+
+	@Test
+	public void finalUpdateIsNotThrottled() throws Exception {
+
+		ProgressTask task = new ProgressTask(1L);
+
+		task.update(1);
+		service.broadcast(task);
+		assertProgress(1L, "10", nextMessage());
+
+		// delayed until the end of the interval
+		task.update(2);
+		service.broadcast(task);
+
+		long startTime = System.currentTimeMillis();
+		task.update(ProgressTask.JOB_COUNT);
+		service.broadcast(task);
+		assertProgress(1L, "100", nextMessage());
+		assertTrue(System.currentTimeMillis() - startTime < FRAME_INTERVAL_MILLIS);
+
+		// the delayed update is skipped once the final message was sent
+		assertNull(sentMessages.poll(FRAME_INTERVAL_MILLIS * 2L, TimeUnit.MILLISECONDS));
+
+	}
+
+	@Test
+	public void tasksAreLimitedSeparately() throws Exception {
+
+		ProgressTask first = new ProgressTask(1L);
+		ProgressTask second = new ProgressTask(2L);
+		first.update(1);
+		second.update(1);
+
+		long startTime = System.currentTimeMillis();
+		service.broadcast(first);
+		service.broadcast(second);
+
+		Set<String> taskIds = new HashSet<String>();
+		taskIds.add(nextMessage().get("id").asText());
+		taskIds.add(nextMessage().get("id").asText());
+		assertTrue(System.currentTimeMillis() - startTime < FRAME_INTERVAL_MILLIS);
+		assertEquals(2, taskIds.size());
+
+	}
+
+	private JsonNode nextMessage() throws InterruptedException, IOException {
+		Message<?> message = sentMessages.poll(FRAME_INTERVAL_MILLIS * 4L, TimeUnit.MILLISECONDS);
+		assertNotNull("No message sent", message);
+		return MAPPER.readTree((byte[])message.getPayload());
+	}
+
+	private void assertProgress(long taskId, String progress, JsonNode message) {
+		assertEquals(String.valueOf(taskId), message.get("id").asText());
+		assertEquals(progress, message.get("progress").asText());
+	}
+
+	/**
+	 * File service task whose completed job count is set by the test
+	 */
+	private static class ProgressTask extends FileServiceTask<Void> {
+
+		static final int JOB_COUNT = 10;
+
+		private volatile int completed = 0;
+
+		ProgressTask(long taskId) {
+			setTaskId(taskId);
+			setName("Progress task " + taskId);
+		}
+
+		void update(int completed) {
+			this.completed = completed;
+			updateProgress();
+		}
+
+		@Override
+		public Void doWork() throws ServiceException {
+			return null;
+		}
+
+		@Override
+		public int getJobCount() {
+			return JOB_COUNT;
+		}
+
+		@Override
+		public int getCompletedJobCount() {
+			return completed;
+		}
+
+		@Override
+		public String getStatusMessage() {
+			return "Completed " + completed + " of " + JOB_COUNT;
+		}
+
+		@Override
+		public String getUserId() {
+			return "user";
+		}
+
+		@Override
+		public Logger getLogger() {
+			return logger;
+		}
+
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.eamrf.eastore.core.socket.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eamrf.concurrent.task.TaskManagerProvider;
+import org.eamrf.eastore.core.properties.ManagedProperties;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.DirectoryResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for change batching in ResourceChangeMessageService. Messages sent by the service are captured
+ * from the messaging template's channel.
+ *
+ * @author slenzi
+ */
+public class ResourceChangeMessageServiceTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResourceChangeMessageServiceTest.class);
+
+	private static final String TOPIC = "/topic/resource/change";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final BlockingQueue<Message<?>> sentMessages = new LinkedBlockingQueue<Message<?>>();
+
+	// destinations which have subscribers
+	private final Set<String> subscribed = new HashSet<String>();
+
+	private ResourceChangeMessageService service = null;
+
+	@Before
+	public void setUp() {
+		subscribed.add(TOPIC);
+	}
+
+	@After
+	public void tearDown() {
+		if(service != null) {
+			service.cleanup();
+		}
+	}
+
+	@Test
+	public void changesInWindowAreSentAsOneMessage() throws Exception {
+
+		startService(200);
+
+		service.directoryContentsChanged(1L, "staff");
+		service.directoryContentsChanged(2L, "staff");
+		service.directoryContentsChanged(1L, "staff");
+
+		Message<?> message = nextMessage(2000L);
+		assertEquals(TOPIC, destination(message));
+		JsonNode body = payload(message);
+		assertEquals(Arrays.asList(1L, 2L), nodeIds(body));
+		assertEquals("staff", body.get("userId").asText());
+		assertTrue(body.get("nodeId").isNull());
+
+		assertNull(sentMessages.poll(500L, TimeUnit.MILLISECONDS));
+
+	}
+
+	@Test
+	public void userIsOnlyReportedWhenOneUserMadeAllChanges() throws Exception {
+
+		startService(200);
+
+		service.directoryContentsChanged(1L, "staff");
+		service.directoryContentsChanged(2L, "admin");
+
+		JsonNode body = payload(nextMessage(2000L));
+		assertEquals(Arrays.asList(1L, 2L), nodeIds(body));
+		assertTrue(body.get("userId").isNull());
+
+	}
+
+	@Test
+	public void changesAreSentToStoreAndDirectoryTopics() throws Exception {
+
+		subscribed.add("/topic/resource/change/store/5");
+		subscribed.add("/topic/resource/change/directory/2");
+		startService(200);
+
+		service.directoryContentsChanged(directory(1L, 5L), "staff");
+		service.directoryContentsChanged(directory(2L, 5L), "staff");
+		service.directoryContentsChanged(directory(3L, 6L), "staff");
+
+		List<Message<?>> messages = new ArrayList<Message<?>>();
+		for(int i = 0; i < 3; i++) {
+			messages.add(nextMessage(2000L));
+		}
+		assertNull(sentMessages.poll(500L, TimeUnit.MILLISECONDS));
+
+		assertEquals(Arrays.asList(1L, 2L, 3L), nodeIds(payload(messages.get(0))));
+		assertTrue(payload(messages.get(0)).get("storeId").isNull());
+
+		assertEquals("/topic/resource/change/store/5", destination(messages.get(1)));
+		assertEquals(Arrays.asList(1L, 2L), nodeIds(payload(messages.get(1))));
+		assertEquals(5L, payload(messages.get(1)).get("storeId").asLong());
+
+		assertEquals("/topic/resource/change/directory/2", destination(messages.get(2)));
+		assertEquals(2L, payload(messages.get(2)).get("nodeId").asLong());
+
+	}
+
+	@Test
+	public void storeIsKeptWhenLaterChangeHasNoStore() throws Exception {
+
+		subscribed.add("/topic/resource/change/store/5");
+		startService(200);
+
+		service.directoryContentsChanged(directory(1L, 5L), "staff");
+		service.directoryContentsChanged(1L, "admin");
+
+		nextMessage(2000L);
+		JsonNode body = payload(nextMessage(2000L));
+		assertEquals(5L, body.get("storeId").asLong());
+		assertEquals("admin", body.get("userId").asText());
+
+	}
+
+	@Test
+	public void fullBatchIsSentBeforeWindowCloses() throws Exception {
+
+		// window long enough that only a full batch could be sent during the test
+		startService(60000);
+
+		for(long nodeId = 1; nodeId <= 500; nodeId++) {
+			service.directoryContentsChanged(nodeId, "staff");
+		}
+
+		JsonNode body = payload(nextMessage(5000L));
+		assertEquals(500, body.get("nodeIds").size());
+
+		service.directoryContentsChanged(501L, "staff");
+		assertNull(sentMessages.poll(500L, TimeUnit.MILLISECONDS));
+
+	}
+
+	private void startService(int batchWindowMillis) {
+
+		MessageChannel channel = new MessageChannel() {
+			@Override
+			public boolean send(Message<?> message) {
+				return sentMessages.add(message);
+			}
+			@Override
+			public boolean send(Message<?> message, long timeout) {
+				return sentMessages.add(message);
+			}
+		};
+		ManagedProperties appProps = new ManagedProperties() {
+			@Override
+			public int getIntProperty(String name, int defaultValue) {
+				return "resource.change.batch.window.millis".equals(name) ? batchWindowMillis : defaultValue;
+			}
+		};
+		SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry() {
+			@Override
+			public boolean hasSubscribers(String destination) {
+				return subscribed.contains(destination);
+			}
+		};
+
+		service = new ResourceChangeMessageService();
+		ReflectionTestUtils.setField(service, "logger", logger);
+		ReflectionTestUtils.setField(service, "template", new SimpMessagingTemplate(channel));
+		ReflectionTestUtils.setField(service, "taskManagerProvider", new TaskManagerProvider());
+		ReflectionTestUtils.setField(service, "appProps", appProps);
+		ReflectionTestUtils.setField(service, "subscriptionRegistry", subscriptionRegistry);
+		service.init();
+
+	}
+
+	private DirectoryResource directory(Long nodeId, Long storeId) {
+		DirectoryResource dir = new DirectoryResource();
+		dir.setNodeId(nodeId);
+		dir.setStoreId(storeId);
+		return dir;
+	}
+
+	private Message<?> nextMessage(long timeoutMillis) throws InterruptedException {
+		Message<?> message = sentMessages.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		assertNotNull("No message sent", message);
+		return message;
+	}
+
+	private String destination(Message<?> message) {
+		return SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+	}
+
+	private JsonNode payload(Message<?> message) throws Exception {
+		JsonNode body = MAPPER.readTree((byte[])message.getPayload());
+		assertFalse(body.isNull());
+		return body;
+	}
+
+	private List<Long> nodeIds(JsonNode body) {
+		List<Long> nodeIds = new ArrayList<Long>();
+		for(JsonNode nodeId : body.get("nodeIds")) {
+			nodeIds.add(nodeId.asLong());
+		}
+		return nodeIds;
+	}
+
+}
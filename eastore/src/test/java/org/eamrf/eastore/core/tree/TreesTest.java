@@ -0,0 +1,229 @@
+package org.eamrf.eastore.core.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eamrf.eastore.core.tree.Trees.WalkOption;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the tree walks in Trees
+ *
+ * @author slenzi
+ */
+public class TreesTest {
+
+	private static ForkJoinPool pool = null;
+
+	@BeforeClass
+	public static void setUpClass() {
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void walkTreePostOrder() throws TreeNodeVisitException {
+
+		Tree<Integer> tree = smallTree();
+		List<Integer> visited = new ArrayList<Integer>();
+
+		Trees.walkTree(tree, node -> visited.add(node.getData()), WalkOption.POST_ORDER_TRAVERSAL);
+
+		assertEquals(Arrays.asList(3, 4, 2, 6, 5, 1), visited);
+
+	}
+
+	@Test
+	public void walkTreePreOrder() throws TreeNodeVisitException {
+
+		Tree<Integer> tree = smallTree();
+		List<Integer> visited = new ArrayList<Integer>();
+
+		Trees.walkTree(tree, node -> visited.add(node.getData()), WalkOption.PRE_ORDER_TRAVERSAL);
+
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), visited);
+
+	}
+
+	@Test
+	public void walkTreeHandlesDeepTree() throws TreeNodeVisitException {
+
+		// deep enough to overflow the stack if the walk was recursive
+		final int depth = 100000;
+		TreeNode<Integer> root = new TreeNode<Integer>(0);
+		TreeNode<Integer> node = root;
+		for(int i = 1; i < depth; i++) {
+			TreeNode<Integer> child = new TreeNode<Integer>(i, node);
+			node.addChildNode(child);
+			node = child;
+		}
+
+		AtomicInteger count = new AtomicInteger(0);
+		Trees.walkTree(root, n -> count.incrementAndGet(), WalkOption.POST_ORDER_TRAVERSAL);
+
+		assertEquals(depth, count.get());
+
+	}
+
+	@Test
+	public void walkTreeParallelPostOrderVisitsChildrenFirst() throws TreeNodeVisitException {
+
+		Tree<Integer> tree = wideTree(4, 6);
+		Map<Integer,Integer> visitOrder = new ConcurrentHashMap<Integer,Integer>();
+		AtomicInteger sequence = new AtomicInteger(0);
+
+		Trees.walkTreeParallel(tree.getRootNode(), node -> {
+			assertTrue("visited twice: " + node.getData(), visitOrder.put(node.getData(), sequence.getAndIncrement()) == null);
+		}, WalkOption.POST_ORDER_TRAVERSAL, pool);
+
+		assertEquals(nodeCount(tree.getRootNode()), visitOrder.size());
+		assertChildrenVisitedFirst(tree.getRootNode(), visitOrder);
+
+	}
+
+	@Test
+	public void walkTreeParallelPreOrderVisitsParentFirst() throws TreeNodeVisitException {
+
+		Tree<Integer> tree = wideTree(4, 6);
+		Map<Integer,Integer> visitOrder = new ConcurrentHashMap<Integer,Integer>();
+		AtomicInteger sequence = new AtomicInteger(0);
+
+		Trees.walkTreeParallel(tree.getRootNode(), node -> {
+			assertTrue("visited twice: " + node.getData(), visitOrder.put(node.getData(), sequence.getAndIncrement()) == null);
+		}, WalkOption.PRE_ORDER_TRAVERSAL, pool);
+
+		assertEquals(nodeCount(tree.getRootNode()), visitOrder.size());
+		assertParentVisitedFirst(tree.getRootNode(), visitOrder);
+
+	}
+
+	@Test
+	public void walkTreeParallelRethrowsVisitorException() {
+
+		Tree<Integer> tree = wideTree(4, 5);
+		TreeNodeVisitException failure = new TreeNodeVisitException("failed on purpose");
+
+		try {
+			Trees.walkTreeParallel(tree.getRootNode(), node -> {
+				if(node.getData() == 50) {
+					throw failure;
+				}
+			}, WalkOption.POST_ORDER_TRAVERSAL, pool);
+			fail("Expected the visitor exception to be rethrown");
+		} catch (TreeNodeVisitException e) {
+			assertSame(failure, e);
+		}
+
+	}
+
+	@Test
+	public void nodeCountsByClass() throws TreeNodeVisitException {
+
+		TreeNode<Object> root = new TreeNode<Object>("root");
+		root.addChildNode(new TreeNode<Object>(1, root));
+		root.addChildNode(new TreeNode<Object>("child", root));
+		root.addChildNode(new TreeNode<Object>(2, root));
+
+		int[] counts = Trees.nodeCounts(new Tree<Object>(root), String.class, Integer.class);
+
+		assertEquals(2, counts[0]);
+		assertEquals(2, counts[1]);
+		assertEquals(Integer.valueOf(4), Trees.nodeCount(root));
+
+	}
+
+	/**
+	 * 1
+	 * +-- 2
+	 * |   +-- 3
+	 * |   +-- 4
+	 * +-- 5
+	 *     +-- 6
+	 */
+	private Tree<Integer> smallTree() {
+
+		TreeNode<Integer> root = new TreeNode<Integer>(1);
+		TreeNode<Integer> two = addChild(root, 2);
+		addChild(two, 3);
+		addChild(two, 4);
+		TreeNode<Integer> five = addChild(root, 5);
+		addChild(five, 6);
+		return new Tree<Integer>(root);
+
+	}
+
+	/**
+	 * Full tree where every node has 'width' children, 'depth' levels deep. Nodes are numbered top-down.
+	 */
+	private Tree<Integer> wideTree(int width, int depth) {
+
+		AtomicInteger nextId = new AtomicInteger(0);
+		TreeNode<Integer> root = new TreeNode<Integer>(nextId.getAndIncrement());
+		List<TreeNode<Integer>> level = new ArrayList<TreeNode<Integer>>();
+		level.add(root);
+		for(int d = 1; d < depth; d++) {
+			List<TreeNode<Integer>> nextLevel = new ArrayList<TreeNode<Integer>>();
+			for(TreeNode<Integer> parent : level) {
+				for(int w = 0; w < width; w++) {
+					nextLevel.add(addChild(parent, nextId.getAndIncrement()));
+				}
+			}
+			level = nextLevel;
+		}
+		return new Tree<Integer>(root);
+
+	}
+
+	private TreeNode<Integer> addChild(TreeNode<Integer> parent, int data) {
+		TreeNode<Integer> child = new TreeNode<Integer>(data, parent);
+		parent.addChildNode(child);
+		return child;
+	}
+
+	private int nodeCount(TreeNode<Integer> node) {
+		int count = 1;
+		if(node.hasChildren()) {
+			for(TreeNode<Integer> child : node.getChildren()) {
+				count += nodeCount(child);
+			}
+		}
+		return count;
+	}
+
+	private void assertChildrenVisitedFirst(TreeNode<Integer> node, Map<Integer,Integer> visitOrder) {
+		if(node.hasChildren()) {
+			for(TreeNode<Integer> child : node.getChildren()) {
+				assertTrue("node " + node.getData() + " visited before child " + child.getData(),
+						visitOrder.get(child.getData()) < visitOrder.get(node.getData()));
+				assertChildrenVisitedFirst(child, visitOrder);
+			}
+		}
+	}
+
+	private void assertParentVisitedFirst(TreeNode<Integer> node, Map<Integer,Integer> visitOrder) {
+		if(node.hasChildren()) {
+			for(TreeNode<Integer> child : node.getChildren()) {
+				assertTrue("child " + child.getData() + " visited before node " + node.getData(),
+						visitOrder.get(node.getData()) < visitOrder.get(child.getData()));
+				assertParentVisitedFirst(child, visitOrder);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.eamrf.eastore.web.dto.map;
+
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.A_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.B_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.C_TXT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.INHERIT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.LOCKED_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.PUBLIC_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.ROOT_ID;
+import static org.eamrf.eastore.core.service.tree.file.PathResourceTestData.ROOT_TXT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eamrf.eastore.core.service.tree.file.PathResourceCompactTree;
+import org.eamrf.eastore.core.service.tree.file.PathResourceTestData;
+import org.eamrf.eastore.web.dto.map.PathResourceTreeJsonWriter.Format;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.ResourceType;
+import org.eamrf.repository.jdbc.oracle.ecoguser.eastore.model.impl.Store.AccessRule;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for PathResourceTreeJsonWriter. The output is parsed back, and the nesting compared to the tree.
+ *
+ * @author slenzi
+ */
+public class PathResourceTreeJsonWriterTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Test
+	public void jsonNestsChildrenUnderParent() throws IOException {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+
+		JsonNode root = MAPPER.readTree(write(tree, Format.JSON, false));
+
+		assertEquals(ROOT_ID, root.get("nodeId").asLong());
+		assertFalse(root.has("parentNodeId"));
+		assertEquals(Arrays.asList(PUBLIC_ID, INHERIT_ID, ROOT_TXT_ID), childIds(root));
+
+		JsonNode publicDir = root.get("children").get(0);
+		assertEquals(Arrays.asList(A_TXT_ID, LOCKED_ID), childIds(publicDir));
+		assertEquals(ROOT_ID, publicDir.get("parentNodeId").asLong());
+
+		JsonNode locked = publicDir.get("children").get(1);
+		assertEquals(Arrays.asList(B_TXT_ID), childIds(locked));
+
+		JsonNode bTxt = locked.get("children").get(0);
+		assertEquals("FILE", bTxt.get("resourceType").asText());
+		assertEquals("/test/public/locked/b.txt", bTxt.get("relativePath").asText());
+		assertEquals(B_TXT_ID * 100L, bTxt.get("fileSize").asLong());
+		assertFalse(bTxt.has("children"));
+
+		JsonNode inherit = root.get("children").get(1);
+		assertEquals(Arrays.asList(C_TXT_ID), childIds(inherit));
+
+		JsonNode rootTxt = root.get("children").get(2);
+		assertFalse(rootTxt.has("children"));
+
+	}
+
+	@Test
+	public void readableOnlyLeavesOutSubtrees() throws IOException {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+		for(int i = 0; i < tree.size(); i++) {
+			tree.setCanRead(i, true);
+		}
+		tree.setCanRead(tree.indexOf(LOCKED_ID), false);
+		tree.setCanRead(tree.indexOf(C_TXT_ID), false);
+
+		JsonNode root = MAPPER.readTree(write(tree, Format.JSON, true));
+
+		assertEquals(Arrays.asList(PUBLIC_ID, INHERIT_ID, ROOT_TXT_ID), childIds(root));
+		assertEquals(Arrays.asList(A_TXT_ID), childIds(root.get("children").get(0)));
+		// a directory with no readable children is written without a children array
+		assertFalse(root.get("children").get(1).has("children"));
+
+	}
+
+	@Test
+	public void unreadableRootWritesNothing() throws IOException {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+
+		assertEquals("", write(tree, Format.JSON, true));
+		assertEquals("", write(tree, Format.NDJSON, true));
+
+	}
+
+	@Test
+	public void ndjsonWritesOneNodePerLineDepthFirst() throws IOException {
+
+		PathResourceCompactTree tree = PathResourceTestData.compactTree(PathResourceTestData.store(AccessRule.DENY));
+
+		String[] lines = write(tree, Format.NDJSON, false).split("\n");
+
+		List<Long> nodeIds = new ArrayList<Long>();
+		List<Integer> depths = new ArrayList<Integer>();
+		for(String line : lines) {
+			JsonNode node = MAPPER.readTree(line);
+			assertFalse(node.has("children"));
+			nodeIds.add(node.get("nodeId").asLong());
+			depths.add(node.get("depth").asInt());
+			if(node.get("depth").asInt() > 0) {
+				assertEquals(tree.getNodeId(tree.getParentIndex(tree.indexOf(node.get("nodeId").asLong()))), node.get("parentNodeId").asLong());
+			}
+		}
+
+		assertEquals(Arrays.asList(ROOT_ID, PUBLIC_ID, A_TXT_ID, LOCKED_ID, B_TXT_ID, INHERIT_ID, C_TXT_ID, ROOT_TXT_ID), nodeIds);
+		assertEquals(Arrays.asList(0, 1, 2, 2, 3, 1, 2, 1), depths);
+
+	}
+
+	@Test
+	public void deepTreeIsClosedCorrectly() throws IOException {
+
+		// a single chain of directories, each directory is closed on the way back up to the root
+		final int depth = 2000;
+		PathResourceCompactTree tree = new PathResourceCompactTree(PathResourceTestData.store(AccessRule.ALLOW), depth);
+		tree.add(1L, 0L, ResourceType.DIRECTORY, "d1", "/d1", null, null, null, null, null, null, 0L, null, false);
+		for(long nodeId = 2; nodeId <= depth; nodeId++) {
+			tree.add(nodeId, nodeId - 1, ResourceType.DIRECTORY, "d" + nodeId, null, null, null, null, null, null, null, 0L, null, false);
+		}
+
+		// too deep for a JsonNode, read it with the streaming parser
+		List<Long> nodeIds = new ArrayList<Long>();
+		int objectDepth = 0;
+		int maxObjectDepth = 0;
+		try(JsonParser parser = MAPPER.getFactory().createParser(write(tree, Format.JSON, false))) {
+			for(JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+				if(token == JsonToken.START_OBJECT) {
+					maxObjectDepth = Math.max(maxObjectDepth, ++objectDepth);
+				}else if(token == JsonToken.END_OBJECT) {
+					objectDepth--;
+				}else if(token == JsonToken.FIELD_NAME && "nodeId".equals(parser.getCurrentName())) {
+					nodeIds.add(parser.nextLongValue(-1L));
+				}
+			}
+		}
+
+		assertEquals(0, objectDepth);
+		assertEquals(depth, maxObjectDepth);
+		assertEquals(depth, nodeIds.size());
+		for(int i = 0; i < depth; i++) {
+			assertEquals(Long.valueOf(i + 1), nodeIds.get(i));
+		}
+
+	}
+
+	private String write(PathResourceCompactTree tree, Format format, boolean readableOnly) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PathResourceTreeJsonWriter(tree, format, readableOnly).write(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private List<Long> childIds(JsonNode node) {
+		List<Long> ids = new ArrayList<Long>();
+		if(node.has("children")) {
+			for(JsonNode child : node.get("children")) {
+				ids.add(child.get("nodeId").asLong());
+			}
+		}
+		return ids;
+	}
+
+}